@@ -7,4 +7,7 @@ CREATE TABLE grounds (id INTEGER PRIMARY KEY, blueprint_id INTEGER NOT NULL, har
 DROP TABLE IF EXISTS maps;
 CREATE TABLE maps (id INTEGER PRIMARY KEY, width INTEGER NOT NULL, height INTEGER NOT NULL, depth INTEGER NOT NULL);
 DROP TABLE IF EXISTS tiles;
-CREATE TABLE tiles (id INTEGER PRIMARY KEY, map_id INTEGER NOT NULL, ground_id INTEGER NOT NULL, room_id INTEGER NOT NULL, object_id INTEGER NOT NULL, x INTEGER NOT NULL, y INTEGER NOT NULL, z INTEGER NOT NULL, underground INTEGER NOT NULL, dug_out INTEGER NOT NULL, wall_n INTEGER NOT NULL, wall_e INTEGER NOT NULL, wall_s INTEGER NOT NULL, wall_w INTEGER NOT NULL, floor INTEGER NOT NULL);
\ No newline at end of file
+CREATE TABLE tiles (id INTEGER PRIMARY KEY, map_id INTEGER NOT NULL, ground_id INTEGER NOT NULL, room_id INTEGER NOT NULL, object_id INTEGER NOT NULL, x INTEGER NOT NULL, y INTEGER NOT NULL, z INTEGER NOT NULL, underground INTEGER NOT NULL, dug_out INTEGER NOT NULL, wall_n INTEGER NOT NULL, wall_e INTEGER NOT NULL, wall_s INTEGER NOT NULL, wall_w INTEGER NOT NULL, floor INTEGER NOT NULL);
+CREATE INDEX tiles_location ON tiles (map_id, z, x, y);
+DROP TABLE IF EXISTS level_data;
+CREATE TABLE level_data (map_id INTEGER NOT NULL, z INTEGER NOT NULL, data BLOB NOT NULL, PRIMARY KEY (map_id, z));
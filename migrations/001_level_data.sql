@@ -0,0 +1,2 @@
+// Levels saved as compressed blobs (TILE_FORMAT=LEVELS)
+CREATE TABLE IF NOT EXISTS level_data (map_id INTEGER NOT NULL, z INTEGER NOT NULL, data BLOB NOT NULL, PRIMARY KEY (map_id, z));
@@ -0,0 +1,2 @@
+// Tiles are read by map and by chunk of a level
+CREATE INDEX IF NOT EXISTS tiles_location ON tiles (map_id, z, x, y);
@@ -27,11 +27,12 @@ package magefortress.core;
 import java.util.EnumSet;
 
 /**
- * Directions in-game
+ * Directions in-game. {@link #UP UP} leads to the level above, which has a
+ * lower depth value, {@link #DOWN DOWN} to the level below.
  */
 public enum MFEDirection
 {
-  N, NE, E, SE, S, SW, W, NW;
+  N, NE, E, SE, S, SW, W, NW, UP, DOWN;
 
   public static EnumSet<MFEDirection> diagonals()
   {
@@ -40,11 +41,16 @@ public enum MFEDirection
 
   public static EnumSet<MFEDirection> straight()
   {
-    return EnumSet.complementOf(diagonals());
+    return EnumSet.of(N, E, S, W);
   }
 
   public static EnumSet<MFEDirection> plain()
   {
     return EnumSet.of(N, NE, E, SE, S, SW, W, NW);
   }
+
+  public static EnumSet<MFEDirection> vertical()
+  {
+    return EnumSet.of(UP, DOWN);
+  }
 }
@@ -26,24 +26,33 @@ package magefortress.core;
 
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import magefortress.channel.MFChannelFactory;
 import magefortress.channel.MFCommunicationChannel;
 import magefortress.creatures.MFCreature;
+import magefortress.creatures.MFCreatureIndex;
 import magefortress.creatures.behavior.instrumentable.MFEJob;
-import magefortress.creatures.behavior.movable.MFCapability;
 import magefortress.graphics.MFImageLibrary;
 import magefortress.gui.MFScreen;
 import magefortress.items.MFBlueprint;
 import magefortress.jobs.MFConstructionSite;
 import magefortress.jobs.MFIConstructionSiteListener;
 import magefortress.jobs.MFJobFactory;
+import magefortress.map.MFETileChange;
+import magefortress.map.MFIMapChangeVisitor;
 import magefortress.map.MFMap;
 import magefortress.map.MFNavigationMap;
 import magefortress.map.MFPathFinder;
@@ -71,7 +80,12 @@ public class MFGame implements MFIConstructionSiteListener
                                    MFBasicUnderground.getBasicUndergroundCorners());
     groundTypes.put(1, ground);
 
-    final MFMap map = MFMap.loadMap(_mapId, _daoFactory, groundTypes);
+    // the levels are loaded when they are shown or entered
+    final MFMap map = MFMap.loadMapByLevel(_mapId, _daoFactory, groundTypes);
+    map.setMemoryBudget(MAP_MEMORY_BUDGET);
+    if (_daoFactory.isThreadSafe()) {
+      map.setPrefetchExecutor(createPrefetchExecutor(_daoFactory));
+    }
     final MFGame result = new MFGame(map, _imgLib, _daoFactory);
     return result;
   }
@@ -99,25 +113,28 @@ public class MFGame implements MFIConstructionSiteListener
     this.channels = new LinkedList<MFCommunicationChannel>();
     initCommunicationChannels();
     this.creatures = new LinkedList<MFCreature>();
+    this.creatureIndex = new MFCreatureIndex();
     this.constructionSites = new LinkedList<MFConstructionSite>();
     this.garbageConstructionSites = new LinkedList<MFConstructionSite>();
     
+    this.navigableLevels = new boolean[_map.getDepth()];
     this.pathFinder = this.gameObjectFactory.createPathFinder();
     this.naviMap = this.gameObjectFactory.createNavigationMap();
+    this.naviMap.setClusterSize(NAVIGATION_CLUSTER_SIZE);
     initPathFinder();
+    this.mapChanges = this.map.openChangeCursor();
   }
 
   public void update()
   {
     removeMarkedConstructionSites();
-    if (mapDataChanged) {
-      this.initPathFinder();
-      this.mapDataChanged = false;
-    }
+    navigateLoadedLevels();
+    repairNavigationMap();
     processCommunicationChannels();
     processCreatures();
     processConstructionSites();
     processPathFinder();
+    this.map.update();
   }
 
   public void paint(Graphics2D _g, int _currentLevel, Rectangle _clippingRect)
@@ -188,6 +205,16 @@ public class MFGame implements MFIConstructionSiteListener
   public void addCreature(MFCreature _creature)
   {
     this.creatures.add(_creature);
+    this.creatureIndex.add(_creature);
+  }
+
+  /**
+   * Finds the creatures of this game by their location.
+   * @return The creature index
+   */
+  public MFCreatureIndex getCreatureIndex()
+  {
+    return this.creatureIndex;
   }
 
   //---vvv---     CONSTRUCTION SITE LISTENER INTERFACE      ---vvv---
@@ -233,7 +260,6 @@ public class MFGame implements MFIConstructionSiteListener
   public void constructionSiteFinished(MFConstructionSite _constructionSite)
   {
     this.removeConstructionSite(_constructionSite.getLocation());
-    this.mapDataChanged = true;
   }
   
   //---vvv---      PRIVATE METHODS      ---vvv---
@@ -245,6 +271,8 @@ public class MFGame implements MFIConstructionSiteListener
   private final List<MFCommunicationChannel> channels;
   /** Relevant creatures */
   private final List<MFCreature> creatures;
+  /** The relevant creatures by location */
+  private final MFCreatureIndex creatureIndex;
   /** Construction sites */
   private final List<MFConstructionSite> constructionSites;
   private final List<MFConstructionSite> garbageConstructionSites;
@@ -256,11 +284,20 @@ public class MFGame implements MFIConstructionSiteListener
   private final MFJobFactory jobFactory;
   /** Navigation map containing pathfinding information */
   private final MFNavigationMap naviMap;
+  /** The levels whose navigation data was calculated */
+  private final boolean[] navigableLevels;
   /** Holds a queue of path searches */
   private final MFPathFinder pathFinder;
 
-  private boolean mapDataChanged;
+  /** Cursor into the change journal of the map */
+  private final int mapChanges;
 
+  /** Edge length of the clusters repaired after tiles changed */
+  private static final int NAVIGATION_CLUSTER_SIZE = 16;
+  /** Bytes the loaded chunks of the map may use before cold ones are dropped */
+  private static final long MAP_MEMORY_BUDGET = 64L * 1024 * 1024;
+  /** How long the prefetching thread waits for the next level before it ends */
+  private static final long PREFETCH_IDLE_SECONDS = 30;
   /** The logger */
   private static final Logger logger = Logger.getLogger(MFGame.class.getName());
 
@@ -274,8 +311,81 @@ public class MFGame implements MFIConstructionSiteListener
 
   private final void initPathFinder()
   {
-    this.naviMap.updateClearanceValues(MFCapability.WALK);
+    this.naviMap.updateClearanceValues();
     this.naviMap.calculateAllLevels();
+    for (int depth = 0; depth < this.navigableLevels.length; ++depth) {
+      this.navigableLevels[depth] = this.map.isLevelLoaded(depth);
+    }
+  }
+
+  /**
+   * Calculates the navigation data of the levels loaded since the last
+   * update. Loaded levels above and below are recalculated as well, as
+   * their passages to the new level were left out before.
+   */
+  private void navigateLoadedLevels()
+  {
+    for (int depth = 0; depth < this.navigableLevels.length; ++depth) {
+      if (this.navigableLevels[depth] || !this.map.isLevelLoaded(depth)) {
+        continue;
+      }
+      this.navigableLevels[depth] = true;
+      this.naviMap.updateLevelClearanceValues(depth);
+      this.naviMap.calculateLevel(depth);
+      for (int neighbor = depth - 1; neighbor <= depth + 1; neighbor += 2) {
+        if (neighbor >= 0 && neighbor < this.navigableLevels.length &&
+            this.navigableLevels[neighbor]) {
+          this.naviMap.calculateLevel(neighbor);
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates the executor reading levels ahead. Its thread doesn't keep the
+   * application alive and ends when it's idle, closing its connection.
+   */
+  private static ExecutorService createPrefetchExecutor(MFDaoFactory _daoFactory)
+  {
+    final ThreadPoolExecutor result = new ThreadPoolExecutor(1, 1,
+            PREFETCH_IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            _daoFactory.getThreadFactory("Level prefetcher"));
+    result.allowCoreThreadTimeOut(true);
+    return result;
+  }
+
+  /**
+   * Recalculates the navigation data of the clusters changed since the last
+   * update. Clearance values reach across cluster borders, so they are
+   * renewed for the whole level.
+   */
+  private void repairNavigationMap()
+  {
+    if (!this.map.hasChanges(this.mapChanges)) {
+      return;
+    }
+    final SortedSet<Integer> changedLevels = new TreeSet<Integer>();
+    final List<MFLocation> changedLocations = new ArrayList<MFLocation>();
+    final int mapDepth = this.map.getDepth();
+    this.map.readChanges(this.mapChanges, new MFIMapChangeVisitor() {
+      @Override
+      public void tileChanged(int _x, int _y, int _z, MFETileChange _change, int _tick)
+      {
+        if (_change.affectsNavigation()) {
+          changedLevels.add(_z);
+          changedLocations.add(new MFLocation(_x, _y, _z));
+        }
+        // a passage leads to the tile below as well
+        if (_change == MFETileChange.VERTICAL_PASSAGE && _z + 1 < mapDepth) {
+          changedLevels.add(_z + 1);
+          changedLocations.add(new MFLocation(_x, _y, _z + 1));
+        }
+      }
+    });
+    for (int depth : changedLevels) {
+      this.naviMap.updateLevelClearanceValues(depth);
+    }
+    this.naviMap.calculateClusters(changedLocations);
   }
 
   private void processCommunicationChannels()
@@ -308,13 +418,8 @@ public class MFGame implements MFIConstructionSiteListener
   private void paintCreatures(int _currentLevel, MFLocation _start,
                         MFLocation _end, Graphics2D _g, Rectangle _clippingRect)
   {
-    for (MFCreature creature : this.creatures) {
-      MFLocation location = creature.getLocation();
-      if (location.z == _currentLevel && 
-          _start.x <= location.x && location.x <= _end.x &&
-          _start.y <= location.y && location.y <= _end.y) {
-        creature.paint(_g, _clippingRect.x, _clippingRect.y);
-      }
+    for (MFCreature creature : this.creatureIndex.findInArea(_currentLevel, _start, _end)) {
+      creature.paint(_g, _clippingRect.x, _clippingRect.y);
     }
   }
 
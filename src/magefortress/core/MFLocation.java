@@ -63,7 +63,9 @@ public class MFLocation
   }
 
   /**
-   * Calculates the direction of one location to another one a plain.
+   * Calculates the direction of one location to another one a plain. If the
+   * other location lies straight above or below this one, the direction is
+   * {@link MFEDirection#UP UP} or {@link MFEDirection#DOWN DOWN}.
    * @param _other the location to get the direction to
    * @return which way to go to reach the other location. Returns <code>null</code>
    * if the other location is the same as this location or nowhere.
@@ -104,6 +106,10 @@ public class MFLocation
       result = MFEDirection.W;
     } else if (horizontal < 0 && vertical < 0) {
       result = MFEDirection.NW;
+    } else if (_other.z < this.z) {
+      result = MFEDirection.UP;
+    } else if (_other.z > this.z) {
+      result = MFEDirection.DOWN;
     }
 
     return result;
@@ -123,6 +129,8 @@ public class MFLocation
       case S : yDiff= 1; break;
       case NW: yDiff=-1;
       case W : xDiff=-1; break;
+      case UP  : zDiff=-1; break;
+      case DOWN: zDiff= 1; break;
     }
 
     MFLocation result = new MFLocation(x+xDiff, y+yDiff, z+zDiff);
@@ -0,0 +1,243 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A hash map with primitive <code>long</code> keys, e.g.
+ * {@link MFPackedLocation packed locations}. Avoids boxing the keys and
+ * creating an entry per mapping. Uses open addressing with linear probing.
+ * <code>null</code> values are not supported.
+ * @param <V> the type of the values
+ */
+public final class MFLongHashMap<V>
+{
+  public MFLongHashMap()
+  {
+    this(DEFAULT_EXPECTED_SIZE);
+  }
+
+  /**
+   * Constructor
+   * @param _expectedSize the number of mappings that fit without growing
+   */
+  public MFLongHashMap(int _expectedSize)
+  {
+    if (_expectedSize < 0) {
+      String msg = "LongHashMap: Expected size must not be negative. Got: " + _expectedSize;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    int capacity = MIN_CAPACITY;
+    while (capacity < 2 * _expectedSize) {
+      capacity <<= 1;
+    }
+    this.allocate(capacity);
+  }
+
+  public int size()
+  {
+    return this.size;
+  }
+
+  public boolean isEmpty()
+  {
+    return this.size == 0;
+  }
+
+  public boolean containsKey(long _key)
+  {
+    return this.values[this.indexOf(_key)] != null;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(long _key)
+  {
+    return (V) this.values[this.indexOf(_key)];
+  }
+
+  /**
+   * Maps a key to a value.
+   * @param _key the key
+   * @param _value the value
+   * @return the value previously mapped to the key or <code>null</code>
+   */
+  @SuppressWarnings("unchecked")
+  public V put(long _key, V _value)
+  {
+    if (_value == null) {
+      String msg = "LongHashMap: Cannot map " + _key + " to null.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    final int index = this.indexOf(_key);
+    final V previous = (V) this.values[index];
+    this.keys[index] = _key;
+    this.values[index] = _value;
+    if (previous == null && ++this.size > this.keys.length / 2) {
+      this.rehash(this.keys.length << 1);
+    }
+    return previous;
+  }
+
+  public void putAll(MFLongHashMap<? extends V> _other)
+  {
+    for (int i = 0; i < _other.keys.length; ++i) {
+      if (_other.values[i] != null) {
+        this.put(_other.keys[i], _other.<V>valueAt(i));
+      }
+    }
+  }
+
+  /**
+   * Removes the mapping of a key.
+   * @param _key the key
+   * @return the removed value or <code>null</code> if the key wasn't mapped
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(long _key)
+  {
+    int gap = this.indexOf(_key);
+    final V previous = (V) this.values[gap];
+    if (previous == null) {
+      return null;
+    }
+    this.values[gap] = null;
+    --this.size;
+
+    // move following entries of the cluster up so that lookups still find them
+    final int mask = this.keys.length - 1;
+    for (int i = (gap + 1) & mask; this.values[i] != null; i = (i + 1) & mask) {
+      final int home = this.slotOf(this.keys[i]);
+      if (((i - home) & mask) >= ((i - gap) & mask)) {
+        this.keys[gap] = this.keys[i];
+        this.values[gap] = this.values[i];
+        this.values[i] = null;
+        gap = i;
+      }
+    }
+    return previous;
+  }
+
+  public void clear()
+  {
+    for (int i = 0; i < this.values.length; ++i) {
+      this.values[i] = null;
+    }
+    this.size = 0;
+  }
+
+  /**
+   * Gets all keys. Changes of the map don't affect the returned array.
+   * @return the keys in no particular order
+   */
+  public long[] keys()
+  {
+    final long[] result = new long[this.size];
+    int next = 0;
+    for (int i = 0; i < this.keys.length; ++i) {
+      if (this.values[i] != null) {
+        result[next++] = this.keys[i];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Gets all values. Changes of the map don't affect the returned list.
+   * @return the values in the same order as {@link #keys()}
+   */
+  public List<V> values()
+  {
+    final List<V> result = new ArrayList<V>(this.size);
+    for (int i = 0; i < this.keys.length; ++i) {
+      if (this.values[i] != null) {
+        result.add(this.<V>valueAt(i));
+      }
+    }
+    return result;
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFLongHashMap.class.getName());
+  private static final int DEFAULT_EXPECTED_SIZE = 16;
+  private static final int MIN_CAPACITY = 8;
+  /** 2^64 divided by the golden ratio, spreads sequential keys */
+  private static final long SPREAD = 0x9E3779B97F4A7C15L;
+  private long[] keys;
+  /** <code>null</code> marks free slots */
+  private Object[] values;
+  private int size;
+  /** Number of bits needed to address a slot */
+  private int indexBits;
+
+  private void allocate(int _capacity)
+  {
+    this.keys = new long[_capacity];
+    this.values = new Object[_capacity];
+    this.indexBits = Integer.numberOfTrailingZeros(_capacity);
+  }
+
+  private int slotOf(long _key)
+  {
+    return (int) ((_key * SPREAD) >>> (64 - this.indexBits));
+  }
+
+  /**
+   * Finds the slot of a key or the free slot where it would be inserted.
+   */
+  private int indexOf(long _key)
+  {
+    final int mask = this.keys.length - 1;
+    int index = this.slotOf(_key);
+    while (this.values[index] != null && this.keys[index] != _key) {
+      index = (index + 1) & mask;
+    }
+    return index;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T valueAt(int _index)
+  {
+    return (T) this.values[_index];
+  }
+
+  private void rehash(int _capacity)
+  {
+    final long[] oldKeys = this.keys;
+    final Object[] oldValues = this.values;
+    this.allocate(_capacity);
+    for (int i = 0; i < oldKeys.length; ++i) {
+      if (oldValues[i] != null) {
+        final int index = this.indexOf(oldKeys[i]);
+        this.keys[index] = oldKeys[i];
+        this.values[index] = oldValues[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.core;
+
+/**
+ * Packs a 3-dimensional position into a single <code>long</code>. Used
+ * instead of {@link MFLocation} in loops that would otherwise create many
+ * short-lived locations, e.g. as keys of the search lists of path finders.
+ * <p>
+ * Each coordinate takes 21 bits, so coordinates between -1048576 and 1048575
+ * can be packed. Packed locations are equal exactly if their coordinates are.
+ */
+public final class MFPackedLocation
+{
+  /** The packed equivalent of {@link MFLocation#NOWHERE} */
+  public static final long NOWHERE = pack(-1, -1, -1);
+
+  public static long pack(int _x, int _y, int _z)
+  {
+    return (_x & MASK) | ((_y & MASK) << BITS) | ((_z & MASK) << (2 * BITS));
+  }
+
+  public static long pack(MFLocation _location)
+  {
+    return pack(_location.x, _location.y, _location.z);
+  }
+
+  public static MFLocation unpack(long _location)
+  {
+    return new MFLocation(getX(_location), getY(_location), getZ(_location));
+  }
+
+  public static int getX(long _location)
+  {
+    return (int) ((_location << (64 - BITS)) >> (64 - BITS));
+  }
+
+  public static int getY(long _location)
+  {
+    return (int) ((_location << (64 - 2 * BITS)) >> (64 - BITS));
+  }
+
+  public static int getZ(long _location)
+  {
+    return (int) ((_location << (64 - 3 * BITS)) >> (64 - BITS));
+  }
+
+  /**
+   * Gets the adjacent location in a direction.
+   * @param _location the packed location to look from
+   * @param _direction the direction
+   * @return the packed neighbor
+   */
+  @SuppressWarnings("fallthrough")
+  public static long neighbor(long _location, MFEDirection _direction)
+  {
+    int xDiff=0, yDiff=0, zDiff=0;
+
+    switch (_direction) {
+      case NE: xDiff= 1;
+      case N : yDiff=-1; break;
+      case SE: yDiff= 1;
+      case E : xDiff= 1; break;
+      case SW: xDiff=-1;
+      case S : yDiff= 1; break;
+      case NW: yDiff=-1;
+      case W : xDiff=-1; break;
+      case UP  : zDiff=-1; break;
+      case DOWN: zDiff= 1; break;
+    }
+
+    return pack(getX(_location) + xDiff, getY(_location) + yDiff,
+                getZ(_location) + zDiff);
+  }
+
+  /**
+   * Calculates the direction of one location to another one. Same as
+   * {@link MFLocation#directionOf(MFLocation)}.
+   * @param _from the packed location to look from
+   * @param _to the packed location to get the direction to
+   * @return which way to go or <code>null</code> if both locations are the
+   *         same or one of them is nowhere
+   */
+  public static MFEDirection directionOf(long _from, long _to)
+  {
+    if (_from == _to || _from == NOWHERE || _to == NOWHERE) {
+      return null;
+    }
+
+    final int vertical   = getY(_to) - getY(_from);
+    final int horizontal = getX(_to) - getX(_from);
+
+    if (vertical < 0) {
+      return (horizontal < 0 ? MFEDirection.NW :
+              horizontal > 0 ? MFEDirection.NE : MFEDirection.N);
+    } else if (vertical > 0) {
+      return (horizontal < 0 ? MFEDirection.SW :
+              horizontal > 0 ? MFEDirection.SE : MFEDirection.S);
+    } else if (horizontal != 0) {
+      return (horizontal < 0 ? MFEDirection.W : MFEDirection.E);
+    }
+    return (getZ(_to) < getZ(_from) ? MFEDirection.UP : MFEDirection.DOWN);
+  }
+
+  /**
+   * Counts the steps between two locations if diagonal steps are allowed.
+   * Same as {@link MFLocation#distanceTo(MFLocation)}.
+   * @return the distance
+   */
+  public static int distance(long _from, long _to)
+  {
+    final int xDistance = Math.abs(getX(_from) - getX(_to));
+    final int yDistance = Math.abs(getY(_from) - getY(_to));
+    final int zDistance = Math.abs(getZ(_from) - getZ(_to));
+    return Math.max(Math.max(xDistance, yDistance), zDistance);
+  }
+
+  public static boolean isNeighbor(long _from, long _to)
+  {
+    return _from != NOWHERE && _to != NOWHERE && distance(_from, _to) == 1;
+  }
+
+  public static String toString(long _location)
+  {
+    return "" + getX(_location) + "/" + getY(_location) + "/" + getZ(_location);
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  /** Bits per coordinate */
+  private static final int BITS = 21;
+  private static final long MASK = (1L << BITS) - 1;
+
+  private MFPackedLocation()
+  {
+  }
+}
@@ -0,0 +1,410 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A uniform grid of square cells per level holding values at
+ * {@link MFPackedLocation packed locations}. Only cells holding values are
+ * allocated. Distances are counted like {@link MFPackedLocation#distance}.
+ * <p>
+ * Values are compared by identity and may be added several times at
+ * different locations.
+ * @param <T> the type of the values
+ */
+public final class MFSpatialGrid<T>
+{
+  /**
+   * Constructor
+   * @param _cellSize the edge length of a cell in tiles
+   */
+  public MFSpatialGrid(int _cellSize)
+  {
+    if (_cellSize < 1) {
+      String msg = "SpatialGrid: Cell size must be positive. Got: " + _cellSize;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.cellSize = _cellSize;
+    this.cells = new MFLongHashMap<Cell>();
+  }
+
+  public int size()
+  {
+    return this.size;
+  }
+
+  public boolean isEmpty()
+  {
+    return this.size == 0;
+  }
+
+  /**
+   * Adds a value at a location.
+   * @param _location the packed location
+   * @param _value the value, not <code>null</code>
+   */
+  public void add(long _location, T _value)
+  {
+    if (_value == null) {
+      String msg = "SpatialGrid: Cannot add null value.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    final long key = this.cellOf(_location);
+    Cell cell = this.cells.get(key);
+    if (cell == null) {
+      cell = new Cell();
+      this.cells.put(key, cell);
+      this.minCellX = Math.min(this.minCellX, MFPackedLocation.getX(key));
+      this.maxCellX = Math.max(this.maxCellX, MFPackedLocation.getX(key));
+      this.minCellY = Math.min(this.minCellY, MFPackedLocation.getY(key));
+      this.maxCellY = Math.max(this.maxCellY, MFPackedLocation.getY(key));
+      this.minZ = Math.min(this.minZ, MFPackedLocation.getZ(key));
+      this.maxZ = Math.max(this.maxZ, MFPackedLocation.getZ(key));
+    }
+    cell.add(_location, _value);
+    ++this.size;
+  }
+
+  /**
+   * Removes a value from a location.
+   * @param _location the packed location the value was added at
+   * @param _value the value
+   * @return <code>false</code> if the value wasn't found at the location
+   */
+  public boolean remove(long _location, T _value)
+  {
+    final long key = this.cellOf(_location);
+    final Cell cell = this.cells.get(key);
+    if (cell == null || !cell.remove(_location, _value)) {
+      return false;
+    }
+    --this.size;
+    if (cell.size == 0) {
+      this.cells.remove(key);
+    }
+    return true;
+  }
+
+  /**
+   * Moves a value to another location. Cheap if both lie in the same cell.
+   * @param _from the packed location the value was added at
+   * @param _to the new packed location
+   * @param _value the value
+   * @return <code>false</code> if the value wasn't found at the old location
+   */
+  public boolean move(long _from, long _to, T _value)
+  {
+    if (this.cellOf(_from) == this.cellOf(_to)) {
+      final Cell cell = this.cells.get(this.cellOf(_from));
+      return cell != null && cell.relocate(_from, _to, _value);
+    }
+    if (!this.remove(_from, _value)) {
+      return false;
+    }
+    this.add(_to, _value);
+    return true;
+  }
+
+  /**
+   * Finds the values within a distance of a location.
+   * @param _center the packed location to search around
+   * @param _range the maximum distance
+   * @return the values in no particular order
+   */
+  public List<T> findInRange(long _center, int _range)
+  {
+    final List<T> result = new ArrayList<T>();
+    final int x = MFPackedLocation.getX(_center);
+    final int y = MFPackedLocation.getY(_center);
+    final int z = MFPackedLocation.getZ(_center);
+    for (int level = Math.max(z - _range, this.minZ); level <= Math.min(z + _range, this.maxZ); ++level) {
+      this.collect(level, x - _range, y - _range, x + _range, y + _range, result);
+    }
+    return result;
+  }
+
+  /**
+   * Finds the values inside a rectangle of a level, e.g. the visible part
+   * of the map.
+   * @return the values in no particular order
+   */
+  public List<T> findInArea(int _z, int _startX, int _startY, int _endX, int _endY)
+  {
+    final List<T> result = new ArrayList<T>();
+    this.collect(_z, _startX, _startY, _endX, _endY, result);
+    return result;
+  }
+
+  /**
+   * Finds the values closest to a location.
+   * @param _location the packed location to search from
+   * @param _count the maximum number of values to find
+   * @return the values, nearest first
+   */
+  @SuppressWarnings("unchecked")
+  public List<T> findNearest(long _location, int _count)
+  {
+    final Candidates candidates = this.searchNearest(_location, _count);
+    final List<T> result = new ArrayList<T>(candidates.size);
+    for (int i = 0; i < candidates.size; ++i) {
+      result.add((T) candidates.values[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Finds the locations of the values closest to a location.
+   * @param _location the packed location to search from
+   * @param _count the maximum number of values to find
+   * @return the packed locations of the values, nearest first
+   */
+  public long[] findNearestLocations(long _location, int _count)
+  {
+    final Candidates candidates = this.searchNearest(_location, _count);
+    return Arrays.copyOf(candidates.locations, candidates.size);
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFSpatialGrid.class.getName());
+  private final int cellSize;
+  /** The non-empty cells by their packed cell coordinates */
+  private final MFLongHashMap<Cell> cells;
+  private int size;
+  /** Bounds of the cells ever used, limit the searches */
+  private int minCellX = Integer.MAX_VALUE, maxCellX = Integer.MIN_VALUE;
+  private int minCellY = Integer.MAX_VALUE, maxCellY = Integer.MIN_VALUE;
+  private int minZ = Integer.MAX_VALUE, maxZ = Integer.MIN_VALUE;
+
+  /**
+   * Gets the cell coordinate of a tile coordinate, rounding down for
+   * negative coordinates as well.
+   */
+  private int cellIndex(int _coordinate)
+  {
+    if (_coordinate >= 0) {
+      return _coordinate / this.cellSize;
+    }
+    return -((-_coordinate + this.cellSize - 1) / this.cellSize);
+  }
+
+  private long cellOf(long _location)
+  {
+    return MFPackedLocation.pack(this.cellIndex(MFPackedLocation.getX(_location)),
+                                 this.cellIndex(MFPackedLocation.getY(_location)),
+                                 MFPackedLocation.getZ(_location));
+  }
+
+  /**
+   * Adds the values inside a rectangle of a level to a list.
+   */
+  @SuppressWarnings("unchecked")
+  private void collect(int _z, int _startX, int _startY, int _endX, int _endY,
+                       List<T> _result)
+  {
+    final int startCellX = Math.max(this.cellIndex(_startX), this.minCellX);
+    final int endCellX = Math.min(this.cellIndex(_endX), this.maxCellX);
+    final int startCellY = Math.max(this.cellIndex(_startY), this.minCellY);
+    final int endCellY = Math.min(this.cellIndex(_endY), this.maxCellY);
+    for (int cellX = startCellX; cellX <= endCellX; ++cellX) {
+      for (int cellY = startCellY; cellY <= endCellY; ++cellY) {
+        final Cell cell = this.cells.get(MFPackedLocation.pack(cellX, cellY, _z));
+        if (cell == null) {
+          continue;
+        }
+        for (int i = 0; i < cell.size; ++i) {
+          final int x = MFPackedLocation.getX(cell.locations[i]);
+          final int y = MFPackedLocation.getY(cell.locations[i]);
+          if (_startX <= x && x <= _endX && _startY <= y && y <= _endY) {
+            _result.add((T) cell.values[i]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Searches cubes of growing radius around the location. After a cube is
+   * searched, every value not seen yet is farther away than its radius.
+   * @return the nearest values, sorted by distance
+   */
+  private Candidates searchNearest(long _location, int _count)
+  {
+    final int count = Math.max(0, Math.min(_count, this.size));
+    final Candidates found = new Candidates();
+    if (count == 0) {
+      return found;
+    }
+    final int x = MFPackedLocation.getX(_location);
+    final int y = MFPackedLocation.getY(_location);
+    final int z = MFPackedLocation.getZ(_location);
+    int radius = 0;
+    int lastRadius = -1;
+    while (found.size < this.size) {
+      final int startX = Math.max(this.cellIndex(x - radius), this.minCellX);
+      final int endX   = Math.min(this.cellIndex(x + radius), this.maxCellX);
+      final int startY = Math.max(this.cellIndex(y - radius), this.minCellY);
+      final int endY   = Math.min(this.cellIndex(y + radius), this.maxCellY);
+      final int startZ = Math.max(z - radius, this.minZ);
+      final int endZ   = Math.min(z + radius, this.maxZ);
+      for (int cellX = startX; cellX <= endX; ++cellX) {
+        for (int cellY = startY; cellY <= endY; ++cellY) {
+          for (int level = startZ; level <= endZ; ++level) {
+            if (lastRadius >= 0 &&
+                cellX >= this.cellIndex(x - lastRadius) && cellX <= this.cellIndex(x + lastRadius) &&
+                cellY >= this.cellIndex(y - lastRadius) && cellY <= this.cellIndex(y + lastRadius) &&
+                level >= z - lastRadius && level <= z + lastRadius) {
+              // visited during the last round
+              continue;
+            }
+            final Cell cell = this.cells.get(MFPackedLocation.pack(cellX, cellY, level));
+            if (cell != null) {
+              for (int i = 0; i < cell.size; ++i) {
+                found.add(cell.locations[i], cell.values[i]);
+              }
+            }
+          }
+        }
+      }
+      int nearEnough = 0;
+      for (int i = 0; i < found.size; ++i) {
+        if (MFPackedLocation.distance(_location, found.locations[i]) <= radius) {
+          ++nearEnough;
+        }
+      }
+      if (nearEnough >= count) {
+        break;
+      }
+      lastRadius = radius;
+      radius = (radius == 0 ? this.cellSize : radius * 2);
+    }
+    found.sortByDistance(_location, count);
+    return found;
+  }
+
+  /**
+   * The values inside a cell and their locations.
+   */
+  private static final class Cell
+  {
+    long[] locations = new long[4];
+    Object[] values = new Object[4];
+    int size;
+
+    void add(long _location, Object _value)
+    {
+      if (this.size == this.locations.length) {
+        this.locations = Arrays.copyOf(this.locations, this.size * 2);
+        this.values = Arrays.copyOf(this.values, this.size * 2);
+      }
+      this.locations[this.size] = _location;
+      this.values[this.size] = _value;
+      ++this.size;
+    }
+
+    boolean remove(long _location, Object _value)
+    {
+      final int index = this.indexOf(_location, _value);
+      if (index < 0) {
+        return false;
+      }
+      --this.size;
+      this.locations[index] = this.locations[this.size];
+      this.values[index] = this.values[this.size];
+      this.values[this.size] = null;
+      return true;
+    }
+
+    boolean relocate(long _from, long _to, Object _value)
+    {
+      final int index = this.indexOf(_from, _value);
+      if (index < 0) {
+        return false;
+      }
+      this.locations[index] = _to;
+      return true;
+    }
+
+    private int indexOf(long _location, Object _value)
+    {
+      for (int i = 0; i < this.size; ++i) {
+        if (this.values[i] == _value && this.locations[i] == _location) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * The values found by a search.
+   */
+  private static final class Candidates
+  {
+    long[] locations = new long[16];
+    Object[] values = new Object[16];
+    int size;
+
+    void add(long _location, Object _value)
+    {
+      if (this.size == this.locations.length) {
+        this.locations = Arrays.copyOf(this.locations, this.size * 2);
+        this.values = Arrays.copyOf(this.values, this.size * 2);
+      }
+      this.locations[this.size] = _location;
+      this.values[this.size] = _value;
+      ++this.size;
+    }
+
+    /**
+     * Sorts the candidates by their distance to a location and keeps the
+     * nearest ones.
+     */
+    void sortByDistance(long _location, int _count)
+    {
+      // distance in the upper, index in the lower half
+      final long[] keys = new long[this.size];
+      for (int i = 0; i < this.size; ++i) {
+        keys[i] = ((long) MFPackedLocation.distance(_location, this.locations[i]) << 32) | i;
+      }
+      Arrays.sort(keys);
+      final long[] sortedLocations = new long[_count];
+      final Object[] sortedValues = new Object[_count];
+      for (int i = 0; i < _count; ++i) {
+        final int index = (int) keys[i];
+        sortedLocations[i] = this.locations[index];
+        sortedValues[i] = this.values[index];
+      }
+      this.locations = sortedLocations;
+      this.values = sortedValues;
+      this.size = _count;
+    }
+  }
+}
@@ -147,6 +147,9 @@ public class MageFortress extends JFrame implements Runnable
     Properties props = new Properties();
     props.setProperty("STORAGE", STORAGE.toString());
     props.setProperty("DATABASE", DATABASE);
+    props.setProperty("DATABASE_PROFILE", MFDaoFactory.DatabaseProfile.TUNED.toString());
+    // levels are prefetched on a background thread
+    props.setProperty("DATABASE_THREAD_SAFE", "true");
     MFDaoFactory daoFactory = new MFDaoFactory(props);
 
     //MFMap demomap = MFMap.createRandomMap(30, 30, 1);
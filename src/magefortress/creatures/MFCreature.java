@@ -31,6 +31,7 @@ import magefortress.channel.MFIChannelSubscriber;
 import magefortress.core.MFEDirection;
 import magefortress.items.MFItem;
 import magefortress.core.MFLocation;
+import magefortress.core.MFPackedLocation;
 import magefortress.creatures.behavior.instrumentable.MFTool;
 import magefortress.creatures.behavior.instrumentable.MFEJob;
 import magefortress.creatures.behavior.instrumentable.MFEToolLevel;
@@ -136,6 +137,7 @@ public class MFCreature implements MFIMovable, MFIHoldable, MFIPaintable, MFIIns
     }
     // TODO make a copy of moving behavior - impossible?
     this.moveBehavior = _moveBehavior;
+    this.updateIndex();
   }
 
   public MFIMovable getMovingBehavior()
@@ -230,6 +232,7 @@ public class MFCreature implements MFIMovable, MFIHoldable, MFIPaintable, MFIIns
   public void move(MFEDirection _direction)
   {
     this.moveBehavior.move(_direction);
+    this.updateIndex();
   }
 
   @Override
@@ -272,6 +275,7 @@ public class MFCreature implements MFIMovable, MFIHoldable, MFIPaintable, MFIIns
   public void setLocation(MFLocation _location)
   {
     this.moveBehavior.setLocation(_location);
+    this.updateIndex();
   }
 
   //---vvv---     HOLDABLE INTERFACE    ---vvv---
@@ -384,6 +388,27 @@ public class MFCreature implements MFIMovable, MFIHoldable, MFIPaintable, MFIIns
     this.drawingBehavior.paint(_g, x, y);
   }
 
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+  MFCreatureIndex getIndex()
+  {
+    return this.index;
+  }
+
+  /**
+   * Gets the location this creature is filed under in its index.
+   * @return the packed location or {@link MFPackedLocation#NOWHERE}
+   */
+  long getIndexedLocation()
+  {
+    return this.indexedLocation;
+  }
+
+  void setIndex(MFCreatureIndex _index, long _indexedLocation)
+  {
+    this.index = _index;
+    this.indexedLocation = _indexedLocation;
+  }
+
   //---vvv---      PRIVATE METHODS      ---vvv---
   private static final Logger logger = Logger.getLogger(MFCreature.class.getName());
   private static final MFIMovable NULL_MOVABLE = new MFNullMovable();
@@ -402,5 +427,14 @@ public class MFCreature implements MFIMovable, MFIHoldable, MFIPaintable, MFIIns
   private MFIPaintable drawingBehavior;
   private MFIInstrumentable toolUsingBehavior;
   private MFJobQueue jobQueue;
+  /** The index keeping track of this creature's location */
+  private MFCreatureIndex index;
+  private long indexedLocation = MFPackedLocation.NOWHERE;
 
+  private void updateIndex()
+  {
+    if (this.index != null) {
+      this.index.update(this);
+    }
+  }
 }
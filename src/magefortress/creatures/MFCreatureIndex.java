@@ -0,0 +1,159 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.creatures;
+
+import java.util.List;
+import java.util.logging.Logger;
+import magefortress.core.MFLocation;
+import magefortress.core.MFPackedLocation;
+import magefortress.core.MFSpatialGrid;
+
+/**
+ * Finds creatures by their location. Creatures added to the index keep it up
+ * to date whenever they move, so each step only costs a cell lookup.
+ * Creatures without location, i.e. at {@link MFLocation#NOWHERE}, are
+ * kept out of the grid until they are placed on the map.
+ */
+public class MFCreatureIndex
+{
+  /** Edge length of a grid cell in tiles */
+  public static final int CELL_SIZE = 16;
+
+  public MFCreatureIndex()
+  {
+    this.grid = new MFSpatialGrid<MFCreature>(CELL_SIZE);
+  }
+
+  /**
+   * Adds a creature to the index. A creature can be part of one index only.
+   * @param _creature the creature to add
+   */
+  public void add(MFCreature _creature)
+  {
+    if (_creature == null) {
+      String msg = "CreatureIndex: Cannot add null creature.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    if (_creature.getIndex() != null) {
+      String msg = "CreatureIndex: Creature '" + _creature.getName() +
+                   "' is already indexed.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    _creature.setIndex(this, MFPackedLocation.NOWHERE);
+    this.update(_creature);
+  }
+
+  /**
+   * Removes a creature from the index.
+   * @param _creature the creature to remove
+   * @return <code>false</code> if the creature wasn't part of this index
+   */
+  public boolean remove(MFCreature _creature)
+  {
+    if (_creature == null || _creature.getIndex() != this) {
+      return false;
+    }
+    final long indexed = _creature.getIndexedLocation();
+    if (indexed != MFPackedLocation.NOWHERE) {
+      this.grid.remove(indexed, _creature);
+    }
+    _creature.setIndex(null, MFPackedLocation.NOWHERE);
+    return true;
+  }
+
+  /**
+   * Counts the creatures placed on the map.
+   * @return the number of creatures with a location
+   */
+  public int size()
+  {
+    return this.grid.size();
+  }
+
+  /**
+   * Finds the creatures within a distance of a location.
+   * @param _location the location to search around
+   * @param _range the maximum distance
+   * @return the creatures in no particular order
+   */
+  public List<MFCreature> findInRange(MFLocation _location, int _range)
+  {
+    return this.grid.findInRange(MFPackedLocation.pack(_location), _range);
+  }
+
+  /**
+   * Finds the creatures closest to a location.
+   * @param _location the location to search from
+   * @param _count the maximum number of creatures to find
+   * @return the creatures, nearest first
+   */
+  public List<MFCreature> findNearest(MFLocation _location, int _count)
+  {
+    return this.grid.findNearest(MFPackedLocation.pack(_location), _count);
+  }
+
+  /**
+   * Finds the creatures inside a rectangle of a level, e.g. the visible
+   * part of the map.
+   * @param _level the level
+   * @param _start the upper left corner
+   * @param _end the lower right corner
+   * @return the creatures in no particular order
+   */
+  public List<MFCreature> findInArea(int _level, MFLocation _start, MFLocation _end)
+  {
+    return this.grid.findInArea(_level, _start.x, _start.y, _end.x, _end.y);
+  }
+
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+  /**
+   * Moves the creature to its current location inside the index.
+   * @param _creature an indexed creature
+   */
+  void update(MFCreature _creature)
+  {
+    final long indexed = _creature.getIndexedLocation();
+    final MFLocation location = _creature.getLocation();
+    final long current = (location == null ? MFPackedLocation.NOWHERE :
+                                             MFPackedLocation.pack(location));
+    if (current == indexed) {
+      return;
+    }
+    if (indexed == MFPackedLocation.NOWHERE) {
+      this.grid.add(current, _creature);
+    } else if (current == MFPackedLocation.NOWHERE) {
+      this.grid.remove(indexed, _creature);
+    } else {
+      this.grid.move(indexed, current, _creature);
+    }
+    _creature.setIndex(this, current);
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFCreatureIndex.class.getName());
+  private final MFSpatialGrid<MFCreature> grid;
+}
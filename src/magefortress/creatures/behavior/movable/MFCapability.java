@@ -39,7 +39,8 @@ public class MFCapability implements Immutable, Iterable<MFEMovementType>
   public static final MFCapability FLY = new MFCapability(MFEMovementType.FLY);
   public static final MFCapability WALK_FLY = new MFCapability(MFEMovementType.WALK, MFEMovementType.FLY);
   public static final MFCapability NONE = new MFCapability();
-
+  /** Number of different combinations of movement types */
+  public static final int COMBINATION_COUNT = 1 << MFEMovementType.values().length;
 
   public MFCapability(MFEMovementType... _capabilities)
   {
@@ -48,6 +49,22 @@ public class MFCapability implements Immutable, Iterable<MFEMovementType>
     } else {
       this.capabilities = EnumSet.noneOf(MFEMovementType.class);
     }
+    int bits = 0;
+    for (MFEMovementType type : this.capabilities) {
+      bits |= 1 << type.ordinal();
+    }
+    this.index = bits;
+  }
+
+  /**
+   * Gets a number identifying the combination of movement types. Equal
+   * combinations share the same index.
+   * @return the index between <code>0</code> and {@link #COMBINATION_COUNT}
+   *         (exclusive)
+   */
+  public int getIndex()
+  {
+    return this.index;
   }
 
   public boolean containsAll(MFCapability _other)
@@ -63,5 +80,6 @@ public class MFCapability implements Immutable, Iterable<MFEMovementType>
 
   //---vvv---      PRIVATE METHODS      ---vvv---
   private final EnumSet<MFEMovementType> capabilities;
+  private final int index;
 
 }
@@ -28,6 +28,7 @@ import magefortress.items.MFBlueprint;
 import magefortress.jobs.subtasks.*;
 import magefortress.items.MFItem;
 import magefortress.core.MFWorkshop;
+import magefortress.map.MFMap;
 import magefortress.map.MFPathFinder;
 
 /**
@@ -35,10 +36,12 @@ import magefortress.map.MFPathFinder;
  */
 public class MFProduceItemJob extends MFAssignableJob
 {
-  public MFProduceItemJob(MFWorkshop _sender, MFBlueprint _blueprint, MFPathFinder _pathFinder)
+  public MFProduceItemJob(MFWorkshop _sender, MFBlueprint _blueprint, MFMap _map,
+                          MFPathFinder _pathFinder)
   {
     super(_sender);
     this.blueprint = _blueprint;
+    this.map = _map;
     this.pathFinder = _pathFinder;
   }
 
@@ -48,7 +51,7 @@ public class MFProduceItemJob extends MFAssignableJob
     MFWorkshop workshop = (MFWorkshop) this.getSender();
 
     for (MFBlueprint material : this.blueprint.getMaterials()) {
-      MFISubtask locateMaterial = new MFLocateSimilarItemSubtask(this.getOwner(), material);
+      MFISubtask locateMaterial = new MFLocateSimilarItemSubtask(this.getOwner(), this.map, material);
       MFISubtask gotoMaterial   = new MFGotoLocationSubtask(this.getOwner(), this.pathFinder);
       MFISubtask pickupMaterial = new MFPickupItemSubtask(this.getOwner());
       MFISubtask gotoWorkshop   = new MFGotoLocationSubtask(this.getOwner(), workshop.getLocation(), this.pathFinder);
@@ -79,6 +82,7 @@ public class MFProduceItemJob extends MFAssignableJob
 
   //---vvv---      PRIVATE METHODS      ---vvv---
   private final MFBlueprint blueprint;
+  private final MFMap map;
   private final MFPathFinder pathFinder;
 
 }
@@ -188,7 +188,7 @@ public class MFDiggingSite extends MFConstructionSite
   {
     this.isUnreachable = true;
 
-    for (MFEDirection direction : MFEDirection.values()) {
+    for (MFEDirection direction : MFEDirection.plain()) {
       MFLocation loc = this.getLocation().locationOf(direction);
       if (this.map.isInsideMap(loc)) {
         MFTile tile = this.map.getTile(loc);
@@ -32,6 +32,8 @@ import magefortress.creatures.behavior.movable.MFIMovable;
 import magefortress.map.MFIPathFinderListener;
 import magefortress.map.MFPath;
 import magefortress.map.MFPathFinder;
+import magefortress.map.MFReservationTable;
+import magefortress.map.MFTemplateAStar;
 
 /**
  * Grabs the current heading from the owner, calculates a path and moves
@@ -59,14 +61,111 @@ public class MFGotoLocationSubtask extends MFMovingSubtask implements MFIPathFin
    * @param _pathFinder The path finder to query for paths
    */
   public MFGotoLocationSubtask(MFIMovable _movable, MFLocation _location, MFPathFinder _pathFinder)
+  {
+    this(_movable, _location, _pathFinder, MFTemplateAStar.UNLIMITED_EXPANSIONS);
+  }
+
+  /**
+   * Find a path to a location, expanding at most a limited number of nodes per
+   * search. If the search runs out of budget the creature starts walking along
+   * the partial path right away and requests the rest of the way when it
+   * reaches the end of it.
+   * @param _movable The game object to move
+   * @param _location The target location. Will be set as current heading later.
+   *                  May be <code>null</code> to use the current heading.
+   * @param _pathFinder The path finder to query for paths
+   * @param _expansionBudget The maximum number of nodes expanded per search or
+   *                  {@link MFTemplateAStar#UNLIMITED_EXPANSIONS}
+   */
+  public MFGotoLocationSubtask(MFIMovable _movable, MFLocation _location,
+                               MFPathFinder _pathFinder, int _expansionBudget)
   {
     super(_movable);
+    if (_expansionBudget < 0) {
+      String msg = this.getClass().getSimpleName() + ": Cannot create with " +
+                                   "an expansion budget < 0: " + _expansionBudget;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
     this.heading = _location;
     this.pathFinder = _pathFinder;
+    this.expansionBudget = _expansionBudget;
+  }
+
+  /**
+   * Lets the creature search cooperative paths which avoid the tiles other
+   * creatures have reserved. The creature may wait in place along the way
+   * until a tile is free.
+   * @param _cooperative <code>true</code> to search cooperative paths
+   */
+  public void setCooperative(boolean _cooperative)
+  {
+    this.cooperative = _cooperative;
+  }
+
+  public boolean isCooperative()
+  {
+    return this.cooperative;
   }
 
   @Override
   public boolean update() throws MFSubtaskCanceledException
+  {
+    try {
+      return this.updateMovement();
+    } catch (MFSubtaskCanceledException e) {
+      // nobody is going to walk along the reserved tiles anymore
+      this.releaseReservations();
+      throw e;
+    }
+  }
+
+  /**
+   * Retrieves the path and resets the update counter so that the next update
+   * starts moving the creature. If the parameter is <code>null</code> no path
+   * was found and the update() method has to be notified of this.
+   * @param _path <code>null</code> if no path was found
+   */
+  @Override
+  public void pathSearchFinished(final MFPath _path)
+  {
+    this.path = _path;
+    this.searchingForPath = false;
+    if (_path != null) {
+      this.updateCount = this.getMovable().getSpeed();
+    } else {
+      this.noPathFound = true;
+      this.releaseReservations();
+    }
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  /** The path finding algorithm */
+  private final MFPathFinder pathFinder;
+  /** Stores the heading for later use. May be null if the creature's current
+   * heading is supposed to be used. */
+  private final MFLocation heading;
+  /** Maximum number of nodes expanded per path search */
+  private final int expansionBudget;
+  /** Search paths which avoid tiles reserved by other creatures */
+  private boolean cooperative;
+  
+  /** Stores the time passed since the last move */
+  private int updateCount;
+  /** The path the creature will take */
+  private MFPath path;
+  /** Flag for unsuccessful path finding. Cannot be reset */
+  private boolean noPathFound;
+  /** Flag for the state */
+  private boolean searchingForPath;
+  /** Reached goal */
+  private boolean goalReached;
+
+  /**
+   * Searches the path and moves along it.
+   * @return <code>true</code> when the goal was reached
+   */
+  private boolean updateMovement() throws MFSubtaskCanceledException
   {
     if (this.goalReached) {
       String msg = this.getClass().getSimpleName() + ": Trying to update " +
@@ -92,6 +191,7 @@ public class MFGotoLocationSubtask extends MFMovingSubtask implements MFIPathFin
         // already there
         if (this.getMovable().getLocation().equals(this.heading) ||
             this.getMovable().getLocation().equals(this.getMovable().getCurrentHeading())) {
+          this.releaseReservations();
           this.goalReached = true;
           return true;
         } else {
@@ -105,6 +205,7 @@ public class MFGotoLocationSubtask extends MFMovingSubtask implements MFIPathFin
           move();
           boolean done = wasTargetReached();
           if (done) {
+            this.releaseReservations();
             this.goalReached = true;
             return true;
           }
@@ -116,42 +217,6 @@ public class MFGotoLocationSubtask extends MFMovingSubtask implements MFIPathFin
     return false;
   }
 
-  /**
-   * Retrieves the path and resets the update counter so that the next update
-   * starts moving the creature. If the parameter is <code>null</code> no path
-   * was found and the update() method has to be notified of this.
-   * @param _path <code>null</code> if no path was found
-   */
-  @Override
-  public void pathSearchFinished(final MFPath _path)
-  {
-    this.path = _path;
-    this.searchingForPath = false;
-    if (_path != null) {
-      this.updateCount = this.getMovable().getSpeed();
-    } else {
-      this.noPathFound = true;
-    }
-  }
-
-  //---vvv---      PRIVATE METHODS      ---vvv---
-  /** The path finding algorithm */
-  private final MFPathFinder pathFinder;
-  /** Stores the heading for later use. May be null if the creature's current
-   * heading is supposed to be used. */
-  private final MFLocation heading;
-  
-  /** Stores the time passed since the last move */
-  private int updateCount;
-  /** The path the creature will take */
-  private MFPath path;
-  /** Flag for unsuccessful path finding. Cannot be reset */
-  private boolean noPathFound;
-  /** Flag for the state */
-  private boolean searchingForPath;
-  /** Reached goal */
-  private boolean goalReached;
-
   /**
    * Enqueues a path
    */
@@ -164,8 +229,23 @@ public class MFGotoLocationSubtask extends MFMovingSubtask implements MFIPathFin
     final int clearance = this.getMovable().getClearance();
     final MFCapability capability = this.getMovable().getCapability();
     
-    this.pathFinder.enqueuePathSearch(this.getMovable().getLocation(),
-            this.getMovable().getCurrentHeading(),clearance, capability, this);
+    if (this.cooperative && this.expansionBudget == MFTemplateAStar.UNLIMITED_EXPANSIONS) {
+      this.pathFinder.enqueueCooperativePathSearch(this.getMovable().getLocation(),
+              this.getMovable().getCurrentHeading(), clearance, capability,
+              this.getMovable().getSpeed(), this.getMovable(), this);
+    } else if (this.cooperative) {
+      this.pathFinder.enqueueCooperativePathSearch(this.getMovable().getLocation(),
+              this.getMovable().getCurrentHeading(), clearance, capability,
+              this.getMovable().getSpeed(), this.getMovable(),
+              this.expansionBudget, this);
+    } else if (this.expansionBudget == MFTemplateAStar.UNLIMITED_EXPANSIONS) {
+      this.pathFinder.enqueuePathSearch(this.getMovable().getLocation(),
+              this.getMovable().getCurrentHeading(),clearance, capability, this);
+    } else {
+      this.pathFinder.enqueuePathSearch(this.getMovable().getLocation(),
+              this.getMovable().getCurrentHeading(),clearance, capability,
+              this.expansionBudget, this);
+    }
 
     this.noPathFound = false;
     this.searchingForPath = true;
@@ -177,7 +257,10 @@ public class MFGotoLocationSubtask extends MFMovingSubtask implements MFIPathFin
   {
     // get next tile to move to
     final MFEDirection nextMove = this.path.next();
-    this.getMovable().move(nextMove);
+    // null means waiting for a reserved tile to become free
+    if (nextMove != null) {
+      this.getMovable().move(nextMove);
+    }
 
     // reset counter
     this.updateCount = 0;
@@ -189,6 +272,19 @@ public class MFGotoLocationSubtask extends MFMovingSubtask implements MFIPathFin
     //        }
   }
 
+  /**
+   * Frees the tiles the creature reserved on its way to the goal
+   */
+  private void releaseReservations()
+  {
+    if (this.cooperative) {
+      final MFReservationTable reservations = this.pathFinder.getReservationTable();
+      if (reservations != null) {
+        reservations.release(this.getMovable());
+      }
+    }
+  }
+
   private boolean wasTargetReached() throws MFSubtaskCanceledException
   {
     boolean result = false;
@@ -202,6 +298,9 @@ public class MFGotoLocationSubtask extends MFMovingSubtask implements MFIPathFin
       
       if (currentLoc.equals(goal)) {
         result = true;
+      // end of a partial path -> search the rest of the way on next update
+      } else if (this.path.isPartial()) {
+        this.path = null;
       } else {
         // error during pathfinding
         String msg = this.getClass().getSimpleName() + ": Could not reach target (" +
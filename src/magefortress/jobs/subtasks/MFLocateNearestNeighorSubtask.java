@@ -111,7 +111,7 @@ public class MFLocateNearestNeighorSubtask extends MFMovingSubtask implements MF
     this.startedSearchesCount = this.finishedSearchesCount = 0;
     this.paths.clear();
 
-    for (MFEDirection dir : MFEDirection.values()) {
+    for (MFEDirection dir : MFEDirection.plain()) {
 
       MFLocation neighboringLocation = this.location.locationOf(dir);
       if (this.map.isInsideMap(neighboringLocation)) {
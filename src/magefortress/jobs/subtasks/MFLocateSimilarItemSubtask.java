@@ -24,9 +24,11 @@
  */
 package magefortress.jobs.subtasks;
 
+import java.util.List;
 import magefortress.core.MFLocation;
 import magefortress.creatures.MFCreature;
 import magefortress.items.MFBlueprint;
+import magefortress.map.MFMap;
 
 /**
  * Looks for a type of item and saves its position as the owner's
@@ -35,26 +37,36 @@ import magefortress.items.MFBlueprint;
 public class MFLocateSimilarItemSubtask extends MFSubtask
 {
   
-  public MFLocateSimilarItemSubtask(final MFCreature _owner, final MFBlueprint _itemType)
+  public MFLocateSimilarItemSubtask(final MFCreature _owner, final MFMap _map,
+                                    final MFBlueprint _itemType)
   {
     super(_owner);
+    if (_map == null) {
+      String msg = this.getClass().getSimpleName() + ": Cannot create " +
+                                                               "without a map.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.map = _map;
     this.itemType = _itemType;
   }
 
   @Override
   public boolean update() throws MFSubtaskCanceledException
   {
-    MFLocation location = null;//this.getOwner().lookForSimilarItems(itemType);
+    final List<MFLocation> locations = this.map.findNearestObjects(this.itemType,
+                                                  this.getOwner().getLocation(), 1);
 
-    if (location == null) {
+    if (locations.isEmpty()) {
       throw new MFSubtaskCanceledException("Couldn't locate similar items: " + itemType.getName());
     } else {
-      this.getOwner().setCurrentHeading(location);
+      this.getOwner().setCurrentHeading(locations.get(0));
     }
     return true;
   }
 
   //---vvv---      PRIVATE METHODS      ---vvv---
+  private final MFMap map;
   final private MFBlueprint itemType;
 
 }
@@ -27,7 +27,7 @@ package magefortress.map;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import magefortress.core.MFEDirection;
-import magefortress.core.MFLocation;
+import magefortress.core.MFPackedLocation;
 import magefortress.creatures.behavior.movable.MFCapability;
 
 /**
@@ -61,22 +61,31 @@ public class MFAnnotatedAStar extends MFTemplateAStar
     // begin the search
     while (!this.getOpenList().isEmpty()) {
 
+      // out of budget -> walk towards the most promising tile
+      if (this.isExpansionBudgetExhausted()) {
+        if (this.getClosestNode() != null) {
+          foundPath = this.backtracePath(this.getClosestNode(), true);
+        }
+        break;
+      }
+
       // get the current node and remove it from the priority open list
       MFNode currentNode = this.getOpenList().poll();
+      this.countExpansion();
 
       // check if we found the target tile
       if (currentNode.tile == this.getGoal()) {
-        foundPath = this.backtracePath(currentNode);
+        foundPath = this.backtracePath(currentNode, false);
         break;
       }
 
       // move node from open to closed list. Because there are
       // two open lists the node has to be removed from the second one, too
-      this.getOpenListLocations().remove(currentNode.tile.getLocation());
-      this.getClosedList().put(currentNode.tile.getLocation(), currentNode);
+      this.getOpenListLocations().remove(currentNode.tile.getPackedLocation());
+      this.getClosedList().put(currentNode.tile.getPackedLocation(), currentNode);
 
-      // add surrounding tiles to the open list
-      for (MFEDirection dir : MFEDirection.plain()) {
+      // add surrounding tiles and the tiles above and below to the open list
+      for (MFEDirection dir : MFEDirection.values()) {
 
         // get the neighboring tile
         final MFTile neighbor = this.getMap().getNeighbor(currentNode.tile, dir);
@@ -86,7 +95,7 @@ public class MFAnnotatedAStar extends MFTemplateAStar
           continue;
         }
         // skip if already processed
-        if (this.getClosedList().containsKey(neighbor.getLocation())) {
+        if (this.getClosedList().containsKey(neighbor.getPackedLocation())) {
           continue;
         }
 
@@ -106,8 +115,16 @@ public class MFAnnotatedAStar extends MFTemplateAStar
   @Override
   int costFunction(final MFTile _start,final MFTile _goal)
   {
-    final MFEDirection dir = _start.getLocation().directionOf(_goal.getLocation());
-    final int cost = (MFEDirection.diagonals().contains(dir) ? getDiagonalCost() : getOrthogonalCost());
+    final MFEDirection dir = MFPackedLocation.directionOf(_start.getPackedLocation(),
+                                                         _goal.getPackedLocation());
+    final int cost;
+    if (MFEDirection.vertical().contains(dir)) {
+      cost = this.getMap().getVerticalPassage(_start, _goal).getCost();
+    } else if (MFEDirection.diagonals().contains(dir)) {
+      cost = getDiagonalCost();
+    } else {
+      cost = getOrthogonalCost();
+    }
     return cost;
   }
 
@@ -116,11 +133,13 @@ public class MFAnnotatedAStar extends MFTemplateAStar
   /**
    * Backtraces from the given node and saves the direction from parent to
    * child node each step on its way.
-   * @param _node the goal node
+   * @param _node the goal node or the closest node if the path is partial
+   * @param _isPartial <code>true</code> if the search ran out of budget
    */
-  private MFPath backtracePath(MFNode _node)
+  private MFPath backtracePath(MFNode _node, final boolean _isPartial)
   {
-    if (_node.tile != this.getGoal()) {
+    final MFTile lastTile = _node.tile;
+    if (!_isPartial && _node.tile != this.getGoal()) {
       String msg = "AnnotatedAStar " + this.getStart().getLocation() + "->" +
                    this.getGoal().getLocation() + ": Last node of backtraced " +
                    "path is not the target tile but " + _node.tile.getLocation();
@@ -131,15 +150,10 @@ public class MFAnnotatedAStar extends MFTemplateAStar
     int pathCost = 0;
 
     while (_node.parent != null) {
-      MFLocation currentLoc = _node.tile.getLocation();
-      MFLocation targetLoc = _node.parent.tile.getLocation();
-      MFEDirection dir = targetLoc.directionOf(currentLoc);
+      MFEDirection dir = MFPackedLocation.directionOf(_node.parent.tile.getPackedLocation(),
+                                                      _node.tile.getPackedLocation());
       path.push(dir);
-      if (MFEDirection.diagonals().contains(dir)) {
-        pathCost += getDiagonalCost();
-      } else {
-        pathCost += getOrthogonalCost();
-      }
+      pathCost += this.costFunction(_node.parent.tile, _node.tile);
       _node = _node.parent;
     }
 
@@ -150,7 +164,10 @@ public class MFAnnotatedAStar extends MFTemplateAStar
       logger.warning(msg);
     }
 
-    final MFPath result = new MFAnnotatedPath(this.getStart(), this.getGoal(), path, pathCost);
+    final MFPath result = new MFAnnotatedPath(this.getStart(), lastTile, path, pathCost);
+    if (_isPartial) {
+      result.setPartial();
+    }
     return result;
   }
 
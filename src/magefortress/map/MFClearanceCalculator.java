@@ -24,8 +24,9 @@
  */
 package magefortress.map;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.logging.Logger;
-import magefortress.core.MFEDirection;
 import magefortress.creatures.behavior.movable.MFCapability;
 
 /**
@@ -45,23 +46,87 @@ public class MFClearanceCalculator
   }
 
   public void calculateAllLevels(MFCapability _capability)
+  {
+    this.calculateAllLevels(Collections.singleton(_capability));
+  }
+
+  /**
+   * Calculates the clearance values of several capabilities in one sweep over
+   * the map. Levels that aren't {@link MFMap#isLevelLoaded(int) loaded} yet
+   * are skipped.
+   * @param _capabilities the capabilities to calculate the values for
+   */
+  public void calculateAllLevels(Collection<MFCapability> _capabilities)
   {
     for (int z = 0; z < this.map.getDepth(); ++z) {
-      this.calculateLevel(z, _capability);
+      if (this.map.isLevelLoaded(z)) {
+        this.calculateLevel(z, _capabilities);
+      }
     }
   }
 
   public void calculateLevel(int _z, MFCapability _capability)
   {
-    MFTile[][] level = this.map.getLevelMap(_z);
-    
-    for (int x=this.map.getWidth()-1; x >= 0; --x) {
-      for (int y=this.map.getHeight()-1; y>=0; --y) {
+    this.calculateLevel(_z, Collections.singleton(_capability));
+  }
 
-        final MFTile tile = level[x][y];
-        final int clearance = calculateClearance(tile, _capability);
-        tile.setClearance(_capability, clearance);
+  /**
+   * Calculates the clearance values of several capabilities in one sweep over
+   * a level.
+   * @param _z the level
+   * @param _capabilities the capabilities to calculate the values for
+   */
+  public void calculateLevel(int _z, Collection<MFCapability> _capabilities)
+  {
+    if (_capabilities == null || _capabilities.isEmpty()) {
+      String msg = "Cannot calculate clearance without capabilities.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    final MFCapability[] capabilities =
+                  _capabilities.toArray(new MFCapability[_capabilities.size()]);
+    final int width = this.map.getWidth();
+    final int height = this.map.getHeight();
+    final MFLevelOccupancy occupancy = this.map.getOccupancy(_z);
+
+    // solid rock can't be passed, so only dug out tiles need a calculation
+    for (int x = 0; x < width; x += MFMap.CHUNK_SIZE) {
+      for (int y = 0; y < height; y += MFMap.CHUNK_SIZE) {
+        for (MFCapability capability : capabilities) {
+          this.map.getStorage(x, y, _z).clearClearance(_z, capability);
+        }
+      }
+    }
 
+    for (int index = occupancy.previousSetBit(MFLevelOccupancy.Layer.DUG_OUT, _z, Integer.MAX_VALUE);
+             index >= 0;
+             index = occupancy.previousSetBit(MFLevelOccupancy.Layer.DUG_OUT, _z, index - 1)) {
+      final int x = occupancy.getX(index);
+      final int y = occupancy.getY(index);
+
+      final MFTileStorage storage = this.map.getStorage(x, y, _z);
+      final int flags = storage.getFlags(x, y, _z);
+      // neighbors on the edge of the map count as blocked
+      final boolean hasNeighbors = (x < width-1 && y < height-1);
+      final int flagsE  = (hasNeighbors ? this.map.getFlags(x+1, y,   _z) : 0);
+      final int flagsS  = (hasNeighbors ? this.map.getFlags(x,   y+1, _z) : 0);
+      final int flagsSE = (hasNeighbors ? this.map.getFlags(x+1, y+1, _z) : 0);
+
+      for (MFCapability capability : capabilities) {
+        final int clearance;
+        if (!MFTileStorage.isWalkable(flags, capability)) {
+          clearance = 0;
+        } else if (hasNeighbors &&
+                   canAccessNeighbors(flags, capability, flagsE, flagsS, flagsSE)) {
+          final int clearanceE  = this.map.getStorage(x+1, y, _z).getClearance(x+1, y, _z, capability);
+          final int clearanceS  = this.map.getStorage(x, y+1, _z).getClearance(x, y+1, _z, capability);
+          final int clearanceSE = this.map.getStorage(x+1, y+1, _z).getClearance(x+1, y+1, _z, capability);
+          clearance = Math.min(clearanceE, Math.min(clearanceS, clearanceSE)) + 1;
+        // placed on edge or no access to neighboring tiles
+        } else {
+          clearance = 1;
+        }
+        storage.setClearance(x, y, _z, capability, clearance);
       }
     }
   }
@@ -71,64 +136,27 @@ public class MFClearanceCalculator
   private final MFMap map;
 
   /**
-   * Calculates the clearance for one tile
-   * @param _tile the tile to update
+   * Checks if the eastern, southern and south eastern neighbors can be
+   * reached.
+   * @param _flags the bitfield of the tile
    * @param _capability the capability of the creature
-   * @return the highest possible clearance for this tile
+   * @param _flagsE the bitfield of the eastern neighbor
+   * @param _flagsS the bitfield of the southern neighbor
+   * @param _flagsSE the bitfield of the south eastern neighbor
+   * @return <code>true</code> if all three neighbors are accessible
    */
-  private int calculateClearance(MFTile _tile, MFCapability _capability)
+  private static boolean canAccessNeighbors(int _flags, MFCapability _capability,
+                                   int _flagsE, int _flagsS, int _flagsSE)
   {
-    int result;
-
-    if (!_tile.isWalkable(_capability)) {
-      result = 0;
-    } else {
-      final MFTile neighborE  = this.map.getNeighbor(_tile, MFEDirection.E);
-      final MFTile neighborS  = this.map.getNeighbor(_tile, MFEDirection.S);
-      final MFTile neighborSE = this.map.getNeighbor(_tile, MFEDirection.SE);
-
-      boolean accessible = canAccessNeighbors(_tile, _capability,
-                                                neighborE, neighborS, neighborSE);
-
-      // not placed on edge and neighbors are all accessible
-      if (accessible) {
-          // calculate clearance
-          final int clearanceE  = neighborE.getClearance(_capability);
-          final int clearanceS  = neighborS.getClearance(_capability);
-          final int clearanceSE = neighborSE.getClearance(_capability);
-          result = Math.min(clearanceE, Math.min(clearanceS, clearanceSE)) + 1;
-      // placed on edge or no access to neighboring tiles
-      } else {
-        result = 1;
-      }
-    }
-
-    return result;
-  }
-
-  private boolean canAccessNeighbors(MFTile _tile, MFCapability _capability,
-                          MFTile _neighborE, MFTile _neighborS, MFTile _neighborSE)
-  {
-    // Do we have neighbors?
-    if (_neighborE == null || _neighborS == null || _neighborSE == null) {
-      return false;
-    }
-
-    boolean result = true;
-
     // Can we move to every neighboring tile?
-    if (!_neighborE.isWalkable(_capability) ||
-        !_neighborS.isWalkable(_capability) ||
-        !_neighborSE.isWalkable(_capability)) {
-      result = false;
+    if (!MFTileStorage.isWalkable(_flagsE, _capability) ||
+        !MFTileStorage.isWalkable(_flagsS, _capability) ||
+        !MFTileStorage.isWalkable(_flagsSE, _capability)) {
+      return false;
     }
 
     // no walls placed between neighbors and tile
-    if (result && (_tile.hasWallEast() || _tile.hasWallSouth())) {
-      result = false;
-    }
-
-    return result;
+    return (_flags & (MFTileStorage.WALL_E | MFTileStorage.WALL_S)) == 0;
   }
 
 }
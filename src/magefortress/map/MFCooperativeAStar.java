@@ -0,0 +1,294 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.LinkedList;
+import magefortress.core.MFEDirection;
+import magefortress.core.MFPackedLocation;
+import magefortress.creatures.behavior.movable.MFCapability;
+
+/**
+ * Windowed cooperative A*. Searches a tile-level path in space and time which
+ * avoids all tiles other creatures have claimed in the
+ * {@link MFReservationTable} and claims the tiles of the found path in turn.
+ * <p>
+ * Inside the horizon of the reservation table a creature may wait in place
+ * for one step if the way ahead is blocked. Beyond the horizon the search
+ * continues like a plain tile-level search, since the reservations of other
+ * creatures are not known there yet.
+ * <p>
+ * The number of expanded nodes is limited to
+ * {@link #DEFAULT_EXPANSION_BUDGET} unless another
+ * {@link #setExpansionBudget(int) budget} is set. If the limit is reached the
+ * search returns a {@link MFPath#isPartial() partial path} towards the
+ * explored tile closest to the goal.
+ */
+public class MFCooperativeAStar extends MFTemplateAStar
+{
+  /** Default limit of nodes expanded per search */
+  public static final int DEFAULT_EXPANSION_BUDGET = 5000;
+
+  /**
+   * Constructor
+   * @param _map the map to search
+   * @param _start the starting tile
+   * @param _goal the target tile
+   * @param _clearance the size of the creature
+   * @param _capability the movement modes of the creature
+   * @param _reservations the table holding the claimed tiles
+   * @param _owner the object claiming the tiles of the found path
+   * @param _stepDuration the number of ticks the creature needs for one step
+   */
+  public MFCooperativeAStar(MFMap _map, MFTile _start, MFTile _goal,
+                int _clearance, MFCapability _capability,
+                MFReservationTable _reservations, Object _owner, int _stepDuration)
+  {
+    super(_map, _start, _goal, _clearance, _capability);
+    validateConstructorParams(_start, _goal, _reservations, _owner, _stepDuration);
+    this.reservations = _reservations;
+    this.owner = _owner;
+    this.stepDuration = _stepDuration;
+    this.setExpansionBudget(DEFAULT_EXPANSION_BUDGET);
+  }
+
+  /**
+   * Searches a path and reserves its tiles for the owner. Previous
+   * reservations of the owner are released before.
+   * @return the path or <code>null</code> if there is none
+   */
+  @Override
+  public MFPath findPath()
+  {
+    this.reservations.release(this.owner);
+    this.firstMove = this.reservations.getCurrentTick() + 1;
+
+    final MFPath result = super.findPath();
+
+    if (result != null) {
+      this.reservePath(this.lastNode);
+    }
+    this.lastNode = null;
+
+    return result;
+  }
+
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+
+  @Override
+  MFPath runSearch()
+  {
+    MFPath foundPath = null;
+
+    while (!this.getOpenList().isEmpty()) {
+
+      // out of budget -> walk towards the most promising tile
+      if (this.isExpansionBudgetExhausted()) {
+        if (this.getClosestNode() != null) {
+          foundPath = this.backtracePath(this.getClosestNode(), true);
+        }
+        break;
+      }
+
+      final MFNode currentNode = this.getOpenList().poll();
+      this.countExpansion();
+
+      if (currentNode.tile == this.getGoal()) {
+        foundPath = this.backtracePath(currentNode, false);
+        break;
+      }
+
+      final long currentKey = this.keyOf(currentNode.tile, currentNode.time);
+      this.getOpenListLocations().remove(currentKey);
+      this.getClosedList().put(currentKey, currentNode);
+
+      final long arrival = currentNode.time;
+      final long nextMove = arrival + this.stepDuration;
+      final boolean insideHorizon = this.reservations.isInsideHorizon(arrival);
+
+      // wait in place - only makes sense while other creatures' plans are known
+      if (insideHorizon &&
+          this.reservations.isFree(currentNode.tile.getPackedLocation(), arrival, nextMove, this.owner) &&
+          !this.getClosedList().containsKey(this.keyOf(currentNode.tile, nextMove))) {
+        this.processNeighbor(currentNode, currentNode.tile, nextMove);
+      }
+
+      for (MFEDirection dir : MFEDirection.plain()) {
+        final MFTile neighbor = this.getMap().getNeighbor(currentNode.tile, dir);
+
+        if (neighbor == null) {
+          continue;
+        }
+        if (this.getClosedList().containsKey(this.keyOf(neighbor, nextMove))) {
+          continue;
+        }
+        if (!this.getMap().canMoveTo(currentNode.tile, neighbor,
+                                     this.getClearance(), this.getCapability())) {
+          continue;
+        }
+        // claimed by another creature while we would be there
+        if (insideHorizon &&
+            !this.reservations.isFree(neighbor.getPackedLocation(), arrival, nextMove, this.owner)) {
+          continue;
+        }
+
+        this.processNeighbor(currentNode, neighbor, nextMove);
+      }
+    }
+
+    return foundPath;
+  }
+
+  /**
+   * Every step and every wait costs the same.
+   */
+  @Override
+  int costFunction(final MFTile _start, final MFTile _goal)
+  {
+    return this.getOrthogonalCost();
+  }
+
+  /**
+   * Nodes inside the horizon are told apart by tile and time. Beyond it only
+   * the tile matters because no reservations are known there.
+   */
+  @Override
+  long keyOf(final MFTile _tile, final long _time)
+  {
+    final MFMap map = this.getMap();
+    final long index = ((long) _tile.getPosZ() * map.getHeight() + _tile.getPosY()) *
+                       map.getWidth() + _tile.getPosX();
+    final long slot = (this.reservations.isInsideHorizon(_time) ?
+                       _time - this.reservations.getCurrentTick() + 1 : 0);
+    return index * (this.reservations.getHorizon() + 1) + slot;
+  }
+
+  /**
+   * The first move happens on the tick after the search.
+   */
+  @Override
+  long getStartTime()
+  {
+    return this.firstMove;
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+
+  /** Tiles claimed by all creatures */
+  private final MFReservationTable reservations;
+  /** The object claiming the tiles of the found path */
+  private final Object owner;
+  /** Number of ticks the creature needs to move one tile */
+  private final int stepDuration;
+  /** Tick of the first move of the current search */
+  private long firstMove;
+  /** Last node of the backtraced path */
+  private MFNode lastNode;
+
+  /**
+   * Backtraces from the given node and saves each step on the way. Waiting in
+   * place is stored as <code>null</code>.
+   * @param _node the goal node or the closest node if the path is partial
+   * @param _isPartial <code>true</code> if the search ran out of budget
+   * @return the path
+   */
+  private MFPath backtracePath(final MFNode _node, final boolean _isPartial)
+  {
+    final LinkedList<MFEDirection> steps = new LinkedList<MFEDirection>();
+    MFNode node = _node;
+    while (node.parent != null) {
+      if (node.tile == node.parent.tile) {
+        steps.addFirst(null);
+      } else {
+        steps.addFirst(MFPackedLocation.directionOf(node.parent.tile.getPackedLocation(),
+                                                    node.tile.getPackedLocation()));
+      }
+      node = node.parent;
+    }
+
+    this.lastNode = _node;
+    final MFPath result = new MFCooperativePath(this.getStart(), _node.tile, steps, _node.g);
+    if (_isPartial) {
+      result.setPartial();
+    }
+    return result;
+  }
+
+  /**
+   * Claims every tile of the path for the ticks the creature is going to
+   * spend on it. Ticks beyond the horizon are skipped.
+   * @param _lastNode the last node of the path
+   */
+  private void reservePath(final MFNode _lastNode)
+  {
+    // reserve in the order of the ticks
+    final LinkedList<MFNode> nodes = new LinkedList<MFNode>();
+    for (MFNode node = _lastNode; node != null; node = node.parent) {
+      nodes.addFirst(node);
+    }
+
+    // stay on the starting tile until the first move
+    long from = this.reservations.getCurrentTick();
+    for (MFNode node : nodes) {
+      this.reserveTicks(node.tile.getPackedLocation(), from, node.time);
+      from = node.time;
+    }
+  }
+
+  private void reserveTicks(final long _location, final long _from, final long _to)
+  {
+    for (long tick = _from; tick <= _to; ++tick) {
+      if (!this.reservations.isInsideHorizon(tick)) {
+        continue;
+      }
+      this.reservations.reserve(_location, tick, this.owner);
+    }
+  }
+
+  private static void validateConstructorParams(final MFTile _start,
+                  final MFTile _goal, final MFReservationTable _reservations,
+                  final Object _owner, final int _stepDuration)
+  {
+    if (_reservations == null) {
+      String msg = "CooperativeAStar: Cannot create A-Star from " + _start.getLocation() +
+                    " to " + _goal.getLocation() + " without a reservation table.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    if (_owner == null) {
+      String msg = "CooperativeAStar: Cannot create A-Star from " + _start.getLocation() +
+                    " to " + _goal.getLocation() + " without an owner for " +
+                    "the reservations.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    if (_stepDuration < 1) {
+      String msg = "CooperativeAStar: Cannot create A-Star from " + _start.getLocation() +
+                    " to " + _goal.getLocation() + " with a step duration of " +
+                    _stepDuration + ". Must be at least 1.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+import magefortress.core.MFEDirection;
+
+/**
+ * Encapsulates a path found by a cooperative search. Besides moving to a
+ * neighboring tile a step may consist of waiting in place until a tile
+ * reserved by another creature becomes free. Waiting steps are returned as
+ * <code>null</code> by {@link #next() next()}.
+ * @see MFCooperativeAStar
+ */
+public class MFCooperativePath extends MFPath
+{
+  /**
+   * Constructor
+   * @param _start the starting tile
+   * @param _goal the target tile
+   * @param _steps the directions to reach the target tile. <code>null</code>
+   *          entries stand for waiting one step.
+   * @param _cost the cost to traverse the path in weighted units
+   */
+  MFCooperativePath(final MFTile _start, final MFTile _goal,
+                    final List<MFEDirection> _steps, final int _cost)
+  {
+    super(_start, _goal, _cost);
+    if (_steps == null || _steps.isEmpty()) {
+      String msg = "Cooperative Path " + this.getStart().getLocation() + "->" +
+                    this.getGoal().getLocation() + ": Cannot create path " +
+                    "without at least one step.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.steps = new LinkedList<MFEDirection>(_steps);
+  }
+
+  /**
+   * Checks if this path has any steps left.
+   * @return <code>false</code> if there are no steps left
+   */
+  @Override
+  public boolean hasNext()
+  {
+    if (!this.isPathValid()) {
+      String msg = "Cooperative Path" + this.getStart().getLocation() + "->" +
+                   this.getGoal().getLocation() + ": Cannot tell if path has " +
+                   "next step when it is invalid.";
+      logger.severe(msg);
+      throw new IllegalStateException(msg);
+    }
+    return !this.steps.isEmpty();
+  }
+
+  /**
+   * Gets the next step of the path.
+   * @return the next step of the path or <code>null</code> if the creature
+   *         has to wait in place for one step
+   */
+  @Override
+  public MFEDirection next()
+  {
+    if (!this.isPathValid()) {
+      String msg = "Cooperative Path" + this.getStart().getLocation() + "->" +
+                   this.getGoal().getLocation() + ": Cannot get next step " +
+                   "when path is invalid.";
+      logger.severe(msg);
+      throw new IllegalStateException(msg);
+    }
+    if (this.steps.isEmpty()) {
+      String msg = "Cooperative Path " + this.getStart().getLocation() + "->" +
+                   this.getGoal().getLocation() + ": No more steps.";
+      logger.severe(msg);
+      throw new NoSuchElementException(msg);
+    }
+
+    return this.steps.poll();
+  }
+
+  /**
+   * Gets the steps that are left.
+   * @return the unmodifiable list of remaining steps
+   */
+  public List<MFEDirection> getSteps()
+  {
+    return Collections.unmodifiableList(this.steps);
+  }
+
+  /**
+   * Not supported. Don't even think about trying.
+   * @throws UnsupportedOperationException when called
+   */
+  @Override
+  public final void remove()
+  {
+    String msg = "Cooperative Path " + this.getStart().getLocation() + "->" +
+                    this.getGoal().getLocation() + ": Remove not implemented.";
+    logger.warning(msg);
+    throw new UnsupportedOperationException(msg);
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  /** Logger */
+  private static Logger logger = Logger.getLogger(MFCooperativePath.class.getName());
+
+  /** The steps of the path. <code>null</code> means waiting. */
+  private final LinkedList<MFEDirection> steps;
+
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import magefortress.creatures.behavior.movable.MFCapability;
+
+/**
+ * Features of a tile that lead down to the tile directly below it. A passage
+ * is always placed on the upper tile and can be used in both directions.
+ */
+public enum MFEVerticalPassage
+{
+  NONE   (0, MFCapability.NONE),
+  STAIRS (2, MFCapability.WALK),
+  RAMP   (1, MFCapability.WALK),
+  SHAFT  (1, MFCapability.FLY);
+
+  /**
+   * Gets the cost of moving through the passage from one level to the other.
+   * @return the cost of using the passage
+   */
+  public int getCost()
+  {
+    return this.cost;
+  }
+
+  /**
+   * Gets the movement types needed to use the passage.
+   * @return the needed capabilities
+   */
+  public MFCapability getCapability()
+  {
+    return this.capability;
+  }
+
+  /**
+   * Tests if a creature with the given capabilities can use the passage.
+   * @param _capability the movement types of the creature
+   * @return <code>false</code> if there is no passage or the creature lacks
+   *         a needed movement type
+   */
+  public boolean canBeUsedBy(MFCapability _capability)
+  {
+    return this != NONE && _capability != null &&
+           _capability.containsAll(this.capability);
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private final int cost;
+  private final MFCapability capability;
+
+  private MFEVerticalPassage(int _cost, MFCapability _capability)
+  {
+    this.cost = _cost;
+    this.capability = _capability;
+  }
+}
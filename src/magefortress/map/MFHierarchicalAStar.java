@@ -38,6 +38,10 @@ import magefortress.creatures.behavior.movable.MFCapability;
  * A call to {@link #findPath() findPath()} triggers the search for a new path
  * which finds a path on the abstracted hierarchical map and a path from the
  * starting tile to the first entrance.
+ * <p>
+ * If start and goal lie in different {@link MFLevelRegion regions} the route
+ * is searched on the graph of regions first, which is a lot smaller than the
+ * graph of entrances on deep maps.
  */
 public class MFHierarchicalAStar extends MFTemplateAStar
 {
@@ -64,11 +68,19 @@ public class MFHierarchicalAStar extends MFTemplateAStar
   {
     MFPath foundPath = null;
     
-    // start and goal are lying in the same section
-    if (areInSameSection(this.getStart(), this.getGoal())) {
+    // start and goal are lying in the same section or are connected by a passage
+    if (areInSameSection(this.getStart(), this.getGoal()) ||
+        areVerticallyConnected(this.getStart(), this.getGoal())) {
       final MFAnnotatedAStar search = 
               new MFAnnotatedAStar(this.getMap(), this.getStart(),
                   this.getGoal(), this.getClearance(), this.getCapability());
+      search.setExpansionBudget(this.getExpansionBudget());
+      foundPath = search.findPath();
+    // start and goal are lying in different regions -> find the levels to pass first
+    } else if (areInDifferentRegions(this.getStart(), this.getGoal())) {
+      final MFLevelAStar search =
+              new MFLevelAStar(this.getMap(), this.getStart(), this.getGoal(),
+                  this.getClearance(), this.getCapability(), this.pathFinder);
       foundPath = search.findPath();
     } else {
 
@@ -79,18 +91,27 @@ public class MFHierarchicalAStar extends MFTemplateAStar
       // begin search
       while (!this.getOpenList().isEmpty()) {
 
+        // out of budget -> head for the entrance closest to the goal
+        if (this.isExpansionBudgetExhausted()) {
+          if (this.getClosestNode() != null) {
+            foundPath = this.backtracePath(this.getClosestNode(), true);
+          }
+          break;
+        }
+
         // get the next node and remove it from the priority list
         final MFNode currentNode = this.getOpenList().poll();
+        this.countExpansion();
 
         // goal reached
         if (currentNode.tile == this.getGoal()) {
-          foundPath = this.backtracePath(currentNode);
+          foundPath = this.backtracePath(currentNode, false);
           break;
         }
 
         // move node to closed list
-        this.getOpenListLocations().remove(currentNode.tile.getLocation());
-        this.getClosedList().put(currentNode.tile.getLocation(), currentNode);
+        this.getOpenListLocations().remove(currentNode.tile.getPackedLocation());
+        this.getClosedList().put(currentNode.tile.getPackedLocation(), currentNode);
 
         // add connected tiles to the open list
         for (MFEdge edge : currentNode.tile.getEntrance().getEdges()) {
@@ -108,7 +129,7 @@ public class MFHierarchicalAStar extends MFTemplateAStar
           }
 
           // skip if already processed
-          if (this.getClosedList().containsKey(neighbor.getLocation())) {
+          if (this.getClosedList().containsKey(neighbor.getTile().getPackedLocation())) {
             continue;
           }
 
@@ -145,10 +166,32 @@ public class MFHierarchicalAStar extends MFTemplateAStar
     return result;
   }
 
+  /**
+   * Tests if start and goal lie directly above each other and are connected by
+   * a passage the creature can use.
+   * @return <code>true</code> if the creature can change between the two tiles
+   */
+  private boolean areVerticallyConnected(final MFTile _start, final MFTile _goal)
+  {
+    return this.getMap().getVerticalPassage(_start, _goal).canBeUsedBy(this.getCapability());
+  }
+
+  /**
+   * Tests if start and goal belong to different regions, so that the search
+   * across levels can be used.
+   * @return <code>true</code> if both tiles belong to regions and these differ
+   */
+  private boolean areInDifferentRegions(final MFTile _start, final MFTile _goal)
+  {
+    final MFLevelRegion startRegion = MFLevelAStar.getRegion(this.getMap(), _start);
+    final MFLevelRegion goalRegion  = MFLevelAStar.getRegion(this.getMap(), _goal);
+    return startRegion != null && goalRegion != null && startRegion != goalRegion;
+  }
+
   private boolean isEntranceConnectedToSection(final MFTile _entranceTile, final MFSection _section)
   {
     boolean result = false;
-    for (MFEDirection dir : MFEDirection.values()) {
+    for (MFEDirection dir : MFEDirection.plain()) {
       MFTile neighbor = this.getMap().getNeighbor(_entranceTile, dir);
       if (neighbor != null && neighbor.getParentSection() == _section) {
         result = true;
@@ -175,12 +218,14 @@ public class MFHierarchicalAStar extends MFTemplateAStar
   /**
    * Backtraces from the given node and saves the entrances passed on the way plus
    * the target tile.
-   * @param _node the goal node
+   * @param _node the goal node or the closest entrance if the path is partial
+   * @param _isPartial <code>true</code> if the search ran out of budget
    * @return the entrances passed on the way plus the target tile
    */
-  private MFPath backtracePath(MFNode _node)
+  private MFPath backtracePath(MFNode _node, final boolean _isPartial)
   {
-    if (_node.tile != this.getGoal()) {
+    final MFTile lastTile = _node.tile;
+    if (!_isPartial && _node.tile != this.getGoal()) {
       String msg = "Path " + this.getStart().getLocation() + "->" +
                    this.getGoal().getLocation() + ": Last node of backtraced " +
                    "path is not the target tile but " + _node.tile.getLocation();
@@ -206,9 +251,12 @@ public class MFHierarchicalAStar extends MFTemplateAStar
     }
 
     final MFPath result = 
-            new MFHierarchicalPath(this.getStart(), this.getGoal(), path,
+            new MFHierarchicalPath(this.getStart(), lastTile, path,
                     this.getClearance(), this.getCapability(),
                     this.pathFinder, cost);
+    if (_isPartial) {
+      result.setPartial();
+    }
     return result;
   }
 
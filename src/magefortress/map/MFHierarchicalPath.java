@@ -127,7 +127,7 @@ public class MFHierarchicalPath extends MFPath implements MFIPathFinderListener
     }
 
     // switch to next subpath and search for the next one if we haven't reached the goal
-    if (!this.currentSubpath.hasNext()) {
+    if (isFinished(this.currentSubpath)) {
       this.currentSubpath = this.nextSubpath;
       this.nextSubpath = null;
       if (this.currentSubpath != null &&
@@ -155,6 +155,7 @@ public class MFHierarchicalPath extends MFPath implements MFIPathFinderListener
   @Override
   public void pathSearchFinished(MFPath _path)
   {
+    --this.pendingSearches;
     // next subpath was found
     if (_path != null) {
       if (this.currentSubpath == null) {
@@ -173,6 +174,20 @@ public class MFHierarchicalPath extends MFPath implements MFIPathFinderListener
     }
   }
 
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+  /**
+   * Checks if every step of the path was taken. Unlike {@link #hasNext()
+   * hasNext()} it stays <code>false</code> while the search for the next
+   * subpath is still running.
+   * @return <code>true</code> if there are no more steps to come
+   */
+  boolean isFinished()
+  {
+    return this.path.size() <= 1 && this.pendingSearches == 0 &&
+           this.nextSubpath == null &&
+           (this.currentSubpath == null || isFinished(this.currentSubpath));
+  }
+
   //---vvv---      PRIVATE METHODS      ---vvv---
   /** Logger */
   private static Logger logger = Logger.getLogger(MFAnnotatedPath.class.getName());
@@ -190,6 +205,23 @@ public class MFHierarchicalPath extends MFPath implements MFIPathFinderListener
   private MFPath currentSubpath;
   /** Next subpath */
   private MFPath nextSubpath;
+  /** Number of subpath searches not finished yet */
+  private int pendingSearches;
+
+  /**
+   * Checks if all steps of a subpath were taken. Subpaths leading across levels
+   * are hierarchical paths themselves, which may run out of steps while they
+   * are waiting for their own subpaths.
+   * @param _subpath the subpath
+   * @return <code>true</code> if no more steps will come from the subpath
+   */
+  private static boolean isFinished(final MFPath _subpath)
+  {
+    if (_subpath instanceof MFHierarchicalPath) {
+      return ((MFHierarchicalPath) _subpath).isFinished();
+    }
+    return !_subpath.hasNext();
+  }
 
   /**
    * Starts searching for a path between the current head of the path queue and
@@ -218,6 +250,7 @@ public class MFHierarchicalPath extends MFPath implements MFIPathFinderListener
     final MFTile start = this.path.poll();
     final MFTile goal  = this.path.peek();
 
+    ++this.pendingSearches;
     this.pathFinder.enqueuePathSearch(start.getLocation(), goal.getLocation(),
                                       this.clearance, this.capability, this);
   }
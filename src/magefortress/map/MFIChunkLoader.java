@@ -0,0 +1,49 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.List;
+import magefortress.storage.DataAccessException;
+
+/**
+ * Reads the tiles of a chunk when a lazily loaded {@link MFMap} accesses it
+ * for the first time.
+ */
+public interface MFIChunkLoader
+{
+  /**
+   * Loads the tiles inside a rectangle of a level. Tiles that aren't returned
+   * stay solid rock.
+   * @param _x the x coordinate of the north western corner
+   * @param _y the y coordinate of the north western corner
+   * @param _z the level
+   * @param _width the number of tiles in x direction
+   * @param _height the number of tiles in y direction
+   * @return the tiles inside the rectangle
+   * @throws DataAccessException if the tiles couldn't be read
+   */
+  public List<MFTile> loadChunk(int _x, int _y, int _z, int _width, int _height)
+                                                    throws DataAccessException;
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import magefortress.storage.DataAccessException;
+
+/**
+ * Saves and loads whole levels of maps in a compact binary form.
+ */
+public interface MFILevelDao
+{
+  /**
+   * Checks if the tiles of a map are saved as levels.
+   * @param _mapId the id of the map
+   * @return <code>true</code> if at least one level is saved
+   * @throws DataAccessException if the levels couldn't be read
+   */
+  public boolean hasLevels(int _mapId) throws DataAccessException;
+
+  /**
+   * Loads an encoded level.
+   * @param _mapId the id of the map
+   * @param _z the level
+   * @return the encoded level or <code>null</code> if it wasn't saved
+   * @throws DataAccessException if the level couldn't be read
+   */
+  public byte[] loadLevel(int _mapId, int _z) throws DataAccessException;
+
+  /**
+   * Saves an encoded level, replacing the level saved before.
+   * @param _mapId the id of the map
+   * @param _z the level
+   * @param _data the encoded level
+   * @throws DataAccessException if the level couldn't be written
+   */
+  public void saveLevel(int _mapId, int _z, byte[] _data) throws DataAccessException;
+
+  /**
+   * Deletes all levels of a map.
+   * @param _mapId the id of the map
+   * @return the number of deleted levels
+   * @throws DataAccessException if the levels couldn't be deleted
+   */
+  public int deleteAllOfMap(int _mapId) throws DataAccessException;
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+
+}
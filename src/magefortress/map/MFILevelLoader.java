@@ -0,0 +1,45 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import magefortress.storage.DataAccessException;
+
+/**
+ * Reads a whole level when a {@link MFMap} loaded level by level accesses
+ * it for the first time. Levels may be
+ * {@link MFMap#setPrefetchExecutor(java.util.concurrent.ExecutorService) prefetched}
+ * on another thread, so the loader must not touch the map.
+ */
+interface MFILevelLoader
+{
+  /**
+   * Loads the tiles of a level.
+   * @param _z the level
+   * @return the tiles in a storage covering the whole level or
+   *         <code>null</code> if no tiles of the level were saved
+   * @throws DataAccessException if the level couldn't be read
+   */
+  MFTileStorage loadLevel(int _z) throws DataAccessException;
+}
@@ -24,13 +24,56 @@
  */
 package magefortress.map;
 
+import magefortress.core.MFLongHashMap;
+import magefortress.storage.DataAccessException;
 import magefortress.storage.MFIDao;
+import magefortress.storage.MFISaveProgress;
 
 /**
  *
  */
 public interface MFIMapDao extends MFIDao<MFMap>
 {
+  /**
+   * Loads a map without its tiles. The tiles are loaded chunk by chunk when
+   * they are accessed for the first time.
+   * @param _id the id of the map
+   * @return the map
+   * @throws DataAccessException if the map couldn't be read
+   */
+  public MFMap loadLazily(int _id) throws DataAccessException;
+
+  /**
+   * Loads a map without its tiles. Each level is loaded as a whole when one
+   * of its tiles is accessed for the first time.
+   * @param _id the id of the map
+   * @return the map
+   * @throws DataAccessException if the map couldn't be read
+   */
+  public MFMap loadByLevel(int _id) throws DataAccessException;
+
+  /**
+   * Saves only the tiles changed since the map was loaded or last saved.
+   * Cheap enough for frequent autosaves.
+   * @throws DataAccessException if the map couldn't be saved
+   */
+  public void saveChanges() throws DataAccessException;
+
+  /**
+   * Saves the tiles of a snapshot of an already saved map in a single
+   * transaction. Meant to be called on a background thread, so the map
+   * itself isn't touched. Chunks that weren't loaded when the snapshot was
+   * taken are not written.
+   * @param _snapshot the state of the map to save
+   * @param _onlyChanges if only the tiles changed before the snapshot was
+   *        taken are saved
+   * @param _progress told after each saved chunk or level
+   * @return the ids of the tiles saved for the first time by packed location
+   * @throws DataAccessException if the snapshot couldn't be saved
+   * @throws IllegalArgumentException if the map was never saved
+   */
+  public MFLongHashMap<Integer> saveSnapshot(MFMapSnapshot _snapshot,
+          boolean _onlyChanges, MFISaveProgress _progress) throws DataAccessException;
 
   //---vvv---      PRIVATE METHODS      ---vvv---
 
@@ -0,0 +1,56 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import magefortress.storage.DataAccessException;
+
+/**
+ * Notifies an object about the progress of a map saved in the background.
+ * All methods are called on the game thread.
+ * @see MFMapSaveService
+ */
+public interface MFIMapSaveListener
+{
+  /**
+   * Sends the progress of the save.
+   * @param _map the map being saved
+   * @param _saved the number of chunks or levels saved so far
+   * @param _total the number of chunks or levels to save
+   */
+  public void mapSaveProgressed(MFMap _map, int _saved, int _total);
+
+  /**
+   * Notifies that the map was saved.
+   * @param _map the saved map
+   */
+  public void mapSaveFinished(MFMap _map);
+
+  /**
+   * Notifies that nothing was saved. The changes will be saved next time.
+   * @param _map the map that couldn't be saved
+   * @param _e the reason
+   */
+  public void mapSaveFailed(MFMap _map, DataAccessException _e);
+}
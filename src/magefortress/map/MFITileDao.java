@@ -25,6 +25,7 @@
 package magefortress.map;
 
 import java.util.List;
+import magefortress.core.MFLongHashMap;
 import magefortress.storage.DataAccessException;
 import magefortress.storage.MFIDao;
 
@@ -34,6 +35,12 @@ import magefortress.storage.MFIDao;
 public interface MFITileDao extends MFIDao<MFTile>
 {
   public List<MFTile> loadAllOfMap(int _mapId) throws DataAccessException;
+  public int loadAllIntoMap(MFMap _map) throws DataAccessException;
+  public List<MFTile> loadAllOfChunk(int _mapId, int _x, int _y, int _z,
+                                     int _width, int _height) throws DataAccessException;
+  public void saveAll(List<MFTile> _tiles) throws DataAccessException;
+  public MFLongHashMap<Integer> saveAllReturningIds(List<MFTile> _tiles) throws DataAccessException;
+  public int deleteAllOfMap() throws DataAccessException;
   public int getMapId();
 
   //---vvv---      PRIVATE METHODS      ---vvv---
@@ -0,0 +1,180 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import magefortress.core.MFEDirection;
+import magefortress.creatures.behavior.movable.MFCapability;
+
+/**
+ * Searches a route between two {@link MFLevelRegion regions}. The nodes are
+ * the tiles at both ends of the stairs, ramps and shafts leading out of a
+ * region. Moving inside a region is estimated by the distance between two
+ * tiles, so the search only looks at a handful of nodes even on deep maps.
+ * <p>
+ * The found route is returned as a {@link MFHierarchicalPath} which searches
+ * the paths between the passages on the entrance graph when they are needed.
+ */
+class MFLevelAStar extends MFTemplateAStar
+{
+  public MFLevelAStar(MFMap _map, MFTile _start, MFTile _goal,
+                    int _clearance, MFCapability _capability,
+                    MFPathFinder _pathFinder)
+  {
+    super(_map, _start, _goal, _clearance, _capability);
+    if (_pathFinder == null) {
+      String msg = "LevelAStar " + _start.getLocation() + "->" +
+                    _goal.getLocation() + ": Cannot create search without a " +
+                    "path finder.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+
+    this.pathFinder = _pathFinder;
+  }
+
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+
+  /**
+   * Gets the region a tile belongs to. Entrances lying between two sections
+   * may not belong to a section themselves, so their neighbors are asked.
+   * @param _map the map
+   * @param _tile the tile
+   * @return the region or <code>null</code> if the tile does not belong to one
+   */
+  static MFLevelRegion getRegion(final MFMap _map, final MFTile _tile)
+  {
+    if (_tile.getParentSection() != null) {
+      return _tile.getParentSection().getRegion();
+    }
+    if (_tile.isEntrance()) {
+      for (MFEDirection dir : MFEDirection.plain()) {
+        final MFTile neighbor = _map.getNeighbor(_tile, dir);
+        if (neighbor != null && neighbor.getParentSection() != null &&
+            _map.canWalkTo(_tile, neighbor, dir)) {
+          return neighbor.getParentSection().getRegion();
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  MFPath runSearch()
+  {
+    MFPath foundPath = null;
+    final MFLevelRegion goalRegion = getRegion(this.getMap(), this.getGoal());
+
+    while (!this.getOpenList().isEmpty()) {
+
+      final MFNode currentNode = this.getOpenList().poll();
+
+      // goal reached
+      if (currentNode.tile == this.getGoal()) {
+        foundPath = this.backtracePath(currentNode);
+        break;
+      }
+
+      // move node to closed list
+      this.getOpenListLocations().remove(currentNode.tile.getPackedLocation());
+      this.getClosedList().put(currentNode.tile.getPackedLocation(), currentNode);
+
+      final MFLevelRegion region = getRegion(this.getMap(), currentNode.tile);
+      if (region == null) {
+        continue;
+      }
+
+      // goal lies in the same region -> head straight for it
+      if (region == goalRegion) {
+        this.processNeighbor(currentNode, this.getGoal());
+      }
+
+      for (MFEdge exit : region.getExits()) {
+        // skip if clearance is too big
+        if (exit.getClearance() > this.getClearance()) {
+          continue;
+        }
+        // skip if capabilities are not sufficient
+        if (!this.getCapability().containsAll(exit.getCapability())) {
+          continue;
+        }
+
+        // walk to the passage or take it if we are already there
+        final MFTile exitTile = exit.getFrom().getTile();
+        final MFTile neighbor = (exitTile == currentNode.tile ?
+                                              exit.getTo().getTile() : exitTile);
+
+        // skip if already processed
+        if (this.getClosedList().containsKey(neighbor.getPackedLocation())) {
+          continue;
+        }
+
+        this.processNeighbor(currentNode, neighbor);
+      }
+    }
+
+    return foundPath;
+  }
+
+  /**
+   * Taking a passage costs as much as the passage, moving inside a region is
+   * estimated by the distance between the tiles.
+   */
+  @Override
+  int costFunction(final MFTile _start, final MFTile _goal)
+  {
+    final MFEVerticalPassage passage = this.getMap().getVerticalPassage(_start, _goal);
+    if (passage != MFEVerticalPassage.NONE) {
+      return passage.getCost();
+    }
+    return MFTemplateAStar.estimateDistance(_start, _goal);
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  /** Path finder manager used to search the subpaths */
+  private final MFPathFinder pathFinder;
+
+  /**
+   * Backtraces from the goal node and saves the ends of all passages taken.
+   * @param _node the goal node
+   * @return the passages taken on the way plus start and target tile
+   */
+  private MFPath backtracePath(MFNode _node)
+  {
+    final Deque<MFTile> path = new ArrayDeque<MFTile>();
+    final int cost = _node.g;
+
+    while (_node != null) {
+      path.push(_node.tile);
+      _node = _node.parent;
+    }
+
+    return new MFHierarchicalPath(this.getStart(), this.getGoal(), path,
+                    this.getClearance(), this.getCapability(), this.pathFinder,
+                    cost);
+  }
+
+}
@@ -0,0 +1,231 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import magefortress.map.ground.MFGround;
+import magefortress.storage.DataAccessException;
+
+/**
+ * Converts a level of a map to a compact binary form and back. The tiles are
+ * written column by column like {@link MFMap#getLevelMap} as runs of tiles
+ * with the same saved flags and ground type, and the runs are deflated.
+ * Solid rock and long tunnels shrink to a few bytes.
+ * <p>
+ * Format: version, width, height, then runs of (length, flags, ground id)
+ * until all tiles are covered. All values are ints.
+ */
+final class MFLevelCodec
+{
+  /** Version of the format, written first */
+  static final int VERSION = 1;
+
+  /**
+   * Encodes a level. The chunks of the level must have been loaded when the
+   * snapshot was taken.
+   * @param _snapshot the state of the map
+   * @param _z the level
+   * @return the encoded level
+   */
+  static byte[] encode(MFMapSnapshot _snapshot, int _z)
+  {
+    try {
+      return encode(_snapshot, _z, null);
+    } catch (DataAccessException e) {
+      throw new AssertionError("Unexpected exception: nothing was decoded. " + e);
+    }
+  }
+
+  /**
+   * Encodes a level. Tiles of chunks that weren't loaded when the snapshot
+   * was taken are copied from the level saved before.
+   * @param _snapshot the state of the map
+   * @param _z the level
+   * @param _saved the level saved before or <code>null</code> if the
+   *        unloaded tiles are solid rock
+   * @return the encoded level
+   * @throws DataAccessException if the saved level is corrupt
+   */
+  static byte[] encode(MFMapSnapshot _snapshot, int _z, byte[] _saved)
+                                                      throws DataAccessException
+  {
+    final int width = _snapshot.getWidth();
+    final int height = _snapshot.getHeight();
+    final int[][] saved = (_saved == null ? null : decodeRuns(_saved, _z, width, height));
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      final DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+      out.writeInt(VERSION);
+      out.writeInt(width);
+      out.writeInt(height);
+
+      int runLength = 0;
+      int runFlags = 0;
+      int runGroundId = 0;
+      for (int x = 0; x < width; ++x) {
+        for (int y = 0; y < height; ++y) {
+          final int flags;
+          final int groundId;
+          if (saved != null && !_snapshot.isLoaded(x, y, _z)) {
+            flags = saved[0][x * height + y];
+            groundId = saved[1][x * height + y];
+          } else {
+            flags = _snapshot.getFlags(x, y, _z) & MFTileStorage.PERSISTENT_FLAGS;
+            groundId = groundId(_snapshot.getGround(x, y, _z));
+          }
+          if (runLength > 0 && flags == runFlags && groundId == runGroundId) {
+            ++runLength;
+            continue;
+          }
+          if (runLength > 0) {
+            writeRun(out, runLength, runFlags, runGroundId);
+          }
+          runLength = 1;
+          runFlags = flags;
+          runGroundId = groundId;
+        }
+      }
+      writeRun(out, runLength, runFlags, runGroundId);
+      out.close();
+    } catch (IOException e) {
+      throw new AssertionError("Unexpected exception: writing to memory failed. " + e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decodes a level into a storage covering the whole level. The tiles are
+   * unsaved because levels are saved as a whole.
+   * @param _data the encoded level
+   * @param _z the level
+   * @param _width the width of the map
+   * @param _height the height of the map
+   * @param _groundTypes the ground types by id
+   * @param _defaultGround the ground type of tiles with unknown ground type
+   * @return the storage of the level
+   * @throws DataAccessException if the data is corrupt or doesn't fit the map
+   */
+  static MFTileStorage decode(byte[] _data, int _z, int _width, int _height,
+                  Map<Integer, MFGround> _groundTypes, MFGround _defaultGround)
+                                                      throws DataAccessException
+  {
+    final int[][] tiles = decodeRuns(_data, _z, _width, _height);
+    final MFTileStorage result = new MFTileStorage(0, 0, _z, _width, _height, 1,
+                                                   _defaultGround);
+    // the ground type of the previous tile, as runs mostly share it
+    int lastGroundId = MFTileStorage.UNSAVED_ID;
+    MFGround ground = _defaultGround;
+    for (int index = 0; index < tiles[0].length; ++index) {
+      if (index == 0 || tiles[1][index] != lastGroundId) {
+        lastGroundId = tiles[1][index];
+        ground = _groundTypes.get(lastGroundId);
+        if (ground == null) {
+          ground = _defaultGround;
+        }
+      }
+      result.loadTile(index / _height, index % _height, _z,
+                      MFTileStorage.UNSAVED_ID, tiles[0][index], ground);
+    }
+    return result;
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFLevelCodec.class.getName());
+
+  private MFLevelCodec()
+  {
+  }
+
+  /**
+   * Reads the runs of an encoded level.
+   * @return the flags and the ground ids of the tiles, column by column
+   */
+  private static int[][] decodeRuns(byte[] _data, int _z, int _width, int _height)
+                                                      throws DataAccessException
+  {
+    final int size = _width * _height;
+    final int[][] result = new int[2][size];
+    try {
+      final DataInputStream in = new DataInputStream(
+                      new InflaterInputStream(new ByteArrayInputStream(_data)));
+      final int version = in.readInt();
+      final int width = in.readInt();
+      final int height = in.readInt();
+      if (version != VERSION || width != _width || height != _height) {
+        String msg = "LevelCodec: Cannot decode level " + _z + " of version " +
+                     version + " and size " + width + "/" + height +
+                     " for a map of size " + _width + "/" + _height;
+        logger.severe(msg);
+        throw new DataAccessException(msg);
+      }
+
+      int index = 0;
+      while (index < size) {
+        final int runLength = in.readInt();
+        final int flags = in.readInt();
+        final int groundId = in.readInt();
+        if (runLength < 1 || runLength > size - index ||
+            (flags & ~MFTileStorage.PERSISTENT_FLAGS) != 0) {
+          String msg = "LevelCodec: Corrupt run at tile " + index + " of level " + _z;
+          logger.severe(msg);
+          throw new DataAccessException(msg);
+        }
+        Arrays.fill(result[0], index, index + runLength, flags);
+        Arrays.fill(result[1], index, index + runLength, groundId);
+        index += runLength;
+      }
+      in.close();
+    } catch (IOException e) {
+      String msg = "LevelCodec: Couldn't decode level " + _z;
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+    return result;
+  }
+
+  private static int groundId(MFGround _ground)
+  {
+    return (_ground == null ? MFTileStorage.UNSAVED_ID : _ground.getId());
+  }
+
+  private static void writeRun(DataOutputStream _out, int _length, int _flags,
+                               int _groundId) throws IOException
+  {
+    _out.writeInt(_length);
+    _out.writeInt(_flags);
+    _out.writeInt(_groundId);
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+import magefortress.creatures.behavior.movable.MFEMovementType;
+
+/**
+ * Bitsets of the tiles of each level that have a certain property, so passes
+ * over a whole level can skip solid rock. Every 64 tiles form a block, and a
+ * summary bit per block tells if any bit of the block is set, so 4096 empty
+ * tiles are skipped at once.
+ * <p>
+ * Tiles are numbered <code>x * height + y</code>, i.e. column by column like
+ * {@link MFMap#getLevelMap}. The bits are kept up to date by the storages of
+ * the loaded chunks. Chunks dropped from memory keep their bits, as they are
+ * only dropped unchanged. Different levels may be changed by different
+ * threads.
+ */
+final class MFLevelOccupancy
+{
+  /** The properties tracked */
+  enum Layer {DUG_OUT, WALKABLE, FLOOR, OBJECT};
+
+  /** Number of tiles per block */
+  static final int BLOCK_SIZE = 64;
+
+  /**
+   * Constructor. All tiles start as solid rock with a floor, like the tiles
+   * of a new chunk.
+   */
+  MFLevelOccupancy(int _width, int _height, int _depth)
+  {
+    if (_width < 1 || _height < 1 || _depth < 1) {
+      String msg = "LevelOccupancy: Cannot create for size " + _width +
+                   "/" + _height + "/" + _depth;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.height = _height;
+    this.size = _width * _height;
+
+    final int blockCount = (this.size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    final int summaryCount = (blockCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    this.blocks = new long[LAYERS.length][_depth][blockCount];
+    this.summaries = new long[LAYERS.length][_depth][summaryCount];
+
+    // set the floor bits of all tiles
+    final int floor = Layer.FLOOR.ordinal();
+    for (int z = 0; z < _depth; ++z) {
+      Arrays.fill(this.blocks[floor][z], -1L);
+      Arrays.fill(this.summaries[floor][z], -1L);
+      final int unused = blockCount * BLOCK_SIZE - this.size;
+      this.blocks[floor][z][blockCount - 1] >>>= unused;
+      final int unusedBlocks = summaryCount * BLOCK_SIZE - blockCount;
+      this.summaries[floor][z][summaryCount - 1] >>>= unusedBlocks;
+    }
+  }
+
+  /**
+   * Gets the number of a tile.
+   */
+  int index(int _x, int _y)
+  {
+    return _x * this.height + _y;
+  }
+
+  int getX(int _index)
+  {
+    return _index / this.height;
+  }
+
+  int getY(int _index)
+  {
+    return _index % this.height;
+  }
+
+  boolean get(Layer _layer, int _x, int _y, int _z)
+  {
+    final int index = this.index(_x, _y);
+    return (this.blocks[_layer.ordinal()][_z][index >>> 6] & (1L << index)) != 0;
+  }
+
+  void set(Layer _layer, int _x, int _y, int _z, boolean _value)
+  {
+    final long[] levelBlocks = this.blocks[_layer.ordinal()][_z];
+    final long[] levelSummary = this.summaries[_layer.ordinal()][_z];
+    final int index = this.index(_x, _y);
+    final int block = index >>> 6;
+    if (_value) {
+      levelBlocks[block] |= 1L << index;
+      levelSummary[block >>> 6] |= 1L << block;
+    } else {
+      levelBlocks[block] &= ~(1L << index);
+      if (levelBlocks[block] == 0) {
+        levelSummary[block >>> 6] &= ~(1L << block);
+      }
+    }
+  }
+
+  /**
+   * Updates the layers derived from the bitfield of a tile.
+   * @param _oldFlags the bitfield before the change
+   * @param _newFlags the bitfield after the change
+   */
+  void flagsChanged(int _x, int _y, int _z, int _oldFlags, int _newFlags)
+  {
+    final int oldLayers = flagLayers(_oldFlags);
+    final int changed = oldLayers ^ flagLayers(_newFlags);
+    if (changed == 0) {
+      return;
+    }
+    for (Layer layer : FLAG_LAYERS) {
+      final int bit = 1 << layer.ordinal();
+      if ((changed & bit) != 0) {
+        this.set(layer, _x, _y, _z, (oldLayers & bit) == 0);
+      }
+    }
+  }
+
+  /**
+   * Counts the tiles of a level with the property.
+   */
+  int count(Layer _layer, int _z)
+  {
+    final long[] levelBlocks = this.blocks[_layer.ordinal()][_z];
+    int result = 0;
+    for (int index = this.nextBlock(_layer, _z, 0); index >= 0;
+                               index = this.nextBlock(_layer, _z, index + 1)) {
+      result += Long.bitCount(levelBlocks[index]);
+    }
+    return result;
+  }
+
+  /**
+   * Finds the next tile of a level with the property.
+   * @param _fromIndex the number of the first tile to check
+   * @return the number of the tile or <code>-1</code> if there is none
+   */
+  int nextSetBit(Layer _layer, int _z, int _fromIndex)
+  {
+    if (_fromIndex >= this.size) {
+      return -1;
+    }
+    final long[] levelBlocks = this.blocks[_layer.ordinal()][_z];
+    int block = _fromIndex >>> 6;
+    final long bits = levelBlocks[block] & (-1L << _fromIndex);
+    if (bits != 0) {
+      return block * BLOCK_SIZE + Long.numberOfTrailingZeros(bits);
+    }
+    block = this.nextBlock(_layer, _z, block + 1);
+    if (block < 0) {
+      return -1;
+    }
+    return block * BLOCK_SIZE + Long.numberOfTrailingZeros(levelBlocks[block]);
+  }
+
+  /**
+   * Finds the previous tile of a level with the property.
+   * @param _fromIndex the number of the first tile to check
+   * @return the number of the tile or <code>-1</code> if there is none
+   */
+  int previousSetBit(Layer _layer, int _z, int _fromIndex)
+  {
+    if (_fromIndex < 0) {
+      return -1;
+    }
+    final int fromIndex = Math.min(_fromIndex, this.size - 1);
+    final long[] levelBlocks = this.blocks[_layer.ordinal()][_z];
+    int block = fromIndex >>> 6;
+    final long bits = levelBlocks[block] & (-1L >>> (63 - (fromIndex & 63)));
+    if (bits != 0) {
+      return block * BLOCK_SIZE + 63 - Long.numberOfLeadingZeros(bits);
+    }
+    block = this.previousBlock(_layer, _z, block - 1);
+    if (block < 0) {
+      return -1;
+    }
+    return block * BLOCK_SIZE + 63 - Long.numberOfLeadingZeros(levelBlocks[block]);
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFLevelOccupancy.class.getName());
+  private static final Layer[] LAYERS = Layer.values();
+  private static final Layer[] FLAG_LAYERS = {Layer.DUG_OUT, Layer.WALKABLE, Layer.FLOOR};
+  private final int height;
+  /** Number of tiles per level */
+  private final int size;
+  /** The bits of the tiles. Order: layer -> z -> block */
+  private final long[][][] blocks;
+  /** A bit per non-empty block. Order: layer -> z -> block / 64 */
+  private final long[][][] summaries;
+
+  /**
+   * Gets the layers a bitfield belongs to as bits by layer ordinal.
+   */
+  private static int flagLayers(int _flags)
+  {
+    int result = 0;
+    if ((_flags & MFTileStorage.DUG_OUT) != 0) {
+      result |= 1 << Layer.DUG_OUT.ordinal();
+    }
+    if (MFTileStorage.isWalkable(_flags, MFEMovementType.WALK)) {
+      result |= 1 << Layer.WALKABLE.ordinal();
+    }
+    if ((_flags & MFTileStorage.FLOOR) != 0) {
+      result |= 1 << Layer.FLOOR.ordinal();
+    }
+    return result;
+  }
+
+  /**
+   * Finds the next non-empty block.
+   * @return the block or <code>-1</code>
+   */
+  private int nextBlock(Layer _layer, int _z, int _fromBlock)
+  {
+    final long[] levelSummary = this.summaries[_layer.ordinal()][_z];
+    int summary = _fromBlock >>> 6;
+    if (summary >= levelSummary.length) {
+      return -1;
+    }
+    long bits = levelSummary[summary] & (-1L << _fromBlock);
+    while (bits == 0) {
+      if (++summary == levelSummary.length) {
+        return -1;
+      }
+      bits = levelSummary[summary];
+    }
+    return summary * BLOCK_SIZE + Long.numberOfTrailingZeros(bits);
+  }
+
+  /**
+   * Finds the previous non-empty block.
+   * @return the block or <code>-1</code>
+   */
+  private int previousBlock(Layer _layer, int _z, int _fromBlock)
+  {
+    if (_fromBlock < 0) {
+      return -1;
+    }
+    final long[] levelSummary = this.summaries[_layer.ordinal()][_z];
+    int summary = _fromBlock >>> 6;
+    long bits = levelSummary[summary] & (-1L >>> (63 - (_fromBlock & 63)));
+    while (bits == 0) {
+      if (--summary < 0) {
+        return -1;
+      }
+      bits = levelSummary[summary];
+    }
+    return summary * BLOCK_SIZE + 63 - Long.numberOfLeadingZeros(bits);
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Groups the connected sections of one level. Regions are the topmost tier of
+ * the navigation graph: routes leading to another level are searched between
+ * regions first and refined by the entrance graph when the creature gets
+ * there.
+ * @see MFLevelAStar
+ */
+class MFLevelRegion
+{
+  /**
+   * Constructor
+   * @param _level the level on which this region lies
+   */
+  public MFLevelRegion(int _level)
+  {
+    this.level = _level;
+    this.sections = new HashSet<MFSection>();
+    this.exits = new LinkedList<MFEdge>();
+  }
+
+  public int getLevel()
+  {
+    return this.level;
+  }
+
+  public Set<MFSection> getSections()
+  {
+    return Collections.unmodifiableSet(this.sections);
+  }
+
+  /**
+   * Gets the edges leading from this region to other levels.
+   * @return the unmodifiable list of vertical edges
+   */
+  public List<MFEdge> getExits()
+  {
+    return Collections.unmodifiableList(this.exits);
+  }
+
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+
+  /**
+   * Adds a section to this region. The section's region will be set to this
+   * region.
+   * @param _section a section of this region
+   */
+  void addSection(MFSection _section)
+  {
+    if (_section == null) {
+      String msg = "LevelRegion: Cannot add null section.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    if (_section.getLevel() != this.level) {
+      String msg = "LevelRegion: Cannot add a section of level " +
+                   _section.getLevel() + " to a region of level " + this.level;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    _section.setRegion(this);
+    this.sections.add(_section);
+  }
+
+  /**
+   * Moves all sections of another region into this one.
+   * @param _other the region to empty
+   */
+  void absorb(MFLevelRegion _other)
+  {
+    for (MFSection section : _other.sections) {
+      this.addSection(section);
+    }
+    _other.sections.clear();
+    _other.exits.clear();
+  }
+
+  /**
+   * Adds an edge leading to another level.
+   * @param _exit the vertical edge
+   */
+  void addExit(MFEdge _exit)
+  {
+    if (_exit == null) {
+      String msg = "LevelRegion: Cannot add null exit.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.exits.add(_exit);
+  }
+
+  void clearExits()
+  {
+    this.exits.clear();
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private final static Logger logger = Logger.getLogger(MFLevelRegion.class.getName());
+  private final int level;
+  private final Set<MFSection> sections;
+  private final List<MFEdge> exits;
+}
@@ -0,0 +1,175 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import magefortress.core.Immutable;
+import magefortress.storage.DataAccessException;
+import magefortress.storage.MFPreparedQuery;
+import magefortress.storage.MFSqlConnector;
+
+/**
+ * Saves every level of a map as one row holding the level encoded by
+ * {@link MFLevelCodec}.
+ */
+public class MFLevelSqlDao implements MFILevelDao, Immutable
+{
+  // QUERIES
+  private static final String READ_LEVEL = "SELECT data FROM level_data " +
+          "WHERE map_id=? AND z=?;";
+  private static final String COUNT_LEVELS = "SELECT COUNT(*) AS levels " +
+          "FROM level_data WHERE map_id=?;";
+  private static final String SAVE_LEVEL = "INSERT OR REPLACE INTO level_data " +
+          "(map_id, z, data) VALUES (?,?,?);";
+  private static final String DESTROY_MAP_LEVELS = "DELETE FROM level_data " +
+          "WHERE map_id=?;";
+
+  /**
+   * Constructor
+   * @param _db the database
+   */
+  public MFLevelSqlDao(MFSqlConnector _db)
+  {
+    if (_db == null) {
+      String msg = this.getClass().getSimpleName() + ": Cannot create " +
+                                                        "without a database.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.db = _db;
+  }
+
+  /**
+   * To be called once after the database was initialized. Saves the queries
+   * and keeps their handles for this DAO.
+   */
+  public void prepareStatements()
+  {
+    final boolean prepared = this.db.prepareQuery("READ_LEVEL", READ_LEVEL) &
+            this.db.prepareQuery("COUNT_LEVELS", COUNT_LEVELS) &
+            this.db.prepareQuery("SAVE_LEVEL", SAVE_LEVEL) &
+            this.db.prepareQuery("DESTROY_MAP_LEVELS", DESTROY_MAP_LEVELS);
+    if (prepared) {
+      try {
+        this.queries = new Queries(this.db);
+      } catch (DataAccessException e) {
+        // they were just saved
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  @Override
+  public boolean hasLevels(int _mapId) throws DataAccessException
+  {
+    final ResultSet rs = this.db.bind(this.getQueries().countLevels)
+                                .setInt(1, _mapId).executeQuery();
+    try {
+      final boolean result = rs.next() && rs.getInt(1) > 0;
+      rs.close();
+      return result;
+    } catch (SQLException e) {
+      String msg = this.getClass().getSimpleName() + ": Couldn't count " +
+                   "levels of map #" + _mapId;
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+  }
+
+  @Override
+  public byte[] loadLevel(int _mapId, int _z) throws DataAccessException
+  {
+    final ResultSet rs = this.db.bind(this.getQueries().readLevel)
+                                .setInt(1, _mapId).setInt(2, _z).executeQuery();
+    try {
+      final byte[] result = (rs.next() ? rs.getBytes(1) : null);
+      rs.close();
+      return result;
+    } catch (SQLException e) {
+      String msg = this.getClass().getSimpleName() + ": Couldn't load " +
+                   "level " + _z + " of map #" + _mapId;
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+  }
+
+  @Override
+  public void saveLevel(int _mapId, int _z, byte[] _data) throws DataAccessException
+  {
+    if (_data == null) {
+      String msg = this.getClass().getSimpleName() + ": Cannot save level " +
+                   _z + " of map #" + _mapId + " without data.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.db.bind(this.getQueries().saveLevel)
+           .setInt(1, _mapId).setInt(2, _z).setBytes(3, _data).executeUpdate();
+  }
+
+  @Override
+  public int deleteAllOfMap(int _mapId) throws DataAccessException
+  {
+    return this.db.bind(this.getQueries().destroyMapLevels)
+                  .setInt(1, _mapId).executeUpdate();
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFLevelSqlDao.class.getName());
+  private final MFSqlConnector db;
+  /** The handles of the queries, looked up on first use */
+  private volatile Queries queries;
+
+  private Queries getQueries() throws DataAccessException
+  {
+    Queries result = this.queries;
+    if (result == null) {
+      result = new Queries(this.db);
+      this.queries = result;
+    }
+    return result;
+  }
+
+  /**
+   * The handles of the queries on the database of a DAO
+   */
+  private static class Queries
+  {
+    final MFPreparedQuery readLevel;
+    final MFPreparedQuery countLevels;
+    final MFPreparedQuery saveLevel;
+    final MFPreparedQuery destroyMapLevels;
+
+    Queries(MFSqlConnector _db) throws DataAccessException
+    {
+      this.readLevel = _db.getQuery("READ_LEVEL");
+      this.countLevels = _db.getQuery("COUNT_LEVELS");
+      this.saveLevel = _db.getQuery("SAVE_LEVEL");
+      this.destroyMapLevels = _db.getQuery("DESTROY_MAP_LEVELS");
+    }
+  }
+}
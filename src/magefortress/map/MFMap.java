@@ -28,13 +28,26 @@ import magefortress.map.ground.MFGround;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import magefortress.core.MFEDirection;
 import magefortress.core.MFLocation;
+import magefortress.core.MFLongHashMap;
+import magefortress.core.MFPackedLocation;
 import magefortress.creatures.behavior.movable.MFCapability;
+import magefortress.items.MFBlueprint;
 import magefortress.map.MFTile.Corner;
 import magefortress.storage.DataAccessException;
 import magefortress.storage.MFDaoFactory;
@@ -42,9 +55,31 @@ import magefortress.storage.MFISaveable;
 
 /**
  * Contains the tiles.
+ * <p>
+ * Each level is divided into chunks of {@link #CHUNK_SIZE} x {@link #CHUNK_SIZE}
+ * tiles which are created on first access. A map with a
+ * {@link MFIChunkLoader chunk loader} reads the chunks from the storage when
+ * they are needed.
+ * <p>
+ * A map {@link #loadMapByLevel(int, MFDaoFactory, Map) loaded by level}
+ * instead reads a whole level the first time one of its tiles is accessed.
+ * With a {@link #setPrefetchExecutor(ExecutorService) prefetch executor} the
+ * levels above and below a loaded level are read on another thread in the
+ * meantime.
+ * <p>
+ * Both drop the least recently used chunks without unsaved changes on
+ * {@link #update()} when the {@link #setMemoryBudget(long) memory budget} is
+ * exceeded, and read them again on the next access. The clearance values and
+ * the tiles holding more than their stored data, like sections, rooms,
+ * objects or listeners, are kept meanwhile, so such tiles keep their
+ * identity.
  */
 public class MFMap implements MFISaveable
 {
+  /** Edge length of a chunk in tiles */
+  public static final int CHUNK_SIZE = 32;
+  /** Memory budget that never causes chunks to be dropped */
+  public static final long UNLIMITED_MEMORY = Long.MAX_VALUE;
 
   public MFMap(int _id, int _width, int _height, int _depth, MFGround _defaultGround)
   {
@@ -58,18 +93,17 @@ public class MFMap implements MFISaveable
     this.height = _height;
     this.depth = _depth;
 
-    this.map = new MFTile[_depth][_width][_height];
-
-    // TODO get UNSAVED_MARKER from DaoFactory as soon as it's a singleton
-    final int UNSAVED_MARKER = -1;
-
-    for (int z = 0; z < _depth; ++z) {
-      for (int x = 0; x < _width; ++x) {
-        for (int y = 0; y < _height; ++y) {
-          this.map[z][x][y] = new MFTile(UNSAVED_MARKER, x,y,z, _defaultGround);
-        }
-      }
-    }
+    // chunks are created on first access
+    this.chunks = new MFMapChunk[_depth][(_width + CHUNK_SIZE - 1) / CHUNK_SIZE]
+                                        [(_height + CHUNK_SIZE - 1) / CHUNK_SIZE];
+    this.defaultGround = _defaultGround;
+    this.memoryBudget = UNLIMITED_MEMORY;
+    this.journal = new MFMapJournal();
+    this.objects = new MFObjectIndex();
+    this.occupancy = new MFLevelOccupancy(_width, _height, _depth);
+    this.loadedLevels = new boolean[_depth];
+    this.prefetchedLevels = new HashMap<Integer, Future<MFTileStorage>>();
+    this.evictedChunks = new MFLongHashMap<MFMapChunk>();
     this.id = _id;
   }
 
@@ -78,8 +112,8 @@ public class MFMap implements MFISaveable
   public static MFLocation convertToTilespace(int _x,int _y, int _z,
                                         int _x_translation, int _y_translation)
   {
-    int tileX = (int) Math.floor((_x-_x_translation) / (double)MFTile.TILESIZE);
-    int tileY = (int) Math.floor((_y-_y_translation) / (double)MFTile.TILESIZE);
+    int tileX = toTilespace(_x, _x_translation);
+    int tileY = toTilespace(_y, _y_translation);
     int tileZ = _z;
 
     return new MFLocation(tileX, tileY, tileZ);
@@ -100,72 +134,65 @@ public class MFMap implements MFISaveable
     final int id = -1;
     MFMap result = new MFMap(id, _width, _height, _depth, _defaultGround);
 
-    for (MFTile[][] level : result.map) {
-      for (MFTile[] cols : level) {
+    for (int z = 0; z < _depth; ++z) {
+      for (MFTile[] cols : result.getLevelMap(z)) {
         for (MFTile tile : cols) {
           tile.setDugOut(r.nextBoolean());
         }
       }
     }
 
-    for (MFTile[][] level : result.map) {
-      for (MFTile[] cols : level) {
-        for (MFTile tile : cols) {
-          if (tile.isDugOut()) {
-            boolean wallN = r.nextBoolean();
-            boolean wallE = r.nextBoolean();
-            boolean wallS = r.nextBoolean();
-            boolean wallW = r.nextBoolean();
-            if (tile.getPosX() == 0) {
-              wallW = true;
-            } else if (tile.getPosX() == level.length - 1) {
-              wallE = true;
-            }
-            if (tile.getPosY() == 0) {
-              wallN = true;
-            } else if (tile.getPosY() == cols.length - 1) {
-              wallS = true;
-            }
-            MFTile neighborN = level[tile.getPosX()][Math.max(tile.getPosY() - 1, 0)];
-            MFTile neighborE = level[Math.min(tile.getPosX() + 1, 29)][tile.getPosY()];
-            MFTile neighborS = level[tile.getPosX()][Math.min(tile.getPosY() + 1, 29)];
-            MFTile neighborW = level[Math.max(tile.getPosX() - 1, 0)][tile.getPosY()];
-            if (neighborN.isDugOut()) {
-              neighborN.setWallSouth(wallN);
-            } else {
-              wallN = true;
-            }
-            if (neighborE.isDugOut()) {
-              neighborE.setWallWest(wallE);
-            } else {
-              wallE = true;
-            }
-            if (neighborS.isDugOut()) {
-              neighborS.setWallNorth(wallS);
-            } else {
-              wallS = true;
-            }
-            if (neighborW.isDugOut()) {
-              neighborW.setWallEast(wallW);
-            } else {
-              wallW = true;
-            }
-            tile.setWalls(wallN, wallE, wallS, wallW);
-          }
+    for (int z = 0; z < _depth; ++z) {
+      final MFLevelOccupancy occupancy = result.getOccupancy(z);
+      for (int index = occupancy.nextSetBit(MFLevelOccupancy.Layer.DUG_OUT, z, 0); index >= 0;
+               index = occupancy.nextSetBit(MFLevelOccupancy.Layer.DUG_OUT, z, index + 1)) {
+        final int x = occupancy.getX(index);
+        final int y = occupancy.getY(index);
+        final MFTile tile = result.getTile(x, y, z);
+        boolean wallN = r.nextBoolean();
+        boolean wallE = r.nextBoolean();
+        boolean wallS = r.nextBoolean();
+        boolean wallW = r.nextBoolean();
+        if (x == 0) {
+          wallW = true;
+        } else if (x == _width - 1) {
+          wallE = true;
         }
-      }
-    }
-
-    for (MFTile[][] level : result.map) {
-      for (MFTile[] cols : level) {
-        for (MFTile tile : cols) {
-          if (tile.isDugOut()) {
-            result.calculateCorners(tile);
-          }
+        if (y == 0) {
+          wallN = true;
+        } else if (y == _height - 1) {
+          wallS = true;
         }
+        MFTile neighborN = result.getTile(x, Math.max(y - 1, 0), z);
+        MFTile neighborE = result.getTile(Math.min(x + 1, _width - 1), y, z);
+        MFTile neighborS = result.getTile(x, Math.min(y + 1, _height - 1), z);
+        MFTile neighborW = result.getTile(Math.max(x - 1, 0), y, z);
+        if (neighborN.isDugOut()) {
+          neighborN.setWallSouth(wallN);
+        } else {
+          wallN = true;
+        }
+        if (neighborE.isDugOut()) {
+          neighborE.setWallWest(wallE);
+        } else {
+          wallE = true;
+        }
+        if (neighborS.isDugOut()) {
+          neighborS.setWallNorth(wallS);
+        } else {
+          wallS = true;
+        }
+        if (neighborW.isDugOut()) {
+          neighborW.setWallEast(wallW);
+        } else {
+          wallW = true;
+        }
+        tile.setWalls(wallN, wallE, wallS, wallW);
       }
     }
 
+    result.calculateAllCorners();
+
     return result;
   }
 
@@ -180,6 +207,45 @@ public class MFMap implements MFISaveable
     }
   }
 
+  /**
+   * Loads a map without its tiles. The chunks are loaded on first access.
+   * @param _mapId the id of the map
+   * @param _daoFactory the factory to get the DAOs from
+   * @param _groundTypes all ground types by id
+   * @return the map
+   */
+  public static MFMap loadMapLazily(int _mapId, MFDaoFactory _daoFactory,
+                                    Map<Integer, MFGround> _groundTypes)
+  {
+    try {
+      return _daoFactory.getMapLoadingDao(_groundTypes).loadLazily(_mapId);
+    } catch (DataAccessException e) {
+      String msg = "Unable to load map #" + _mapId;
+      logger.log(Level.SEVERE, msg, e);
+      throw new IllegalArgumentException(msg, e);
+    }
+  }
+
+  /**
+   * Loads a map without its tiles. Each level is loaded as a whole on first
+   * access.
+   * @param _mapId the id of the map
+   * @param _daoFactory the factory to get the DAOs from
+   * @param _groundTypes all ground types by id
+   * @return the map
+   */
+  public static MFMap loadMapByLevel(int _mapId, MFDaoFactory _daoFactory,
+                                     Map<Integer, MFGround> _groundTypes)
+  {
+    try {
+      return _daoFactory.getMapLoadingDao(_groundTypes).loadByLevel(_mapId);
+    } catch (DataAccessException e) {
+      String msg = "Unable to load map #" + _mapId;
+      logger.log(Level.SEVERE, msg, e);
+      throw new IllegalArgumentException(msg, e);
+    }
+  }
+
   //---vvv---      PUBLIC METHODS      ---vvv---
 
   public int getId()
@@ -235,8 +301,8 @@ public class MFMap implements MFISaveable
       logger.severe(msg);
       throw new IndexOutOfBoundsException(msg);
     }
-    
-    return this.map[z][x][y];
+
+    return this.getChunk(x, y, z).getTile(x, y);
   }
 
   /**
@@ -262,14 +328,279 @@ public class MFMap implements MFISaveable
       throw new IllegalArgumentException(msg);
     }
 
-    this.map[_tile.getPosZ()][_tile.getPosX()][_tile.getPosY()] = _tile;
+    final MFMapChunk chunk = this.getChunk(_tile.getPosX(), _tile.getPosY(), _tile.getPosZ());
+    this.placeTile(chunk, _tile);
+  }
+
+  /**
+   * Sets where chunks are loaded from. Without a loader new chunks consist of
+   * solid rock and are never dropped.
+   * @param _chunkLoader the loader
+   * @throws IllegalStateException if chunks were already created
+   */
+  public void setChunkLoader(MFIChunkLoader _chunkLoader)
+  {
+    if (this.loadedChunkCount > 0) {
+      String msg = "Map #" + this.id + ": Cannot set chunk loader after " +
+                   "chunks were created.";
+      logger.severe(msg);
+      throw new IllegalStateException(msg);
+    }
+    if (this.levelLoader != null) {
+      String msg = "Map #" + this.id + ": Cannot set chunk loader of a map " +
+                   "loaded by level.";
+      logger.severe(msg);
+      throw new IllegalStateException(msg);
+    }
+    this.chunkLoader = _chunkLoader;
+  }
+
+  /**
+   * Sets the executor that reads the levels above and below a loaded level
+   * ahead of time. The level loader then runs on its threads, so a database
+   * connector has to be
+   * {@link magefortress.storage.MFSqlConnector#setThreadSafe(boolean) thread-safe}.
+   * The executor is owned by the caller.
+   * @param _executor the executor or <code>null</code> to stop prefetching
+   */
+  public void setPrefetchExecutor(ExecutorService _executor)
+  {
+    this.prefetchExecutor = _executor;
   }
 
   /**
-   * Updates all animated sprites.
+   * Checks if a level is in memory. Levels of maps that aren't loaded by
+   * level always are, as their chunks are created on access.
+   * @param _z the level
+   * @return <code>false</code> if the first access will load the level
+   */
+  public boolean isLevelLoaded(int _z)
+  {
+    return this.levelLoader == null || this.loadedLevels[_z];
+  }
+
+  /**
+   * Starts reading a level on the prefetch executor, if it isn't loaded or
+   * read already. Does nothing without a prefetch executor.
+   * @param _z the level
+   */
+  public void prefetchLevel(final int _z)
+  {
+    if (this.levelLoader == null || this.prefetchExecutor == null ||
+        _z < 0 || _z >= this.depth || this.loadedLevels[_z] ||
+        this.prefetchedLevels.containsKey(_z)) {
+      return;
+    }
+
+    final MFILevelLoader loader = this.levelLoader;
+    try {
+      this.prefetchedLevels.put(_z, this.prefetchExecutor.submit(
+                                            new Callable<MFTileStorage>() {
+        @Override
+        public MFTileStorage call() throws DataAccessException
+        {
+          return loader.loadLevel(_z);
+        }
+      }));
+    } catch (RejectedExecutionException e) {
+      logger.log(Level.WARNING, "Map #" + this.id + ": Unable to prefetch level " + _z, e);
+    }
+  }
+
+  /**
+   * Sets how much memory the loaded chunks may use before the least recently
+   * used ones get dropped. Only applies to maps with a chunk or level loader.
+   * @param _bytes the budget in bytes or {@link #UNLIMITED_MEMORY}
+   */
+  public void setMemoryBudget(long _bytes)
+  {
+    if (_bytes < 0) {
+      String msg = "Map #" + this.id + ": Memory budget must not be negative: " + _bytes;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.memoryBudget = _bytes;
+  }
+
+  public long getMemoryBudget()
+  {
+    return this.memoryBudget;
+  }
+
+  /**
+   * Estimates the memory used by the chunks currently in memory.
+   * @return the size in bytes
+   */
+  public long estimateMemoryUsage()
+  {
+    long result = 0;
+    for (MFMapChunk chunk : this.getLoadedChunks()) {
+      result += chunk.estimateSize();
+    }
+    return result;
+  }
+
+  /**
+   * The number of chunks currently in memory.
+   * @return the number of chunks
+   */
+  public int getLoadedChunkCount()
+  {
+    return this.loadedChunkCount;
+  }
+
+  /**
+   * The number of tiles with changes that weren't saved yet.
+   * @return the number of dirty tiles
+   */
+  public int getDirtyTileCount()
+  {
+    int result = 0;
+    for (MFMapChunk chunk : this.getLoadedChunks()) {
+      result += chunk.getStorage().getDirtyTileCount();
+    }
+    return result;
+  }
+
+  /**
+   * The number of chunks with changes that weren't saved yet.
+   * @return the number of dirty chunks
+   */
+  public int getDirtyChunkCount()
+  {
+    int result = 0;
+    for (MFMapChunk chunk : this.getLoadedChunks()) {
+      if (chunk.isDirty()) {
+        ++result;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Takes a read only snapshot of the loaded chunks. It's cheap because the
+   * chunks are only copied when they change afterwards. Must be called on
+   * the thread changing the map.
+   * @return the snapshot of the current state
+   */
+  public MFMapSnapshot createSnapshot()
+  {
+    final MFTileStorage[][][] storages = new MFTileStorage[this.depth][][];
+    for (int z = 0; z < this.depth; ++z) {
+      storages[z] = new MFTileStorage[this.chunks[z].length][];
+      for (int chunkX = 0; chunkX < this.chunks[z].length; ++chunkX) {
+        storages[z][chunkX] = new MFTileStorage[this.chunks[z][chunkX].length];
+        for (int chunkY = 0; chunkY < this.chunks[z][chunkX].length; ++chunkY) {
+          final MFMapChunk chunk = this.chunks[z][chunkX][chunkY];
+          if (chunk != null) {
+            storages[z][chunkX][chunkY] = chunk.getStorage().freeze();
+          }
+        }
+      }
+    }
+    return new MFMapSnapshot(this.width, this.height, this.depth, this.tick,
+                             this.defaultGround, storages);
+  }
+
+  /**
+   * Checks if the map is being saved in the background.
+   * @return <code>true</code> if a save was begun but not ended yet
+   * @see MFMapSaveService
+   */
+  public boolean isSaving()
+  {
+    return this.saving;
+  }
+
+  /**
+   * Counts the objects of a blueprint placed on the loaded chunks.
+   * @param _blueprint the blueprint of the objects
+   * @return the number of objects
+   */
+  public int countObjects(MFBlueprint _blueprint)
+  {
+    return this.objects.count(_blueprint);
+  }
+
+  /**
+   * Finds the objects of a blueprint placed closest to a location. Only the
+   * loaded chunks are searched.
+   * @param _blueprint the blueprint of the objects
+   * @param _location the location to search from
+   * @param _count the maximum number of objects to find
+   * @return the locations of the objects, nearest first
+   */
+  public List<MFLocation> findNearestObjects(MFBlueprint _blueprint,
+                                             MFLocation _location, int _count)
+  {
+    if (_blueprint == null || _location == null) {
+      String msg = "Map: Cannot find objects without blueprint and location.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    final long[] found = this.objects.findNearest(_blueprint,
+                                        MFPackedLocation.pack(_location), _count);
+    final List<MFLocation> result = new ArrayList<MFLocation>(found.length);
+    for (long location : found) {
+      result.add(MFPackedLocation.unpack(location));
+    }
+    return result;
+  }
+
+  /**
+   * Registers a consumer of the change journal. The journal records changes
+   * to the tiles as long as at least one consumer is registered.
+   * @return the id of the consumer's cursor, positioned behind the last change
+   */
+  public int openChangeCursor()
+  {
+    return this.journal.openCursor();
+  }
+
+  /**
+   * Unregisters a consumer of the change journal.
+   * @param _cursor the id of the consumer's cursor
+   */
+  public void closeChangeCursor(int _cursor)
+  {
+    this.journal.closeCursor(_cursor);
+  }
+
+  /**
+   * Checks if tiles changed since the consumer last read the journal.
+   * @param _cursor the id of the consumer's cursor
+   * @return <code>true</code> if there are unread changes
+   */
+  public boolean hasChanges(int _cursor)
+  {
+    return this.journal.hasChanges(_cursor);
+  }
+
+  /**
+   * Passes the changes a consumer hasn't read yet to a visitor. Changes that
+   * every consumer has read are dropped from the journal.
+   * @param _cursor the id of the consumer's cursor
+   * @param _visitor receives the changes in the order they happened
+   * @return the number of changes read
+   */
+  public int readChanges(int _cursor, MFIMapChangeVisitor _visitor)
+  {
+    return this.journal.read(_cursor, _visitor);
+  }
+
+  /**
+   * Advances the clock of the map and drops cold chunks if the memory budget
+   * is exceeded.
    */
   public void update()
   {
+    ++this.tick;
+    this.journal.advance();
+    // chunks cleaned for a running save aren't in the storage yet
+    if (this.isLoadedLazily() && this.memoryBudget != UNLIMITED_MEMORY &&
+        !this.saving) {
+      this.evictColdChunks();
+    }
   }
 
   /**
@@ -294,38 +625,28 @@ public class MFMap implements MFISaveable
 //    int endX = Math.min(end.x, this.width-1);
 //    int endY = Math.min(end.y, this.height-1);
 
-    MFLocation start = this.getVisibleStart(_level, _clippingRect);
-    MFLocation end   = this.getVisibleEnd(_level, _clippingRect);
+    final int startX = this.getVisibleStartX(_clippingRect);
+    final int startY = this.getVisibleStartY(_clippingRect);
+    final int endX = this.getVisibleEndX(_clippingRect);
+    final int endY = this.getVisibleEndY(_clippingRect);
     // render all visible tiles
-    for (int y = start.y; y <= end.y; ++y) {
-      for (int x = start.x; x <= end.x; ++x) {
-        map[_level][x][y].paint(_g, _clippingRect.x, _clippingRect.y);
+    for (int y = startY; y <= endY; ++y) {
+      for (int x = startX; x <= endX; ++x) {
+        this.getTile(x, y, _level).paint(_g, _clippingRect.x, _clippingRect.y);
       }
     }
   }
 
   public MFLocation getVisibleStart(int _level, Rectangle _clippingRect)
   {
-    // start of visible tiles
-    MFLocation start = convertToTilespace(0, 0, _level,
-                                          _clippingRect.x, _clippingRect.y);
-    // only necessary if we don't stop scrolling at the edges of the map
-    int startX = Math.max(start.x, 0);
-    int startY = Math.max(start.y, 0);
-
-    return new MFLocation(startX, startY, _level);
+    return new MFLocation(this.getVisibleStartX(_clippingRect),
+                          this.getVisibleStartY(_clippingRect), _level);
   }
 
   public MFLocation getVisibleEnd(int _level, Rectangle _clippingRect)
   {
-    // end of visible tiles
-    MFLocation end = convertToTilespace(_clippingRect.width-1, _clippingRect.height-1,
-                                      _level, _clippingRect.x, _clippingRect.y);
-    // only necessary if we don't stop scrolling at the edges of the map
-    int endX = Math.min(end.x, this.width-1);
-    int endY = Math.min(end.y, this.height-1);
-    
-    return new MFLocation(endX, endY, _level);
+    return new MFLocation(this.getVisibleEndX(_clippingRect),
+                          this.getVisibleEndY(_clippingRect), _level);
   }
 
   /**
@@ -349,7 +670,7 @@ public class MFMap implements MFISaveable
       throw new IllegalArgumentException(msg);
     }
 
-    final MFTile tile = this.map[_location.z][_location.x][_location.y];
+    final MFTile tile = this.getTile(_location);
 
     // error if tile is not underground
     if (!tile.isUnderground()) {
@@ -389,42 +710,39 @@ public class MFMap implements MFISaveable
       return;
     }
 
-    boolean northernEdge = _tile.getPosY() == 0;
-    boolean easternEdge  = _tile.getPosX() == this.width-1;
-    boolean southernEdge = _tile.getPosY() == this.height-1;
-    boolean westernEdge  = _tile.getPosX() == 0;
+    this.calculateCorners(_tile, true);
+  }
 
-    MFTile neighborN = this.getNeighbor(_tile, MFEDirection.N);
-    MFTile neighborE = this.getNeighbor(_tile, MFEDirection.E);
-    MFTile neighborS = this.getNeighbor(_tile, MFEDirection.S);
-    MFTile neighborW = this.getNeighbor(_tile, MFEDirection.W);
+  /**
+   * Calculates the corners of all dug out tiles of a level in one pass.
+   * Only loaded chunks are processed, neighbors in other chunks count as
+   * solid.
+   * @param _z the level
+   */
+  public void calculateLevelCorners(int _z)
+  {
+    if (_z < 0 || _z >= this.depth) {
+      String msg = "Map: Cannot calculate corners of level " + _z;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.calculateCorners(0, 0, this.width - 1, this.height - 1, _z);
+  }
 
-    boolean wallN = northernEdge || _tile.hasWallNorth();
-    boolean wallE = easternEdge  || _tile.hasWallEast();
-    boolean wallS = southernEdge || _tile.hasWallSouth();
-    boolean wallW = westernEdge  || _tile.hasWallWest();
-
-    boolean wallAboveW = northernEdge ||
-                          (neighborN.isDugOut() && neighborN.hasWallWest());
-    boolean wallAboveE = northernEdge ||
-                          (neighborN.isDugOut() && neighborN.hasWallEast());
-    boolean wallRightN = easternEdge  ||
-                          (neighborE.isDugOut() && neighborE.hasWallNorth());
-    boolean wallRightS = easternEdge  ||
-                          (neighborE.isDugOut() && neighborE.hasWallSouth());
-    boolean wallBelowE = southernEdge ||
-                          (neighborS.isDugOut() && neighborS.hasWallEast());
-    boolean wallBelowW = southernEdge ||
-                          (neighborS.isDugOut() && neighborS.hasWallWest());
-    boolean wallLeftS  = westernEdge  ||
-                          (neighborW.isDugOut() && neighborW.hasWallSouth());
-    boolean wallLeftN  = westernEdge  ||
-                          (neighborW.isDugOut() && neighborW.hasWallNorth());
-
-    this.calculateCornerType(_tile, MFEDirection.NW, wallN, wallW, wallLeftN, wallAboveW);
-    this.calculateCornerType(_tile, MFEDirection.NE, wallN, wallE, wallAboveE, wallRightN);
-    this.calculateCornerType(_tile, MFEDirection.SE, wallS, wallE, wallRightS, wallBelowE);
-    this.calculateCornerType(_tile, MFEDirection.SW, wallS, wallW, wallLeftS, wallBelowW);
+  /**
+   * Calculates the corners of all dug out tiles of the loaded chunks. The
+   * levels are processed in parallel.
+   */
+  public void calculateAllCorners()
+  {
+    MFParallelLevels.forEachLevel(this.depth, MFParallelLevels.defaultThreadCount(),
+                                  new MFParallelLevels.LevelTask() {
+      @Override
+      public void process(int _z)
+      {
+        calculateLevelCorners(_z);
+      }
+    });
   }
 
   /**
@@ -454,12 +772,247 @@ public class MFMap implements MFISaveable
   //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
 
   /**
-   * Gets the tiles of an entire level.
+   * Gets the tiles of an entire level. Loads all chunks of the level.
    * @return the tile map
    */
   MFTile[][] getLevelMap(int _depth)
   {
-    return this.map[_depth];
+    final MFTile[][] level = new MFTile[this.width][this.height];
+    for (int x = 0; x < this.width; ++x) {
+      for (int y = 0; y < this.height; ++y) {
+        level[x][y] = this.getTile(x, y, _depth);
+      }
+    }
+    return level;
+  }
+
+  /**
+   * Gets the packed data of the chunk containing a tile. Loops over many
+   * tiles should read it directly instead of creating the tiles.
+   * @return the storage of the chunk
+   */
+  MFTileStorage getStorage(int _x, int _y, int _z)
+  {
+    return this.getChunk(_x, _y, _z).getStorage();
+  }
+
+  /**
+   * Gets the bitfield of a tile without creating it.
+   * @return the flags of the tile
+   */
+  int getFlags(int _x, int _y, int _z)
+  {
+    return this.getStorage(_x, _y, _z).getFlags(_x, _y, _z);
+  }
+
+  /**
+   * Loads all chunks of a level and gets the bitsets of the tiles with
+   * certain properties, which then cover the level completely.
+   * @param _z the level
+   * @return the bitsets of all levels
+   */
+  MFLevelOccupancy getOccupancy(int _z)
+  {
+    this.loadLevel(_z);
+    return this.occupancy;
+  }
+
+  /**
+   * Loads all chunks of a level which are not in memory yet.
+   * @param _z the level
+   */
+  void loadLevel(int _z)
+  {
+    for (int x = 0; x < this.width; x += CHUNK_SIZE) {
+      for (int y = 0; y < this.height; y += CHUNK_SIZE) {
+        this.getChunk(x, y, _z);
+      }
+    }
+  }
+
+  /**
+   * Gets the tiles of a level that were created so far, including those kept
+   * by evicted chunks. Neither loads chunks nor creates tiles. Tiles that
+   * weren't created hold nothing but their stored data.
+   * @param _z the level
+   * @return the created tiles
+   */
+  List<MFTile> getCreatedTiles(int _z)
+  {
+    final List<MFTile> result = new ArrayList<MFTile>();
+    for (MFMapChunk[] column : this.chunks[_z]) {
+      for (MFMapChunk chunk : column) {
+        if (chunk != null) {
+          chunk.collectCreatedTiles(result);
+        }
+      }
+    }
+    for (long key : this.evictedChunks.keys()) {
+      if (MFPackedLocation.getZ(key) == _z) {
+        this.evictedChunks.get(key).collectCreatedTiles(result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Gets the chunks currently in memory.
+   * @return the loaded chunks
+   */
+  List<MFMapChunk> getLoadedChunks()
+  {
+    final List<MFMapChunk> result = new ArrayList<MFMapChunk>(this.loadedChunkCount);
+    for (MFMapChunk[][] level : this.chunks) {
+      for (MFMapChunk[] column : level) {
+        for (MFMapChunk chunk : column) {
+          if (chunk != null) {
+            result.add(chunk);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Sets where whole levels are loaded from on first access. Unlike chunks,
+   * loaded levels are never dropped.
+   * @param _levelLoader the loader
+   * @throws IllegalStateException if chunks were already created or the map
+   *         has a chunk loader
+   */
+  void setLevelLoader(MFILevelLoader _levelLoader)
+  {
+    if (this.loadedChunkCount > 0 || this.chunkLoader != null) {
+      String msg = "Map #" + this.id + ": Cannot set level loader after " +
+                   "chunks were created or with a chunk loader.";
+      logger.severe(msg);
+      throw new IllegalStateException(msg);
+    }
+    this.levelLoader = _levelLoader;
+  }
+
+  /**
+   * Checks if parts of the map are loaded on first access. Parts that
+   * weren't loaded are still saved in the storage.
+   * @return <code>true</code> if the map has a chunk or level loader
+   */
+  boolean isLoadedLazily()
+  {
+    return this.chunkLoader != null || this.levelLoader != null;
+  }
+
+  MFGround getDefaultGround()
+  {
+    return this.defaultGround;
+  }
+
+  /**
+   * Writes a tile read from the database straight into the storage of its
+   * chunk without creating a tile object. Used to load a map.
+   * @param _id the id of the tile
+   * @param _flags the bitfield of the tile
+   * @param _ground the ground type of the tile
+   * @throws IndexOutOfBoundsException if the location is not on the map
+   */
+  void loadTile(int _id, int _x, int _y, int _z, int _flags, MFGround _ground)
+  {
+    if (!this.isInsideMap(_x, _y, _z)) {
+      String msg = "Cannot load tile on map@" + _x + "/" + _y + "/" + _z +
+                   ". Out of bounds.";
+      logger.severe(msg);
+      throw new IndexOutOfBoundsException(msg);
+    }
+    this.getChunk(_x, _y, _z).getStorage().loadTile(_x, _y, _z, _id, _flags, _ground);
+  }
+
+  /**
+   * Copies a whole level read from the database into the chunks of the map
+   * without creating tile objects. Used to load a map.
+   * @param _level the storage of the level, covering the whole map
+   */
+  void loadLevel(MFTileStorage _level)
+  {
+    final int z = _level.getOriginZ();
+    if (z < 0 || z >= this.depth || _level.getOriginX() != 0 || _level.getOriginY() != 0 ||
+        _level.getWidth() != this.width || _level.getHeight() != this.height) {
+      String msg = "Map #" + this.id + ": Cannot load level " + z + " of size " +
+                   _level.getWidth() + "/" + _level.getHeight() + ".";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    for (int originX = 0; originX < this.width; originX += CHUNK_SIZE) {
+      for (int originY = 0; originY < this.height; originY += CHUNK_SIZE) {
+        final MFTileStorage storage = this.getChunk(originX, originY, z).getStorage();
+        final int endX = originX + storage.getWidth();
+        final int endY = originY + storage.getHeight();
+        for (int x = originX; x < endX; ++x) {
+          for (int y = originY; y < endY; ++y) {
+            storage.copyTile(_level, x, y, z);
+          }
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Begins a save in the background. Takes a snapshot which keeps the
+   * changed tiles and marks the loaded chunks as clean, so that changes made
+   * during the save are saved next time. Chunks aren't dropped until the
+   * save ends.
+   * @return the snapshot to save
+   * @throws IllegalStateException if the map is already being saved
+   */
+  MFMapSnapshot beginSave()
+  {
+    if (this.saving) {
+      String msg = "Map #" + this.id + ": Cannot begin save. Already saving.";
+      logger.severe(msg);
+      throw new IllegalStateException(msg);
+    }
+    final MFMapSnapshot result = this.createSnapshot();
+    for (MFMapChunk chunk : this.getLoadedChunks()) {
+      chunk.getStorage().markClean();
+    }
+    this.saving = true;
+    return result;
+  }
+
+  /**
+   * Ends a successful save in the background. Tiles which were saved for the
+   * first time get their ids unless they were saved again in the meantime.
+   * @param _newIds the ids of the new tiles by packed location
+   */
+  void endSave(MFLongHashMap<Integer> _newIds)
+  {
+    for (long location : _newIds.keys()) {
+      final int x = MFPackedLocation.getX(location);
+      final int y = MFPackedLocation.getY(location);
+      final int z = MFPackedLocation.getZ(location);
+      final MFMapChunk chunk = this.chunks[z][x / CHUNK_SIZE][y / CHUNK_SIZE];
+      if (chunk != null && chunk.getStorage().getId(x, y, z) == MFTileStorage.UNSAVED_ID) {
+        chunk.getStorage().setSavedId(x, y, z, _newIds.get(location));
+      }
+    }
+    this.saving = false;
+  }
+
+  /**
+   * Ends a failed save in the background. The tiles that should have been
+   * saved are marked as dirty again.
+   * @param _snapshot the snapshot returned by {@link #beginSave()}
+   */
+  void abortSave(MFMapSnapshot _snapshot)
+  {
+    for (MFTileStorage copy : _snapshot.getStorages()) {
+      final MFMapChunk chunk = this.chunks[copy.getOriginZ()]
+                  [copy.getOriginX() / CHUNK_SIZE][copy.getOriginY() / CHUNK_SIZE];
+      if (chunk != null) {
+        chunk.getStorage().restoreDirtyTiles(copy);
+      }
+    }
+    this.saving = false;
   }
 
   /**
@@ -477,29 +1030,7 @@ public class MFMap implements MFISaveable
       throw new IllegalArgumentException(msg);
     }
 
-    MFTile result = null;
-    final int x = _tile.getPosX();
-    final int y = _tile.getPosY();
-    final int z = _tile.getPosZ();
-
-    if (_direction == MFEDirection.N && y > 0) {
-      result = this.map[z][x][y-1];
-    } else if (_direction == MFEDirection.NE && x < this.width-1 && y > 0) {
-      result = this.map[z][x+1][y-1];
-    } else if (_direction == MFEDirection.E && x < this.width-1) {
-      result = this.map[z][x+1][y];
-    } else if (_direction == MFEDirection.SE && x < this.width-1 && y < this.height-1) {
-      result = this.map[z][x+1][y+1];
-    } else if (_direction == MFEDirection.S && y < this.height-1) {
-      result = this.map[z][x][y+1];
-    } else if (_direction == MFEDirection.SW && x > 0 && y < this.height-1) {
-      result = this.map[z][x-1][y+1];
-    } else if (_direction == MFEDirection.W && x > 0) {
-      result = this.map[z][x-1][y];
-    } else if (_direction == MFEDirection.NW && x > 0 && y > 0) {
-      result = this.map[z][x-1][y-1];
-    }
-    return result;
+    return this.getNeighborTile(_tile, _direction);
   }
 
   /**
@@ -530,7 +1061,7 @@ public class MFMap implements MFISaveable
       return false;
     }
 
-    if (!_start.getLocation().isNeighborOf(_goal.getLocation())) {
+    if (!MFPackedLocation.isNeighbor(_start.getPackedLocation(), _goal.getPackedLocation())) {
       String msg = "Map: Cannot test reachability between non-adjacent tiles from " +
                     _start.getLocation() + " towards " + _goal.getLocation();
       logger.severe(msg);
@@ -551,7 +1082,8 @@ public class MFMap implements MFISaveable
       throw new IllegalArgumentException(msg);
     }
 
-    boolean blockedByWalls = blockedByWalls(_start, _goal);
+    boolean blockedByWalls = blockedByWalls(_start, _goal) ||
+                             blockedByLevels(_start, _goal, _capability);
 
     boolean blockedByTerrain = false;
 
@@ -584,6 +1116,26 @@ public class MFMap implements MFISaveable
     return this.canMoveTo(_start, _goal, 1, MFCapability.WALK);
   }
 
+  /**
+   * Gets the passage connecting two tiles lying directly above each other.
+   * @param _start the start tile
+   * @param _goal the end tile
+   * @return the passage of the upper tile or {@link MFEVerticalPassage#NONE NONE}
+   *         if the tiles are no vertical neighbors
+   */
+  MFEVerticalPassage getVerticalPassage(MFTile _start, MFTile _goal)
+  {
+    final long start = _start.getPackedLocation();
+    final long goal = _goal.getPackedLocation();
+    final MFEDirection direction = MFPackedLocation.directionOf(start, goal);
+    if (!MFPackedLocation.isNeighbor(start, goal) ||
+        !MFEDirection.vertical().contains(direction)) {
+      return MFEVerticalPassage.NONE;
+    }
+    final MFTile upper = (direction == MFEDirection.DOWN ? _start : _goal);
+    return upper.getVerticalPassage();
+  }
+
   //---vvv---      PRIVATE METHODS      ---vvv---
   /** Width of a level */
   private final int width;
@@ -591,12 +1143,321 @@ public class MFMap implements MFISaveable
   private final int height;
   /** Number of levels */
   private final int depth;
-  /** The map. The array has the following order: z -> x -> y */
-  private final MFTile[][][] map;
+  /** The chunks created so far. The array has the following order: z -> x -> y */
+  private final MFMapChunk[][][] chunks;
+  /** Ground type of tiles not loaded from the storage */
+  private final MFGround defaultGround;
+  /** Reads chunks on first access, if any */
+  private MFIChunkLoader chunkLoader;
+  /** Reads whole levels on first access, if any */
+  private MFILevelLoader levelLoader;
+  /** The levels read from the level loader */
+  private final boolean[] loadedLevels;
+  /** Reads levels ahead of time, if any */
+  private ExecutorService prefetchExecutor;
+  /** The levels read ahead of time that weren't accessed yet, by level */
+  private final Map<Integer, Future<MFTileStorage>> prefetchedLevels;
+  /** What the evicted chunks keep, by the packed location of their origin */
+  private final MFLongHashMap<MFMapChunk> evictedChunks;
+  private long memoryBudget;
+  private int loadedChunkCount;
+  /** Counts the updates, used to find the least recently used chunks */
+  private int tick;
+  /** Records the changes to the tiles of loaded chunks */
+  private final MFMapJournal journal;
+  /** The objects placed on the tiles of loaded chunks by blueprint */
+  private final MFObjectIndex objects;
+  /** The tiles with certain properties as bitsets per level */
+  private final MFLevelOccupancy occupancy;
+  /** Set while the map is saved in the background */
+  private boolean saving;
   /** Datastorage id */
   private int id;
   /** The logger */
   private static final Logger logger = Logger.getLogger(MFMap.class.getName());
+  /** Flags of neighbors outside the map, they have every wall */
+  private static final int EDGE = -1;
+  /** Packed corners by wall neighborhood */
+  private static final int[] CORNER_TABLE = createCornerTable();
+
+  private static int toTilespace(int _screen, int _translation)
+  {
+    return (int) Math.floor((_screen - _translation) / (double) MFTile.TILESIZE);
+  }
+
+  // the visible range is clamped in case we don't stop scrolling at the edges
+  private int getVisibleStartX(Rectangle _clippingRect)
+  {
+    return Math.max(toTilespace(0, _clippingRect.x), 0);
+  }
+
+  private int getVisibleStartY(Rectangle _clippingRect)
+  {
+    return Math.max(toTilespace(0, _clippingRect.y), 0);
+  }
+
+  private int getVisibleEndX(Rectangle _clippingRect)
+  {
+    return Math.min(toTilespace(_clippingRect.width - 1, _clippingRect.x), this.width - 1);
+  }
+
+  private int getVisibleEndY(Rectangle _clippingRect)
+  {
+    return Math.min(toTilespace(_clippingRect.height - 1, _clippingRect.y), this.height - 1);
+  }
+
+  /**
+   * Gets the chunk containing a tile. Creates or loads it if necessary.
+   * @return the chunk
+   */
+  private MFMapChunk getChunk(int _x, int _y, int _z)
+  {
+    MFMapChunk result = this.chunks[_z][_x / CHUNK_SIZE][_y / CHUNK_SIZE];
+    if (result == null && this.levelLoader != null && (!this.loadedLevels[_z] ||
+        this.evictedChunks.containsKey(chunkKey(_x / CHUNK_SIZE, _y / CHUNK_SIZE, _z)))) {
+      this.readLevel(_z);
+      result = this.chunks[_z][_x / CHUNK_SIZE][_y / CHUNK_SIZE];
+    }
+    if (result == null) {
+      result = this.loadChunk(_x / CHUNK_SIZE, _y / CHUNK_SIZE, _z);
+    }
+    result.setLastAccess(this.tick);
+    return result;
+  }
+
+  /**
+   * Copies a level from the level loader into the chunks, preferring the
+   * copy read ahead of time. Then starts reading the levels above and below.
+   * Levels without saved tiles stay solid rock. If the level was loaded
+   * before, only its evicted chunks are created again.
+   * @param _z the level
+   */
+  private void readLevel(int _z)
+  {
+    MFTileStorage level = null;
+    boolean isRead = false;
+    final Future<MFTileStorage> prefetched = this.prefetchedLevels.remove(_z);
+    if (prefetched != null) {
+      try {
+        level = prefetched.get();
+        isRead = true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        logger.log(Level.WARNING, "Map #" + this.id + ": Unable to prefetch " +
+                                  "level " + _z + ". Loading it again.", e.getCause());
+      }
+    }
+    if (!isRead) {
+      try {
+        level = this.levelLoader.loadLevel(_z);
+      } catch (DataAccessException e) {
+        String msg = "Map #" + this.id + ": Unable to load level " + _z;
+        logger.log(Level.SEVERE, msg, e);
+        throw new IllegalStateException(msg, e);
+      }
+    }
+
+    if (this.loadedLevels[_z]) {
+      this.reloadEvictedChunks(level);
+      return;
+    }
+    // the chunks are created without asking the loader again
+    this.loadedLevels[_z] = true;
+    if (level != null) {
+      this.loadLevel(level);
+      this.calculateLevelCorners(_z);
+    }
+    this.prefetchLevel(_z - 1);
+    this.prefetchLevel(_z + 1);
+  }
+
+  /**
+   * Moves a tile into a chunk, replacing the tile at its location.
+   */
+  private void placeTile(MFMapChunk _chunk, MFTile _tile)
+  {
+    _tile.moveToStorage(_chunk.getStorage());
+    final MFTile replaced = _chunk.setTile(_tile);
+    final long location = _tile.getPackedLocation();
+    if (replaced != null && replaced != _tile && replaced.getObject() != null) {
+      this.objects.remove(location, replaced.getObject());
+    }
+    if (replaced != _tile && _tile.getObject() != null) {
+      this.objects.add(location, _tile.getObject());
+    }
+    if (replaced != _tile) {
+      this.occupancy.set(MFLevelOccupancy.Layer.OBJECT, _tile.getPosX(),
+                         _tile.getPosY(), _tile.getPosZ(), _tile.getObject() != null);
+    }
+  }
+
+  /**
+   * Creates a chunk and fills it with the tiles of the chunk loader.
+   * @param _chunkX the x index of the chunk
+   * @param _chunkY the y index of the chunk
+   * @param _z the level
+   * @return the new chunk
+   */
+  private MFMapChunk loadChunk(int _chunkX, int _chunkY, int _z)
+  {
+    final int originX = _chunkX * CHUNK_SIZE;
+    final int originY = _chunkY * CHUNK_SIZE;
+    final int chunkWidth  = Math.min(CHUNK_SIZE, this.width - originX);
+    final int chunkHeight = Math.min(CHUNK_SIZE, this.height - originY);
+
+    final MFMapChunk chunk = new MFMapChunk(new MFTileStorage(originX, originY,
+                                _z, chunkWidth, chunkHeight, 1, this.defaultGround));
+    this.chunks[_z][_chunkX][_chunkY] = chunk;
+    ++this.loadedChunkCount;
+    // copying the loaded tiles into the storage isn't recorded
+    chunk.getStorage().setJournal(this.journal);
+    chunk.getStorage().setObjectIndex(this.objects);
+    chunk.getStorage().setOccupancy(this.occupancy);
+
+    if (this.chunkLoader == null) {
+      this.restoreEvictedChunk(chunk);
+      return chunk;
+    }
+
+    final List<MFTile> tiles;
+    try {
+      tiles = this.chunkLoader.loadChunk(originX, originY, _z, chunkWidth, chunkHeight);
+    } catch (DataAccessException e) {
+      this.chunks[_z][_chunkX][_chunkY] = null;
+      --this.loadedChunkCount;
+      String msg = "Map #" + this.id + ": Unable to load chunk at " +
+                   originX + "/" + originY + "/" + _z;
+      logger.log(Level.SEVERE, msg, e);
+      throw new IllegalStateException(msg, e);
+    }
+    for (MFTile tile : tiles) {
+      this.placeTile(chunk, tile);
+    }
+    this.restoreEvictedChunk(chunk);
+
+    // corners of the chunk and the adjacent borders of loaded chunks
+    this.calculateCorners(originX - 1, originY - 1, originX + chunkWidth,
+                          originY + chunkHeight, _z);
+    return chunk;
+  }
+
+  /**
+   * Creates the evicted chunks of a level again from the level read anew.
+   * @param _level the level, <code>null</code> if it has no saved tiles
+   */
+  private void reloadEvictedChunks(MFTileStorage _level)
+  {
+    for (long key : this.evictedChunks.keys()) {
+      final int chunkX = MFPackedLocation.getX(key);
+      final int chunkY = MFPackedLocation.getY(key);
+      final int z = MFPackedLocation.getZ(key);
+      if (_level == null || z != _level.getOriginZ()) {
+        continue;
+      }
+      final MFTileStorage storage = this.loadChunk(chunkX, chunkY, z).getStorage();
+      final int originX = storage.getOriginX();
+      final int originY = storage.getOriginY();
+      final int endX = originX + storage.getWidth();
+      final int endY = originY + storage.getHeight();
+      for (int x = originX; x < endX; ++x) {
+        for (int y = originY; y < endY; ++y) {
+          storage.copyTile(_level, x, y, z);
+        }
+      }
+      this.calculateCorners(originX - 1, originY - 1, endX, endY, z);
+    }
+  }
+
+  /**
+   * Hands what a chunk kept while it was evicted over to the chunk loaded in
+   * its place.
+   * @param _chunk the loaded chunk
+   */
+  private void restoreEvictedChunk(MFMapChunk _chunk)
+  {
+    final MFMapChunk evicted = this.evictedChunks.remove(chunkKey(
+                      _chunk.getOriginX() / CHUNK_SIZE, _chunk.getOriginY() / CHUNK_SIZE,
+                      _chunk.getLevel()));
+    if (evicted != null) {
+      _chunk.restore(evicted);
+    }
+  }
+
+  private static long chunkKey(int _chunkX, int _chunkY, int _z)
+  {
+    return MFPackedLocation.pack(_chunkX, _chunkY, _z);
+  }
+
+  /**
+   * Drops the least recently used chunks that can be loaded again until the
+   * memory budget is met. Chunks accessed since the last update are kept.
+   */
+  private void evictColdChunks()
+  {
+    final List<MFMapChunk> loadedChunks = this.getLoadedChunks();
+    long memoryUsage = 0;
+    for (MFMapChunk chunk : loadedChunks) {
+      memoryUsage += chunk.estimateSize();
+    }
+    if (memoryUsage <= this.memoryBudget) {
+      return;
+    }
+
+    Collections.sort(loadedChunks, new Comparator<MFMapChunk>() {
+      @Override
+      public int compare(MFMapChunk _chunk1, MFMapChunk _chunk2)
+      {
+        return _chunk1.getLastAccess() - _chunk2.getLastAccess();
+      }
+    });
+
+    for (MFMapChunk chunk : loadedChunks) {
+      if (memoryUsage <= this.memoryBudget || chunk.getLastAccess() >= this.tick - 1) {
+        break;
+      }
+      if (chunk.isEvictable()) {
+        memoryUsage -= chunk.estimateSize();
+        final int chunkX = chunk.getOriginX() / CHUNK_SIZE;
+        final int chunkY = chunk.getOriginY() / CHUNK_SIZE;
+        this.chunks[chunk.getLevel()][chunkX][chunkY] = null;
+        --this.loadedChunkCount;
+        chunk.evict(this);
+        this.evictedChunks.put(chunkKey(chunkX, chunkY, chunk.getLevel()), chunk);
+      }
+    }
+  }
+
+  /**
+   * Gets the neighbor of a tile.
+   * @param _tile The tile to look from
+   * @param _direction Which neighboring tile to get
+   * @return The neighboring tile or <code>null</code>
+   */
+  private MFTile getNeighborTile(MFTile _tile, MFEDirection _direction)
+  {
+    int neighborX = _tile.getPosX();
+    int neighborY = _tile.getPosY();
+    int neighborZ = _tile.getPosZ();
+
+    switch (_direction) {
+      case N:    --neighborY; break;
+      case NE:   ++neighborX; --neighborY; break;
+      case E:    ++neighborX; break;
+      case SE:   ++neighborX; ++neighborY; break;
+      case S:    ++neighborY; break;
+      case SW:   --neighborX; ++neighborY; break;
+      case W:    --neighborX; break;
+      case NW:   --neighborX; --neighborY; break;
+      case UP:   --neighborZ; break;
+      case DOWN: ++neighborZ; break;
+    }
+
+    if (!this.isInsideMap(neighborX, neighborY, neighborZ)) {
+      return null;
+    }
+    return this.getTile(neighborX, neighborY, neighborZ);
+  }
 
   /**
    * Places walls if neighbor isn't dug out. Otherwise it removes the walls to
@@ -673,15 +1534,38 @@ public class MFMap implements MFISaveable
   private boolean blockedByTerrain(final MFCapability _capability,
                                       final MFTile _goal, final int _clearance)
   {
+    final int x = _goal.getPosX();
+    final int y = _goal.getPosY();
+    final int z = _goal.getPosZ();
+    final MFTileStorage goalStorage = _goal.getStorage();
+
     boolean accessible = false;
     
-    if (_goal.getClearance(_capability) >= _clearance && _goal.isWalkable(_capability)) {
+    if (goalStorage.getClearance(x, y, z, _capability) >= _clearance &&
+        MFTileStorage.isWalkable(goalStorage.getFlags(x, y, z), _capability)) {
       accessible = true;
     }
     
     return !accessible;
   }
 
+  /**
+   * Checks to see if two adjacent tiles on different levels are not connected
+   * by a passage the creature can use.
+   * @param _start the start tile
+   * @param _goal the end tile
+   * @param _capability the movement types of the creature
+   * @return <code>true</code> if the creature cannot change levels here
+   */
+  private boolean blockedByLevels(final MFTile _start, final MFTile _goal,
+                                  final MFCapability _capability)
+  {
+    if (_start.getPosZ() == _goal.getPosZ()) {
+      return false;
+    }
+    return !this.getVerticalPassage(_start, _goal).canBeUsedBy(_capability);
+  }
+
   /**
    * Checks to see if two adjacent tiles are walled off from each other.
    * @param _start
@@ -692,27 +1576,30 @@ public class MFMap implements MFISaveable
   {
     boolean blockedByWalls = false;
 
-    final MFEDirection direction = _start.getLocation().directionOf(_goal.getLocation());
+    final MFEDirection direction = MFPackedLocation.directionOf(_start.getPackedLocation(),
+                                                               _goal.getPackedLocation());
+    final int start = _start.getStorage().getFlags(_start.getPosX(), _start.getPosY(), _start.getPosZ());
+    final int goal  = _goal.getStorage().getFlags(_goal.getPosX(), _goal.getPosY(), _goal.getPosZ());
     
     if (MFEDirection.straight().contains(direction)) {
-      blockedByWalls = _start.hasWall(direction);
+      blockedByWalls = (start & MFTileStorage.wallFlag(direction)) != 0;
     } else if (MFEDirection.diagonals().contains(direction)) {
       switch (direction) {
         case NE:
-          blockedByWalls = _start.hasWallNorth() || _start.hasWallEast() ||
-                           _goal.hasWallSouth()  || _goal.hasWallWest();
+          blockedByWalls = (start & (MFTileStorage.WALL_N | MFTileStorage.WALL_E)) != 0 ||
+                           (goal  & (MFTileStorage.WALL_S | MFTileStorage.WALL_W)) != 0;
           break;
         case SE:
-          blockedByWalls = _start.hasWallSouth() || _start.hasWallEast() ||
-                           _goal.hasWallNorth()  || _goal.hasWallWest();
+          blockedByWalls = (start & (MFTileStorage.WALL_S | MFTileStorage.WALL_E)) != 0 ||
+                           (goal  & (MFTileStorage.WALL_N | MFTileStorage.WALL_W)) != 0;
           break;
         case SW:
-          blockedByWalls = _start.hasWallSouth() || _start.hasWallWest() ||
-                           _goal.hasWallNorth()  || _goal.hasWallEast();
+          blockedByWalls = (start & (MFTileStorage.WALL_S | MFTileStorage.WALL_W)) != 0 ||
+                           (goal  & (MFTileStorage.WALL_N | MFTileStorage.WALL_E)) != 0;
           break;
         case NW:
-          blockedByWalls = _start.hasWallNorth() || _start.hasWallWest() ||
-                           _goal.hasWallSouth()  || _goal.hasWallEast();
+          blockedByWalls = (start & (MFTileStorage.WALL_N | MFTileStorage.WALL_W)) != 0 ||
+                           (goal  & (MFTileStorage.WALL_S | MFTileStorage.WALL_E)) != 0;
           break;
       }
     }
@@ -720,14 +1607,162 @@ public class MFMap implements MFISaveable
   }
 
   /**
-   * Calculates the type of specified corner.
-   * @param _direction
-   * @param _horizontalWall
-   * @param _verticalWall
-   * @param _adjacentLeft
-   * @param _adjacentRight
+   * Calculates the types of corner. Neighbors in chunks that aren't loaded
+   * count as solid if they must not be loaded.
+   * @param _tile the dug out tile
+   * @param _loadNeighbors <code>false</code> to not load any chunks
    */
-  private void calculateCornerType(MFTile _tile,MFEDirection _direction, boolean _horizontalWall, boolean _verticalWall, boolean _adjacentLeft, boolean _adjacentRight)
+  private void calculateCorners(MFTile _tile, boolean _loadNeighbors)
+  {
+    final int x = _tile.getPosX();
+    final int y = _tile.getPosY();
+    final int z = _tile.getPosZ();
+    final MFTileStorage storage = _tile.getStorage();
+    final int neighborhood = wallNeighborhood(storage.getFlags(x, y, z),
+            this.getNeighborFlags(x, y - 1, z, _loadNeighbors),
+            this.getNeighborFlags(x + 1, y, z, _loadNeighbors),
+            this.getNeighborFlags(x, y + 1, z, _loadNeighbors),
+            this.getNeighborFlags(x - 1, y, z, _loadNeighbors));
+    storage.setCorners(x, y, z, CORNER_TABLE[neighborhood]);
+  }
+
+  /**
+   * Calculates the corners of all dug out tiles inside a rectangle of a
+   * level, without loading any chunks.
+   */
+  private void calculateCorners(int _startX, int _startY, int _endX, int _endY, int _z)
+  {
+    for (int x = Math.max(_startX, 0); x <= Math.min(_endX, this.width - 1); ++x) {
+      for (int y = Math.max(_startY, 0); y <= Math.min(_endY, this.height - 1); ++y) {
+        final MFMapChunk chunk = this.chunks[_z][x / CHUNK_SIZE][y / CHUNK_SIZE];
+        if (chunk == null) {
+          continue;
+        }
+        final MFTileStorage storage = chunk.getStorage();
+        final int flags = storage.getFlags(x, y, _z);
+        if ((flags & MFTileStorage.DUG_OUT) == 0) {
+          continue;
+        }
+        final int neighborhood = wallNeighborhood(flags,
+                this.getNeighborFlags(storage, x, y - 1, _z),
+                this.getNeighborFlags(storage, x + 1, y, _z),
+                this.getNeighborFlags(storage, x, y + 1, _z),
+                this.getNeighborFlags(storage, x - 1, y, _z));
+        storage.setCorners(x, y, _z, CORNER_TABLE[neighborhood]);
+      }
+    }
+  }
+
+  /**
+   * Gets the flags of a neighbor for the corner calculation.
+   * @return the flags or {@link #EDGE} if the neighbor is outside the map
+   *         or mustn't be loaded
+   */
+  private int getNeighborFlags(int _x, int _y, int _z, boolean _load)
+  {
+    if (!this.isInsideMap(_x, _y, _z)) {
+      return EDGE;
+    }
+    if (_load) {
+      return this.getFlags(_x, _y, _z);
+    }
+    final MFMapChunk chunk = this.chunks[_z][_x / CHUNK_SIZE][_y / CHUNK_SIZE];
+    return (chunk == null ? EDGE : chunk.getStorage().getFlags(_x, _y, _z));
+  }
+
+  /**
+   * Gets the flags of a neighbor, reading the storage of the tile directly
+   * if the neighbor lies inside the same chunk.
+   */
+  private int getNeighborFlags(MFTileStorage _storage, int _x, int _y, int _z)
+  {
+    final int localX = _x - _storage.getOriginX();
+    final int localY = _y - _storage.getOriginY();
+    if (localX >= 0 && localY >= 0 &&
+        localX < _storage.getWidth() && localY < _storage.getHeight()) {
+      return _storage.getFlags(_x, _y, _z);
+    }
+    return this.getNeighborFlags(_x, _y, _z, false);
+  }
+
+  /**
+   * Encodes the walls that shape the corners of a tile as an index into
+   * {@link #CORNER_TABLE}: the four walls of the tile and the walls of the
+   * straight neighbors running into its corners.
+   * @param _flags the flags of the tile
+   * @param _north the flags of the northern neighbor or {@link #EDGE}
+   * @param _east the flags of the eastern neighbor or {@link #EDGE}
+   * @param _south the flags of the southern neighbor or {@link #EDGE}
+   * @param _west the flags of the western neighbor or {@link #EDGE}
+   * @return the index into the corner table
+   */
+  private static int wallNeighborhood(int _flags, int _north, int _east,
+                                      int _south, int _west)
+  {
+    int result = 0;
+    // walls of the tile, edges of the map count as walls
+    if (_north == EDGE || (_flags & MFTileStorage.WALL_N) != 0) {
+      result |= 1;
+    }
+    if (_east == EDGE || (_flags & MFTileStorage.WALL_E) != 0) {
+      result |= 1 << 1;
+    }
+    if (_south == EDGE || (_flags & MFTileStorage.WALL_S) != 0) {
+      result |= 1 << 2;
+    }
+    if (_west == EDGE || (_flags & MFTileStorage.WALL_W) != 0) {
+      result |= 1 << 3;
+    }
+    // walls of the neighbors, the edge sets all of them
+    result |= adjacentWalls(_north, MFTileStorage.WALL_W, MFTileStorage.WALL_E) << 4;
+    result |= adjacentWalls(_east,  MFTileStorage.WALL_N, MFTileStorage.WALL_S) << 6;
+    result |= adjacentWalls(_south, MFTileStorage.WALL_E, MFTileStorage.WALL_W) << 8;
+    result |= adjacentWalls(_west,  MFTileStorage.WALL_S, MFTileStorage.WALL_N) << 10;
+    return result;
+  }
+
+  /**
+   * Gets two walls of a dug out neighbor as two bits.
+   */
+  private static int adjacentWalls(int _flags, int _first, int _second)
+  {
+    if (_flags != EDGE && (_flags & MFTileStorage.DUG_OUT) == 0) {
+      return 0;
+    }
+    return ((_flags & _first) != 0 ? 1 : 0) | ((_flags & _second) != 0 ? 2 : 0);
+  }
+
+  /**
+   * Calculates the corners for every possible wall neighborhood.
+   * @return the packed corners by neighborhood index
+   */
+  private static int[] createCornerTable()
+  {
+    final int[] result = new int[1 << 12];
+    for (int i = 0; i < result.length; ++i) {
+      final boolean wallN = (i & 1) != 0;
+      final boolean wallE = (i & (1 << 1)) != 0;
+      final boolean wallS = (i & (1 << 2)) != 0;
+      final boolean wallW = (i & (1 << 3)) != 0;
+      final boolean wallAboveW = (i & (1 << 4)) != 0;
+      final boolean wallAboveE = (i & (1 << 5)) != 0;
+      final boolean wallRightN = (i & (1 << 6)) != 0;
+      final boolean wallRightS = (i & (1 << 7)) != 0;
+      final boolean wallBelowE = (i & (1 << 8)) != 0;
+      final boolean wallBelowW = (i & (1 << 9)) != 0;
+      final boolean wallLeftS  = (i & (1 << 10)) != 0;
+      final boolean wallLeftN  = (i & (1 << 11)) != 0;
+      result[i] = MFTileStorage.packCorners(
+              calculateCornerType(wallN, wallE, wallAboveE, wallRightN),
+              calculateCornerType(wallS, wallE, wallRightS, wallBelowE),
+              calculateCornerType(wallS, wallW, wallLeftS, wallBelowW),
+              calculateCornerType(wallN, wallW, wallLeftN, wallAboveW));
+    }
+    return result;
+  }
+
+  private static Corner calculateCornerType(boolean _horizontalWall, boolean _verticalWall,
+                                    boolean _adjacentLeft, boolean _adjacentRight)
   {
     Corner corner = Corner.NONE;
     if (_horizontalWall && _verticalWall) {
@@ -739,7 +1774,7 @@ public class MFMap implements MFISaveable
     } else if (_adjacentLeft || _adjacentRight) {
       corner = Corner.BOTH;
     }
-    _tile.setCorner(_direction, corner);
+    return corner;
   }
 
 }
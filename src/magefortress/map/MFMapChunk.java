@@ -0,0 +1,230 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A square part of a level of the {@link MFMap}. Holds the data of its tiles
+ * in an own {@link MFTileStorage} and creates the tiles on first access.
+ * Loops over many tiles should read the storage instead, so that no tile
+ * objects are created for them.
+ */
+final class MFMapChunk
+{
+  /**
+   * Constructor
+   * @param _storage the data of the tiles, covering exactly one level
+   */
+  MFMapChunk(MFTileStorage _storage)
+  {
+    this.storage = _storage;
+  }
+
+  MFTileStorage getStorage()
+  {
+    return this.storage;
+  }
+
+  int getOriginX()
+  {
+    return this.storage.getOriginX();
+  }
+
+  int getOriginY()
+  {
+    return this.storage.getOriginY();
+  }
+
+  int getLevel()
+  {
+    return this.storage.getOriginZ();
+  }
+
+  /**
+   * Gets a tile of the chunk. Creates it if this is the first access.
+   * @param _x the x coordinate on the map
+   * @param _y the y coordinate on the map
+   * @return the tile
+   */
+  MFTile getTile(int _x, int _y)
+  {
+    final int x = _x - this.storage.getOriginX();
+    final int y = _y - this.storage.getOriginY();
+    if (this.tiles == null) {
+      this.tiles = new MFTile[this.storage.getWidth()][this.storage.getHeight()];
+    }
+    MFTile result = this.tiles[x][y];
+    if (result == null) {
+      result = new MFTile(this.storage, _x, _y, this.storage.getOriginZ());
+      this.tiles[x][y] = result;
+    }
+    return result;
+  }
+
+  /**
+   * Replaces a tile of the chunk. The tile must already be a view on the
+   * chunk's storage.
+   * @param _tile the tile
+   * @return the replaced tile or <code>null</code> if it wasn't created yet
+   */
+  MFTile setTile(MFTile _tile)
+  {
+    final int x = _tile.getPosX() - this.storage.getOriginX();
+    final int y = _tile.getPosY() - this.storage.getOriginY();
+    if (this.tiles == null) {
+      this.tiles = new MFTile[this.storage.getWidth()][this.storage.getHeight()];
+    }
+    final MFTile result = this.tiles[x][y];
+    this.tiles[x][y] = _tile;
+    return result;
+  }
+
+  /**
+   * Adds the tiles of the chunk that were created so far to a list, without
+   * creating the others.
+   * @param _result the list to add the tiles to
+   */
+  void collectCreatedTiles(List<MFTile> _result)
+  {
+    if (this.tiles == null) {
+      return;
+    }
+    for (MFTile[] column : this.tiles) {
+      for (MFTile tile : column) {
+        if (tile != null) {
+          _result.add(tile);
+        }
+      }
+    }
+  }
+
+  boolean isDirty()
+  {
+    return this.storage.isDirty();
+  }
+
+  /**
+   * The tick of the map's clock the chunk was last accessed in.
+   * @return the tick of the last access
+   */
+  int getLastAccess()
+  {
+    return this.lastAccess;
+  }
+
+  void setLastAccess(int _tick)
+  {
+    this.lastAccess = _tick;
+  }
+
+  /**
+   * Checks if the chunk can be dropped and loaded again later without losing
+   * anything. Unsaved changes keep the chunk in memory.
+   * @return <code>true</code> if the chunk may be evicted
+   */
+  boolean isEvictable()
+  {
+    return !this.storage.isDirty();
+  }
+
+  /**
+   * Drops the data of the tiles when the chunk is evicted from the map. Only
+   * the clearance values and the tiles holding more than the data of the
+   * storage, like their section, are kept until the chunk is loaded again.
+   * @param _map the map evicting the chunk
+   * @see #restore(MFMapChunk)
+   */
+  void evict(MFMap _map)
+  {
+    this.evictedClearance = this.storage.evict(_map);
+    if (this.tiles == null) {
+      return;
+    }
+    boolean isKeepingTiles = false;
+    for (MFTile[] column : this.tiles) {
+      for (int y = 0; y < column.length; ++y) {
+        if (column[y] != null && column[y].isPlain()) {
+          column[y] = null;
+        }
+        isKeepingTiles |= (column[y] != null);
+      }
+    }
+    if (!isKeepingTiles) {
+      this.tiles = null;
+    }
+  }
+
+  /**
+   * Takes over what an evicted chunk of the same area kept. Its tiles become
+   * views on the storage of this chunk.
+   * @param _evicted the evicted chunk
+   */
+  void restore(MFMapChunk _evicted)
+  {
+    this.storage.restoreClearance(_evicted.evictedClearance);
+    final List<MFTile> keptTiles = new ArrayList<MFTile>();
+    _evicted.collectCreatedTiles(keptTiles);
+    for (MFTile tile : keptTiles) {
+      tile.moveToStorage(this.storage);
+      this.setTile(tile);
+    }
+  }
+
+  /**
+   * Estimates the memory used by the chunk.
+   * @return the size in bytes
+   */
+  long estimateSize()
+  {
+    long result = this.storage.estimateSize();
+    if (this.tiles == null) {
+      return result;
+    }
+    result += (long) this.storage.getWidth() * this.storage.getHeight() * BYTES_PER_REFERENCE;
+    for (MFTile[] column : this.tiles) {
+      for (MFTile tile : column) {
+        if (tile != null) {
+          result += BYTES_PER_TILE_OBJECT;
+        }
+      }
+    }
+    return result;
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  /** Rough size of a tile object including its header */
+  private static final int BYTES_PER_TILE_OBJECT = 48;
+  /** Rough size of an entry of the array of created tiles */
+  private static final int BYTES_PER_REFERENCE = 8;
+  private final MFTileStorage storage;
+  /** The tiles created so far, allocated with the first one. The array has
+   * the following order: x -> y */
+  private MFTile[][] tiles;
+  private int lastAccess;
+  /** The clearance values kept while the chunk is evicted */
+  private byte[][][] evictedClearance;
+}
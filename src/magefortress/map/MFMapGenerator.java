@@ -0,0 +1,329 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+import magefortress.map.ground.MFGround;
+
+/**
+ * Generates maps with caverns, corridors and ore veins. The levels are
+ * generated in parallel, each with its own random generator derived from
+ * the seed, so the same seed always produces the same map no matter how
+ * many threads are used.
+ */
+public class MFMapGenerator
+{
+  /** Share of open tiles before the caverns are smoothed */
+  public static final double DEFAULT_CAVERN_DENSITY = 0.45;
+
+  /**
+   * Constructor
+   * @param _seed the seed of the random generators
+   * @param _rock the ground type of all tiles outside of ore veins
+   * @param _ores the ground types placed as veins, may be empty
+   */
+  public MFMapGenerator(long _seed, MFGround _rock, List<MFGround> _ores)
+  {
+    if (_rock == null) {
+      String msg = "MapGenerator: Cannot create without rock ground type.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    if (_ores == null || _ores.contains(null)) {
+      String msg = "MapGenerator: Cannot create without valid ore ground types.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.seed = _seed;
+    this.rock = _rock;
+    this.ores = new ArrayList<MFGround>(_ores);
+    this.cavernDensity = DEFAULT_CAVERN_DENSITY;
+    this.threadCount = MFParallelLevels.defaultThreadCount();
+  }
+
+  public double getCavernDensity()
+  {
+    return this.cavernDensity;
+  }
+
+  /**
+   * Sets the share of open tiles before the caverns are smoothed. Higher
+   * values produce bigger caverns.
+   * @param _density a value between <code>0</code> and <code>1</code>
+   */
+  public void setCavernDensity(double _density)
+  {
+    if (_density < 0 || _density > 1) {
+      String msg = "MapGenerator: Cavern density must be between 0 and 1. Got " +
+                   _density;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.cavernDensity = _density;
+  }
+
+  public int getThreadCount()
+  {
+    return this.threadCount;
+  }
+
+  /**
+   * Sets the number of levels generated at the same time.
+   * @param _threadCount at least <code>1</code>
+   */
+  public void setThreadCount(int _threadCount)
+  {
+    if (_threadCount < 1) {
+      String msg = "MapGenerator: Need at least one thread. Got " + _threadCount;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.threadCount = _threadCount;
+  }
+
+  /**
+   * Generates a new map. Walls and corners of the dug out tiles are calculated
+   * and the levels are connected by stairs.
+   * @param _width the number of tiles in x direction
+   * @param _height the number of tiles in y direction
+   * @param _depth the number of levels
+   * @return the new map
+   */
+  public MFMap generate(int _width, int _height, int _depth)
+  {
+    if (_width < 1 || _height < 1 || _depth < 1) {
+      String msg = "MapGenerator: Cannot generate map of size " + _width +
+                   "/" + _height + "/" + _depth;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    final MFMap result = new MFMap(-1, _width, _height, _depth, this.rock);
+
+    // the chunks have to exist before the levels are filled concurrently
+    for (int z = 0; z < _depth; ++z) {
+      for (int x = 0; x < _width; x += MFMap.CHUNK_SIZE) {
+        for (int y = 0; y < _height; y += MFMap.CHUNK_SIZE) {
+          result.getStorage(x, y, z);
+        }
+      }
+    }
+
+    MFParallelLevels.forEachLevel(_depth, this.threadCount,
+                                  new MFParallelLevels.LevelTask() {
+      @Override
+      public void process(int _z)
+      {
+        generateLevel(result, _z);
+      }
+    });
+
+    for (int z = 0; z < _depth - 1; ++z) {
+      this.placeStairs(result, z);
+    }
+    return result;
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFMapGenerator.class.getName());
+  /** Mixes the level into the seed */
+  private static final long LEVEL_SEED_FACTOR = 0x9E3779B97F4A7C15L;
+  private static final int SMOOTHING_STEPS = 4;
+  /** Tiles per corridor */
+  private static final int CORRIDOR_AREA = 400;
+  /** Tiles per vein of each ore */
+  private static final int VEIN_AREA = 900;
+  private static final int VEIN_LENGTH = 24;
+  /** Tiles per try to place stairs */
+  private static final int STAIRS_AREA = 256;
+  private final long seed;
+  private final MFGround rock;
+  private final List<MFGround> ores;
+  private double cavernDensity;
+  private int threadCount;
+
+  private Random createRandom(int _z)
+  {
+    return new Random(this.seed ^ (LEVEL_SEED_FACTOR * (_z + 1)));
+  }
+
+  /**
+   * Fills a level. Only touches the chunks of the level.
+   */
+  private void generateLevel(MFMap _map, int _z)
+  {
+    final int width = _map.getWidth();
+    final int height = _map.getHeight();
+    final Random random = this.createRandom(_z);
+
+    boolean[][] open = this.createCaverns(width, height, random);
+    this.carveCorridors(open, random);
+    final MFGround[][] grounds = this.placeVeins(width, height, random);
+
+    for (int x = 0; x < width; ++x) {
+      for (int y = 0; y < height; ++y) {
+        final MFTileStorage storage = _map.getStorage(x, y, _z);
+        if (grounds[x][y] != null) {
+          storage.setGround(x, y, _z, grounds[x][y]);
+        }
+        if (open[x][y]) {
+          int flags = MFTileStorage.DUG_OUT;
+          // walls wherever a neighbor is solid, just like digging out
+          if (!isOpen(open, x, y - 1)) {
+            flags |= MFTileStorage.WALL_N;
+          }
+          if (!isOpen(open, x + 1, y)) {
+            flags |= MFTileStorage.WALL_E;
+          }
+          if (!isOpen(open, x, y + 1)) {
+            flags |= MFTileStorage.WALL_S;
+          }
+          if (!isOpen(open, x - 1, y)) {
+            flags |= MFTileStorage.WALL_W;
+          }
+          storage.setFlag(x, y, _z, flags, true);
+        }
+      }
+    }
+
+    _map.calculateLevelCorners(_z);
+  }
+
+  /**
+   * Opens random tiles and smoothes them into caverns. The outermost tiles
+   * stay solid.
+   */
+  private boolean[][] createCaverns(int _width, int _height, Random _random)
+  {
+    boolean[][] open = new boolean[_width][_height];
+    for (int x = 1; x < _width - 1; ++x) {
+      for (int y = 1; y < _height - 1; ++y) {
+        open[x][y] = _random.nextDouble() < this.cavernDensity;
+      }
+    }
+
+    boolean[][] next = new boolean[_width][_height];
+    for (int step = 0; step < SMOOTHING_STEPS; ++step) {
+      for (int x = 1; x < _width - 1; ++x) {
+        for (int y = 1; y < _height - 1; ++y) {
+          final int openNeighbors = countOpenNeighbors(open, x, y);
+          next[x][y] = openNeighbors >= 5 || (open[x][y] && openNeighbors >= 4);
+        }
+      }
+      final boolean[][] swap = open;
+      open = next;
+      next = swap;
+    }
+    return open;
+  }
+
+  /**
+   * Connects random points by corridors with a single bend.
+   */
+  private void carveCorridors(boolean[][] _open, Random _random)
+  {
+    final int width = _open.length;
+    final int height = _open[0].length;
+    if (width < 3 || height < 3) {
+      return;
+    }
+    final int corridors = Math.max(1, width * height / CORRIDOR_AREA);
+    for (int i = 0; i < corridors; ++i) {
+      final int startX = 1 + _random.nextInt(width - 2);
+      final int startY = 1 + _random.nextInt(height - 2);
+      final int endX = 1 + _random.nextInt(width - 2);
+      final int endY = 1 + _random.nextInt(height - 2);
+      for (int x = Math.min(startX, endX); x <= Math.max(startX, endX); ++x) {
+        _open[x][startY] = true;
+      }
+      for (int y = Math.min(startY, endY); y <= Math.max(startY, endY); ++y) {
+        _open[endX][y] = true;
+      }
+    }
+  }
+
+  /**
+   * Places each ore as random walks.
+   * @return the ore of each tile or <code>null</code> for rock
+   */
+  private MFGround[][] placeVeins(int _width, int _height, Random _random)
+  {
+    final MFGround[][] result = new MFGround[_width][_height];
+    final int veins = Math.max(1, _width * _height / VEIN_AREA);
+    for (MFGround ore : this.ores) {
+      for (int i = 0; i < veins; ++i) {
+        int x = _random.nextInt(_width);
+        int y = _random.nextInt(_height);
+        for (int step = 0; step < VEIN_LENGTH; ++step) {
+          result[x][y] = ore;
+          x = Math.max(0, Math.min(_width - 1, x + _random.nextInt(3) - 1));
+          y = Math.max(0, Math.min(_height - 1, y + _random.nextInt(3) - 1));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Connects a level with the one below wherever both are dug out at a
+   * random location.
+   */
+  private void placeStairs(MFMap _map, int _z)
+  {
+    final int width = _map.getWidth();
+    final int height = _map.getHeight();
+    final Random random = new Random(this.createRandom(_z).nextLong() ^ this.seed);
+    final int tries = Math.max(1, width * height / STAIRS_AREA);
+    for (int i = 0; i < tries; ++i) {
+      final int x = random.nextInt(width);
+      final int y = random.nextInt(height);
+      if (_map.getStorage(x, y, _z).hasFlag(x, y, _z, MFTileStorage.DUG_OUT) &&
+          _map.getStorage(x, y, _z + 1).hasFlag(x, y, _z + 1, MFTileStorage.DUG_OUT)) {
+        _map.getStorage(x, y, _z).setVerticalPassage(x, y, _z, MFEVerticalPassage.STAIRS);
+      }
+    }
+  }
+
+  private static boolean isOpen(boolean[][] _open, int _x, int _y)
+  {
+    return _x >= 0 && _y >= 0 && _x < _open.length && _y < _open[0].length &&
+           _open[_x][_y];
+  }
+
+  private static int countOpenNeighbors(boolean[][] _open, int _x, int _y)
+  {
+    int result = 0;
+    for (int dx = -1; dx <= 1; ++dx) {
+      for (int dy = -1; dy <= 1; ++dy) {
+        if ((dx != 0 || dy != 0) && isOpen(_open, _x + dx, _y + dy)) {
+          ++result;
+        }
+      }
+    }
+    return result;
+  }
+}
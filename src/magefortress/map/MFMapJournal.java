@@ -0,0 +1,234 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+import magefortress.core.MFPackedLocation;
+
+/**
+ * Append-only list of the changes made to the tiles of a map. Every consumer
+ * reads the journal through its own cursor and only gets the entries added
+ * since its last read. Entries all cursors have passed are dropped, so the
+ * journal stays small as long as the consumers keep reading.
+ * <p>
+ * Nothing is recorded while no cursor is open.
+ */
+final class MFMapJournal
+{
+  MFMapJournal()
+  {
+    this.locations = new long[INITIAL_CAPACITY];
+    this.changes = new byte[INITIAL_CAPACITY];
+    this.ticks = new int[INITIAL_CAPACITY];
+    this.cursors = new long[0];
+  }
+
+  /**
+   * Starts a new tick. Entries recorded from now on carry the new tick.
+   */
+  void advance()
+  {
+    ++this.tick;
+  }
+
+  int getTick()
+  {
+    return this.tick;
+  }
+
+  /**
+   * Appends a change.
+   * @param _x the x coordinate of the changed tile
+   * @param _y the y coordinate of the changed tile
+   * @param _z the level of the changed tile
+   * @param _change what changed
+   */
+  void record(int _x, int _y, int _z, MFETileChange _change)
+  {
+    if (this.openCursors == 0) {
+      return;
+    }
+    if (this.size == this.locations.length) {
+      this.compact();
+      if (this.size == this.locations.length) {
+        final int capacity = this.locations.length * 2;
+        this.locations = Arrays.copyOf(this.locations, capacity);
+        this.changes = Arrays.copyOf(this.changes, capacity);
+        this.ticks = Arrays.copyOf(this.ticks, capacity);
+      }
+    }
+    this.locations[this.size] = MFPackedLocation.pack(_x, _y, _z);
+    this.changes[this.size] = (byte) _change.ordinal();
+    this.ticks[this.size] = this.tick;
+    ++this.size;
+  }
+
+  /**
+   * Opens a cursor positioned behind the last entry.
+   * @return the id of the cursor
+   */
+  int openCursor()
+  {
+    int id = 0;
+    while (id < this.cursors.length && this.cursors[id] != CLOSED) {
+      ++id;
+    }
+    if (id == this.cursors.length) {
+      this.cursors = Arrays.copyOf(this.cursors, id + 1);
+    }
+    this.cursors[id] = this.firstSequence + this.size;
+    ++this.openCursors;
+    return id;
+  }
+
+  /**
+   * Closes a cursor. Entries only it hadn't read yet can be dropped.
+   * @param _cursor the id of the cursor
+   */
+  void closeCursor(int _cursor)
+  {
+    this.checkCursor(_cursor);
+    this.cursors[_cursor] = CLOSED;
+    --this.openCursors;
+    this.dropReadEntries();
+  }
+
+  /**
+   * Tests if there are entries the cursor hasn't read yet.
+   * @param _cursor the id of the cursor
+   * @return <code>true</code> if there are unread entries
+   */
+  boolean hasChanges(int _cursor)
+  {
+    this.checkCursor(_cursor);
+    return this.cursors[_cursor] < this.firstSequence + this.size;
+  }
+
+  /**
+   * Passes all entries the cursor hasn't read yet to a visitor and moves the
+   * cursor behind them. Changes the visitor makes are read the next time.
+   * @param _cursor the id of the cursor
+   * @param _visitor receives the entries
+   * @return the number of entries read
+   */
+  int read(int _cursor, MFIMapChangeVisitor _visitor)
+  {
+    this.checkCursor(_cursor);
+    if (_visitor == null) {
+      String msg = "MapJournal: Cannot read changes without visitor.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+
+    final long end = this.firstSequence + this.size;
+    final long start = this.cursors[_cursor];
+    for (long sequence = start; sequence < end; ++sequence) {
+      // the visitor may append entries and thereby compact the journal
+      final int index = (int) (sequence - this.firstSequence);
+      final long location = this.locations[index];
+      this.cursors[_cursor] = sequence + 1;
+      _visitor.tileChanged(MFPackedLocation.getX(location),
+              MFPackedLocation.getY(location), MFPackedLocation.getZ(location),
+              CHANGES[this.changes[index]], this.ticks[index]);
+    }
+    this.dropReadEntries();
+    return (int) (end - start);
+  }
+
+  /**
+   * Gets the number of entries kept in memory.
+   * @return the number of entries not read by all cursors
+   */
+  int size()
+  {
+    return this.size;
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFMapJournal.class.getName());
+  private static final int INITIAL_CAPACITY = 64;
+  private static final long CLOSED = -1;
+  private static final MFETileChange[] CHANGES = MFETileChange.values();
+  /** The packed locations of the changed tiles */
+  private long[] locations;
+  private byte[] changes;
+  private int[] ticks;
+  private int size;
+  /** The sequence number of the oldest entry kept */
+  private long firstSequence;
+  /** The sequence number of the next entry to read for each cursor */
+  private long[] cursors;
+  private int openCursors;
+  private int tick;
+
+  private void checkCursor(int _cursor)
+  {
+    if (_cursor < 0 || _cursor >= this.cursors.length || this.cursors[_cursor] == CLOSED) {
+      String msg = "MapJournal: There's no open cursor #" + _cursor + ".";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+  }
+
+  /**
+   * Forgets everything if all cursors are up to date. Cheap enough to do
+   * after every read.
+   */
+  private void dropReadEntries()
+  {
+    final long end = this.firstSequence + this.size;
+    for (long position : this.cursors) {
+      if (position != CLOSED && position != end) {
+        return;
+      }
+    }
+    this.firstSequence = end;
+    this.size = 0;
+  }
+
+  /**
+   * Drops the entries read by all cursors by moving the rest to the front.
+   */
+  private void compact()
+  {
+    long oldest = this.firstSequence + this.size;
+    for (long position : this.cursors) {
+      if (position != CLOSED && position < oldest) {
+        oldest = position;
+      }
+    }
+    final int dropped = (int) (oldest - this.firstSequence);
+    if (dropped == 0) {
+      return;
+    }
+    final int remaining = this.size - dropped;
+    System.arraycopy(this.locations, dropped, this.locations, 0, remaining);
+    System.arraycopy(this.changes, dropped, this.changes, 0, remaining);
+    System.arraycopy(this.ticks, dropped, this.ticks, 0, remaining);
+    this.size = remaining;
+    this.firstSequence = oldest;
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import magefortress.core.MFLongHashMap;
+import magefortress.storage.DataAccessException;
+import magefortress.storage.MFDaoFactory;
+import magefortress.storage.MFISaveProgress;
+
+/**
+ * Saves maps on a background thread while the game goes on. The state of
+ * the map is captured in a snapshot between two updates, so the save is
+ * consistent no matter what changes afterwards. Progress and the result
+ * are reported to the listener on the game thread during {@link #update()}.
+ * <p>
+ * Only one save runs at a time. The map must have been saved once before,
+ * and shouldn't be saved any other way until the save has ended. If the
+ * game uses the database during a save, the connector has to be
+ * {@link magefortress.storage.MFSqlConnector#setThreadSafe(boolean) thread-safe}.
+ * @see MFIMapSaveListener
+ */
+public class MFMapSaveService
+{
+  /**
+   * Constructor
+   * @param _daoFactory the factory of the DAOs used to save maps
+   */
+  public MFMapSaveService(MFDaoFactory _daoFactory)
+  {
+    this(_daoFactory, _daoFactory == null ? null :
+                      _daoFactory.getThreadFactory("Map saver"));
+  }
+
+  /**
+   * Constructor
+   * @param _daoFactory the factory of the DAOs used to save maps
+   * @param _threadFactory creates the thread saving the maps
+   */
+  MFMapSaveService(MFDaoFactory _daoFactory, ThreadFactory _threadFactory)
+  {
+    if (_daoFactory == null) {
+      String msg = "MapSaveService: Cannot create without a DAO factory.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    if (_threadFactory == null) {
+      String msg = "MapSaveService: Cannot create without a thread factory.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.daoFactory = _daoFactory;
+    // the idle thread ends and closes its connection
+    final ThreadPoolExecutor saver = new ThreadPoolExecutor(1, 1,
+            IDLE_THREAD_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            _threadFactory);
+    saver.allowCoreThreadTimeOut(true);
+    this.executor = saver;
+  }
+
+  /**
+   * Starts saving a map in the background. Must be called on the game
+   * thread between two updates of the map.
+   * @param _map the map to save
+   * @param _onlyChanges if only the tiles changed since the last save are
+   *        saved
+   * @param _listener notified about the progress and the end of the save
+   * @return <code>false</code> if the save was refused because another
+   *         save is still running
+   */
+  public boolean save(MFMap _map, boolean _onlyChanges, MFIMapSaveListener _listener)
+  {
+    if (_map == null) {
+      String msg = "MapSaveService: Cannot save null map.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    return this.save(_map, this.daoFactory.getMapSavingDao(_map), _onlyChanges,
+                     _listener);
+  }
+
+  /**
+   * Checks if a save is running. A save is running until its end was
+   * reported during an update or the shutdown.
+   * @return <code>true</code> if a save is running
+   */
+  public boolean isSaving()
+  {
+    return this.future != null;
+  }
+
+  /**
+   * Reports the progress and the end of the running save to the listener.
+   * Must be called on the game thread, e.g. once per frame.
+   */
+  public void update()
+  {
+    if (this.future == null) {
+      return;
+    }
+
+    final int saved = this.saved;
+    final int total = this.total;
+    if (saved != this.reportedSaved || total != this.reportedTotal) {
+      this.reportedSaved = saved;
+      this.reportedTotal = total;
+      this.listener.mapSaveProgressed(this.map, saved, total);
+    }
+
+    if (this.future.isDone()) {
+      this.endSave();
+    }
+  }
+
+  /**
+   * Stops the background thread. Waits for the running save, if any, and
+   * reports its end to the listener. Must be called on the game thread.
+   */
+  public void shutdown()
+  {
+    this.executor.shutdown();
+    if (this.future != null) {
+      this.endSave();
+    }
+  }
+
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+
+  /**
+   * Starts saving a map in the background through the given DAO.
+   * @see #save(MFMap, boolean, MFIMapSaveListener)
+   */
+  boolean save(final MFMap _map, final MFIMapDao _mapDao, final boolean _onlyChanges,
+               MFIMapSaveListener _listener)
+  {
+    if (_listener == null) {
+      String msg = "MapSaveService: Cannot save map without a listener.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    if (this.future != null) {
+      String msg = "MapSaveService: Cannot save map #" + _map.getId() +
+                   " while map #" + this.map.getId() + " is being saved.";
+      logger.warning(msg);
+      return false;
+    }
+
+    final MFMapSnapshot frozen = _map.beginSave();
+    this.map = _map;
+    this.snapshot = frozen;
+    this.listener = _listener;
+    this.saved = 0;
+    this.total = 0;
+    this.reportedSaved = 0;
+    this.reportedTotal = 0;
+    try {
+      this.future = this.executor.submit(new Callable<MFLongHashMap<Integer>>() {
+        @Override
+        public MFLongHashMap<Integer> call() throws DataAccessException
+        {
+          return _mapDao.saveSnapshot(frozen, _onlyChanges, new MFISaveProgress() {
+            @Override
+            public void progressed(int _done, int _total)
+            {
+              total = _total;
+              saved = _done;
+            }
+          });
+        }
+      });
+    } catch (RuntimeException e) {
+      _map.abortSave(frozen);
+      this.map = null;
+      this.snapshot = null;
+      this.listener = null;
+      throw e;
+    }
+    return true;
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFMapSaveService.class.getName());
+  /** How long the thread waits for the next save before it ends */
+  private static final long IDLE_THREAD_SECONDS = 30;
+  private final MFDaoFactory daoFactory;
+  /** Runs one save after the other */
+  private final ExecutorService executor;
+  /** The running save, <code>null</code> if there is none */
+  private Future<MFLongHashMap<Integer>> future;
+  private MFMap map;
+  private MFMapSnapshot snapshot;
+  private MFIMapSaveListener listener;
+  /** Progress written by the background thread */
+  private volatile int saved, total;
+  /** Progress last reported to the listener */
+  private int reportedSaved, reportedTotal;
+
+  /**
+   * Waits for the running save to end, hands the ids of the new tiles to
+   * the map and reports the end to the listener.
+   */
+  private void endSave()
+  {
+    final MFMap savedMap = this.map;
+    final MFIMapSaveListener savedListener = this.listener;
+    DataAccessException failure = null;
+    try {
+      savedMap.endSave(this.future.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure = new DataAccessException("MapSaveService: Interrupted while " +
+                                        "saving map #" + savedMap.getId(), e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof DataAccessException) {
+        failure = (DataAccessException) e.getCause();
+      } else {
+        failure = new DataAccessException("MapSaveService: Unable to save map #" +
+                                          savedMap.getId(), e.getCause());
+      }
+    }
+    if (failure != null) {
+      logger.log(Level.SEVERE, "MapSaveService: Unable to save map #" +
+                               savedMap.getId(), failure);
+      savedMap.abortSave(this.snapshot);
+    }
+
+    this.future = null;
+    this.map = null;
+    this.snapshot = null;
+    this.listener = null;
+
+    if (failure == null) {
+      savedListener.mapSaveFinished(savedMap);
+    } else {
+      savedListener.mapSaveFailed(savedMap, failure);
+    }
+  }
+}
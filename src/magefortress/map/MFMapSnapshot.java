@@ -0,0 +1,217 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import magefortress.core.MFEDirection;
+import magefortress.creatures.behavior.movable.MFCapability;
+import magefortress.map.MFTile.Corner;
+import magefortress.map.ground.MFGround;
+
+/**
+ * Read only view on the tiles of a map at the time it was taken. Later
+ * changes to the map don't show up, so the snapshot can be read by other
+ * threads while the game goes on. It has to be handed over to the reading
+ * thread safely, e.g. through an executor.
+ * <p>
+ * The map keeps writing into its own storages. A chunk is copied once, on
+ * the first change after the snapshot was taken, so chunks that don't
+ * change don't cost any memory.
+ * <p>
+ * Only the chunks loaded when the snapshot was taken are part of it. Tiles
+ * of other chunks read as solid rock of the map's default ground type.
+ * @see MFMap#createSnapshot()
+ */
+public final class MFMapSnapshot
+{
+  /**
+   * Constructor
+   * @param _storages frozen copies of the loaded chunks, <code>null</code>
+   *        for chunks that aren't loaded. Order: z -> chunk x -> chunk y
+   */
+  MFMapSnapshot(int _width, int _height, int _depth, int _tick,
+                MFGround _defaultGround, MFTileStorage[][][] _storages)
+  {
+    this.width = _width;
+    this.height = _height;
+    this.depth = _depth;
+    this.tick = _tick;
+    this.defaultGround = _defaultGround;
+    this.storages = _storages;
+  }
+
+  /**
+   * Gets the number of updates the map made before the snapshot was taken.
+   * @return the tick of the map
+   */
+  public int getTick()
+  {
+    return this.tick;
+  }
+
+  public int getWidth()
+  {
+    return this.width;
+  }
+
+  public int getHeight()
+  {
+    return this.height;
+  }
+
+  public int getDepth()
+  {
+    return this.depth;
+  }
+
+  /**
+   * Checks if the chunk of a tile was loaded when the snapshot was taken.
+   * @return <code>true</code> if the tile's data is part of the snapshot
+   */
+  public boolean isLoaded(int _x, int _y, int _z)
+  {
+    return this.getStorage(_x, _y, _z) != null;
+  }
+
+  public int getId(int _x, int _y, int _z)
+  {
+    final MFTileStorage storage = this.getStorage(_x, _y, _z);
+    return (storage == null ? MFTileStorage.UNSAVED_ID : storage.getId(_x, _y, _z));
+  }
+
+  public boolean isDugOut(int _x, int _y, int _z)
+  {
+    return this.hasFlag(_x, _y, _z, MFTileStorage.DUG_OUT);
+  }
+
+  public boolean isUnderground(int _x, int _y, int _z)
+  {
+    return this.hasFlag(_x, _y, _z, MFTileStorage.UNDERGROUND);
+  }
+
+  public boolean hasFloor(int _x, int _y, int _z)
+  {
+    return this.hasFlag(_x, _y, _z, MFTileStorage.FLOOR);
+  }
+
+  public boolean hasWall(int _x, int _y, int _z, MFEDirection _direction)
+  {
+    final int wall = MFTileStorage.wallFlag(_direction);
+    if (wall == 0) {
+      String msg = "MapSnapshot: Cannot get wall. Illegal direction: " + _direction;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    return this.hasFlag(_x, _y, _z, wall);
+  }
+
+  public Corner getCorner(int _x, int _y, int _z, MFEDirection _direction)
+  {
+    final MFTileStorage storage = this.getStorage(_x, _y, _z);
+    return (storage == null ? Corner.NONE : storage.getCorner(_x, _y, _z, _direction));
+  }
+
+  public MFEVerticalPassage getVerticalPassage(int _x, int _y, int _z)
+  {
+    final MFTileStorage storage = this.getStorage(_x, _y, _z);
+    return (storage == null ? MFEVerticalPassage.NONE :
+                              storage.getVerticalPassage(_x, _y, _z));
+  }
+
+  public MFGround getGround(int _x, int _y, int _z)
+  {
+    final MFTileStorage storage = this.getStorage(_x, _y, _z);
+    return (storage == null ? this.defaultGround : storage.getGround(_x, _y, _z));
+  }
+
+  /**
+   * Gets the size of the biggest creature which could pass the tile.
+   * @return the clearance or <code>0</code> if it was not calculated
+   */
+  public int getClearance(int _x, int _y, int _z, MFCapability _capability)
+  {
+    final MFTileStorage storage = this.getStorage(_x, _y, _z);
+    return (storage == null ? 0 : storage.getClearance(_x, _y, _z, _capability));
+  }
+
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+
+  /**
+   * Gets the bitfield of a tile.
+   * @return the flags of the tile
+   */
+  int getFlags(int _x, int _y, int _z)
+  {
+    final MFTileStorage storage = this.getStorage(_x, _y, _z);
+    return (storage == null ? SOLID : storage.getFlags(_x, _y, _z));
+  }
+
+  /**
+   * Gets the frozen copies of the loaded chunks.
+   * @return the storages of the chunks. Order: z -> chunk x -> chunk y
+   */
+  List<MFTileStorage> getStorages()
+  {
+    final List<MFTileStorage> result = new ArrayList<MFTileStorage>();
+    for (MFTileStorage[][] level : this.storages) {
+      for (MFTileStorage[] column : level) {
+        for (MFTileStorage storage : column) {
+          if (storage != null) {
+            result.add(storage);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFMapSnapshot.class.getName());
+  /** Flags of tiles that weren't loaded */
+  private static final int SOLID = MFTileStorage.UNDERGROUND | MFTileStorage.FLOOR;
+  private final int width, height, depth;
+  private final int tick;
+  private final MFGround defaultGround;
+  private final MFTileStorage[][][] storages;
+
+  private MFTileStorage getStorage(int _x, int _y, int _z)
+  {
+    if (_x < 0 || _y < 0 || _z < 0 ||
+        _x >= this.width || _y >= this.height || _z >= this.depth) {
+      String msg = "MapSnapshot: Coordinates have to be inside the map: " +
+                   _x + "/" + _y + "/" + _z;
+      logger.severe(msg);
+      throw new IndexOutOfBoundsException(msg);
+    }
+    return this.storages[_z][_x / MFMap.CHUNK_SIZE][_y / MFMap.CHUNK_SIZE];
+  }
+
+  private boolean hasFlag(int _x, int _y, int _z, int _flag)
+  {
+    return (this.getFlags(_x, _y, _z) & _flag) != 0;
+  }
+}
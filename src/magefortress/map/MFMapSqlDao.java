@@ -25,15 +25,18 @@
 package magefortress.map;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import magefortress.core.Immutable;
+import magefortress.core.MFLongHashMap;
 import magefortress.map.ground.MFGround;
 import magefortress.storage.DataAccessException;
 import magefortress.storage.MFDaoFactory;
 import magefortress.storage.MFESqlOperations;
+import magefortress.storage.MFISaveProgress;
 import magefortress.storage.MFSqlConnector;
 import magefortress.storage.MFSqlDao;
 
@@ -114,14 +117,66 @@ public class MFMapSqlDao extends MFSqlDao<MFMap> implements MFIMapDao, Immutable
     this.groundTypes = _groundTypes;
   }
 
+  /**
+   * Saves the map and its tiles in a single transaction. If anything fails,
+   * nothing is saved. The tiles are saved in the
+   * {@link MFDaoFactory#getTileFormat() format} of the DAO factory, but maps
+   * already saved as levels stay levels.
+   */
   @Override
   public void save() throws DataAccessException
   {
-    // save the map
-    super.save();
+    this.save(false);
+  }
+
+  /**
+   * Saves only the tiles changed since the map was loaded or last saved, in
+   * a single transaction. Tiles saved as rows are written one by one, levels
+   * with changed tiles are written as a whole. New maps and maps that are
+   * converted to levels are saved completely.
+   */
+  @Override
+  public void saveChanges() throws DataAccessException
+  {
+    this.save(true);
+  }
+
+  /**
+   * Saves the tiles of a snapshot in a single transaction. Maps saved as
+   * levels write the levels with changed tiles, taking the tiles of chunks
+   * missing from the snapshot from the saved level. Other maps write the
+   * tiles as rows, even if the DAO factory prefers levels, because
+   * converting a map takes all of its levels in memory.
+   */
+  @Override
+  public MFLongHashMap<Integer> saveSnapshot(MFMapSnapshot _snapshot,
+          boolean _onlyChanges, MFISaveProgress _progress) throws DataAccessException
+  {
+    final MFMap map = this.getPayload();
+    if (map == null || map.getId() == this.getUnsavedMarker()) {
+      String msg = this.getClass().getSimpleName() + ": Cannot save snapshot " +
+                   "of a map that was never saved.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
 
-    // additionally save all tiles
-    this.saveTiles();
+    final MFLongHashMap<Integer> newIds = new MFLongHashMap<Integer>();
+    this.getDb().beginTransaction();
+    try {
+      if (this.daoFactory.getLevelDao().hasLevels(map.getId())) {
+        this.saveSnapshotLevels(_snapshot, _onlyChanges, _progress);
+      } else {
+        this.saveSnapshotTiles(_snapshot, _onlyChanges, newIds, _progress);
+      }
+      this.getDb().commit();
+    } catch (DataAccessException e) {
+      this.getDb().rollback();
+      throw e;
+    } catch (RuntimeException e) {
+      this.getDb().rollback();
+      throw e;
+    }
+    return newIds;
   }
 
   @Override
@@ -136,6 +191,102 @@ public class MFMapSqlDao extends MFSqlDao<MFMap> implements MFIMapDao, Immutable
     return gotMap;
   }
 
+  @Override
+  public MFMap loadLazily(final int _id) throws DataAccessException
+  {
+    // load the map
+    final MFMap gotMap = super.load(_id);
+
+    // tiles are loaded chunk by chunk
+    final MFILevelDao levelDao = this.daoFactory.getLevelDao();
+    if (levelDao.hasLevels(_id)) {
+      final Map<Integer, MFGround> grounds = this.groundTypes;
+      gotMap.setChunkLoader(new MFIChunkLoader() {
+        /** The level decoded last. Chunks are mostly loaded level by level */
+        private MFTileStorage level;
+
+        @Override
+        public List<MFTile> loadChunk(int _x, int _y, int _z, int _width, int _height)
+                                                        throws DataAccessException
+        {
+          if (this.level == null || this.level.getOriginZ() != _z) {
+            final byte[] data = levelDao.loadLevel(_id, _z);
+            if (data == null) {
+              return Collections.emptyList();
+            }
+            this.level = MFLevelCodec.decode(data, _z, gotMap.getWidth(),
+                          gotMap.getHeight(), grounds, gotMap.getDefaultGround());
+          }
+          final List<MFTile> result = new ArrayList<MFTile>(_width * _height);
+          for (int x = _x; x < _x + _width; ++x) {
+            for (int y = _y; y < _y + _height; ++y) {
+              result.add(new MFTile(this.level, x, y, _z));
+            }
+          }
+          return result;
+        }
+      });
+      return gotMap;
+    }
+
+    final MFITileDao tileDao = this.daoFactory.getTileLoadingDao(this.groundTypes);
+    gotMap.setChunkLoader(new MFIChunkLoader() {
+      @Override
+      public List<MFTile> loadChunk(int _x, int _y, int _z, int _width, int _height)
+                                                      throws DataAccessException
+      {
+        return tileDao.loadAllOfChunk(_id, _x, _y, _z, _width, _height);
+      }
+    });
+
+    return gotMap;
+  }
+
+  /**
+   * Loads a map whose levels are read on first access. Maps saved as levels
+   * decode one saved level, others read the rows of one level. The loader
+   * may run on a background thread to prefetch levels.
+   */
+  @Override
+  public MFMap loadByLevel(final int _id) throws DataAccessException
+  {
+    // load the map
+    final MFMap gotMap = super.load(_id);
+    final int width = gotMap.getWidth();
+    final int height = gotMap.getHeight();
+    final MFGround defaultGround = gotMap.getDefaultGround();
+    final Map<Integer, MFGround> grounds = this.groundTypes;
+
+    final MFILevelDao levelDao = this.daoFactory.getLevelDao();
+    if (levelDao.hasLevels(_id)) {
+      gotMap.setLevelLoader(new MFILevelLoader() {
+        @Override
+        public MFTileStorage loadLevel(int _z) throws DataAccessException
+        {
+          final byte[] data = levelDao.loadLevel(_id, _z);
+          if (data == null) {
+            return null;
+          }
+          return MFLevelCodec.decode(data, _z, width, height, grounds, defaultGround);
+        }
+      });
+      return gotMap;
+    }
+
+    // the rows are streamed into the level without creating tiles
+    final MFTileSqlDao tileDao = new MFTileSqlDao(this.getDb(), grounds);
+    gotMap.setLevelLoader(new MFILevelLoader() {
+      @Override
+      public MFTileStorage loadLevel(int _z) throws DataAccessException
+      {
+        final MFTileStorage level = new MFTileStorage(0, 0, _z, width, height,
+                                                      1, defaultGround);
+        return (tileDao.loadLevel(_id, level) > 0 ? level : null);
+      }
+    });
+    return gotMap;
+  }
+
   @Override
   public List<? extends MFMap> loadAll() throws DataAccessException
   {
@@ -158,11 +309,28 @@ public class MFMapSqlDao extends MFSqlDao<MFMap> implements MFIMapDao, Immutable
       logger.severe(msg);
       throw new NullPointerException(msg);
     }
-    // delete tiles before deletion of map
-    this.deleteTiles();
+    final int mapId = this.getPayload().getId();
+
+    this.getDb().beginTransaction();
+    try {
+      // delete tiles before deletion of map
+      this.deleteTiles();
+
+      // delete the map
+      super.delete();
+      this.getDb().commit();
+    } catch (DataAccessException e) {
+      this.getDb().rollback();
+      this.getPayload().setId(mapId);
+      throw e;
+    } catch (RuntimeException e) {
+      this.getDb().rollback();
+      this.getPayload().setId(mapId);
+      throw e;
+    }
 
-    // delete the map
-    super.delete();
+    // tiles in memory are unsaved now
+    this.resetTileIds();
   }
 
   //---vvv---       PROTECTED METHODS        ---vvv---
@@ -213,48 +381,274 @@ public class MFMapSqlDao extends MFSqlDao<MFMap> implements MFIMapDao, Immutable
   /** Used during the construction of maps */
   private final Map<Integer, MFGround> groundTypes;
 
-  private void saveTiles() throws DataAccessException
+  /**
+   * Saves the map and its tiles in a single transaction.
+   * @param _onlyChanges if only the changed tiles of a saved map are written
+   */
+  private void save(boolean _onlyChanges) throws DataAccessException
+  {
+    final MFMap map = this.getPayload();
+    final boolean isNewMap = (map != null && map.getId() == this.getUnsavedMarker());
+    final List<MFTile> newTiles = new ArrayList<MFTile>();
+    boolean hasConvertedRows = false;
+    if (map != null && map.isSaving()) {
+      String msg = this.getClass().getSimpleName() + ": Cannot save map #" +
+                   map.getId() + " while it is saved in the background.";
+      logger.severe(msg);
+      throw new IllegalStateException(msg);
+    }
+
+    this.getDb().beginTransaction();
+    try {
+      final boolean hasLevels = !isNewMap &&
+                                this.daoFactory.getLevelDao().hasLevels(map.getId());
+
+      // save the map
+      super.save();
+
+      // additionally save the tiles
+      if (hasLevels || this.daoFactory.getTileFormat() == MFDaoFactory.TileFormat.LEVELS) {
+        this.saveLevels(hasLevels, _onlyChanges);
+        hasConvertedRows = !isNewMap && !hasLevels;
+      } else {
+        this.saveTiles(newTiles, _onlyChanges && !isNewMap);
+      }
+      this.getDb().commit();
+    } catch (DataAccessException e) {
+      this.rollbackSave(isNewMap, newTiles);
+      throw e;
+    } catch (RuntimeException e) {
+      this.rollbackSave(isNewMap, newTiles);
+      throw e;
+    }
+
+    // the rows of the tiles were replaced by levels
+    if (hasConvertedRows) {
+      this.resetTileIds();
+    }
+    // everything in memory is stored now
+    for (MFMapChunk chunk : map.getLoadedChunks()) {
+      chunk.getStorage().markClean();
+    }
+  }
+
+  /**
+   * Saves the tiles level by level in the compact format of
+   * {@link MFLevelCodec}. Levels are saved as a whole, so their missing
+   * chunks are loaded first.
+   * @param _hasLevels if the map was saved as levels before. Otherwise all
+   *        levels are saved and the tiles saved as rows are deleted
+   * @param _onlyChanges if only levels with changed tiles are saved
+   */
+  private void saveLevels(boolean _hasLevels, boolean _onlyChanges)
+                                                    throws DataAccessException
+  {
+    final MFMap map = this.getPayload();
+    assert map.getId() != MFSqlDao.UNSAVED_MARKER : "MFMapSqlDao: Map has " +
+                                                    "to be saved before tiles.";
+
+    // levels of lazily loaded maps that were not changed are already saved
+    final boolean[] isChanged = new boolean[map.getDepth()];
+    if (_hasLevels && (_onlyChanges || map.isLoadedLazily())) {
+      for (MFMapChunk chunk : map.getLoadedChunks()) {
+        if (chunk.isDirty()) {
+          isChanged[chunk.getLevel()] = true;
+        }
+      }
+    } else {
+      Arrays.fill(isChanged, true);
+    }
+
+    for (int z = 0; z < map.getDepth(); ++z) {
+      if (isChanged[z]) {
+        map.loadLevel(z);
+      }
+    }
+    final MFMapSnapshot snapshot = map.createSnapshot();
+    final MFILevelDao levelDao = this.daoFactory.getLevelDao();
+    for (int z = 0; z < map.getDepth(); ++z) {
+      if (isChanged[z]) {
+        levelDao.saveLevel(map.getId(), z, MFLevelCodec.encode(snapshot, z));
+      }
+    }
+
+    if (!_hasLevels) {
+      this.daoFactory.getTileSavingDao(map).deleteAllOfMap();
+    }
+  }
+
+  /**
+   * Saves the tiles chunk by chunk in batches.
+   * @param _newTiles collects the tiles that were saved for the first time
+   * @param _onlyChanges if only the changed tiles are saved
+   */
+  private void saveTiles(List<MFTile> _newTiles, boolean _onlyChanges)
+                                                    throws DataAccessException
   {
     MFMap map = this.getPayload();
     assert map != null : "MFMapSqlDao: Can't save tiles of null map";
     assert map.getId() != MFSqlDao.UNSAVED_MARKER : "MFMapSqlDao: Map has " +
                                                     "to be saved before tiles.";
 
-    for (int x=0; x<map.getWidth(); ++x) {
-      for (int y=0; y<map.getHeight(); ++y) {
-        for (int z=0; z<map.getDepth(); ++z) {
-          saveTile(map.getTile(x, y, z), map);
+    final MFITileDao tileDao = this.daoFactory.getTileSavingDao(map);
+
+    // chunks of lazily loaded maps that were not changed are already saved
+    if (_onlyChanges || map.isLoadedLazily()) {
+      for (MFMapChunk chunk : map.getLoadedChunks()) {
+        if (chunk.isDirty()) {
+          this.saveChunk(chunk.getOriginX(), chunk.getOriginY(), chunk.getLevel(),
+                         map, tileDao, _newTiles, _onlyChanges);
+        }
+      }
+      return;
+    }
+
+    for (int z=0; z<map.getDepth(); ++z) {
+      for (int x=0; x<map.getWidth(); x += MFMap.CHUNK_SIZE) {
+        for (int y=0; y<map.getHeight(); y += MFMap.CHUNK_SIZE) {
+          this.saveChunk(x, y, z, map, tileDao, _newTiles, false);
         }
       }
     }
 
   }
 
-  private void saveTile(MFTile _tile, MFMap _map) throws DataAccessException
+  /**
+   * Saves the tiles of a chunk.
+   * @param _originX the x coordinate of the north western corner
+   * @param _originY the y coordinate of the north western corner
+   * @param _z the level
+   */
+  private void saveChunk(int _originX, int _originY, int _z, MFMap _map,
+                 MFITileDao _tileDao, List<MFTile> _newTiles, boolean _onlyChanges)
+                                                      throws DataAccessException
   {
-    assert _tile != null : "MFMapSqlDao: No tile to save.";
-    
-    MFITileDao tileDao = this.daoFactory.getTileSavingDao(_tile, _map);
-    tileDao.save();
+    final MFTileStorage storage = _map.getStorage(_originX, _originY, _z);
+    final int endX = Math.min(_originX + MFMap.CHUNK_SIZE, _map.getWidth());
+    final int endY = Math.min(_originY + MFMap.CHUNK_SIZE, _map.getHeight());
+    final List<MFTile> tiles = new ArrayList<MFTile>(_onlyChanges ?
+            storage.getDirtyTileCount() : MFMap.CHUNK_SIZE * MFMap.CHUNK_SIZE);
+    for (int x = _originX; x < endX; ++x) {
+      for (int y = _originY; y < endY; ++y) {
+        if (_onlyChanges && !storage.isDirty(x, y, _z)) {
+          continue;
+        }
+        // a view that isn't kept by the chunk
+        final MFTile tile = new MFTile(storage, x, y, _z);
+        if (tile.getId() == MFSqlDao.UNSAVED_MARKER) {
+          _newTiles.add(tile);
+        }
+        tiles.add(tile);
+      }
+    }
+    _tileDao.saveAll(tiles);
   }
 
-  private void loadTiles(MFMap _map)  throws DataAccessException
+  /**
+   * Saves the levels of a snapshot in the compact format of
+   * {@link MFLevelCodec}.
+   * @param _onlyChanges if only levels with changed tiles are saved
+   */
+  private void saveSnapshotLevels(MFMapSnapshot _snapshot, boolean _onlyChanges,
+                          MFISaveProgress _progress) throws DataAccessException
   {
-    assert _map != null : "MFMapSqlDao: Can't load tiles of null map.";
+    final int mapId = this.getPayload().getId();
+    final boolean[] isChanged = new boolean[_snapshot.getDepth()];
+    int total = 0;
+    for (MFTileStorage storage : _snapshot.getStorages()) {
+      isChanged[storage.getOriginZ()] |= storage.isDirty();
+    }
+    for (int z = 0; z < isChanged.length; ++z) {
+      isChanged[z] |= !_onlyChanges;
+      if (isChanged[z]) {
+        ++total;
+      }
+    }
 
-    MFITileDao tileDao = this.daoFactory.getTileLoadingDao(this.groundTypes);
+    final MFILevelDao levelDao = this.daoFactory.getLevelDao();
+    int done = 0;
+    for (int z = 0; z < isChanged.length; ++z) {
+      if (isChanged[z]) {
+        final byte[] saved = levelDao.loadLevel(mapId, z);
+        levelDao.saveLevel(mapId, z, MFLevelCodec.encode(_snapshot, z, saved));
+        _progress.progressed(++done, total);
+      }
+    }
+  }
 
-    List<MFTile> tiles = tileDao.loadAllOfMap(_map.getId());
+  /**
+   * Saves the tiles of a snapshot chunk by chunk in batches. The tiles are
+   * written through views on the frozen copies, which keep their unsaved
+   * ids. The ids of new tiles are only collected.
+   * @param _newIds collects the ids of tiles saved for the first time
+   * @param _onlyChanges if only the changed tiles are saved
+   */
+  private void saveSnapshotTiles(MFMapSnapshot _snapshot, boolean _onlyChanges,
+                            MFLongHashMap<Integer> _newIds,
+                            MFISaveProgress _progress) throws DataAccessException
+  {
+    final MFITileDao tileDao = this.daoFactory.getTileSavingDao(this.getPayload());
+    final List<MFTileStorage> storages = new ArrayList<MFTileStorage>();
+    for (MFTileStorage storage : _snapshot.getStorages()) {
+      if (!_onlyChanges || storage.isDirty()) {
+        storages.add(storage);
+      }
+    }
 
-    for (MFTile tile : tiles) {
-      _map.setTile(tile);
+    int done = 0;
+    for (MFTileStorage storage : storages) {
+      final int z = storage.getOriginZ();
+      final int endX = storage.getOriginX() + storage.getWidth();
+      final int endY = storage.getOriginY() + storage.getHeight();
+      final List<MFTile> tiles = new ArrayList<MFTile>();
+      for (int x = storage.getOriginX(); x < endX; ++x) {
+        for (int y = storage.getOriginY(); y < endY; ++y) {
+          if (!_onlyChanges || storage.isDirty(x, y, z)) {
+            tiles.add(new MFTile(storage, x, y, z));
+          }
+        }
+      }
+      _newIds.putAll(tileDao.saveAllReturningIds(tiles));
+      _progress.progressed(++done, storages.size());
     }
+  }
 
-    for (MFTile tile : tiles) {
-      if (tile.isDugOut()) {
-        _map.calculateCorners(tile);
+  /**
+   * Resets the ids given out during a failed save.
+   * @param _isNewMap if the map was saved for the first time
+   * @param _newTiles the tiles that were saved for the first time
+   */
+  private void rollbackSave(boolean _isNewMap, List<MFTile> _newTiles)
+  {
+    this.getDb().rollback();
+    if (_isNewMap) {
+      this.getPayload().setId(this.getUnsavedMarker());
+    }
+    for (MFTile tile : _newTiles) {
+      tile.setId(this.getUnsavedMarker());
+    }
+  }
+
+  private void loadTiles(MFMap _map)  throws DataAccessException
+  {
+    assert _map != null : "MFMapSqlDao: Can't load tiles of null map.";
+
+    final MFILevelDao levelDao = this.daoFactory.getLevelDao();
+    if (levelDao.hasLevels(_map.getId())) {
+      // levels that weren't saved stay solid rock
+      for (int z = 0; z < _map.getDepth(); ++z) {
+        final byte[] data = levelDao.loadLevel(_map.getId(), z);
+        if (data != null) {
+          _map.loadLevel(MFLevelCodec.decode(data, z, _map.getWidth(),
+                    _map.getHeight(), this.groundTypes, _map.getDefaultGround()));
+        }
       }
+    } else {
+      MFITileDao tileDao = this.daoFactory.getTileLoadingDao(this.groundTypes);
+      tileDao.loadAllIntoMap(_map);
     }
+
+    _map.calculateAllCorners();
   }
 
   private void deleteTiles() throws DataAccessException
@@ -262,15 +656,23 @@ public class MFMapSqlDao extends MFSqlDao<MFMap> implements MFIMapDao, Immutable
     MFMap map = this.getPayload();
     assert map != null : "MFMapSqlDao: Cannot delete tiles of null map.";
 
-    for (int x=0; x<map.getWidth(); ++x) {
-      for (int y=0; y<map.getHeight(); ++y) {
-        for (int z=0; z<map.getDepth(); ++z) {
-          MFTile tile = map.getTile(x, y, z);
-          MFITileDao tileDao = this.daoFactory.getTileSavingDao(tile, map);
-          tileDao.delete();
+    MFITileDao tileDao = this.daoFactory.getTileSavingDao(map);
+    tileDao.deleteAllOfMap();
+    this.daoFactory.getLevelDao().deleteAllOfMap(map.getId());
+  }
+
+  /**
+   * Marks the tiles in memory as unsaved, as their records were deleted.
+   */
+  private void resetTileIds()
+  {
+    for (MFMapChunk chunk : this.getPayload().getLoadedChunks()) {
+      final MFTileStorage storage = chunk.getStorage();
+      for (int x = chunk.getOriginX(); x < chunk.getOriginX() + storage.getWidth(); ++x) {
+        for (int y = chunk.getOriginY(); y < chunk.getOriginY() + storage.getHeight(); ++y) {
+          storage.setId(x, y, chunk.getLevel(), MFTileStorage.UNSAVED_ID);
         }
       }
     }
-    
   }
 }
@@ -24,10 +24,15 @@
  */
 package magefortress.map;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -35,14 +40,28 @@ import java.util.Set;
 import java.util.logging.Logger;
 import magefortress.core.MFEDirection;
 import magefortress.core.MFLocation;
+import magefortress.core.MFLongHashMap;
+import magefortress.core.MFPackedLocation;
 import magefortress.creatures.behavior.movable.MFCapability;
 import magefortress.creatures.behavior.movable.MFEMovementType;
 
 /**
- * Stores all found entrances and sections.
+ * Stores all found entrances and sections. Stairs, ramps and shafts between
+ * two levels become entrances on both levels which are connected by vertical
+ * edges. The connected sections of a level are grouped into regions, the
+ * topmost tier of the navigation graph.
+ * <p>
+ * By default the sections follow the layout of rooms and tunnels. With a
+ * {@link #setClusterSize(int) cluster size} set, each level is divided into
+ * square clusters instead, like in HPA*. Each cluster holds one section per
+ * connected group of its tiles, so the number of entrances per section stays
+ * bounded and a dig only needs the clusters around it to be
+ * {@link #calculateCluster(MFLocation) recalculated}.
  */
 public class MFNavigationMap
 {
+  /** Cluster size to derive the sections from rooms and tunnels */
+  public static final int NO_CLUSTERS = 0;
 
   /**
    * Constructor
@@ -52,8 +71,14 @@ public class MFNavigationMap
   {
     this.map = _map;
     this.clearanceCalculator = _clearanceCalculator;
-    this.entrances = new HashMap<MFLocation, MFSectionEntrance>();
+    this.entrances = new MFLongHashMap<MFSectionEntrance>();
     this.sections = new LinkedList<MFSection>();
+    this.regions = new LinkedList<MFLevelRegion>();
+    this.clusters = new HashMap<MFLocation, List<MFSection>>();
+    this.eastBorders = new HashMap<MFLocation, List<MFSectionEntrance>>();
+    this.southBorders = new HashMap<MFLocation, List<MFSectionEntrance>>();
+    this.borderEntrances = new MFLongHashMap<Integer>();
+    this.clusterSize = NO_CLUSTERS;
     this.movementCombinations = new HashMap<Integer, Set<MFCapability>>();
     Set<MFCapability> setForClearance = new HashSet<MFCapability>();
     setForClearance.add(DEFAULT_CAPABILITY);
@@ -65,30 +90,61 @@ public class MFNavigationMap
     return this.map;
   }
 
+  public int getClusterSize()
+  {
+    return this.clusterSize;
+  }
+
+  /**
+   * Sets the edge length of the square clusters the levels are divided into.
+   * Takes effect with the next calculation of a level.
+   * @param _clusterSize the edge length in tiles or {@link #NO_CLUSTERS} to
+   *        derive the sections from rooms and tunnels
+   */
+  public void setClusterSize(int _clusterSize)
+  {
+    if (_clusterSize != NO_CLUSTERS && _clusterSize < 2) {
+      String msg = "Navigation Map: Cannot use clusters smaller than 2 tiles. " +
+                    "Got: " + _clusterSize;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.clusterSize = _clusterSize;
+  }
+
   /**
    * Clears the list of entrances and re-calculates them for all depth levels
-   * of the map.
+   * of the map. Levels of a map loaded by level that aren't loaded yet are
+   * left out until they are calculated with {@link #calculateLevel(int)}.
    */
   public void calculateAllLevels()
   {
     this.entrances.clear();
     this.sections.clear();
+    this.regions.clear();
+    this.clusters.clear();
+    this.eastBorders.clear();
+    this.southBorders.clear();
+    this.borderEntrances.clear();
     for (int depth = 0; depth < this.map.getDepth(); ++depth) {
-      calculateLevel(depth);
+      // the other levels are calculated once they are loaded
+      if (this.map.isLevelLoaded(depth)) {
+        calculateLevel(depth);
+      }
     }
   }
 
   /**
-   * Removes all entrances of the depth level and re-calculates them.
+   * Removes all entrances of the depth level and re-calculates them. The
+   * connections to the levels above and below are renewed as well.
    * @param _depth the depth level
    */
   public void calculateLevel(int _depth)
   {
     // remove all entrances of the specified level before adding new ones
-    for(Iterator<MFLocation> it = this.entrances.keySet().iterator(); it.hasNext(); ) {
-      MFLocation entrance = it.next();
-      if (entrance.z == _depth) {
-        it.remove();
+    for (long entrance : this.entrances.keys()) {
+      if (MFPackedLocation.getZ(entrance) == _depth) {
+        this.entrances.remove(entrance).getTile().setEntrance(null);
       }
     }
     // remove all sections of the specified level
@@ -98,14 +154,206 @@ public class MFNavigationMap
         it.remove();
       }
     }
-    // find and store the entrances
-    final Map<MFLocation, MFSectionEntrance> levelEntrances =
-                               this.findEntrances(this.map.getLevelMap(_depth));
-    this.entrances.putAll(levelEntrances);
-    final List<MFSection> levelSections = 
-                               this.findSections(_depth, levelEntrances);
+    // remove all clusters of the specified level
+    removeLevel(this.clusters, _depth);
+    removeLevel(this.eastBorders, _depth);
+    removeLevel(this.southBorders, _depth);
+    for (long entrance : this.borderEntrances.keys()) {
+      if (MFPackedLocation.getZ(entrance) == _depth) {
+        this.borderEntrances.remove(entrance);
+      }
+    }
+
+    final List<MFSection> levelSections;
+    if (this.clusterSize == NO_CLUSTERS) {
+      // find and store the entrances
+      final MFLongHashMap<MFSectionEntrance> levelEntrances =
+                                 this.findEntrances(_depth);
+      this.entrances.putAll(levelEntrances);
+      levelSections = this.findSections(_depth, levelEntrances);
+    } else {
+      levelSections = this.findClusters(_depth);
+    }
     this.sections.addAll(levelSections);
+    this.entrances.putAll(this.findVerticalEntrances(_depth));
     this.findConnections(levelSections);
+
+    this.connectAndGroupLevel(_depth);
+
+    logger.fine("Navigation Map: " + this.getStatistics(_depth));
+  }
+
+  /**
+   * Recalculates the cluster containing the location, e.g. after a tile was
+   * dug out. The entrances on its borders to the four neighboring clusters
+   * are renewed as well. Recalculates the whole level if the map is not
+   * divided into clusters.
+   * @param _location a location inside the cluster
+   */
+  public void calculateCluster(final MFLocation _location)
+  {
+    if (_location == null || !this.map.isInsideMap(_location)) {
+      String msg = "Navigation Map: Cannot calculate cluster at location " +
+                    _location + " outside of the map.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+
+    final MFLocation origin = this.getClusterOrigin(_location);
+    if (this.clusterSize == NO_CLUSTERS || !this.clusters.containsKey(origin)) {
+      this.calculateLevel(_location.z);
+      return;
+    }
+
+    final int depth = origin.z;
+    // the borders to the western and northern clusters lie outside
+    final int x = Math.max(origin.x - 1, 0);
+    final int y = Math.max(origin.y - 1, 0);
+    final int endX = Math.min(origin.x + this.clusterSize, this.map.getWidth());
+    final int endY = Math.min(origin.y + this.clusterSize, this.map.getHeight());
+    final MFLocation west  = this.getClusterOrigin(origin.x - 1, origin.y, depth);
+    final MFLocation north = this.getClusterOrigin(origin.x, origin.y - 1, depth);
+    final MFLocation east  = this.getClusterOrigin(origin.x + this.clusterSize, origin.y, depth);
+    final MFLocation south = this.getClusterOrigin(origin.x, origin.y + this.clusterSize, depth);
+
+    // remove the entrances on the borders of the cluster
+    this.removeBorder(this.eastBorders, origin);
+    this.removeBorder(this.southBorders, origin);
+    this.removeBorder(this.eastBorders, west);
+    this.removeBorder(this.southBorders, north);
+
+    // remove the sections of the cluster and the passages inside
+    final Set<MFLevelRegion> changedRegions = new HashSet<MFLevelRegion>();
+    final Set<MFSection> removedSections = new HashSet<MFSection>(this.clusters.remove(origin));
+    for (MFSection section : removedSections) {
+      for (MFSectionEntrance entrance : new ArrayList<MFSectionEntrance>(section.getEntrances())) {
+        if (origin.equals(this.getClusterOrigin(entrance.getLocation())) &&
+            !this.isBorderEntrance(entrance)) {
+          this.removeEntrance(entrance);
+        }
+      }
+      if (section.getRegion() != null) {
+        changedRegions.add(section.getRegion());
+      }
+    }
+    this.sections.removeAll(removedSections);
+
+    // rebuild the cluster and its borders
+    final List<MFSection> clusterSections = this.findClusterSections(origin);
+    this.sections.addAll(clusterSections);
+    this.findBorderEntrances(origin, MFEDirection.E);
+    this.findBorderEntrances(origin, MFEDirection.S);
+    this.findBorderEntrances(west, MFEDirection.E);
+    this.findBorderEntrances(north, MFEDirection.S);
+    this.entrances.putAll(this.findVerticalEntrances(depth, x, y, endX, endY));
+
+    // reconnect the entrances of all sections whose entrances might have changed
+    final List<MFSection> changedSections = new LinkedList<MFSection>(clusterSections);
+    for (MFLocation neighbor : new MFLocation[] {west, north, east, south}) {
+      final List<MFSection> neighborSections = this.clusters.get(neighbor);
+      if (neighbor != null && neighborSections != null) {
+        changedSections.addAll(neighborSections);
+        for (MFSection section : neighborSections) {
+          if (section.getRegion() != null) {
+            changedRegions.add(section.getRegion());
+          }
+        }
+      }
+    }
+    for (MFSection section : changedSections) {
+      this.disconnectEntrances(section);
+    }
+    this.findConnections(changedSections);
+
+    // passages only lead straight up or down, so only the area of the
+    // cluster is affected on the levels above and below
+    this.connectLevels(depth - 1, depth, x, y, endX, endY);
+    this.connectLevels(depth, depth + 1, x, y, endX, endY);
+
+    // only the regions touching the cluster can split or merge
+    final Set<MFSection> regroupedSections = new HashSet<MFSection>(clusterSections);
+    for (MFLevelRegion region : changedRegions) {
+      regroupedSections.addAll(region.getSections());
+    }
+    regroupedSections.removeAll(removedSections);
+    this.regions.removeAll(changedRegions);
+    final Set<MFLevelRegion> exitRegions = new HashSet<MFLevelRegion>(
+                         this.findRegions(depth, new ArrayList<MFSection>(regroupedSections)));
+    this.collectRegions(depth - 1, x, y, endX, endY, exitRegions);
+    this.collectRegions(depth + 1, x, y, endX, endY, exitRegions);
+    this.findExits(exitRegions);
+  }
+
+  /**
+   * Recalculates the clusters containing the locations, each of them once.
+   * Levels that aren't divided into clusters are recalculated as a whole,
+   * each of them once as well.
+   * @param _locations the changed locations
+   */
+  public void calculateClusters(final Collection<MFLocation> _locations)
+  {
+    final Set<MFLocation> origins = new LinkedHashSet<MFLocation>();
+    final Set<Integer> levels = new LinkedHashSet<Integer>();
+    for (MFLocation location : _locations) {
+      if (location == null || !this.map.isInsideMap(location)) {
+        String msg = "Navigation Map: Cannot calculate cluster at location " +
+                      location + " outside of the map.";
+        logger.severe(msg);
+        throw new IllegalArgumentException(msg);
+      }
+      final MFLocation origin = this.getClusterOrigin(location);
+      if (this.clusterSize != NO_CLUSTERS && this.clusters.containsKey(origin)) {
+        origins.add(origin);
+      } else {
+        levels.add(location.z);
+      }
+    }
+
+    for (int depth : levels) {
+      this.calculateLevel(depth);
+    }
+    for (MFLocation origin : origins) {
+      // recalculating a level replaces its clusters
+      if (!levels.contains(origin.z)) {
+        this.calculateCluster(origin);
+      }
+    }
+  }
+
+  /**
+   * Counts the clusters, sections, entrances and edges on a level.
+   * @param _depth the level
+   * @return the current numbers of the level
+   */
+  public MFNavigationStatistics getStatistics(int _depth)
+  {
+    int sectionCount = 0;
+    int largestSectionSize = 0;
+    for (MFSection section : this.sections) {
+      if (section.getLevel() == _depth) {
+        ++sectionCount;
+        largestSectionSize = Math.max(largestSectionSize, section.getSize());
+      }
+    }
+
+    int entranceCount = 0;
+    int edgeCount = 0;
+    for (MFSectionEntrance entrance : this.entrances.values()) {
+      if (entrance.getLocation().z == _depth) {
+        ++entranceCount;
+        edgeCount += entrance.getEdges().size();
+      }
+    }
+
+    int clusterCount = 0;
+    for (MFLocation origin : this.clusters.keySet()) {
+      if (origin.z == _depth) {
+        ++clusterCount;
+      }
+    }
+
+    return new MFNavigationStatistics(_depth, clusterCount, sectionCount,
+                              entranceCount, edgeCount, largestSectionSize);
   }
 
   /**
@@ -177,6 +425,16 @@ public class MFNavigationMap
     return Collections.unmodifiableList(this.sections);
   }
 
+  /**
+   * Gets the list of regions on the map. Each region groups the connected
+   * sections of a level.
+   * @return the unmodifiable list of regions
+   */
+  List<MFLevelRegion> getRegions()
+  {
+    return Collections.unmodifiableList(this.regions);
+  }
+
   /**
    * Calculates all clearance values and stores them inside the tiles.
    * @param _capability The type of movement
@@ -186,59 +444,106 @@ public class MFNavigationMap
     this.clearanceCalculator.calculateAllLevels(_capability);
   }
 
+  /**
+   * Calculates the clearance values of all capabilities added as movement
+   * combinations in a single sweep and stores them inside the tiles.
+   */
+  public void updateClearanceValues()
+  {
+    this.clearanceCalculator.calculateAllLevels(this.getClearanceCapabilities());
+  }
+
+  /**
+   * Calculates the clearance values of all movement combinations on a single
+   * level. Sufficient after changes to that level only.
+   * @param _depth the depth level
+   */
+  public void updateLevelClearanceValues(int _depth)
+  {
+    this.clearanceCalculator.calculateLevel(_depth, this.getClearanceCapabilities());
+  }
+
   //---vvv---      PRIVATE METHODS      ---vvv---
   private static final Logger logger = Logger.getLogger(MFNavigationMap.class.getName());
   private final static int DEFAULT_CLEARANCE = 1;
   private final static MFCapability DEFAULT_CAPABILITY = MFCapability.WALK;
+  /** Border openings at least this wide get an entrance at both ends */
+  private final static int MAX_ENTRANCE_WIDTH = 6;
 
   private final MFMap map;
   private final MFClearanceCalculator clearanceCalculator;
-  private final Map<MFLocation, MFSectionEntrance> entrances;
+  /** All entrances by packed location */
+  private final MFLongHashMap<MFSectionEntrance> entrances;
   private final List<MFSection> sections;
+  private final List<MFLevelRegion> regions;
+  /** Sections of each cluster, by the cluster's north western corner */
+  private final Map<MFLocation, List<MFSection>> clusters;
+  /** Entrances on the eastern border of each cluster */
+  private final Map<MFLocation, List<MFSectionEntrance>> eastBorders;
+  /** Entrances on the southern border of each cluster */
+  private final Map<MFLocation, List<MFSectionEntrance>> southBorders;
+  /** Number of borders each border entrance lies on, by packed location */
+  private final MFLongHashMap<Integer> borderEntrances;
+  private int clusterSize;
   private final Map<Integer, Set<MFCapability>> movementCombinations;
 
+  /**
+   * Collects the capabilities of all movement combinations.
+   * @return the capabilities that need clearance values
+   */
+  private Set<MFCapability> getClearanceCapabilities()
+  {
+    final Set<MFCapability> capabilities = new HashSet<MFCapability>();
+    for (Set<MFCapability> capabilitiesForClearance : this.movementCombinations.values()) {
+      capabilities.addAll(capabilitiesForClearance);
+    }
+    return capabilities;
+  }
+
   /**
    * Scans the map and detects all tiles which might define an entrance. For
    * navigational use.
+   * @param _depth the level to scan
    * @return the list of entrances found
    */
-  private Map<MFLocation, MFSectionEntrance> findEntrances(final MFTile[][] _tiles)
+  private MFLongHashMap<MFSectionEntrance> findEntrances(final int _depth)
   {
-    final HashMap<MFLocation, MFSectionEntrance> potentialEntrances =
-                                  new HashMap<MFLocation, MFSectionEntrance>();
-
-    for (final MFTile[] rows : _tiles) {
-      for (final MFTile tile : rows) {
-        boolean isEntrance = true;
-        // skip if tile is not underground or not dug out or without a floor
-        if (!tile.isUnderground() || !tile.isDugOut() || !tile.hasFloor()) {
-          isEntrance = false;
-        }
-        // skip if clearance > 1
-        //if (tile.getClearance(MFEMovementType.WALK) > 1){
-        //  continue;
-        //}
-        // skip if a neighbor is an entrance
-        if (isEntrance && hasNeighboringEntrance(tile, potentialEntrances)) {
-          isEntrance = false;
-        }
-        // skip this tile if it doesn't divide two groups
-        if (isEntrance && !dividesGroups(tile)) {
-          isEntrance = false;
-        }
+    final MFLongHashMap<MFSectionEntrance> potentialEntrances =
+                                  new MFLongHashMap<MFSectionEntrance>();
+    final MFLevelOccupancy occupancy = this.map.getOccupancy(_depth);
 
-        // all tests passed - entrance found!
-        if (isEntrance) {
-          MFSectionEntrance entrance = new MFSectionEntrance(tile);
-          potentialEntrances.put(tile.getLocation(), entrance);
-        // remove entrance from tile
-        } else {
-          tile.setEntrance(null);
-        }
+    // only dug out tiles with a floor can be entrances
+    for (int index = occupancy.nextSetBit(MFLevelOccupancy.Layer.WALKABLE, _depth, 0); index >= 0;
+             index = occupancy.nextSetBit(MFLevelOccupancy.Layer.WALKABLE, _depth, index + 1)) {
+      final MFTile tile = this.map.getTile(occupancy.getX(index), occupancy.getY(index), _depth);
+      boolean isEntrance = true;
+      // skip if tile is not underground
+      if (!tile.isUnderground()) {
+        isEntrance = false;
+      }
+      // skip if clearance > 1
+      //if (tile.getClearance(MFEMovementType.WALK) > 1){
+      //  continue;
+      //}
+      // skip if a neighbor is an entrance
+      if (isEntrance && hasNeighboringEntrance(tile, potentialEntrances)) {
+        isEntrance = false;
+      }
+      // skip this tile if it doesn't divide two groups
+      if (isEntrance && !dividesGroups(tile)) {
+        isEntrance = false;
+      }
 
+      // all tests passed - entrance found!
+      if (isEntrance) {
+        MFSectionEntrance entrance = new MFSectionEntrance(tile);
+        potentialEntrances.put(tile.getPackedLocation(), entrance);
+      // remove entrance from tile
+      } else {
+        tile.setEntrance(null);
       }
     }
-    Map<MFLocation, MFSectionEntrance> result = this.collapseCloseEntrances(potentialEntrances);
+    MFLongHashMap<MFSectionEntrance> result = this.collapseCloseEntrances(potentialEntrances);
     return result;
   }
 
@@ -249,12 +554,12 @@ public class MFNavigationMap
    * @return <code>true</true> if a neighbor is an entrance
    */
   private boolean hasNeighboringEntrance(final MFTile _tile,
-                        final HashMap<MFLocation, MFSectionEntrance> _entrances)
+                        final MFLongHashMap<MFSectionEntrance> _entrances)
   {
     MFEDirection[] previous = {MFEDirection.N, MFEDirection.NW, MFEDirection.W};
     for (MFEDirection direction : previous) {
       MFTile neighbor = this.map.getNeighbor(_tile, direction);
-      if (neighbor != null && _entrances.containsKey(neighbor.getLocation())) {
+      if (neighbor != null && _entrances.containsKey(neighbor.getPackedLocation())) {
         return true;
       }
     }
@@ -276,7 +581,7 @@ public class MFNavigationMap
     boolean blockedN = false;
     boolean blockedNW = false;
 
-    for (MFEDirection direction : MFEDirection.values()) {
+    for (MFEDirection direction : MFEDirection.plain()) {
       // get the neighboring tile
       MFTile neighbor = this.map.getNeighbor(_tile, direction);
       boolean reachable = this.map.canWalkTo(_tile, neighbor, direction);
@@ -328,29 +633,27 @@ public class MFNavigationMap
    * @param _entrances list of entrances
    * @return collapsed list of entrances
    */
-  private Map<MFLocation, MFSectionEntrance> collapseCloseEntrances(
-                        final HashMap<MFLocation, MFSectionEntrance> _entrances)
+  private MFLongHashMap<MFSectionEntrance> collapseCloseEntrances(
+                        final MFLongHashMap<MFSectionEntrance> _entrances)
   {
-    Map<MFLocation, MFSectionEntrance> result = new HashMap<MFLocation, MFSectionEntrance>();
+    MFLongHashMap<MFSectionEntrance> result = new MFLongHashMap<MFSectionEntrance>();
     List<MFSectionEntrance> removedEntrances = new LinkedList<MFSectionEntrance>();
 
-    Iterator<MFSectionEntrance> it1 = _entrances.values().iterator();
-    while (it1.hasNext()) {
+    for (long startLoc : _entrances.keys()) {
 
-      MFSectionEntrance start = it1.next();
+      MFSectionEntrance start = _entrances.get(startLoc);
       if (removedEntrances.contains(start))
         continue;
 
       MFSectionEntrance add = start;
       for (MFSectionEntrance goal : _entrances.values()) {
 
-        MFLocation startLoc = start.getLocation();
-        MFLocation goalLoc = goal.getLocation();
+        long goalLoc = goal.getTile().getPackedLocation();
         // found potentially collapsable locations
-        if (startLoc.distanceTo(goalLoc) == 2) {
+        if (MFPackedLocation.distance(startLoc, goalLoc) == 2) {
 
-          MFEDirection dir = startLoc.directionOf(goalLoc);
-          MFTile middle = this.map.getNeighbor(this.map.getTile(startLoc), dir);
+          MFEDirection dir = MFPackedLocation.directionOf(startLoc, goalLoc);
+          MFTile middle = this.map.getNeighbor(start.getTile(), dir);
           // check if tile can be connected
           if (middle.isWalkable(MFEMovementType.WALK) && middle.isUnderground()) {
             add = new MFSectionEntrance(middle);
@@ -362,9 +665,9 @@ public class MFNavigationMap
         } //-- potentially collapsable
       } //-- inner loop
 
-      result.put(add.getLocation(), add);
+      result.put(add.getTile().getPackedLocation(), add);
       if (start != add) {
-        it1.remove();
+        _entrances.remove(startLoc);
         start.getTile().setEntrance(null);
       }
     } //-- outer loop
@@ -378,94 +681,97 @@ public class MFNavigationMap
    * @return a list of sections
    */
   private List<MFSection> findSections(final int _depth,
-                                      final Map<MFLocation, MFSectionEntrance> _entrances)
+                                      final MFLongHashMap<MFSectionEntrance> _entrances)
   {
     final List<MFSection> result = new LinkedList<MFSection>();
 
-    for (MFTile[] row : this.map.getLevelMap(_depth)) {
-      for (MFTile tile : row) {
-        // skip tiles that are not underground or blocked
-        if (!tile.isUnderground() || !tile.isWalkable(MFEMovementType.WALK) || tile.isEntrance()) {
-          continue;
-        }
+    final MFLevelOccupancy occupancy = this.map.getOccupancy(_depth);
 
-        // get top and left neighbors
-        final MFTile neighborN = this.map.getNeighbor(tile, MFEDirection.N);
-        final MFTile neighborW = this.map.getNeighbor(tile, MFEDirection.W);
-        boolean hasNonEntranceNeighborN = this.map.canWalkTo(tile, neighborN, MFEDirection.N);
-        boolean hasNonEntranceNeighborW = this.map.canWalkTo(tile, neighborW, MFEDirection.W);
-        // get the reachable surrounding entrances
-        MFSectionEntrance entranceN = null;
-        MFSectionEntrance entranceW = null;
-        if (hasNonEntranceNeighborN) entranceN = neighborN.getEntrance();
-        if (hasNonEntranceNeighborW) entranceW = neighborW.getEntrance();
-        hasNonEntranceNeighborN &= (entranceN == null);
-        hasNonEntranceNeighborW &= (entranceW == null);
-
-        MFSection section;
-        // tile has no neighbors -> start a new section
-        if (!hasNonEntranceNeighborN && !hasNonEntranceNeighborW) {
-          section = new MFSection(this.map, _depth);
-          result.add(section);
-        // tile is connected to two neighbors -> check if they belong to different
-        // sections
-        } else if (hasNonEntranceNeighborN && hasNonEntranceNeighborW) {
-          MFSection sectionN = neighborN.getParentSection();
-          MFSection sectionW = neighborW.getParentSection();
-          // same section -> add tile to one of it
-          if (sectionN == sectionW) {
-            section = sectionN;
-          // different sections -> tile connects both sections -> unite them
-          } else {
-            section = uniteSections(sectionN, sectionW, result);
-          }
-        // tile is connected to one neighbor -> add tile to neighbor's section
+    // blocked tiles don't belong to any section
+    for (int index = occupancy.nextSetBit(MFLevelOccupancy.Layer.WALKABLE, _depth, 0); index >= 0;
+             index = occupancy.nextSetBit(MFLevelOccupancy.Layer.WALKABLE, _depth, index + 1)) {
+      final MFTile tile = this.map.getTile(occupancy.getX(index), occupancy.getY(index), _depth);
+      // skip tiles that are not underground or entrances
+      if (!tile.isUnderground() || tile.isEntrance()) {
+        continue;
+      }
+
+      // get top and left neighbors
+      final MFTile neighborN = this.map.getNeighbor(tile, MFEDirection.N);
+      final MFTile neighborW = this.map.getNeighbor(tile, MFEDirection.W);
+      boolean hasNonEntranceNeighborN = this.map.canWalkTo(tile, neighborN, MFEDirection.N);
+      boolean hasNonEntranceNeighborW = this.map.canWalkTo(tile, neighborW, MFEDirection.W);
+      // get the reachable surrounding entrances
+      MFSectionEntrance entranceN = null;
+      MFSectionEntrance entranceW = null;
+      if (hasNonEntranceNeighborN) entranceN = neighborN.getEntrance();
+      if (hasNonEntranceNeighborW) entranceW = neighborW.getEntrance();
+      hasNonEntranceNeighborN &= (entranceN == null);
+      hasNonEntranceNeighborW &= (entranceW == null);
+
+      MFSection section;
+      // tile has no neighbors -> start a new section
+      if (!hasNonEntranceNeighborN && !hasNonEntranceNeighborW) {
+        section = new MFSection(this.map, _depth);
+        result.add(section);
+      // tile is connected to two neighbors -> check if they belong to different
+      // sections
+      } else if (hasNonEntranceNeighborN && hasNonEntranceNeighborW) {
+        MFSection sectionN = neighborN.getParentSection();
+        MFSection sectionW = neighborW.getParentSection();
+        // same section -> add tile to one of it
+        if (sectionN == sectionW) {
+          section = sectionN;
+        // different sections -> tile connects both sections -> unite them
         } else {
-          MFTile neighbor = (hasNonEntranceNeighborN ? neighborN : neighborW);
-          section = neighbor.getParentSection();
-        }
-        section.addTile(tile);
-
-        // add entrances to the section
-        MFSectionEntrance entranceS = null;
-        MFSectionEntrance entranceE = null;
-        final MFTile neighborS = this.map.getNeighbor(tile, MFEDirection.S);
-        final MFTile neighborE = this.map.getNeighbor(tile, MFEDirection.E);
-        if (this.map.canWalkTo(tile, neighborS, MFEDirection.S)) {
-          entranceS = neighborS.getEntrance();
-        }
-        if (this.map.canWalkTo(tile, neighborE, MFEDirection.E)) {
-          entranceE = neighborE.getEntrance();
+          section = uniteSections(sectionN, sectionW, result);
         }
+      // tile is connected to one neighbor -> add tile to neighbor's section
+      } else {
+        MFTile neighbor = (hasNonEntranceNeighborN ? neighborN : neighborW);
+        section = neighbor.getParentSection();
+      }
+      section.addTile(tile);
 
-        final MFSection currentSection = tile.getParentSection();
-        if (entranceN != null) {
-          currentSection.addEntrance(entranceN);
-          if (neighborN.getParentSection() == null) {
-            currentSection.addTile(neighborN);
-          }
+      // add entrances to the section
+      MFSectionEntrance entranceS = null;
+      MFSectionEntrance entranceE = null;
+      final MFTile neighborS = this.map.getNeighbor(tile, MFEDirection.S);
+      final MFTile neighborE = this.map.getNeighbor(tile, MFEDirection.E);
+      if (this.map.canWalkTo(tile, neighborS, MFEDirection.S)) {
+        entranceS = neighborS.getEntrance();
+      }
+      if (this.map.canWalkTo(tile, neighborE, MFEDirection.E)) {
+        entranceE = neighborE.getEntrance();
+      }
+
+      final MFSection currentSection = tile.getParentSection();
+      if (entranceN != null) {
+        currentSection.addEntrance(entranceN);
+        if (neighborN.getParentSection() == null) {
+          currentSection.addTile(neighborN);
         }
-        if (entranceE != null) {
-          currentSection.addEntrance(entranceE);
-          if (neighborE.getParentSection() == null) {
-            currentSection.addTile(neighborE);
-          }
+      }
+      if (entranceE != null) {
+        currentSection.addEntrance(entranceE);
+        if (neighborE.getParentSection() == null) {
+          currentSection.addTile(neighborE);
         }
-        if (entranceS != null) {
-          currentSection.addEntrance(entranceS);
-          if (neighborS.getParentSection() == null) {
-            currentSection.addTile(neighborS);
-          }
+      }
+      if (entranceS != null) {
+        currentSection.addEntrance(entranceS);
+        if (neighborS.getParentSection() == null) {
+          currentSection.addTile(neighborS);
         }
-        if (entranceW != null) {
-          currentSection.addEntrance(entranceW);
-          if (neighborW.getParentSection() == null) {
-            currentSection.addTile(neighborW);
-          }
+      }
+      if (entranceW != null) {
+        currentSection.addEntrance(entranceW);
+        if (neighborW.getParentSection() == null) {
+          currentSection.addTile(neighborW);
         }
+      }
 
-      }//-- column loop
-    }//-- row loop
+    }
     
     return result;
   }
@@ -546,4 +852,612 @@ public class MFNavigationMap
       }
     }
   }
+
+  /**
+   * Connects a level to the levels above and below and groups its sections
+   * into regions.
+   * @param _depth the level
+   */
+  private void connectAndGroupLevel(final int _depth)
+  {
+    this.connectLevels(_depth - 1, _depth);
+    this.connectLevels(_depth, _depth + 1);
+
+    final List<MFSection> levelSections = new LinkedList<MFSection>();
+    for (MFSection section : this.sections) {
+      if (section.getLevel() == _depth) {
+        levelSections.add(section);
+      }
+    }
+    for(Iterator<MFLevelRegion> it = this.regions.iterator(); it.hasNext(); ) {
+      MFLevelRegion region = it.next();
+      if (region.getLevel() == _depth) {
+        it.remove();
+      }
+    }
+    this.findRegions(_depth, levelSections);
+
+    final Set<MFLevelRegion> exitRegions = new HashSet<MFLevelRegion>();
+    for (MFLevelRegion region : this.regions) {
+      if (Math.abs(region.getLevel() - _depth) <= 1) {
+        exitRegions.add(region);
+      }
+    }
+    this.findExits(exitRegions);
+  }
+
+  /**
+   * Divides a level into clusters and finds the entrances on their borders.
+   * @param _depth the level
+   * @return the sections of all clusters
+   */
+  private List<MFSection> findClusters(final int _depth)
+  {
+    // only created tiles can be entrances
+    for (MFTile tile : this.map.getCreatedTiles(_depth)) {
+      tile.setEntrance(null);
+    }
+
+    final List<MFSection> result = new LinkedList<MFSection>();
+    final List<MFLocation> origins = new LinkedList<MFLocation>();
+    for (int x = 0; x < this.map.getWidth(); x += this.clusterSize) {
+      for (int y = 0; y < this.map.getHeight(); y += this.clusterSize) {
+        final MFLocation origin = new MFLocation(x, y, _depth);
+        origins.add(origin);
+        result.addAll(this.findClusterSections(origin));
+      }
+    }
+    for (MFLocation origin : origins) {
+      this.findBorderEntrances(origin, MFEDirection.E);
+      this.findBorderEntrances(origin, MFEDirection.S);
+    }
+    return result;
+  }
+
+  /**
+   * Creates a section for each group of connected tiles inside a cluster.
+   * @param _origin the north western corner of the cluster
+   * @return the sections of the cluster
+   */
+  private List<MFSection> findClusterSections(final MFLocation _origin)
+  {
+    final List<MFSection> result = new LinkedList<MFSection>();
+    final Set<MFTile> visited = new HashSet<MFTile>();
+    final int endX = Math.min(_origin.x + this.clusterSize, this.map.getWidth());
+    final int endY = Math.min(_origin.y + this.clusterSize, this.map.getHeight());
+
+    for (int x = _origin.x; x < endX; ++x) {
+      for (int y = _origin.y; y < endY; ++y) {
+        // solid rock is skipped without creating the tiles
+        if (!isClusterTile(this.map.getFlags(x, y, _origin.z))) {
+          continue;
+        }
+        final MFTile tile = this.map.getTile(x, y, _origin.z);
+        if (visited.contains(tile)) {
+          continue;
+        }
+
+        // flood fill the group of tiles
+        final MFSection section = new MFSection(this.map, _origin.z);
+        final Deque<MFTile> open = new ArrayDeque<MFTile>();
+        open.add(tile);
+        visited.add(tile);
+        while (!open.isEmpty()) {
+          final MFTile current = open.poll();
+          section.addTile(current);
+          for (MFEDirection direction : MFEDirection.plain()) {
+            final MFTile neighbor = this.map.getNeighbor(current, direction);
+            if (neighbor == null || visited.contains(neighbor) ||
+                !_origin.equals(this.getClusterOrigin(neighbor.getLocation())) ||
+                !isClusterTile(neighbor) ||
+                !this.map.canWalkTo(current, neighbor, direction)) {
+              continue;
+            }
+            visited.add(neighbor);
+            open.add(neighbor);
+          }
+        }
+        result.add(section);
+      }
+    }
+
+    this.clusters.put(_origin, result);
+    return result;
+  }
+
+  /**
+   * Places entrances on the eastern or southern border of a cluster. Each
+   * opening to the neighboring cluster gets an entrance in its middle or, if
+   * it is wide, one at each end.
+   * @param _origin the north western corner of the cluster; <code>null</code>
+   *        is ignored
+   * @param _side {@link MFEDirection#E E} or {@link MFEDirection#S S}
+   */
+  private void findBorderEntrances(final MFLocation _origin, final MFEDirection _side)
+  {
+    if (_origin == null) {
+      return;
+    }
+    final boolean isEast = (_side == MFEDirection.E);
+    final List<MFSectionEntrance> border = new LinkedList<MFSectionEntrance>();
+    (isEast ? this.eastBorders : this.southBorders).put(_origin, border);
+
+    final int borderX = (isEast ? _origin.x + this.clusterSize - 1 : _origin.x);
+    final int borderY = (isEast ? _origin.y : _origin.y + this.clusterSize - 1);
+    // no neighboring cluster at the edge of the map
+    if (borderX + 1 >= this.map.getWidth() && isEast ||
+        borderY + 1 >= this.map.getHeight() && !isEast) {
+      return;
+    }
+    final int length = (isEast ?
+                  Math.min(this.clusterSize, this.map.getHeight() - borderY) :
+                  Math.min(this.clusterSize, this.map.getWidth()  - borderX));
+
+    final List<MFTile> opening = new ArrayList<MFTile>();
+    for (int i = 0; i <= length; ++i) {
+      MFTile tile = null;
+      boolean isOpen = false;
+      if (i < length) {
+        tile = (isEast ? this.map.getTile(borderX, borderY + i, _origin.z) :
+                         this.map.getTile(borderX + i, borderY, _origin.z));
+        final MFTile neighbor = this.map.getNeighbor(tile, _side);
+        isOpen = isClusterTile(tile) && isClusterTile(neighbor) &&
+                 this.map.canWalkTo(tile, neighbor, _side);
+      }
+
+      // the opening ends where the border is blocked or another section begins
+      if (!opening.isEmpty()) {
+        final MFTile last = opening.get(opening.size() - 1);
+        if (!isOpen || last.getParentSection() != tile.getParentSection() ||
+            this.map.getNeighbor(last, _side).getParentSection() !=
+            this.map.getNeighbor(tile, _side).getParentSection()) {
+          if (opening.size() < MAX_ENTRANCE_WIDTH) {
+            this.addBorderEntrance(opening.get(opening.size() / 2), _side, border);
+          } else {
+            this.addBorderEntrance(opening.get(0), _side, border);
+            this.addBorderEntrance(last, _side, border);
+          }
+          opening.clear();
+        }
+      }
+      if (isOpen) {
+        opening.add(tile);
+      }
+    }
+  }
+
+  /**
+   * Creates an entrance on a border tile and adds it to the sections on both
+   * sides of the border. Reuses the entrance if the tile already is one.
+   * @param _tile the tile inside the western or northern cluster
+   * @param _side the side of the border
+   * @param _border the entrances of the border
+   */
+  private void addBorderEntrance(final MFTile _tile, final MFEDirection _side,
+                                 final List<MFSectionEntrance> _border)
+  {
+    MFSectionEntrance entrance = this.entrances.get(_tile.getPackedLocation());
+    if (entrance == null) {
+      entrance = new MFSectionEntrance(_tile);
+      this.entrances.put(_tile.getPackedLocation(), entrance);
+    }
+
+    final MFSection[] sides = {_tile.getParentSection(),
+                               this.map.getNeighbor(_tile, _side).getParentSection()};
+    for (MFSection section : sides) {
+      if (!section.getEntrances().contains(entrance)) {
+        section.addEntrance(entrance);
+      }
+    }
+    _border.add(entrance);
+    final Integer count = this.borderEntrances.get(_tile.getPackedLocation());
+    this.borderEntrances.put(_tile.getPackedLocation(), (count == null ? 1 : count + 1));
+  }
+
+  /**
+   * Removes the entrances of a border unless they are needed by another
+   * border as well.
+   * @param _borders the eastern or southern borders
+   * @param _origin the north western corner of the cluster; <code>null</code>
+   *        is ignored
+   */
+  private void removeBorder(final Map<MFLocation, List<MFSectionEntrance>> _borders,
+                            final MFLocation _origin)
+  {
+    if (_origin == null) {
+      return;
+    }
+    final List<MFSectionEntrance> border = _borders.remove(_origin);
+    if (border == null) {
+      return;
+    }
+    for (MFSectionEntrance entrance : border) {
+      final long location = entrance.getTile().getPackedLocation();
+      final Integer count = this.borderEntrances.get(location);
+      if (count != null && count > 1) {
+        this.borderEntrances.put(location, count - 1);
+      } else {
+        this.borderEntrances.remove(location);
+        this.removeEntrance(entrance);
+      }
+    }
+  }
+
+  private boolean isBorderEntrance(final MFSectionEntrance _entrance)
+  {
+    return this.borderEntrances.containsKey(_entrance.getTile().getPackedLocation());
+  }
+
+  /**
+   * Removes an entrance from the navigation map, from the sections it leads
+   * to and the edges of the entrances of these sections.
+   * @param _entrance the entrance to remove
+   */
+  private void removeEntrance(final MFSectionEntrance _entrance)
+  {
+    this.entrances.remove(_entrance.getTile().getPackedLocation());
+    if (_entrance.getTile().getEntrance() == _entrance) {
+      _entrance.getTile().setEntrance(null);
+    }
+
+    final Set<MFSection> touched = new HashSet<MFSection>();
+    touched.add(_entrance.getTile().getParentSection());
+    for (MFEDirection direction : MFEDirection.plain()) {
+      final MFTile neighbor = this.map.getNeighbor(_entrance.getTile(), direction);
+      if (neighbor != null) {
+        touched.add(neighbor.getParentSection());
+      }
+    }
+    for (MFSection section : touched) {
+      if (section == null || !section.getEntrances().contains(_entrance)) {
+        continue;
+      }
+      section.removeEntrance(_entrance);
+      for (MFSectionEntrance other : section.getEntrances()) {
+        for (MFEdge edge : new ArrayList<MFEdge>(other.getEdges())) {
+          if (edge.getTo() == _entrance) {
+            other.removeEdge(edge);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the edges between the entrances of a section.
+   * @param _section the section
+   */
+  private void disconnectEntrances(final MFSection _section)
+  {
+    final Set<MFSectionEntrance> sectionEntrances = _section.getEntrances();
+    for (MFSectionEntrance entrance : sectionEntrances) {
+      for (MFEdge edge : new ArrayList<MFEdge>(entrance.getEdges())) {
+        if (sectionEntrances.contains(edge.getTo()) &&
+            edge.getTo().getLocation().z == _section.getLevel()) {
+          entrance.removeEdge(edge);
+        }
+      }
+    }
+  }
+
+  private MFLocation getClusterOrigin(final MFLocation _location)
+  {
+    return this.getClusterOrigin(_location.x, _location.y, _location.z);
+  }
+
+  /**
+   * Gets the north western corner of the cluster containing a position.
+   * @return the corner or <code>null</code> if the position is outside the map
+   */
+  private MFLocation getClusterOrigin(final int _x, final int _y, final int _z)
+  {
+    if (!this.map.isInsideMap(_x, _y, _z)) {
+      return null;
+    }
+    final int size = Math.max(this.clusterSize, 1);
+    return new MFLocation(_x - _x % size, _y - _y % size, _z);
+  }
+
+  private static boolean isClusterTile(final MFTile _tile)
+  {
+    return _tile != null && _tile.isUnderground() &&
+           _tile.isWalkable(MFEMovementType.WALK);
+  }
+
+  private static boolean isClusterTile(final int _flags)
+  {
+    return (_flags & MFTileStorage.UNDERGROUND) != 0 &&
+           MFTileStorage.isWalkable(_flags, MFEMovementType.WALK);
+  }
+
+  private static <T> void removeLevel(final Map<MFLocation, T> _clusterMap, final int _depth)
+  {
+    for (Iterator<MFLocation> it = _clusterMap.keySet().iterator(); it.hasNext(); ) {
+      if (it.next().z == _depth) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Turns the tiles at both ends of stairs, ramps and shafts on a level into
+   * entrances of their sections. Tiles already being an entrance are kept.
+   * @param _depth the level to scan
+   * @return the newly created entrances
+   */
+  private MFLongHashMap<MFSectionEntrance> findVerticalEntrances(final int _depth)
+  {
+    return this.findVerticalEntrances(_depth, 0, 0, this.map.getWidth(),
+                                      this.map.getHeight());
+  }
+
+  /**
+   * Turns the tiles at both ends of stairs, ramps and shafts inside an area
+   * of a level into entrances of their sections.
+   * @param _depth the level to scan
+   * @param _x the western edge of the area
+   * @param _y the northern edge of the area
+   * @param _endX the first column east of the area
+   * @param _endY the first row south of the area
+   * @return the newly created entrances
+   */
+  private MFLongHashMap<MFSectionEntrance> findVerticalEntrances(final int _depth,
+                    final int _x, final int _y, final int _endX, final int _endY)
+  {
+    final MFLongHashMap<MFSectionEntrance> result =
+                                  new MFLongHashMap<MFSectionEntrance>();
+
+    // passages of blocked tiles don't belong to any section
+    for (MFTile tile : this.getWalkableTiles(_depth, _x, _y, _endX, _endY)) {
+      final MFTile above = this.getLoadedNeighbor(tile, MFEDirection.UP);
+      final MFTile below = this.getLoadedNeighbor(tile, MFEDirection.DOWN);
+      final boolean leadsDown = below != null &&
+                 tile.getVerticalPassage() != MFEVerticalPassage.NONE;
+      final boolean leadsUp = above != null &&
+                 above.getVerticalPassage() != MFEVerticalPassage.NONE;
+
+      if (!leadsDown && !leadsUp) {
+        continue;
+      }
+      if (this.entrances.containsKey(tile.getPackedLocation())) {
+        continue;
+      }
+      // passage leads into solid rock
+      final MFSection section = tile.getParentSection();
+      if (section == null || section.getLevel() != _depth) {
+        continue;
+      }
+
+      final MFSectionEntrance entrance = new MFSectionEntrance(tile);
+      section.addEntrance(entrance);
+      result.put(tile.getPackedLocation(), entrance);
+    }
+    return result;
+  }
+
+  /**
+   * Gets the tile above or below another one without loading its level.
+   * @return the neighbor or <code>null</code> if it isn't on the map or its
+   *         level isn't loaded
+   */
+  private MFTile getLoadedNeighbor(final MFTile _tile, final MFEDirection _direction)
+  {
+    final int z = _tile.getPosZ() + (_direction == MFEDirection.DOWN ? 1 : -1);
+    if (z < 0 || z >= this.map.getDepth() || !this.map.isLevelLoaded(z)) {
+      return null;
+    }
+    return this.map.getNeighbor(_tile, _direction);
+  }
+
+  /**
+   * Replaces the edges between the passage entrances of two adjacent levels.
+   * Does nothing if one of the levels does not exist or isn't loaded yet.
+   * @param _upper the upper level
+   * @param _lower the level below
+   */
+  private void connectLevels(final int _upper, final int _lower)
+  {
+    this.connectLevels(_upper, _lower, 0, 0, this.map.getWidth(), this.map.getHeight());
+  }
+
+  /**
+   * Replaces the edges between the passage entrances of two adjacent levels
+   * inside an area.
+   * @param _upper the upper level
+   * @param _lower the level below
+   * @param _x the western edge of the area
+   * @param _y the northern edge of the area
+   * @param _endX the first column east of the area
+   * @param _endY the first row south of the area
+   */
+  private void connectLevels(final int _upper, final int _lower,
+                    final int _x, final int _y, final int _endX, final int _endY)
+  {
+    if (_upper < 0 || _lower >= this.map.getDepth() ||
+        !this.map.isLevelLoaded(_upper) || !this.map.isLevelLoaded(_lower)) {
+      return;
+    }
+
+    // drop the old edges, they might point to entrances that were replaced
+    for (int level = _upper; level <= _lower; ++level) {
+      final int otherLevel = (level == _upper ? _lower : _upper);
+      // entrances are placed on walkable tiles only
+      for (MFTile tile : this.getWalkableTiles(level, _x, _y, _endX, _endY)) {
+        final MFSectionEntrance entrance = this.entrances.get(tile.getPackedLocation());
+        if (entrance == null) {
+          continue;
+        }
+        for (MFEdge edge : new LinkedList<MFEdge>(entrance.getEdges())) {
+          if (edge.getTo().getLocation().z == otherLevel) {
+            entrance.removeEdge(edge);
+          }
+        }
+      }
+    }
+
+    for (MFTile tile : this.getWalkableTiles(_upper, _x, _y, _endX, _endY)) {
+      final MFEVerticalPassage passage = tile.getVerticalPassage();
+      if (passage == MFEVerticalPassage.NONE) {
+        continue;
+      }
+      final MFTile below = this.map.getNeighbor(tile, MFEDirection.DOWN);
+      final MFSectionEntrance top = this.entrances.get(tile.getPackedLocation());
+      final MFSectionEntrance bottom = this.entrances.get(below.getPackedLocation());
+      if (top == null || bottom == null) {
+        continue;
+      }
+
+      for (int clearance : this.movementCombinations.keySet()) {
+        for (MFCapability capability : this.movementCombinations.get(clearance)) {
+          if (this.map.canMoveTo(tile, below, clearance, capability)) {
+            top.addEdge(new MFEdge(top, bottom, passage.getCost(),
+                                   clearance, capability));
+          }
+          if (this.map.canMoveTo(below, tile, clearance, capability)) {
+            bottom.addEdge(new MFEdge(bottom, top, passage.getCost(),
+                                   clearance, capability));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the walkable tiles inside an area of a level.
+   * @param _depth the level
+   * @param _x the western edge of the area
+   * @param _y the northern edge of the area
+   * @param _endX the first column east of the area
+   * @param _endY the first row south of the area
+   * @return the tiles
+   */
+  private List<MFTile> getWalkableTiles(final int _depth, final int _x,
+                           final int _y, final int _endX, final int _endY)
+  {
+    final List<MFTile> result = new ArrayList<MFTile>();
+    final MFLevelOccupancy occupancy = this.map.getOccupancy(_depth);
+    // the tiles of a column are numbered consecutively
+    for (int x = _x; x < _endX; ++x) {
+      final int end = occupancy.index(x, _endY - 1);
+      for (int index = occupancy.nextSetBit(MFLevelOccupancy.Layer.WALKABLE, _depth, occupancy.index(x, _y));
+               index >= 0 && index <= end;
+               index = occupancy.nextSetBit(MFLevelOccupancy.Layer.WALKABLE, _depth, index + 1)) {
+        result.add(this.map.getTile(occupancy.getX(index), occupancy.getY(index), _depth));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Collects the regions of the entrances inside an area of a level.
+   * @param _depth the level; ignored if it isn't on the map or isn't loaded
+   * @param _x the western edge of the area
+   * @param _y the northern edge of the area
+   * @param _endX the first column east of the area
+   * @param _endY the first row south of the area
+   * @param _regions the set to add the regions to
+   */
+  private void collectRegions(final int _depth, final int _x, final int _y,
+               final int _endX, final int _endY, final Set<MFLevelRegion> _regions)
+  {
+    if (_depth < 0 || _depth >= this.map.getDepth() || !this.map.isLevelLoaded(_depth)) {
+      return;
+    }
+    for (MFTile tile : this.getWalkableTiles(_depth, _x, _y, _endX, _endY)) {
+      final MFSectionEntrance entrance = this.entrances.get(tile.getPackedLocation());
+      if (entrance == null) {
+        continue;
+      }
+      // border entrances belong to the sections on both sides
+      final List<MFTile> candidates = new ArrayList<MFTile>();
+      candidates.add(tile);
+      for (MFEDirection direction : MFEDirection.straight()) {
+        candidates.add(this.map.getNeighbor(tile, direction));
+      }
+      for (MFTile candidate : candidates) {
+        if (candidate == null) {
+          continue;
+        }
+        final MFSection section = candidate.getParentSection();
+        if (section != null && section.getRegion() != null &&
+            section.getEntrances().contains(entrance)) {
+          _regions.add(section.getRegion());
+        }
+      }
+    }
+  }
+
+  /**
+   * Groups the sections of a level into regions. Sections sharing an
+   * entrance belong to the same region.
+   * @param _depth the level
+   * @param _sections the sections of the level
+   * @return the new regions
+   */
+  private List<MFLevelRegion> findRegions(final int _depth, final List<MFSection> _sections)
+  {
+    final List<MFLevelRegion> levelRegions = new LinkedList<MFLevelRegion>();
+    final Map<MFSectionEntrance, MFLevelRegion> entranceRegions =
+                                new HashMap<MFSectionEntrance, MFLevelRegion>();
+
+    for (MFSection section : _sections) {
+      MFLevelRegion region = null;
+
+      for (MFSectionEntrance entrance : section.getEntrances()) {
+        final MFLevelRegion other = entranceRegions.get(entrance);
+        if (other == null || other == region) {
+          continue;
+        }
+        if (region == null) {
+          region = other;
+        // the section connects two regions -> unite them
+        } else {
+          region.absorb(other);
+          levelRegions.remove(other);
+          for (Map.Entry<MFSectionEntrance, MFLevelRegion> entry : entranceRegions.entrySet()) {
+            if (entry.getValue() == other) {
+              entry.setValue(region);
+            }
+          }
+        }
+      }
+
+      if (region == null) {
+        region = new MFLevelRegion(_depth);
+        levelRegions.add(region);
+      }
+      region.addSection(section);
+      for (MFSectionEntrance entrance : section.getEntrances()) {
+        entranceRegions.put(entrance, region);
+      }
+    }
+
+    this.regions.addAll(levelRegions);
+    return levelRegions;
+  }
+
+  /**
+   * Collects the vertical edges leaving each of the regions.
+   * @param _regions the regions
+   */
+  private void findExits(final Collection<MFLevelRegion> _regions)
+  {
+    for (MFLevelRegion region : _regions) {
+      region.clearExits();
+
+      final Set<MFSectionEntrance> visited = new HashSet<MFSectionEntrance>();
+      for (MFSection section : region.getSections()) {
+        for (MFSectionEntrance entrance : section.getEntrances()) {
+          if (!visited.add(entrance)) {
+            continue;
+          }
+          for (MFEdge edge : entrance.getEdges()) {
+            if (edge.getTo().getLocation().z != region.getLevel()) {
+              region.addExit(edge);
+            }
+          }
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,113 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+/**
+ * Snapshot of the size of the navigation graph on one level. Used to judge
+ * how much work path searches and repairs of the level will cause.
+ */
+public class MFNavigationStatistics
+{
+  /**
+   * Constructor
+   * @param _level the level the numbers belong to
+   * @param _clusterCount the number of clusters, <code>0</code> if the level
+   *                      isn't divided into clusters
+   * @param _sectionCount the number of sections
+   * @param _entranceCount the number of entrances
+   * @param _edgeCount the number of edges starting at the entrances
+   * @param _largestSectionSize the number of tiles of the biggest section
+   */
+  public MFNavigationStatistics(int _level, int _clusterCount, int _sectionCount,
+                 int _entranceCount, int _edgeCount, int _largestSectionSize)
+  {
+    this.level = _level;
+    this.clusterCount = _clusterCount;
+    this.sectionCount = _sectionCount;
+    this.entranceCount = _entranceCount;
+    this.edgeCount = _edgeCount;
+    this.largestSectionSize = _largestSectionSize;
+  }
+
+  public int getLevel()
+  {
+    return this.level;
+  }
+
+  public int getClusterCount()
+  {
+    return this.clusterCount;
+  }
+
+  public int getSectionCount()
+  {
+    return this.sectionCount;
+  }
+
+  public int getEntranceCount()
+  {
+    return this.entranceCount;
+  }
+
+  public int getEdgeCount()
+  {
+    return this.edgeCount;
+  }
+
+  public int getLargestSectionSize()
+  {
+    return this.largestSectionSize;
+  }
+
+  /**
+   * Average number of entrances a search has to connect the start or goal
+   * tile to.
+   * @return entrances per section or <code>0</code> if there are no sections
+   */
+  public float getEntrancesPerSection()
+  {
+    if (this.sectionCount == 0) {
+      return 0;
+    }
+    return (float) this.entranceCount / this.sectionCount;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "Level " + this.level + ": " + this.clusterCount + " clusters, " +
+            this.sectionCount + " sections, " +
+            this.entranceCount + " entrances, " + this.edgeCount + " edges, " +
+            "largest section " + this.largestSectionSize + " tiles";
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private final int level;
+  private final int clusterCount;
+  private final int sectionCount;
+  private final int entranceCount;
+  private final int edgeCount;
+  private final int largestSectionSize;
+}
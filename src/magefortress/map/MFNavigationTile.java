@@ -24,43 +24,17 @@
  */
 package magefortress.map;
 
-import java.util.HashMap;
 import java.util.logging.Logger;
-import magefortress.creatures.behavior.movable.MFCapability;
 
 /**
- * Represents data used for navigation specific to a tile.
+ * Represents data used for navigation specific to a tile. The clearance
+ * values are kept in the {@link MFTileStorage} of the map.
  */
 public class MFNavigationTile
 {
 
   public MFNavigationTile()
   {
-    this.clearanceValues = new HashMap<MFCapability,Integer>();
-  }
-  
-  /**
-   * Sets the size of the biggest creature which can pass the tile.
-   * @param _capability The type of movement
-   * @param _clearance The size of the creature
-   */
-  void setClearance(MFCapability _capability, int _clearance)
-  {
-    this.clearanceValues.put(_capability, _clearance);
-  }
-
-  /**
-   * Gets the size of the biggest creature which can pass the tile.
-   * @param _capability The movement type
-   * @return The size of the creature or 0 if inaccessible
-   */
-  int getClearance(MFCapability _capability)
-  {
-    Integer result = this.clearanceValues.get(_capability);
-    if (result == null) {
-      result = 0;
-    }
-    return result;
   }
 
   /**
@@ -111,9 +85,6 @@ public class MFNavigationTile
   /** Log */
   private static final Logger logger = Logger.getLogger(MFNavigationTile.class.getName());
 
-  /** Saves how big a creature can stand on this and the surrounding tiles.
-   * @Transient */
-  private final HashMap<MFCapability, Integer> clearanceValues;
   /** The parent navigational section
    * @Transient */
   private MFSection parentSection;
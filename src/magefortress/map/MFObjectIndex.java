@@ -0,0 +1,120 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.HashMap;
+import java.util.Map;
+import magefortress.core.MFSpatialGrid;
+import magefortress.items.MFBlueprint;
+import magefortress.items.placeable.MFIPlaceable;
+import magefortress.jobs.MFIProducible;
+
+/**
+ * Finds the objects placed on a map by their blueprint. Each blueprint has
+ * its own spatial grid, so looking for the nearest objects only visits the
+ * cells around the location.
+ */
+final class MFObjectIndex
+{
+  /** Edge length of a grid cell in tiles */
+  static final int BUCKET_SIZE = 16;
+
+  /**
+   * Adds an object placed on a tile. Objects without blueprint are ignored.
+   * @param _location the packed location of the tile
+   * @param _object the placed object
+   */
+  void add(long _location, MFIPlaceable _object)
+  {
+    final MFBlueprint blueprint = getBlueprint(_object);
+    if (blueprint == null) {
+      return;
+    }
+    MFSpatialGrid<MFIPlaceable> grid = this.grids.get(blueprint);
+    if (grid == null) {
+      grid = new MFSpatialGrid<MFIPlaceable>(BUCKET_SIZE);
+      this.grids.put(blueprint, grid);
+    }
+    grid.add(_location, _object);
+  }
+
+  /**
+   * Removes an object taken off a tile.
+   * @param _location the packed location of the tile
+   * @param _object the removed object
+   */
+  void remove(long _location, MFIPlaceable _object)
+  {
+    final MFBlueprint blueprint = getBlueprint(_object);
+    if (blueprint == null) {
+      return;
+    }
+    final MFSpatialGrid<MFIPlaceable> grid = this.grids.get(blueprint);
+    if (grid != null) {
+      grid.remove(_location, _object);
+      if (grid.isEmpty()) {
+        this.grids.remove(blueprint);
+      }
+    }
+  }
+
+  /**
+   * Counts the placed objects of a blueprint.
+   * @return the number of objects
+   */
+  int count(MFBlueprint _blueprint)
+  {
+    final MFSpatialGrid<MFIPlaceable> grid = this.grids.get(_blueprint);
+    return (grid == null ? 0 : grid.size());
+  }
+
+  /**
+   * Finds the objects of a blueprint closest to a location.
+   * @param _blueprint the blueprint of the objects
+   * @param _location the packed location to search from
+   * @param _count the maximum number of objects to find
+   * @return the packed locations of the objects, nearest first
+   */
+  long[] findNearest(MFBlueprint _blueprint, long _location, int _count)
+  {
+    final MFSpatialGrid<MFIPlaceable> grid = this.grids.get(_blueprint);
+    if (grid == null) {
+      return new long[0];
+    }
+    return grid.findNearestLocations(_location, _count);
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private final Map<MFBlueprint, MFSpatialGrid<MFIPlaceable>> grids =
+                          new HashMap<MFBlueprint, MFSpatialGrid<MFIPlaceable>>();
+
+  private static MFBlueprint getBlueprint(MFIPlaceable _object)
+  {
+    if (_object instanceof MFIProducible) {
+      return ((MFIProducible) _object).getBlueprint();
+    }
+    return null;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Processes the levels of a map concurrently. A task must only touch the
+ * chunks of its own level and must not load chunks.
+ */
+final class MFParallelLevels
+{
+  /**
+   * Work done on a single level.
+   */
+  interface LevelTask
+  {
+    void process(int _z);
+  }
+
+  /**
+   * Runs a task for every level and waits until all are done.
+   * @param _depth the number of levels
+   * @param _threadCount the maximum number of levels processed at the same time
+   * @param _task the work to do per level
+   * @throws IllegalStateException if a task failed or the thread was interrupted
+   */
+  static void forEachLevel(int _depth, int _threadCount, final LevelTask _task)
+  {
+    if (_depth == 1 || _threadCount == 1) {
+      for (int z = 0; z < _depth; ++z) {
+        _task.process(z);
+      }
+      return;
+    }
+
+    final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(_depth);
+    for (int z = 0; z < _depth; ++z) {
+      final int level = z;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call()
+        {
+          _task.process(level);
+          return null;
+        }
+      });
+    }
+
+    final ExecutorService executor = Executors.newFixedThreadPool(
+                                                Math.min(_threadCount, _depth));
+    try {
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      String msg = "ParallelLevels: Interrupted while processing levels.";
+      logger.log(Level.SEVERE, msg, e);
+      throw new IllegalStateException(msg, e);
+    } catch (ExecutionException e) {
+      String msg = "ParallelLevels: Unable to process level.";
+      logger.log(Level.SEVERE, msg, e.getCause());
+      throw new IllegalStateException(msg, e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * The number of threads used if the caller doesn't care.
+   * @return the number of available processors
+   */
+  static int defaultThreadCount()
+  {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFParallelLevels.class.getName());
+
+  private MFParallelLevels()
+  {
+  }
+}
@@ -100,6 +100,20 @@ public abstract class MFPath implements Iterator<MFEDirection>
     this.isPathValid = false;
   }
 
+  /**
+   * Gets if the path stops short of the requested target. A partial path is
+   * the result of a search that ran out of its expansion budget and leads to
+   * the explored tile closest to the target, which is returned by
+   * {@link #getGoal() getGoal()}. Reaching its end is no arrival - the rest of
+   * the way has to be searched from there.
+   * @return <code>true</code> if the path does not lead to the requested target
+   * @see MFTemplateAStar#setExpansionBudget(int)
+   */
+  public boolean isPartial()
+  {
+    return this.isPartial;
+  }
+
   /**
    * Gets the cost of traversing the path in weighted units. Currently every
    * tile moved equals one unit.
@@ -110,6 +124,15 @@ public abstract class MFPath implements Iterator<MFEDirection>
     return this.cost;
   }
 
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+  /**
+   * Marks the path as ending before the requested target.
+   */
+  void setPartial()
+  {
+    this.isPartial = true;
+  }
+
   //---vvv---      PRIVATE METHODS      ---vvv---
   /** Logger */
   private static Logger logger = Logger.getLogger(MFPath.class.getName());
@@ -123,5 +146,7 @@ public abstract class MFPath implements Iterator<MFEDirection>
   
   /** <code>true</code> if we can reach the goal */
   private boolean isPathValid;
+  /** <code>true</code> if the path ends before the requested target */
+  private boolean isPartial;
 
 }
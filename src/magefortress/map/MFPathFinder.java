@@ -57,7 +57,6 @@ public class MFPathFinder implements Singleton
 
   /**
    * Enqueues a search into the queue for later execution.
-   * @param _map the map to search
    * @param _start the starting location
    * @param _goal the target location
    * @param _clearance the size of the creature
@@ -68,6 +67,29 @@ public class MFPathFinder implements Singleton
                                 final MFLocation _goal, final int _clearance,
                                 final MFCapability _capability,
                                 final MFIPathFinderListener _listener)
+  {
+    this.enqueuePathSearch(_start, _goal, _clearance, _capability,
+                           MFTemplateAStar.UNLIMITED_EXPANSIONS, _listener);
+  }
+
+  /**
+   * Enqueues a search with a limited number of node expansions into the queue
+   * for later execution. If the budget runs out before the goal was found, the
+   * listener receives a {@link MFPath#isPartial() partial path} leading towards
+   * the goal.
+   * @param _start the starting location
+   * @param _goal the target location
+   * @param _clearance the size of the creature
+   * @param _capability the movement modes of the creature
+   * @param _expansionBudget the maximum number of nodes to expand or
+   *          {@link MFTemplateAStar#UNLIMITED_EXPANSIONS}
+   * @param _listener the listener to notify when the search was executed
+   */
+  public void enqueuePathSearch(final MFLocation _start,
+                                final MFLocation _goal, final int _clearance,
+                                final MFCapability _capability,
+                                final int _expansionBudget,
+                                final MFIPathFinderListener _listener)
   {
     if (this.map == null) {
       String msg = this.getClass().getName() + ": Map must be set before " +
@@ -80,22 +102,97 @@ public class MFPathFinder implements Singleton
 
     final MFHierarchicalAStar search = new MFHierarchicalAStar(this.map, startTile,
                                         goalTile, _clearance, _capability, this);
+    search.setExpansionBudget(_expansionBudget);
     this.enqueuePathSearch(search, _listener);
   }
 
   /**
-   * Executes exactly one or zero path searches from the queue.
+   * Enqueues a cooperative search into the queue for later execution. The
+   * found path avoids tiles other creatures have reserved and reserves its own
+   * tiles for the given owner. Waiting steps of the path are returned as
+   * <code>null</code> by {@link MFCooperativePath#next()}.
+   * @param _start the starting location
+   * @param _goal the target location
+   * @param _clearance the size of the creature
+   * @param _capability the movement modes of the creature
+   * @param _stepDuration the number of ticks the creature needs for one step
+   * @param _owner the object reserving the tiles, usually the creature
+   * @param _listener the listener to notify when the search was executed
+   */
+  public void enqueueCooperativePathSearch(final MFLocation _start,
+                                final MFLocation _goal, final int _clearance,
+                                final MFCapability _capability,
+                                final int _stepDuration, final Object _owner,
+                                final MFIPathFinderListener _listener)
+  {
+    this.enqueueCooperativePathSearch(_start, _goal, _clearance, _capability,
+                           _stepDuration, _owner,
+                           MFCooperativeAStar.DEFAULT_EXPANSION_BUDGET, _listener);
+  }
+
+  /**
+   * Enqueues a cooperative search with a limited number of node expansions
+   * into the queue for later execution. If the budget runs out before the
+   * goal was found, the listener receives a {@link MFPath#isPartial() partial
+   * path} leading towards the goal.
+   * @param _start the starting location
+   * @param _goal the target location
+   * @param _clearance the size of the creature
+   * @param _capability the movement modes of the creature
+   * @param _stepDuration the number of ticks the creature needs for one step
+   * @param _owner the object reserving the tiles, usually the creature
+   * @param _expansionBudget the maximum number of nodes to expand or
+   *          {@link MFTemplateAStar#UNLIMITED_EXPANSIONS}
+   * @param _listener the listener to notify when the search was executed
+   * @see #enqueueCooperativePathSearch(MFLocation, MFLocation, int, MFCapability, int, Object, MFIPathFinderListener)
+   */
+  public void enqueueCooperativePathSearch(final MFLocation _start,
+                                final MFLocation _goal, final int _clearance,
+                                final MFCapability _capability,
+                                final int _stepDuration, final Object _owner,
+                                final int _expansionBudget,
+                                final MFIPathFinderListener _listener)
+  {
+    if (this.map == null) {
+      String msg = this.getClass().getName() + ": Map must be set before " +
+              "searching for paths.";
+      logger.severe(msg);
+      throw new MFPrerequisitesNotMetException(msg);
+    }
+    final MFTile startTile = this.map.getTile(_start);
+    final MFTile goalTile  = this.map.getTile(_goal);
+
+    final MFCooperativeAStar search = new MFCooperativeAStar(this.map, startTile,
+                         goalTile, _clearance, _capability, this.reservationTable,
+                         _owner, _stepDuration);
+    search.setExpansionBudget(_expansionBudget);
+    this.enqueuePathSearch(search, _listener);
+  }
+
+  /**
+   * Gets the table of tiles reserved by cooperative path searches.
+   * @return the reservation table
+   */
+  public MFReservationTable getReservationTable()
+  {
+    return this.reservationTable;
+  }
+
+  /**
+   * Executes exactly one or zero path searches from the queue and advances
+   * the clock of the reservation table by one tick.
    */
   public void update()
   {
     if (!this.searchQueue.isEmpty()) {
-      final MFTemplateAStar search = this.searchQueue.poll();
+      final MFIPathSearch search = this.searchQueue.poll();
       final MFIPathFinderListener listener = this.listenerQueue.poll();
       // find a path
       final MFPath path = search.findPath();
       // notify the listener
       listener.pathSearchFinished(path);
     }
+    this.reservationTable.advance();
   }
 
   //---vvv--- PACKAGE-PRIVATE METHODS   ---vvv---
@@ -105,7 +202,7 @@ public class MFPathFinder implements Singleton
    * @param _search the path to enqueue
    * @param _listener the listener to notify when the search was executed
    */
-  void enqueuePathSearch(final MFTemplateAStar _search,
+  void enqueuePathSearch(final MFIPathSearch _search,
                          final MFIPathFinderListener _listener)
   {
     if (_search == null) {
@@ -132,14 +229,17 @@ public class MFPathFinder implements Singleton
   /** The map - must be set after getting the first instance */
   private MFMap map;
   /** The list of searches */
-  private final Queue<MFTemplateAStar> searchQueue;
+  private final Queue<MFIPathSearch> searchQueue;
   /** The list of listeners */
   private final Queue<MFIPathFinderListener> listenerQueue;
+  /** Tiles reserved by cooperative searches */
+  private final MFReservationTable reservationTable;
 
   private MFPathFinder()
   {
-    this.searchQueue = new LinkedList<MFTemplateAStar>();
+    this.searchQueue = new LinkedList<MFIPathSearch>();
     this.listenerQueue = new LinkedList<MFIPathFinderListener>();
+    this.reservationTable = new MFReservationTable(MFReservationTable.DEFAULT_HORIZON);
   }
 
 }
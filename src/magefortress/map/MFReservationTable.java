@@ -0,0 +1,289 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import magefortress.core.MFLocation;
+import magefortress.core.MFLongHashMap;
+import magefortress.core.MFPackedLocation;
+
+/**
+ * Space-time reservation table used for cooperative path finding. Creatures
+ * claim the tiles of their paths for the ticks they are going to occupy them,
+ * so that searches started later can plan around them.
+ * <p>
+ * Reservations are only kept for a limited horizon of ticks. Every tick of the
+ * horizon owns a slot in a ring buffer which is tagged with the tick it
+ * currently holds. Once the clock has moved on a slot holds an outdated tick
+ * and its reservations are simply ignored until the slot is reused, so
+ * expiring old entries never needs to scan the table.
+ * @see MFCooperativeAStar
+ */
+public class MFReservationTable
+{
+  /** Default number of ticks reservations are kept for */
+  public static final int DEFAULT_HORIZON = 256;
+
+  /**
+   * Constructor
+   * @param _horizon the number of ticks reservations can be made in advance
+   */
+  public MFReservationTable(int _horizon)
+  {
+    if (_horizon < 1) {
+      String msg = "ReservationTable: Cannot create with a horizon < 1. " +
+                   "Got: " + _horizon;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.horizon = _horizon;
+    this.slotTicks = new long[_horizon];
+    this.slots = new ArrayList<MFLongHashMap<Object>>(_horizon);
+    for (int i = 0; i < _horizon; ++i) {
+      this.slotTicks[i] = NO_TICK;
+      this.slots.add(new MFLongHashMap<Object>());
+    }
+    this.ownerReservations = new HashMap<Object, Deque<MFReservation>>();
+  }
+
+  public int getHorizon()
+  {
+    return this.horizon;
+  }
+
+  public long getCurrentTick()
+  {
+    return this.currentTick;
+  }
+
+  /**
+   * Moves the clock one tick forward. Reservations for past ticks expire.
+   */
+  public void advance()
+  {
+    ++this.currentTick;
+  }
+
+  /**
+   * Checks if a tick lies inside the window in which reservations are kept.
+   * @param _tick the tick to check
+   * @return <code>true</code> if reservations can be made for the tick
+   */
+  public boolean isInsideHorizon(long _tick)
+  {
+    return this.currentTick <= _tick && _tick < this.currentTick + this.horizon;
+  }
+
+  /**
+   * Claims a tile for one tick.
+   * @param _location the tile to claim
+   * @param _tick the tick during which the tile is occupied
+   * @param _owner the object claiming the tile
+   * @return <code>false</code> if the tile was already reserved by someone else
+   *         or the tick lies outside of the horizon
+   */
+  public boolean reserve(MFLocation _location, long _tick, Object _owner)
+  {
+    if (_location == null || _owner == null) {
+      String msg = "ReservationTable: Cannot reserve without location and owner.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    return this.reserve(MFPackedLocation.pack(_location), _tick, _owner);
+  }
+
+  /**
+   * Checks if a tile is claimed by another object during a tick. Ticks outside
+   * of the horizon are never reserved.
+   * @param _location the tile to check
+   * @param _tick the tick to check
+   * @param _asker the object asking. Its own reservations are ignored. May be
+   *          <code>null</code>.
+   * @return <code>true</code> if someone else claimed the tile
+   */
+  public boolean isReserved(MFLocation _location, long _tick, Object _asker)
+  {
+    return this.isReserved(MFPackedLocation.pack(_location), _tick, _asker);
+  }
+
+  /**
+   * Checks if a tile is free for an object during a range of ticks.
+   * @param _location the tile to check
+   * @param _from the first tick
+   * @param _to the last tick (inclusive)
+   * @param _asker the object asking. Its own reservations are ignored.
+   * @return <code>true</code> if nobody else claimed the tile during the ticks
+   */
+  public boolean isFree(MFLocation _location, long _from, long _to, Object _asker)
+  {
+    return this.isFree(MFPackedLocation.pack(_location), _from, _to, _asker);
+  }
+
+  /**
+   * Removes all reservations of an object. Only touches the reservations made
+   * by that object.
+   * @param _owner the owner of the reservations
+   */
+  public void release(Object _owner)
+  {
+    final Deque<MFReservation> reservations = this.ownerReservations.remove(_owner);
+    if (reservations == null) {
+      return;
+    }
+    for (MFReservation reservation : reservations) {
+      final int index = (int) (reservation.tick % this.horizon);
+      if (this.slotTicks[index] == reservation.tick &&
+          this.slots.get(index).get(reservation.location) == _owner) {
+        this.slots.get(index).remove(reservation.location);
+      }
+    }
+  }
+
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+
+  /**
+   * Claims a tile for one tick.
+   * @param _location the {@link MFPackedLocation packed} tile to claim
+   * @see #reserve(MFLocation, long, Object)
+   */
+  boolean reserve(long _location, long _tick, Object _owner)
+  {
+    if (!this.isInsideHorizon(_tick)) {
+      return false;
+    }
+
+    final MFLongHashMap<Object> slot = this.getSlotForWriting(_tick);
+    final Object previousOwner = slot.get(_location);
+    if (previousOwner != null) {
+      return previousOwner == _owner;
+    }
+    slot.put(_location, _owner);
+
+    Deque<MFReservation> reservations = this.ownerReservations.get(_owner);
+    if (reservations == null) {
+      reservations = new ArrayDeque<MFReservation>();
+      this.ownerReservations.put(_owner, reservations);
+    }
+    // forget expired reservations of this owner
+    while (!reservations.isEmpty() && reservations.peek().tick < this.currentTick) {
+      reservations.poll();
+    }
+    reservations.add(new MFReservation(_location, _tick));
+    return true;
+  }
+
+  /**
+   * Checks if a tile is claimed by another object during a tick.
+   * @param _location the {@link MFPackedLocation packed} tile to check
+   * @see #isReserved(MFLocation, long, Object)
+   */
+  boolean isReserved(long _location, long _tick, Object _asker)
+  {
+    if (!this.isInsideHorizon(_tick)) {
+      return false;
+    }
+    final int index = (int) (_tick % this.horizon);
+    if (this.slotTicks[index] != _tick) {
+      return false;
+    }
+    final Object owner = this.slots.get(index).get(_location);
+    return owner != null && owner != _asker;
+  }
+
+  /**
+   * Checks if a tile is free for an object during a range of ticks.
+   * @param _location the {@link MFPackedLocation packed} tile to check
+   * @see #isFree(MFLocation, long, long, Object)
+   */
+  boolean isFree(long _location, long _from, long _to, Object _asker)
+  {
+    final long last = Math.min(_to, this.currentTick + this.horizon - 1);
+    for (long tick = Math.max(_from, this.currentTick); tick <= last; ++tick) {
+      if (this.isReserved(_location, tick, _asker)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFReservationTable.class.getName());
+  /** Marks an unused slot */
+  private static final long NO_TICK = -1;
+
+  /** Number of ticks reservations are kept for */
+  private final int horizon;
+  /** The tick each slot currently holds reservations for */
+  private final long[] slotTicks;
+  /** Ring buffer of reserved tiles, one slot per tick of the horizon */
+  private final List<MFLongHashMap<Object>> slots;
+  /** Reservations made by each owner ordered by tick */
+  private final Map<Object, Deque<MFReservation>> ownerReservations;
+  /** The clock */
+  private long currentTick;
+
+  /**
+   * Gets the slot of a tick. If it still holds reservations of an expired tick
+   * they are dropped before the slot is reused.
+   * @param _tick the tick
+   * @return the reservations of the tick
+   */
+  private MFLongHashMap<Object> getSlotForWriting(long _tick)
+  {
+    final int index = (int) (_tick % this.horizon);
+    MFLongHashMap<Object> slot = this.slots.get(index);
+    if (this.slotTicks[index] != _tick) {
+      // clearing would walk the whole capacity, which never shrinks after a
+      // crowded tick, so a map sized for the expired tick replaces it
+      if (!slot.isEmpty()) {
+        slot = new MFLongHashMap<Object>(slot.size());
+        this.slots.set(index, slot);
+      }
+      this.slotTicks[index] = _tick;
+    }
+    return slot;
+  }
+
+  /**
+   * A tile claimed for one tick.
+   */
+  private static final class MFReservation
+  {
+    final long location;
+    final long tick;
+
+    MFReservation(long _location, long _tick)
+    {
+      this.location = _location;
+      this.tick = _tick;
+    }
+  }
+}
@@ -25,12 +25,12 @@
 package magefortress.map;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 import magefortress.core.MFLocation;
+import magefortress.core.MFLongHashMap;
+import magefortress.core.MFPackedLocation;
 
 /**
  * Represents a section of dug out, undergound tiles like a room or a tunnel.
@@ -47,7 +47,7 @@ class MFSection
     this.map = _map;
     this.level = _depth;
     this.entrances = new HashSet<MFSectionEntrance>();
-    this.tiles = new HashMap<MFLocation, MFTile>();
+    this.tiles = new MFLongHashMap<MFTile>();
   }
   
   public int getLevel()
@@ -67,6 +67,21 @@ class MFSection
 
   //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
 
+  /**
+   * Gets the group of connected sections on the same level this section
+   * belongs to.
+   * @return the region or <code>null</code> if it was not calculated yet
+   */
+  MFLevelRegion getRegion()
+  {
+    return this.region;
+  }
+
+  void setRegion(MFLevelRegion _region)
+  {
+    this.region = _region;
+  }
+
   /**
    * Adds an entrance that leads to this section.
    * @param _entrance the entrance to this section
@@ -87,6 +102,20 @@ class MFSection
     this.entrances.add(_entrance);
   }
 
+  /**
+   * Removes an entrance that no longer leads to this section.
+   * @param _entrance the entrance to remove
+   */
+  void removeEntrance(MFSectionEntrance _entrance)
+  {
+    if (_entrance == null) {
+      String msg = "Section: Cannot remove null entrance.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.entrances.remove(_entrance);
+  }
+
   /**
    * Adds a tile to this section. Its parent section will be set to this section.
    * @param _tile A tile of this section
@@ -98,14 +127,14 @@ class MFSection
       logger.severe(msg);
       throw new IllegalArgumentException(msg);
     }
-    if (this.tiles.containsKey(_tile.getLocation())) {
+    if (this.tiles.containsKey(_tile.getPackedLocation())) {
       String msg = "Section: Trying to add a tile (" +  _tile.getLocation() +
                    ") already present in this section.";
       logger.warning(msg);
       return;
     }
     _tile.setParentSection(this);
-    this.tiles.put(_tile.getLocation(), _tile);
+    this.tiles.put(_tile.getPackedLocation(), _tile);
   }
 
   /**
@@ -151,14 +180,16 @@ class MFSection
       throw new IllegalArgumentException(msg);
     }
 
-    return this.tiles.containsKey(_location);
+    return this.tiles.containsKey(MFPackedLocation.pack(_location));
   }
   //---vvv---      PRIVATE METHODS      ---vvv---
   private final static Logger logger = Logger.getLogger(MFSection.class.getName());
   private final MFMap map;
   private final int level;
   private final Set<MFSectionEntrance> entrances;
-  private final Map<MFLocation, MFTile> tiles;
+  /** The tiles by packed location */
+  private final MFLongHashMap<MFTile> tiles;
+  private MFLevelRegion region;
 
   /**
    * Moves the tiles and entrances of the source to the target section.
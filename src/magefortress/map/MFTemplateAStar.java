@@ -24,19 +24,20 @@
  */
 package magefortress.map;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.logging.Logger;
-import magefortress.core.MFLocation;
+import magefortress.core.MFLongHashMap;
 import magefortress.creatures.behavior.movable.MFCapability;
 
 /**
  * Base class for path finding algorithms.
  */
-public abstract class MFTemplateAStar
+public abstract class MFTemplateAStar implements MFIPathSearch
 {
+  /** Marks a search without an expansion budget */
+  public static final int UNLIMITED_EXPANSIONS = 0;
+
   /**
    * Constructor
    * @param _map the map
@@ -92,6 +93,36 @@ public abstract class MFTemplateAStar
     return capability;
   }
 
+  /**
+   * Limits the number of nodes the search may expand. If the budget is used
+   * up before the goal was reached the search returns a
+   * {@link MFPath#isPartial() partial path} towards the explored node closest
+   * to the goal, or no path if no explored node is closer to the goal than
+   * the starting tile.
+   * @param _expansionBudget the maximum number of expanded nodes or
+   *          {@link #UNLIMITED_EXPANSIONS} to search until the goal is found
+   */
+  public final void setExpansionBudget(int _expansionBudget)
+  {
+    if (_expansionBudget < 0) {
+      String msg = "AStar " + this.start.getLocation() + "->" +
+                   this.goal.getLocation() + ": Cannot set expansion budget " +
+                   "< 0. Got: " + _expansionBudget;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.expansionBudget = _expansionBudget;
+  }
+
+  /**
+   * Gets the maximum number of nodes the search may expand.
+   * @return the budget or {@link #UNLIMITED_EXPANSIONS}
+   */
+  public final int getExpansionBudget()
+  {
+    return this.expansionBudget;
+  }
+
   /**
    * Starts a search for a path between the tile set in during object
    * construction.
@@ -101,6 +132,7 @@ public abstract class MFTemplateAStar
    * of here.
    * @return <code>true</code> if a was path found
    */
+  @Override
   public MFPath findPath()
   {
     validateStartConditions();
@@ -109,7 +141,7 @@ public abstract class MFTemplateAStar
 
     // add start tile to the open list
     final int startH = this.estimateDistance(this.start);
-    this.addToOpenList(this.start, null, 0, startH);
+    this.addToOpenList(this.start, null, 0, startH, this.getStartTime());
 
     final MFPath result = this.runSearch();
 
@@ -140,16 +172,96 @@ public abstract class MFTemplateAStar
     return this.openList;
   }
 
-  final Map<MFLocation, MFNode> getOpenListLocations()
+  final MFLongHashMap<MFNode> getOpenListLocations()
   {
     return this.openListLocations;
   }
 
-  final Map<MFLocation, MFNode> getClosedList()
+  final MFLongHashMap<MFNode> getClosedList()
   {
     return this.closedList;
   }
 
+  /**
+   * Heuristic function to estimate the distance between two tiles. Each
+   * level in between adds at least the cost of a straight step, because no
+   * passage is cheaper than that.
+   * <p>
+   * Note: Copied from {@link  http://www.policyalmanac.org/games/heuristics.htm}
+   * @param _from the starting tile
+   * @param _to the target tile
+   * @return the estimated cost
+   */
+  static int estimateDistance(MFTile _from, MFTile _to)
+  {
+    final int xDistance = Math.abs(_from.getPosX() - _to.getPosX());
+    final int yDistance = Math.abs(_from.getPosY() - _to.getPosY());
+    final int zDistance = Math.abs(_from.getPosZ() - _to.getPosZ());
+    final int levelCost = MFTemplateAStar.ORTHOGONAL_COST * zDistance;
+    if (xDistance > yDistance) {
+      return MFTemplateAStar.DIAGONAL_COST * yDistance +
+             MFTemplateAStar.ORTHOGONAL_COST * (xDistance - yDistance) + levelCost;
+    } else {
+      return MFTemplateAStar.DIAGONAL_COST * xDistance +
+             MFTemplateAStar.ORTHOGONAL_COST * (yDistance - xDistance) + levelCost;
+    }
+  }
+
+  /**
+   * Gets the key of a node on the open and closed lists. By default a tile is
+   * visited only once, so the key is its packed location. Searches which
+   * may visit a tile several times, e.g. at different points in time,
+   * override this.
+   * @param _tile the tile of the node
+   * @param _time the time of the node
+   * @return the key
+   */
+  long keyOf(final MFTile _tile, final long _time)
+  {
+    return _tile.getPackedLocation();
+  }
+
+  /**
+   * Gets the time of the starting node. Only used by searches whose nodes
+   * are {@link #keyOf(MFTile, long) told apart by time}.
+   * @return the time of the starting node
+   */
+  long getStartTime()
+  {
+    return 0;
+  }
+
+  /**
+   * Counts a node taken off the open list against the expansion budget.
+   */
+  final void countExpansion()
+  {
+    ++this.expansions;
+  }
+
+  /**
+   * Checks if the search has to stop because it expanded as many nodes as its
+   * budget allows.
+   * @return <code>true</code> if no more nodes may be expanded
+   */
+  final boolean isExpansionBudgetExhausted()
+  {
+    return this.expansionBudget != UNLIMITED_EXPANSIONS &&
+           this.expansions >= this.expansionBudget;
+  }
+
+  /**
+   * Gets the node with the lowest estimated distance to the goal found so far.
+   * Nodes which aren't closer to the goal than the starting node don't count,
+   * so that a partial path never leads away from the goal.
+   * @return the node closest to the goal or <code>null</code> if no explored
+   *         node is closer to the goal than the starting node
+   */
+  final MFNode getClosestNode()
+  {
+    return (this.closestNode.parent == null ? null : this.closestNode);
+  }
+
   /**
    * Processes a neighbor node during the search. Packages the tile into a node
    * with associated costs and puts it onto the open list.
@@ -161,15 +273,28 @@ public abstract class MFTemplateAStar
    * @param _neighbor the tile being processed
    */
   final void processNeighbor(final MFNode _parentNode, final MFTile _neighbor)
+  {
+    this.processNeighbor(_parentNode, _neighbor, _parentNode.time);
+  }
+
+  /**
+   * Processes a neighbor node reached at a point in time.
+   * @param _parentNode the parent node
+   * @param _neighbor the tile being processed
+   * @param _time the time of the neighbor node
+   * @see #processNeighbor(MFNode, MFTile)
+   */
+  final void processNeighbor(final MFNode _parentNode, final MFTile _neighbor,
+                             final long _time)
   {
     //　calculate costs
     final int g = _parentNode.g + this.costFunction(_parentNode.tile, _neighbor);
     final int h = this.estimateDistance(_neighbor);
-    final MFNode previouslyVisited = this.openListLocations.get(_neighbor.getLocation());
+    final MFNode previouslyVisited = this.openListLocations.get(this.keyOf(_neighbor, _time));
 
     // new node found -> add to open list
     if (previouslyVisited == null) {
-      this.addToOpenList(_neighbor, _parentNode, g, h);
+      this.addToOpenList(_neighbor, _parentNode, g, h, _time);
 
     // already processed but better path to this node found -> update cost and ranking
     } else if (previouslyVisited.g > g) {
@@ -201,12 +326,19 @@ public abstract class MFTemplateAStar
   /** The movement types of the creature that wants to use the path */
   private final MFCapability capability;
 
-  /** Stores the processed nodes */
-  private Map<MFLocation, MFNode> closedList;
+  /** Stores the processed nodes by packed location */
+  private MFLongHashMap<MFNode> closedList;
   /** Stores the nodes as a priority queue */
   private Queue<MFNode> openList;
-  /** Stores the nodes for faster access */
-  private Map<MFLocation, MFNode> openListLocations;
+  /** Stores the nodes by packed location for faster access */
+  private MFLongHashMap<MFNode> openListLocations;
+  /** Maximum number of nodes to expand */
+  private int expansionBudget;
+  /** Number of nodes expanded during the current search */
+  private int expansions;
+  /** Explored node closest to the goal, starting with the starting node.
+   * Used for partial paths. */
+  private MFNode closestNode;
 
   /**
    * Adds a tile to the open list during search.
@@ -214,12 +346,20 @@ public abstract class MFTemplateAStar
    * @param _node the parent node
    * @param _g the cost from start to this node
    * @param _h the estimated cost to the goal node
+   * @param _time the time of the node
    */
-  private void addToOpenList(final MFTile _tile, final MFNode _node, final int _g, final int _h)
+  private void addToOpenList(final MFTile _tile, final MFNode _node,
+                             final int _g, final int _h, final long _time)
   {
-    final MFNode newNode = new MFNode(_tile, _node, _g, _h);
+    final MFNode newNode = new MFNode(_tile, _node, _g, _h, _time);
     this.openList.add(newNode);
-    this.openListLocations.put(_tile.getLocation(), newNode);
+    this.openListLocations.put(this.keyOf(_tile, _time), newNode);
+
+    // remember the most promising node in case the budget runs out
+    if (this.closestNode == null || _h < this.closestNode.h ||
+        (_h == this.closestNode.h && _g < this.closestNode.g)) {
+      this.closestNode = newNode;
+    }
   }
 
   /**
@@ -234,41 +374,34 @@ public abstract class MFTemplateAStar
     this.openListLocations = null;
     this.closedList.clear();
     this.closedList = null;
+    this.closestNode = null;
   }
 
   /**
    * Heuristic function to estimate the distance to the goal of this path.
-   * <p>
-   * Note: Copied from {@link  http://www.policyalmanac.org/games/heuristics.htm}
    * @param _tile the starting tile
    * @return the estimated cost
    */
   private int estimateDistance(MFTile _tile)
   {
-    final int xDistance = Math.abs(_tile.getLocation().x - this.goal.getLocation().x);
-    final int yDistance = Math.abs(_tile.getLocation().y - this.goal.getLocation().y);
-    if (xDistance > yDistance) {
-      return MFTemplateAStar.DIAGONAL_COST * yDistance +
-             MFTemplateAStar.ORTHOGONAL_COST * (xDistance - yDistance);
-    } else {
-      return MFTemplateAStar.DIAGONAL_COST * xDistance +
-             MFTemplateAStar.ORTHOGONAL_COST * (yDistance - xDistance);
-    }
+    return MFTemplateAStar.estimateDistance(_tile, this.goal);
   }
 
   /**
    * Instantiates the search lists. There is a {@link PriorityQueue} to gain fast
-   * access to the most promising node on the open list and a {@link HashMap} to
+   * access to the most promising node on the open list and a {@link MFLongHashMap} to
    * store the already processed nodes and for a fast membership test.
    * <p>
    * Additionally there is a copy of the nodes on the open list organized as a
-   * HashMap so that the membership test is faster than using the PriorityQueue.
+   * map so that the membership test is faster than using the PriorityQueue.
    */
   private void initSearchLists()
   {
     this.openList = new PriorityQueue<MFNode>();
-    this.openListLocations = new HashMap<MFLocation, MFNode>();
-    this.closedList = new HashMap<MFLocation, MFNode>();
+    this.openListLocations = new MFLongHashMap<MFNode>();
+    this.closedList = new MFLongHashMap<MFNode>();
+    this.expansions = 0;
+    this.closestNode = null;
   }
 
   /**
@@ -362,14 +495,17 @@ public abstract class MFTemplateAStar
     int f;
     int g;
     final int h;
+    /** Only used by searches in space and time */
+    final long time;
 
-    public MFNode(MFTile _tile, MFNode _parent, int _g, int _h)
+    public MFNode(MFTile _tile, MFNode _parent, int _g, int _h, long _time)
     {
       this.tile = _tile;
       this.parent = _parent;
       this.g = _g;
       this.h = _h;
       this.f = _g + _h;
+      this.time = _time;
     }
 
     @Override
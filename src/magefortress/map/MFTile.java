@@ -27,13 +27,13 @@ package magefortress.map;
 import magefortress.map.ground.MFGround;
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.util.EnumMap;
 import java.util.LinkedList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import magefortress.core.MFEDirection;
 import magefortress.items.placeable.MFIPlaceable;
 import magefortress.core.MFLocation;
+import magefortress.core.MFPackedLocation;
 import magefortress.core.MFPrerequisitesNotMetException;
 import magefortress.core.MFRoom;
 import magefortress.creatures.behavior.movable.MFCapability;
@@ -42,8 +42,9 @@ import magefortress.graphics.MFIPaintable;
 import magefortress.storage.MFISaveable;
 
 /**
- *
- * 
+ * A tile of the map. The data of walls, floor, corners and ground is kept in
+ * an {@link MFTileStorage}, the tile itself is only a view on a position of
+ * the storage plus the rarely used data like rooms and placed objects.
  */
 public class MFTile implements MFIPaintable, MFISaveable
 {
@@ -89,45 +90,43 @@ public class MFTile implements MFIPaintable, MFISaveable
       throw new IllegalArgumentException(msg);
     }
 
-    this.id = _id;
     this.posX = _posX;
     this.posY = _posY;
     this.posZ = _posZ;
-    this.isDugOut = _isDugOut;
-    this.isUnderground = _isUnderground;
-    this.ground = _ground;
-
-    // init listener lists
-    this.constructionsListeners = new LinkedList<MFITileConstructionsListener>();
-    this.room = null;
-
+    this.storage = new MFTileStorage(_posX, _posY, _posZ, 1, 1, 1, _ground);
+    this.storage.setId(_posX, _posY, _posZ, _id);
+    this.storage.setFlag(_posX, _posY, _posZ, MFTileStorage.DUG_OUT, _isDugOut);
+    this.storage.setFlag(_posX, _posY, _posZ, MFTileStorage.UNDERGROUND, _isUnderground);
+    this.storage.setFlag(_posX, _posY, _posZ, MFTileStorage.FLOOR, _floor);
     setWalls(_wallN, _wallE, _wallS, _wallW);
-    this.floor = _floor;
-    this.corners = new EnumMap<MFEDirection, Corner>(MFEDirection.class);
-    this.setCorner(MFEDirection.NE, Corner.NONE);
-    this.setCorner(MFEDirection.SE, Corner.NONE);
-    this.setCorner(MFEDirection.SW, Corner.NONE);
-    this.setCorner(MFEDirection.NW, Corner.NONE);
-
-    // init placed objects
-    this.placedObject = null;
-
-    // init clearance values
-    this.naviInfo = new MFNavigationTile();
+  }
 
+  /**
+   * Creates a view on a tile of a map's storage.
+   * @param _storage the storage holding the data of the tile
+   * @param _posX Position on the map
+   * @param _posY Position on the map
+   * @param _posZ Position on the map
+   */
+  MFTile(MFTileStorage _storage, int _posX, int _posY, int _posZ)
+  {
+    this.storage = _storage;
+    this.posX = _posX;
+    this.posY = _posY;
+    this.posZ = _posZ;
   }
 
 
   @Override
   public int getId()
   {
-    return this.id;
+    return this.getStorage().getId(this.posX, this.posY, this.posZ);
   }
 
   @Override
   public void setId(int _id)
   {
-    this.id = _id;
+    this.getStorage().setId(this.posX, this.posY, this.posZ, _id);
   }
 
   public int getPosX()
@@ -152,37 +151,37 @@ public class MFTile implements MFIPaintable, MFISaveable
 
   public MFGround getGround()
   {
-    return this.ground;
+    return this.getStorage().getGround(this.posX, this.posY, this.posZ);
   }
 
   public boolean isDugOut()
   {
-    return isDugOut;
+    return this.hasFlag(MFTileStorage.DUG_OUT);
   }
 
   public boolean isUnderground()
   {
-    return this.isUnderground;
+    return this.hasFlag(MFTileStorage.UNDERGROUND);
   }
 
   public boolean hasWallNorth()
   {
-    return wallN;
+    return this.hasFlag(MFTileStorage.WALL_N);
   }
 
   public boolean hasWallEast()
   {
-    return wallE;
+    return this.hasFlag(MFTileStorage.WALL_E);
   }
 
   public boolean hasWallSouth()
   {
-    return wallS;
+    return this.hasFlag(MFTileStorage.WALL_S);
   }
 
   public boolean hasWallWest()
   {
-    return wallW;
+    return this.hasFlag(MFTileStorage.WALL_W);
   }
 
   public boolean hasWall(MFEDirection _direction)
@@ -204,26 +203,17 @@ public class MFTile implements MFIPaintable, MFISaveable
 
   public boolean hasFloor()
   {
-    return floor;
+    return this.hasFlag(MFTileStorage.FLOOR);
   }
 
   public boolean isWalkable(MFEMovementType _movementType)
   {
-    switch (_movementType) {
-      case WALK : return isDugOut() && hasFloor();
-      case FLY  : return isDugOut();
-      default   : return false;
-    }
+    return MFTileStorage.isWalkable(this.getFlags(), _movementType);
   }
 
   public boolean isWalkable(MFCapability _capability)
   {
-    for (MFEMovementType movementType : _capability) {
-      if (!this.isWalkable(movementType)) {
-        return false;
-      }
-    }
-    return true;
+    return MFTileStorage.isWalkable(this.getFlags(), _capability);
   }
 
   /**
@@ -255,6 +245,9 @@ public class MFTile implements MFIPaintable, MFISaveable
    */
   public void subscribeConstructionsListener(MFITileConstructionsListener _listener)
   {
+    if (this.constructionsListeners == null) {
+      this.constructionsListeners = new LinkedList<MFITileConstructionsListener>();
+    }
     this.constructionsListeners.add(_listener);
   }
 
@@ -264,7 +257,9 @@ public class MFTile implements MFIPaintable, MFISaveable
    */
   public void unsubscribeConstructionsListener(MFITileConstructionsListener _listener)
   {
-    this.constructionsListeners.remove(_listener);
+    if (this.constructionsListeners != null) {
+      this.constructionsListeners.remove(_listener);
+    }
   }
 
   /**
@@ -285,7 +280,11 @@ public class MFTile implements MFIPaintable, MFISaveable
                               this.placedObject.isPlaceable() &&
                               _placeable == null);
 
+    final MFIPlaceable oldObject = this.placedObject;
     this.placedObject = _placeable;
+    if (oldObject != _placeable) {
+      this.getStorage().objectChanged(this.posX, this.posY, this.posZ, oldObject, _placeable);
+    }
 
     if (objectRemoved || (_placeable != null && _placeable.isPlaceable())) {
       this.notifyRoom();
@@ -301,11 +300,40 @@ public class MFTile implements MFIPaintable, MFISaveable
     return this.placedObject;
   }
 
+  /**
+   * Sets the stairs, ramp or shaft leading down to the tile below. Set to
+   * {@link MFEVerticalPassage#NONE NONE} to remove the passage.
+   * @param _passage the passage leading down
+   */
+  public void setVerticalPassage(MFEVerticalPassage _passage)
+  {
+    if (_passage == null) {
+      String msg = "Tile " + this.getLocation() + ": Cannot set null passage. " +
+                   "Use NONE instead.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    final MFEVerticalPassage oldPassage = this.getVerticalPassage();
+    this.getStorage().setVerticalPassage(this.posX, this.posY, this.posZ, _passage);
+    if (oldPassage != _passage) {
+      this.notifyConstructionsListeners();
+    }
+  }
+
+  /**
+   * Gets the stairs, ramp or shaft leading down to the tile below.
+   * @return the passage or {@link MFEVerticalPassage#NONE NONE}
+   */
+  public MFEVerticalPassage getVerticalPassage()
+  {
+    return this.getStorage().getVerticalPassage(this.posX, this.posY, this.posZ);
+  }
+
   //---vvv---        PAINTABLE INTERFACE        ---vvv---
   @Override
   public void update()
   {
-    this.ground.update();
+    this.getGround().update();
   }
 
   @Override
@@ -322,7 +350,7 @@ public class MFTile implements MFIPaintable, MFISaveable
     }
 
     if (PRINT_CLEARANCE) {
-      int clearance = this.naviInfo.getClearance(MFCapability.WALK);
+      int clearance = this.getClearance(MFCapability.WALK);
       _g.drawString("" + clearance, x+TILESIZE/2, y+TILESIZE/2);
     }
 
@@ -349,58 +377,55 @@ public class MFTile implements MFIPaintable, MFISaveable
       throw new IllegalArgumentException(msg);
     }
 
-    return this.corners.get(_direction);
+    return this.getStorage().getCorner(this.posX, this.posY, this.posZ, _direction);
   }
 
   //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
   void setWallNorth(boolean wallNorth)
   {
-    setWalls(wallNorth, wallE, wallS, wallW);
+    this.setWall(MFTileStorage.WALL_N, wallNorth);
   }
 
   void setWallEast(boolean wallEast)
   {
-    setWalls(wallN, wallEast, wallS, wallW);
+    this.setWall(MFTileStorage.WALL_E, wallEast);
   }
 
   void setWallSouth(boolean wallSouth)
   {
-    setWalls(wallN, wallE, wallSouth, wallW);
+    this.setWall(MFTileStorage.WALL_S, wallSouth);
   }
 
   void setWallWest(boolean wallWest)
   {
-    setWalls(wallN, wallE, wallS, wallWest);
+    this.setWall(MFTileStorage.WALL_W, wallWest);
   }
 
   void setWalls(boolean n, boolean e, boolean s, boolean w)
   {
-    boolean oldWallN = this.wallN;
-    boolean oldWallE = this.wallE;
-    boolean oldWallS = this.wallS;
-    boolean oldWallW = this.wallW;
-    this.wallN = n;
-    this.wallE = e;
-    this.wallS = s;
-    this.wallW = w;
+    final int oldFlags = this.getFlags();
+    int newFlags = oldFlags & ~MFTileStorage.WALLS;
+    if (n) newFlags |= MFTileStorage.WALL_N;
+    if (e) newFlags |= MFTileStorage.WALL_E;
+    if (s) newFlags |= MFTileStorage.WALL_S;
+    if (w) newFlags |= MFTileStorage.WALL_W;
+    this.getStorage().setFlags(this.posX, this.posY, this.posZ, newFlags);
 
-    if (oldWallN != n || oldWallE != e || oldWallS != s || oldWallW != w) {
+    if (oldFlags != newFlags) {
       this.notifyConstructionsListeners();
     }
   }
 
   void setFloor(boolean floor)
   {
-    boolean oldFloor = this.floor;
-    this.floor = floor;
-    if (oldFloor != floor) {
+    if (this.getStorage().setFlag(this.posX, this.posY, this.posZ, MFTileStorage.FLOOR, floor)) {
       this.notifyConstructionsListeners();
     }
   }
 
   void setDugOut(boolean dugOut)
   {
-    this.isDugOut = dugOut;
+    this.getStorage().setFlag(this.posX, this.posY, this.posZ, MFTileStorage.DUG_OUT, dugOut);
   }
 
   /**
@@ -416,7 +441,7 @@ public class MFTile implements MFIPaintable, MFISaveable
       throw new IllegalArgumentException(msg);
     }
 
-    this.corners.put(_direction, _corner);
+    this.getStorage().setCorner(this.posX, this.posY, this.posZ, _direction, _corner);
   }
 
   Corner getCornerNW()
@@ -441,57 +466,105 @@ public class MFTile implements MFIPaintable, MFISaveable
 
   void setClearance(MFCapability _capability, int _clearance)
   {
-    this.naviInfo.setClearance(_capability, _clearance);
+    this.getStorage().setClearance(this.posX, this.posY, this.posZ, _capability, _clearance);
   }
 
   int getClearance(MFCapability _capability)
   {
-    return this.naviInfo.getClearance(_capability);
+    return this.getStorage().getClearance(this.posX, this.posY, this.posZ, _capability);
   }
 
   void setParentSection(MFSection _section)
   {
-    this.naviInfo.setParentSection(_section);
+    this.getNaviInfo().setParentSection(_section);
   }
 
   MFSection getParentSection()
   {
-    return this.naviInfo.getParentSection();
+    return (this.naviInfo == null ? null : this.naviInfo.getParentSection());
   }
   
   void setEntrance(MFSectionEntrance _entrance)
   {
-    this.naviInfo.setEntrance(_entrance);
+    if (this.naviInfo == null && _entrance == null) {
+      return;
+    }
+    this.getNaviInfo().setEntrance(_entrance);
   }
 
   MFSectionEntrance getEntrance()
   {
-    return this.naviInfo.getEntrance();
+    return (this.naviInfo == null ? null : this.naviInfo.getEntrance());
   }
 
   boolean isEntrance()
   {
-    return this.naviInfo.isEntrance();
+    return this.naviInfo != null && this.naviInfo.isEntrance();
+  }
+
+  /**
+   * Moves the data of this tile into the storage of a map. Afterwards the
+   * tile is a view on the map's storage. The data of a tile whose chunk was
+   * evicted is already in the storage of the reloaded chunk.
+   * @param _storage the storage of the map
+   */
+  void moveToStorage(MFTileStorage _storage)
+  {
+    if (_storage == this.storage) {
+      return;
+    }
+    if (!this.storage.isEvicted()) {
+      _storage.copyTile(this.storage, this.posX, this.posY, this.posZ);
+    }
+    this.storage = _storage;
+  }
+
+  /**
+   * Gets the storage holding the data of the tile. Reloads the chunk of the
+   * tile if it was evicted.
+   * @return the storage
+   */
+  MFTileStorage getStorage()
+  {
+    if (this.storage.isEvicted()) {
+      this.storage = this.storage.getReloaded(this.posX, this.posY, this.posZ);
+    }
+    return this.storage;
+  }
+
+  /**
+   * Gets the location without creating an object.
+   * @return the {@link MFPackedLocation packed} location
+   */
+  long getPackedLocation()
+  {
+    return MFPackedLocation.pack(this.posX, this.posY, this.posZ);
+  }
+
+  /**
+   * Checks if the tile holds nothing but the data of its storage. Such a tile
+   * can be dropped and recreated from the storage at any time.
+   * @return <code>true</code> if there is no state outside of the storage
+   */
+  boolean isPlain()
+  {
+    return this.naviInfo == null && this.room == null && this.placedObject == null &&
+           (this.constructionsListeners == null || this.constructionsListeners.isEmpty());
   }
 
   //---vvv---      PRIVATE METHODS      ---vvv---
   private final static boolean PRINT_CLEARANCE = false;
   private static final Logger logger = Logger.getLogger(MFTile.class.getName());
 
-  private final MFNavigationTile naviInfo;
-  private int id;
-  private int posX, posY, posZ;
-  private boolean isUnderground;
-  private boolean isDugOut;
-  private boolean wallN, wallE, wallS, wallW;
-  private boolean floor;
-  private final MFGround ground;
-  /**The types of corners. Automatically calculated
+  /** Holds walls, floor, corners, ground and clearance of the tile */
+  private MFTileStorage storage;
+  private final int posX, posY, posZ;
+  /** Navigational data, created on first use
    * @Transient */
-  private EnumMap<MFEDirection, Corner> corners;
+  private MFNavigationTile naviInfo;
   /** The room to which the tile belongs, if any.*/
   private MFRoom room;
-  /** Wall and floor construction listeners */
+  /** Wall and floor construction listeners, created on first subscription */
   private LinkedList<MFITileConstructionsListener> constructionsListeners;
   /** Items placed on the tile like furniture, food or dropped clothes */
   private MFIPlaceable placedObject;
@@ -508,9 +581,9 @@ public class MFTile implements MFIPaintable, MFISaveable
       _g.setColor(Color.BLUE);
       _g.fillRect(x, y, TILESIZE, TILESIZE);
     } else if (this.isDugOut()) {
-      this.ground.getBasicFloor().paint(_g, x, y);
+      this.getGround().getBasicFloor().paint(_g, x, y);
     } else {
-      this.ground.getSolidTile().paint(_g, x, y);
+      this.getGround().getSolidTile().paint(_g, x, y);
     }
   }
 
@@ -524,7 +597,7 @@ public class MFTile implements MFIPaintable, MFISaveable
   {
     for (MFEDirection dir : MFEDirection.straight()) {
       if (this.hasWall(dir)) {
-        this.ground.getBasicWall(dir).paint(_g, _x, _y);
+        this.getGround().getBasicWall(dir).paint(_g, _x, _y);
       }
     }
   }
@@ -538,7 +611,7 @@ public class MFTile implements MFIPaintable, MFISaveable
   private void paintCorners(final Graphics2D _g, final int _x, final int _y)
   {
     for (MFEDirection dir : MFEDirection.diagonals()) {
-      this.ground.getBasicCorner(dir, this.getCorner(dir)).paint(_g, _x, _y);
+      this.getGround().getBasicCorner(dir, this.getCorner(dir)).paint(_g, _x, _y);
     }
   }
 
@@ -549,8 +622,36 @@ public class MFTile implements MFIPaintable, MFISaveable
     }
   }
 
+  private int getFlags()
+  {
+    return this.getStorage().getFlags(this.posX, this.posY, this.posZ);
+  }
+
+  private boolean hasFlag(int _flag)
+  {
+    return (this.getFlags() & _flag) != 0;
+  }
+
+  private void setWall(int _wallFlag, boolean _hasWall)
+  {
+    if (this.getStorage().setFlag(this.posX, this.posY, this.posZ, _wallFlag, _hasWall)) {
+      this.notifyConstructionsListeners();
+    }
+  }
+
+  private MFNavigationTile getNaviInfo()
+  {
+    if (this.naviInfo == null) {
+      this.naviInfo = new MFNavigationTile();
+    }
+    return this.naviInfo;
+  }
+
   private void notifyConstructionsListeners()
   {
+    if (this.constructionsListeners == null) {
+      return;
+    }
     for (MFITileConstructionsListener listener : this.constructionsListeners) {
       listener.tileConstructionsChanged(this);
     }
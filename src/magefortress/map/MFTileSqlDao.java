@@ -24,14 +24,19 @@
  */
 package magefortress.map;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import magefortress.core.Immutable;
+import magefortress.core.MFLongHashMap;
 import magefortress.map.ground.MFGround;
 import magefortress.storage.DataAccessException;
+import magefortress.storage.MFBoundQuery;
 import magefortress.storage.MFESqlOperations;
 import magefortress.storage.MFSqlConnector;
 import magefortress.storage.MFSqlDao;
@@ -57,6 +62,17 @@ public class MFTileSqlDao extends MFSqlDao<MFTile> implements MFITileDao, Immuta
   private static final String READ_MAP_TILES = "SELECT id, map_id, ground_id, room_id, object_id, " +
           "x, y, z, underground, dug_out, wall_n, wall_e, wall_s, wall_w, floor FROM tiles " +
           "WHERE map_id=?;";
+  private static final String READ_CHUNK_TILES = "SELECT id, map_id, ground_id, room_id, object_id, " +
+          "x, y, z, underground, dug_out, wall_n, wall_e, wall_s, wall_w, floor FROM tiles " +
+          "WHERE map_id=? AND z=? AND x BETWEEN ? AND ? AND y BETWEEN ? AND ?;";
+  private static final String READ_LEVEL_TILES = "SELECT id, ground_id, x, y, z, " +
+          "underground, dug_out, wall_n, wall_e, wall_s, wall_w, floor FROM tiles " +
+          "WHERE map_id=? AND z=?;";
+  private static final String READ_MAX_TILE_ID = "SELECT MAX(id) AS max_id FROM tiles;";
+  private static final String DESTROY_MAP_TILES = "DELETE FROM tiles WHERE map_id=?;";
+
+  /** Maximum number of rows sent to the database in one batch */
+  public static final int BATCH_SIZE = 1000;
 
   /**
    * Basic constructor. For preparing statements only!
@@ -106,6 +122,22 @@ public class MFTileSqlDao extends MFSqlDao<MFTile> implements MFITileDao, Immuta
     }
   }
 
+  /**
+   * Constructor used for saving/deleting all tiles of a map at once
+   * @param _db
+   * @param _map
+   */
+  public MFTileSqlDao(MFSqlConnector _db, MFMap _map)
+  {
+    this(_db, null, _map, Collections.<Integer, MFGround>emptyMap());
+    if (_map == null) {
+      String msg = this.getClass().getSimpleName() + ": Cannot create " +
+                                                              "without a map.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+  }
+
   private MFTileSqlDao(MFSqlConnector _db, MFTile _tile, MFMap _map,
                                             Map<Integer, MFGround> _groundTypes)
   {
@@ -126,18 +158,198 @@ public class MFTileSqlDao extends MFSqlDao<MFTile> implements MFITileDao, Immuta
     final List<Object> parameters = new ArrayList<Object>(1);
     parameters.add(_mapId);
 
-    for (MFTile tile : super.loadAll("READ_MAP_TILES", parameters)) {
+    for (MFTile tile : super.loadAll(this.getQuery("READ_MAP_TILES"), parameters)) {
+      gotTiles.add(tile);
+    }
+    return gotTiles;
+  }
+
+  /**
+   * Streams all tiles of a map straight into its storage. The columns are
+   * resolved once and read as primitives, no tile objects are created.
+   * @param _map the map to fill
+   * @return the number of loaded tiles
+   */
+  @Override
+  public int loadAllIntoMap(final MFMap _map) throws DataAccessException
+  {
+    final List<Object> parameters = new ArrayList<Object>(1);
+    parameters.add(_map.getId());
+
+    final ResultSet rs = this.getDb().query(this.getQuery("READ_MAP_TILES"), parameters);
+    if (rs == null) {
+      String msg = this.getClass().getSimpleName() + ": Couldn't load tiles " +
+                   "of map #" + _map.getId();
+      logger.severe(msg);
+      throw new DataAccessException(msg);
+    }
+
+    int count = 0;
+    try {
+      final TileColumns columns = new TileColumns(rs);
+      while (rs.next()) {
+        final MFGround ground = this.groundTypes.get(rs.getInt(columns.ground));
+        _map.loadTile(rs.getInt(columns.id), rs.getInt(columns.x), rs.getInt(columns.y),
+                      rs.getInt(columns.z), columns.readFlags(rs), ground);
+        ++count;
+      }
+      rs.close();
+    } catch (SQLException e) {
+      String msg = this.getClass().getSimpleName() + ": Couldn't load tiles " +
+                   "of map #" + _map.getId();
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+    return count;
+  }
+
+  @Override
+  public List<MFTile> loadAllOfChunk(final int _mapId, final int _x, final int _y,
+          final int _z, final int _width, final int _height) throws DataAccessException
+  {
+    List<MFTile> gotTiles = new ArrayList<MFTile>();
+
+    final List<Object> parameters = new ArrayList<Object>(6);
+    parameters.add(_mapId);
+    parameters.add(_z);
+    parameters.add(_x);
+    parameters.add(_x + _width - 1);
+    parameters.add(_y);
+    parameters.add(_y + _height - 1);
+
+    for (MFTile tile : super.loadAll(this.getQuery("READ_CHUNK_TILES"), parameters)) {
       gotTiles.add(tile);
     }
     return gotTiles;
   }
 
+  /**
+   * Saves tiles of the map in batches of at most {@link #BATCH_SIZE} rows.
+   * New tiles get the ids generated by the database. Must be called
+   * inside a transaction, so the new tiles get consecutive ids.
+   * @param _tiles the tiles to save
+   */
+  @Override
+  public void saveAll(final List<MFTile> _tiles) throws DataAccessException
+  {
+    final MFLongHashMap<Integer> newIds = this.saveAllReturningIds(_tiles);
+    for (MFTile tile : _tiles) {
+      if (tile.getId() == this.getUnsavedMarker()) {
+        tile.setId(newIds.get(tile.getPackedLocation()));
+      }
+    }
+  }
+
+  /**
+   * Saves tiles of the map like {@link #saveAll(List)}, but leaves the ids
+   * of new tiles unchanged, e.g. if the tiles are views on a frozen copy.
+   * Must be called inside a transaction, so the new tiles get consecutive
+   * ids.
+   * @param _tiles the tiles to save
+   * @return the ids generated for the new tiles by their packed location
+   */
+  @Override
+  public MFLongHashMap<Integer> saveAllReturningIds(final List<MFTile> _tiles)
+                                                   throws DataAccessException
+  {
+    final List<MFTile> updatedTiles = new ArrayList<MFTile>(_tiles.size());
+    final List<MFTile> createdTiles = new ArrayList<MFTile>();
+    for (MFTile tile : _tiles) {
+      if (tile.getId() == this.getUnsavedMarker()) {
+        createdTiles.add(tile);
+      } else {
+        updatedTiles.add(tile);
+      }
+    }
+
+    this.executeInBatches(MFESqlOperations.UPDATE, updatedTiles);
+    final MFLongHashMap<Integer> result = new MFLongHashMap<Integer>();
+    if (createdTiles.isEmpty()) {
+      return result;
+    }
+
+    // inside the transaction every new row gets the next id in the order
+    // of insertion, the id after the largest one
+    final int firstId = this.readMaxId() + 1;
+    this.executeInBatches(MFESqlOperations.CREATE, createdTiles);
+    final int lastId = firstId + createdTiles.size() - 1;
+    if (this.readMaxId() != lastId) {
+      String msg = this.getClass().getSimpleName() + ": Ids of new tiles of " +
+                   "map #" + this.mapId + " aren't " + firstId + " to " + lastId +
+                   ". Tiles must be saved inside a transaction.";
+      logger.severe(msg);
+      throw new DataAccessException(msg);
+    }
+    int id = firstId;
+    for (MFTile tile : createdTiles) {
+      result.put(tile.getPackedLocation(), id++);
+    }
+    return result;
+  }
+
+  /**
+   * Deletes all tiles of the map with a single query.
+   * @return the number of deleted tiles
+   */
+  @Override
+  public int deleteAllOfMap() throws DataAccessException
+  {
+    final List<Object> parameters = new ArrayList<Object>(1);
+    parameters.add(this.mapId);
+    return this.getDb().update(this.getQuery("DESTROY_MAP_TILES"), parameters);
+  }
+
   @Override
   public int getMapId()
   {
     return this.mapId;
   }
 
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+
+  /**
+   * Streams the tiles of one level of a map into a storage covering the
+   * level, like {@link #loadAllIntoMap(MFMap)}. The storage doesn't belong
+   * to a map, so this may run on a background thread if the connector is
+   * {@link MFSqlConnector#setThreadSafe(boolean) thread-safe}.
+   * @param _mapId the id of the map
+   * @param _level the storage to fill, its origin gives the level
+   * @return the number of loaded tiles
+   */
+  int loadLevel(final int _mapId, final MFTileStorage _level) throws DataAccessException
+  {
+    final int z = _level.getOriginZ();
+    final List<Object> parameters = new ArrayList<Object>(2);
+    parameters.add(_mapId);
+    parameters.add(z);
+
+    final ResultSet rs = this.getDb().query(this.getQuery("READ_LEVEL_TILES"), parameters);
+    if (rs == null) {
+      String msg = this.getClass().getSimpleName() + ": Couldn't load level " +
+                   z + " of map #" + _mapId;
+      logger.severe(msg);
+      throw new DataAccessException(msg);
+    }
+
+    int count = 0;
+    try {
+      final TileColumns columns = new TileColumns(rs);
+      while (rs.next()) {
+        final MFGround ground = this.groundTypes.get(rs.getInt(columns.ground));
+        _level.loadTile(rs.getInt(columns.x), rs.getInt(columns.y), z,
+                        rs.getInt(columns.id), columns.readFlags(rs), ground);
+        ++count;
+      }
+      rs.close();
+    } catch (SQLException e) {
+      String msg = this.getClass().getSimpleName() + ": Couldn't load level " +
+                   z + " of map #" + _mapId;
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+    return count;
+  }
+
   //---vvv---       PROTECTED METHODS        ---vvv---
   @Override
   protected EnumMap<MFESqlOperations, String> getStatements()
@@ -150,7 +362,11 @@ public class MFTileSqlDao extends MFSqlDao<MFTile> implements MFITileDao, Immuta
     queries.put(MFESqlOperations.UPDATE, UPDATE);
     queries.put(MFESqlOperations.DESTROY, DESTROY);
 
-    this.getDb().prepareQuery("READ_MAP_TILES", READ_MAP_TILES);
+    this.prepareQuery("READ_MAP_TILES", READ_MAP_TILES);
+    this.prepareQuery("READ_CHUNK_TILES", READ_CHUNK_TILES);
+    this.prepareQuery("READ_LEVEL_TILES", READ_LEVEL_TILES);
+    this.prepareQuery("READ_MAX_TILE_ID", READ_MAX_TILE_ID);
+    this.prepareQuery("DESTROY_MAP_TILES", DESTROY_MAP_TILES);
 
     return queries;
   }
@@ -194,7 +410,80 @@ public class MFTileSqlDao extends MFSqlDao<MFTile> implements MFITileDao, Immuta
   @Override
   protected List<Object> getVectorizedData()
   {
-    final List<Object> vectorizedData = new ArrayList<Object>(14);
+    return this.vectorize(this.getPayload());
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  /** Id of the map. Saved here because tiles don't have that information */
+  private final int mapId;
+  /** List of ground types */
+  private final Map<Integer, MFGround> groundTypes;
+
+  /**
+   * The positions of the columns of a result set of tiles, resolved once
+   * per query.
+   */
+  private static final class TileColumns
+  {
+    final int id, ground, x, y, z;
+    final int underground, dugOut, wallN, wallE, wallS, wallW, floor;
+
+    TileColumns(ResultSet _rs) throws SQLException
+    {
+      this.id          = _rs.findColumn("id");
+      this.ground      = _rs.findColumn("ground_id");
+      this.x           = _rs.findColumn("x");
+      this.y           = _rs.findColumn("y");
+      this.z           = _rs.findColumn("z");
+      this.underground = _rs.findColumn("underground");
+      this.dugOut      = _rs.findColumn("dug_out");
+      this.wallN       = _rs.findColumn("wall_n");
+      this.wallE       = _rs.findColumn("wall_e");
+      this.wallS       = _rs.findColumn("wall_s");
+      this.wallW       = _rs.findColumn("wall_w");
+      this.floor       = _rs.findColumn("floor");
+    }
+
+    /**
+     * Reads the bitfield of the tile in the current row.
+     * @return the flags of the tile
+     */
+    int readFlags(ResultSet _rs) throws SQLException
+    {
+      int result = 0;
+      if (_rs.getInt(this.underground) != 0) {
+        result |= MFTileStorage.UNDERGROUND;
+      }
+      if (_rs.getInt(this.dugOut) != 0) {
+        result |= MFTileStorage.DUG_OUT;
+      }
+      if (_rs.getInt(this.wallN) != 0) {
+        result |= MFTileStorage.WALL_N;
+      }
+      if (_rs.getInt(this.wallE) != 0) {
+        result |= MFTileStorage.WALL_E;
+      }
+      if (_rs.getInt(this.wallS) != 0) {
+        result |= MFTileStorage.WALL_S;
+      }
+      if (_rs.getInt(this.wallW) != 0) {
+        result |= MFTileStorage.WALL_W;
+      }
+      if (_rs.getInt(this.floor) != 0) {
+        result |= MFTileStorage.FLOOR;
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Gets the data of a tile in the order of the queries. The id comes last.
+   * @param _tile the tile
+   * @return the data to save
+   */
+  private List<Object> vectorize(MFTile _tile)
+  {
+    final List<Object> vectorizedData = new ArrayList<Object>(15);
     vectorizedData.add(this.mapId);
     // TODO make room and object saveable
     //vectorizedData.add(tile.getGround().getId());
@@ -203,25 +492,87 @@ public class MFTileSqlDao extends MFSqlDao<MFTile> implements MFITileDao, Immuta
     vectorizedData.add(this.getUnsavedMarker());
     vectorizedData.add(this.getUnsavedMarker());
     vectorizedData.add(this.getUnsavedMarker());
-    vectorizedData.add(this.getPayload().getPosX());
-    vectorizedData.add(this.getPayload().getPosY());
-    vectorizedData.add(this.getPayload().getPosZ());
-    vectorizedData.add(this.getPayload().isUnderground());
-    vectorizedData.add(this.getPayload().isDugOut());
-    vectorizedData.add(this.getPayload().hasWallNorth());
-    vectorizedData.add(this.getPayload().hasWallEast());
-    vectorizedData.add(this.getPayload().hasWallSouth());
-    vectorizedData.add(this.getPayload().hasWallWest());
-    vectorizedData.add(this.getPayload().hasFloor());
-    vectorizedData.add(this.getPayload().getId());
+    vectorizedData.add(_tile.getPosX());
+    vectorizedData.add(_tile.getPosY());
+    vectorizedData.add(_tile.getPosZ());
+    vectorizedData.add(_tile.isUnderground());
+    vectorizedData.add(_tile.isDugOut());
+    vectorizedData.add(_tile.hasWallNorth());
+    vectorizedData.add(_tile.hasWallEast());
+    vectorizedData.add(_tile.hasWallSouth());
+    vectorizedData.add(_tile.hasWallWest());
+    vectorizedData.add(_tile.hasFloor());
+    vectorizedData.add(_tile.getId());
     return vectorizedData;
   }
 
-  //---vvv---      PRIVATE METHODS      ---vvv---
-  /** Id of the map. Saved here because tiles don't have that information */
-  private final int mapId;
-  /** List of ground types */
-  private final Map<Integer, MFGround> groundTypes;
+  /**
+   * Writes many tiles, splitting them into batches of {@link #BATCH_SIZE}.
+   * The columns are bound as primitives in the order of
+   * {@link #vectorize(MFTile)}.
+   * @param _operation {@link MFESqlOperations#UPDATE} to write saved tiles
+   *        by their id, {@link MFESqlOperations#CREATE} to insert new ones
+   * @param _tiles the tiles to write
+   */
+  private void executeInBatches(MFESqlOperations _operation, List<MFTile> _tiles)
+          throws DataAccessException
+  {
+    if (_tiles.isEmpty()) {
+      return;
+    }
+    final boolean withId = (_operation == MFESqlOperations.UPDATE);
+    final MFBoundQuery query = this.getDb().bind(this.getQuery(_operation));
+    int batched = 0;
+    for (MFTile tile : _tiles) {
+      query.setInt(1, this.mapId)
+           // TODO make room and object saveable
+           .setInt(2, this.getUnsavedMarker())
+           .setInt(3, this.getUnsavedMarker())
+           .setInt(4, this.getUnsavedMarker())
+           .setInt(5, tile.getPosX())
+           .setInt(6, tile.getPosY())
+           .setInt(7, tile.getPosZ())
+           .setBoolean(8, tile.isUnderground())
+           .setBoolean(9, tile.isDugOut())
+           .setBoolean(10, tile.hasWallNorth())
+           .setBoolean(11, tile.hasWallEast())
+           .setBoolean(12, tile.hasWallSouth())
+           .setBoolean(13, tile.hasWallWest())
+           .setBoolean(14, tile.hasFloor());
+      if (withId) {
+        query.setInt(15, tile.getId());
+      }
+      query.addBatch();
+      if (++batched == BATCH_SIZE) {
+        query.executeBatch();
+        batched = 0;
+      }
+    }
+    if (batched > 0) {
+      query.executeBatch();
+    }
+  }
+
+  /**
+   * Batched inserts don't return the generated keys, so the ids of new
+   * tiles are derived from the largest id.
+   * @return the largest id of all tiles, 0 if there are none
+   */
+  private int readMaxId() throws DataAccessException
+  {
+    final ResultSet rs = this.getDb().bind(this.getQuery("READ_MAX_TILE_ID"))
+                                     .executeQuery();
+    try {
+      final int result = rs.next() ? rs.getInt("max_id") : 0;
+      rs.close();
+      return result;
+    } catch (SQLException e) {
+      String msg = this.getClass().getSimpleName() + ": Couldn't read ids " +
+                   "of new tiles of map #" + this.mapId;
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+  }
 
   /**
    * Converts an integer saved in the database to a boolean
@@ -0,0 +1,797 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import magefortress.core.MFEDirection;
+import magefortress.core.MFPackedLocation;
+import magefortress.creatures.behavior.movable.MFCapability;
+import magefortress.creatures.behavior.movable.MFEMovementType;
+import magefortress.items.placeable.MFIPlaceable;
+import magefortress.map.MFTile.Corner;
+import magefortress.map.ground.MFGround;
+
+/**
+ * Packed storage of the tile data of a block of tiles. Walls, floor, corners
+ * and the like are kept as bitfields in one <code>int</code> per tile, the
+ * ground type as a <code>short</code> index into a palette and clearance
+ * values as <code>byte</code>s. All arrays are stored per level and indexed
+ * by <code>x + y * width</code>.
+ * <p>
+ * {@link MFTile}s are views on a position of the storage. Loops over many
+ * tiles should read the arrays through the storage directly.
+ * <p>
+ * Changes of data that gets saved mark the storage as dirty. Corners and
+ * clearance values are calculated from the other data and don't.
+ */
+final class MFTileStorage
+{
+  static final int DUG_OUT     = 1;
+  static final int UNDERGROUND = 1 << 1;
+  static final int FLOOR       = 1 << 2;
+  static final int WALL_N      = 1 << 3;
+  static final int WALL_E      = 1 << 4;
+  static final int WALL_S      = 1 << 5;
+  static final int WALL_W      = 1 << 6;
+  static final int WALLS       = WALL_N | WALL_E | WALL_S | WALL_W;
+  /** The flags that are saved. Corners are calculated after loading */
+  static final int PERSISTENT_FLAGS = DUG_OUT | UNDERGROUND | FLOOR | WALLS |
+                 (MFTileStorage.PASSAGE_MASK << MFTileStorage.PASSAGE_SHIFT);
+  /** Biggest clearance value that can be stored */
+  static final int MAX_CLEARANCE = 255;
+  /** Marks tiles not saved yet */
+  static final int UNSAVED_ID = -1;
+
+  /**
+   * Constructor. All tiles start as solid, underground tiles with a floor.
+   * @param _originX the x coordinate of the north western corner
+   * @param _originY the y coordinate of the north western corner
+   * @param _originZ the topmost level
+   * @param _width the number of tiles in x direction
+   * @param _height the number of tiles in y direction
+   * @param _depth the number of levels
+   * @param _ground the ground type of all tiles
+   */
+  MFTileStorage(int _originX, int _originY, int _originZ,
+                int _width, int _height, int _depth, MFGround _ground)
+  {
+    if (_width < 1 || _height < 1 || _depth < 1) {
+      String msg = "TileStorage: Cannot create storage of size " + _width +
+                   "/" + _height + "/" + _depth;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    if (_ground == null) {
+      String msg = "TileStorage: Cannot create without ground type.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+
+    this.originX = _originX;
+    this.originY = _originY;
+    this.originZ = _originZ;
+    this.width = _width;
+    this.height = _height;
+
+    final int size = _width * _height;
+    this.flags = new int[_depth][size];
+    this.ids = new int[_depth][size];
+    this.groundIndices = new short[_depth][size];
+    this.clearance = new byte[MFCapability.COMBINATION_COUNT][_depth][];
+    this.dirtyTiles = new long[_depth][(size + 63) / 64];
+    this.groundPalette = new ArrayList<MFGround>();
+    this.groundPalette.add(_ground);
+
+    for (int z = 0; z < _depth; ++z) {
+      Arrays.fill(this.flags[z], UNDERGROUND | FLOOR);
+      Arrays.fill(this.ids[z], UNSAVED_ID);
+    }
+  }
+
+  /**
+   * Creates a read only copy of the storage. The arrays are shared until
+   * this storage is written to, then this storage copies them first. The
+   * copy must not be written to.
+   * @return the copy showing the current state
+   */
+  MFTileStorage freeze()
+  {
+    this.shared = true;
+    return new MFTileStorage(this);
+  }
+
+  int getOriginX()
+  {
+    return this.originX;
+  }
+
+  int getOriginY()
+  {
+    return this.originY;
+  }
+
+  int getOriginZ()
+  {
+    return this.originZ;
+  }
+
+  int getWidth()
+  {
+    return this.width;
+  }
+
+  int getHeight()
+  {
+    return this.height;
+  }
+
+  /**
+   * Checks if data that gets saved was changed since the storage was created
+   * or last marked as clean.
+   * @return <code>true</code> if the storage was changed
+   */
+  boolean isDirty()
+  {
+    return this.dirtyTileCount > 0;
+  }
+
+  /**
+   * Checks if data of a tile that gets saved was changed since the storage
+   * was created or last marked as clean.
+   * @return <code>true</code> if the tile was changed
+   */
+  boolean isDirty(int _x, int _y, int _z)
+  {
+    final int index = this.index(_x, _y);
+    return (this.dirtyTiles[_z - this.originZ][index >>> 6] & (1L << index)) != 0;
+  }
+
+  /**
+   * Gets the number of tiles changed since the storage was created or last
+   * marked as clean.
+   * @return the number of dirty tiles
+   */
+  int getDirtyTileCount()
+  {
+    return this.dirtyTileCount;
+  }
+
+  /**
+   * Marks all tiles as clean, e.g. after they were saved.
+   */
+  void markClean()
+  {
+    for (long[] levelDirtyTiles : this.dirtyTiles) {
+      Arrays.fill(levelDirtyTiles, 0L);
+    }
+    this.dirtyTileCount = 0;
+  }
+
+  /**
+   * Marks the tiles dirty that are dirty in a copy of this storage, e.g.
+   * after saving the copy failed.
+   * @param _copy a frozen copy of this storage
+   */
+  void restoreDirtyTiles(MFTileStorage _copy)
+  {
+    for (int z = 0; z < this.dirtyTiles.length; ++z) {
+      for (int i = 0; i < this.dirtyTiles[z].length; ++i) {
+        final long restored = _copy.dirtyTiles[z][i] & ~this.dirtyTiles[z][i];
+        this.dirtyTiles[z][i] |= restored;
+        this.dirtyTileCount += Long.bitCount(restored);
+      }
+    }
+  }
+
+  /**
+   * Sets the journal that records the changes to the tiles. Copied tiles
+   * aren't recorded.
+   * @param _journal the journal or <code>null</code> to stop recording
+   */
+  void setJournal(MFMapJournal _journal)
+  {
+    this.journal = _journal;
+  }
+
+  /**
+   * Sets the index that keeps track of the objects placed on the tiles.
+   * @param _objects the index or <code>null</code> to not track objects
+   */
+  void setObjectIndex(MFObjectIndex _objects)
+  {
+    this.objects = _objects;
+  }
+
+  /**
+   * Sets the bitsets that keep track of the tiles with certain properties.
+   * @param _occupancy the bitsets or <code>null</code> to not track them
+   */
+  void setOccupancy(MFLevelOccupancy _occupancy)
+  {
+    this.occupancy = _occupancy;
+  }
+
+  /**
+   * Records that the object placed on a tile was replaced. The objects
+   * themselves are kept by the tiles.
+   * @param _oldObject the object taken away, may be <code>null</code>
+   * @param _newObject the object placed, may be <code>null</code>
+   */
+  void objectChanged(int _x, int _y, int _z, MFIPlaceable _oldObject,
+                                             MFIPlaceable _newObject)
+  {
+    if (this.occupancy != null) {
+      this.occupancy.set(MFLevelOccupancy.Layer.OBJECT, _x, _y, _z, _newObject != null);
+    }
+    if (this.objects != null) {
+      final long location = MFPackedLocation.pack(_x, _y, _z);
+      if (_oldObject != null) {
+        this.objects.remove(location, _oldObject);
+      }
+      if (_newObject != null) {
+        this.objects.add(location, _newObject);
+      }
+    }
+    this.recordChange(_x, _y, _z, MFETileChange.OBJECT);
+  }
+
+  /**
+   * Records a change that isn't kept in the storage itself.
+   */
+  void recordChange(int _x, int _y, int _z, MFETileChange _change)
+  {
+    if (this.journal != null) {
+      this.journal.record(_x, _y, _z, _change);
+    }
+  }
+
+  /**
+   * Checks if clearance values other than <code>0</code> were stored.
+   * @return <code>true</code> if any clearance values were stored
+   */
+  boolean hasClearance()
+  {
+    for (byte[][] capabilityClearance : this.clearance) {
+      for (byte[] levelClearance : capabilityClearance) {
+        if (levelClearance != null) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Drops the data of a chunk evicted from its map. Tiles still referring to
+   * the storage get the storage of the reloaded chunk from the map instead.
+   * Must only be used on clean storages of a single level.
+   * @param _map the map the chunk was evicted from
+   * @return the clearance values, which aren't saved and have to be put back
+   *         into the reloaded storage with {@link #restoreClearance}
+   */
+  byte[][][] evict(MFMap _map)
+  {
+    final byte[][][] result = new byte[this.clearance.length][][];
+    for (int i = 0; i < this.clearance.length; ++i) {
+      result[i] = this.clearance[i].clone();
+      for (int z = 0; this.shared && z < result[i].length; ++z) {
+        // a frozen copy may still read the shared values
+        if (result[i][z] != null) {
+          result[i][z] = result[i][z].clone();
+        }
+      }
+      Arrays.fill(this.clearance[i], null);
+    }
+    Arrays.fill(this.flags, null);
+    Arrays.fill(this.ids, null);
+    Arrays.fill(this.groundIndices, null);
+    Arrays.fill(this.dirtyTiles, null);
+    this.groundPalette.clear();
+    this.evictedFrom = _map;
+    return result;
+  }
+
+  /**
+   * Checks if the storage was dropped by {@link #evict}.
+   * @return <code>true</code> if the data has to be read from
+   *         {@link #getReloaded} instead
+   */
+  boolean isEvicted()
+  {
+    return this.evictedFrom != null;
+  }
+
+  /**
+   * Gets the storage that replaced this evicted storage, loading the chunk
+   * of the tile again if necessary.
+   * @return the storage holding the tile now
+   */
+  MFTileStorage getReloaded(int _x, int _y, int _z)
+  {
+    return this.evictedFrom.getStorage(_x, _y, _z);
+  }
+
+  /**
+   * Puts back the clearance values of an evicted storage of the same size.
+   * @param _clearance the values returned by {@link #evict}
+   */
+  void restoreClearance(byte[][][] _clearance)
+  {
+    this.prepareWrite();
+    for (int i = 0; i < this.clearance.length; ++i) {
+      System.arraycopy(_clearance[i], 0, this.clearance[i], 0, this.clearance[i].length);
+    }
+  }
+
+  /**
+   * Estimates the memory used by the arrays of the storage.
+   * @return the size in bytes
+   */
+  long estimateSize()
+  {
+    final int levelSize = this.width * this.height;
+    long result = (long) this.flags.length * levelSize * BYTES_PER_TILE;
+    for (byte[][] capabilityClearance : this.clearance) {
+      for (byte[] levelClearance : capabilityClearance) {
+        if (levelClearance != null) {
+          result += levelClearance.length;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Gets the bitfield of a tile.
+   * @return the flags of the tile
+   */
+  int getFlags(int _x, int _y, int _z)
+  {
+    return this.flags[_z - this.originZ][this.index(_x, _y)];
+  }
+
+  void setFlags(int _x, int _y, int _z, int _flags)
+  {
+    final int changed = this.getFlags(_x, _y, _z) ^ _flags;
+    this.writeFlags(_x, _y, _z, _flags);
+    this.markDirty(_x, _y, _z, true);
+    if (this.journal != null && changed != 0) {
+      this.recordFlagChanges(_x, _y, _z, changed);
+    }
+  }
+
+  boolean hasFlag(int _x, int _y, int _z, int _flag)
+  {
+    return (this.getFlags(_x, _y, _z) & _flag) != 0;
+  }
+
+  /**
+   * Sets or clears one or more flags of a tile.
+   * @return <code>true</code> if the flags changed
+   */
+  boolean setFlag(int _x, int _y, int _z, int _flag, boolean _value)
+  {
+    final int oldFlags = this.getFlags(_x, _y, _z);
+    final int newFlags = (_value ? oldFlags | _flag : oldFlags & ~_flag);
+    this.setFlags(_x, _y, _z, newFlags);
+    return oldFlags != newFlags;
+  }
+
+  Corner getCorner(int _x, int _y, int _z, MFEDirection _direction)
+  {
+    final int shift = cornerShift(_direction);
+    return CORNERS[(this.getFlags(_x, _y, _z) >>> shift) & CORNER_MASK];
+  }
+
+  void setCorner(int _x, int _y, int _z, MFEDirection _direction, Corner _corner)
+  {
+    final int shift = cornerShift(_direction);
+    final int oldFlags = this.getFlags(_x, _y, _z);
+    this.writeFlags(_x, _y, _z,
+            (oldFlags & ~(CORNER_MASK << shift)) | (_corner.ordinal() << shift));
+  }
+
+  /**
+   * Sets all four corners of a tile at once.
+   * @param _corners the corners packed by {@link #packCorners}
+   */
+  void setCorners(int _x, int _y, int _z, int _corners)
+  {
+    final int oldFlags = this.getFlags(_x, _y, _z);
+    this.writeFlags(_x, _y, _z,
+            (oldFlags & ~(CORNERS_MASK << CORNER_SHIFT)) | (_corners << CORNER_SHIFT));
+  }
+
+  /**
+   * Packs the four corners of a tile into a single value.
+   * @return the packed corners for {@link #setCorners}
+   */
+  static int packCorners(Corner _ne, Corner _se, Corner _sw, Corner _nw)
+  {
+    return _ne.ordinal() | (_se.ordinal() << 3) | (_sw.ordinal() << 6) |
+           (_nw.ordinal() << 9);
+  }
+
+  MFEVerticalPassage getVerticalPassage(int _x, int _y, int _z)
+  {
+    return PASSAGES[(this.getFlags(_x, _y, _z) >>> PASSAGE_SHIFT) & PASSAGE_MASK];
+  }
+
+  void setVerticalPassage(int _x, int _y, int _z, MFEVerticalPassage _passage)
+  {
+    final int oldFlags = this.getFlags(_x, _y, _z);
+    this.setFlags(_x, _y, _z, (oldFlags & ~(PASSAGE_MASK << PASSAGE_SHIFT)) |
+                              (_passage.ordinal() << PASSAGE_SHIFT));
+  }
+
+  MFGround getGround(int _x, int _y, int _z)
+  {
+    return this.groundPalette.get(
+                  this.groundIndices[_z - this.originZ][this.index(_x, _y)]);
+  }
+
+  void setGround(int _x, int _y, int _z, MFGround _ground)
+  {
+    int paletteIndex = -1;
+    for (int i = 0; i < this.groundPalette.size(); ++i) {
+      if (this.groundPalette.get(i) == _ground) {
+        paletteIndex = i;
+        break;
+      }
+    }
+    if (paletteIndex == -1) {
+      if (this.groundPalette.size() > Short.MAX_VALUE) {
+        String msg = "TileStorage: Cannot store more than " + Short.MAX_VALUE +
+                     " ground types.";
+        logger.severe(msg);
+        throw new IllegalStateException(msg);
+      }
+      this.groundPalette.add(_ground);
+      paletteIndex = this.groundPalette.size() - 1;
+    }
+    final int index = this.index(_x, _y);
+    final boolean changed = this.groundIndices[_z - this.originZ][index] != paletteIndex;
+    this.prepareWrite();
+    this.groundIndices[_z - this.originZ][index] = (short) paletteIndex;
+    this.markDirty(_x, _y, _z, true);
+    if (changed) {
+      this.recordChange(_x, _y, _z, MFETileChange.GROUND);
+    }
+  }
+
+  int getId(int _x, int _y, int _z)
+  {
+    return this.ids[_z - this.originZ][this.index(_x, _y)];
+  }
+
+  void setId(int _x, int _y, int _z, int _id)
+  {
+    this.prepareWrite();
+    this.ids[_z - this.originZ][this.index(_x, _y)] = _id;
+    this.markDirty(_x, _y, _z, true);
+  }
+
+  /**
+   * Sets the id a tile was saved with. Does not mark the tile as dirty.
+   */
+  void setSavedId(int _x, int _y, int _z, int _id)
+  {
+    this.prepareWrite();
+    this.ids[_z - this.originZ][this.index(_x, _y)] = _id;
+  }
+
+  /**
+   * Gets the size of the biggest creature which can pass the tile.
+   * @return the clearance or <code>0</code> if it was not calculated yet
+   */
+  int getClearance(int _x, int _y, int _z, MFCapability _capability)
+  {
+    final byte[] levelClearance = this.clearance[_capability.getIndex()][_z - this.originZ];
+    if (levelClearance == null) {
+      return 0;
+    }
+    return levelClearance[this.index(_x, _y)] & 0xFF;
+  }
+
+  /**
+   * Sets the size of the biggest creature which can pass the tile. Values
+   * above {@link #MAX_CLEARANCE} are stored as <code>MAX_CLEARANCE</code>.
+   */
+  void setClearance(int _x, int _y, int _z, MFCapability _capability, int _clearance)
+  {
+    if (_clearance < 0) {
+      String msg = "TileStorage: Cannot set clearance < 0. Got: " + _clearance;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    final int level = _z - this.originZ;
+    final byte[][] capabilityClearance = this.clearance[_capability.getIndex()];
+    if (capabilityClearance[level] == null) {
+      // solid rock keeps the storage small
+      if (_clearance == 0) {
+        return;
+      }
+      capabilityClearance[level] = new byte[this.width * this.height];
+    } else {
+      this.prepareWrite();
+    }
+    capabilityClearance[level][this.index(_x, _y)] =
+                                  (byte) Math.min(_clearance, MAX_CLEARANCE);
+  }
+
+  /**
+   * Resets the clearance values of a level to <code>0</code>.
+   */
+  void clearClearance(int _z, MFCapability _capability)
+  {
+    if (this.clearance[_capability.getIndex()][_z - this.originZ] == null) {
+      return;
+    }
+    this.prepareWrite();
+    Arrays.fill(this.clearance[_capability.getIndex()][_z - this.originZ], (byte) 0);
+  }
+
+  /**
+   * Writes the data of a tile read from the database. Neither marks the
+   * tile as dirty nor records the change in the journal.
+   * @param _id the id of the tile
+   * @param _flags the bitfield of the tile
+   * @param _ground the ground type of the tile
+   */
+  void loadTile(int _x, int _y, int _z, int _id, int _flags, MFGround _ground)
+  {
+    final boolean wasDirty = this.isDirty(_x, _y, _z);
+    final MFMapJournal recordingJournal = this.journal;
+    this.journal = null;
+    this.setFlags(_x, _y, _z, _flags);
+    this.setId(_x, _y, _z, _id);
+    this.setGround(_x, _y, _z, _ground);
+    this.markDirty(_x, _y, _z, wasDirty);
+    this.journal = recordingJournal;
+  }
+
+  /**
+   * Copies all data of a tile from another storage to the same position of
+   * this storage. Does not mark the tile as dirty.
+   * @param _source the storage to copy from
+   */
+  void copyTile(MFTileStorage _source, int _x, int _y, int _z)
+  {
+    this.loadTile(_x, _y, _z, _source.getId(_x, _y, _z),
+                  _source.getFlags(_x, _y, _z), _source.getGround(_x, _y, _z));
+    this.prepareWrite();
+    for (int i = 0; i < MFCapability.COMBINATION_COUNT; ++i) {
+      final byte[] sourceClearance = _source.clearance[i][_z - _source.originZ];
+      if (sourceClearance == null) {
+        continue;
+      }
+      final int level = _z - this.originZ;
+      if (this.clearance[i][level] == null) {
+        this.clearance[i][level] = new byte[this.width * this.height];
+      }
+      this.clearance[i][level][this.index(_x, _y)] =
+                                      sourceClearance[_source.index(_x, _y)];
+    }
+  }
+
+  /**
+   * Checks the bitfield of a tile if a movement type can be used on it.
+   * @param _flags the bitfield of the tile
+   * @param _movementType the movement type
+   * @return <code>true</code> if the tile can be passed
+   */
+  static boolean isWalkable(int _flags, MFEMovementType _movementType)
+  {
+    switch (_movementType) {
+      case WALK : return (_flags & (DUG_OUT | FLOOR)) == (DUG_OUT | FLOOR);
+      case FLY  : return (_flags & DUG_OUT) != 0;
+      default   : return false;
+    }
+  }
+
+  /**
+   * Checks the bitfield of a tile if all movement types of a capability can
+   * be used on it.
+   * @param _flags the bitfield of the tile
+   * @param _capability the movement types
+   * @return <code>true</code> if the tile can be passed
+   */
+  static boolean isWalkable(int _flags, MFCapability _capability)
+  {
+    for (MFEMovementType movementType : _capability) {
+      if (!isWalkable(_flags, movementType)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the flag of the wall in a straight direction.
+   * @param _direction N, E, S or W
+   * @return the flag or <code>0</code> if the direction is not straight
+   */
+  static int wallFlag(MFEDirection _direction)
+  {
+    switch (_direction) {
+      case N: return WALL_N;
+      case E: return WALL_E;
+      case S: return WALL_S;
+      case W: return WALL_W;
+      default: return 0;
+    }
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFTileStorage.class.getName());
+  private static final int CORNER_SHIFT = 7;
+  private static final int CORNER_MASK  = 7;
+  private static final int CORNERS_MASK = 0xFFF;
+  private static final int PASSAGE_SHIFT = 19;
+  private static final int PASSAGE_MASK  = 3;
+  private static final Corner[] CORNERS = Corner.values();
+  private static final MFEVerticalPassage[] PASSAGES = MFEVerticalPassage.values();
+  /** Flags, id and ground index */
+  private static final int BYTES_PER_TILE = 4 + 4 + 2;
+
+  private final int originX, originY, originZ;
+  private final int width, height;
+  /** Walls, floor, corners etc. as bitfields. Order: z -> x + y * width */
+  private final int[][] flags;
+  /** Datastorage ids. Order: z -> x + y * width */
+  private final int[][] ids;
+  /** Index into the ground palette. Order: z -> x + y * width */
+  private final short[][] groundIndices;
+  private final List<MFGround> groundPalette;
+  /** Clearance values, allocated per level on first use.
+   * Order: capability index -> z -> x + y * width */
+  private final byte[][][] clearance;
+  /** Bits of the tiles changed since the last save. Order: z -> index */
+  private final long[][] dirtyTiles;
+  private int dirtyTileCount;
+  private MFMapJournal journal;
+  private MFObjectIndex objects;
+  private MFLevelOccupancy occupancy;
+  /** Set if a frozen copy shares the arrays */
+  private boolean shared;
+  /** The map that dropped the data of the storage, if any */
+  private MFMap evictedFrom;
+
+  /**
+   * Creates a frozen copy sharing the arrays of the source.
+   */
+  private MFTileStorage(MFTileStorage _source)
+  {
+    this.originX = _source.originX;
+    this.originY = _source.originY;
+    this.originZ = _source.originZ;
+    this.width = _source.width;
+    this.height = _source.height;
+    this.flags = _source.flags.clone();
+    this.ids = _source.ids.clone();
+    this.groundIndices = _source.groundIndices.clone();
+    this.clearance = new byte[_source.clearance.length][][];
+    for (int i = 0; i < this.clearance.length; ++i) {
+      this.clearance[i] = _source.clearance[i].clone();
+    }
+    this.groundPalette = new ArrayList<MFGround>(_source.groundPalette);
+    this.dirtyTiles = new long[_source.dirtyTiles.length][];
+    for (int z = 0; z < this.dirtyTiles.length; ++z) {
+      this.dirtyTiles[z] = _source.dirtyTiles[z].clone();
+    }
+    this.dirtyTileCount = _source.dirtyTileCount;
+    this.shared = true;
+  }
+
+  /**
+   * Copies the arrays shared with a frozen copy before they are changed.
+   */
+  private void prepareWrite()
+  {
+    if (!this.shared) {
+      return;
+    }
+    for (int z = 0; z < this.flags.length; ++z) {
+      this.flags[z] = this.flags[z].clone();
+      this.ids[z] = this.ids[z].clone();
+      this.groundIndices[z] = this.groundIndices[z].clone();
+    }
+    for (byte[][] capabilityClearance : this.clearance) {
+      for (int z = 0; z < capabilityClearance.length; ++z) {
+        if (capabilityClearance[z] != null) {
+          capabilityClearance[z] = capabilityClearance[z].clone();
+        }
+      }
+    }
+    this.shared = false;
+  }
+
+  private void writeFlags(int _x, int _y, int _z, int _flags)
+  {
+    this.prepareWrite();
+    final int[] levelFlags = this.flags[_z - this.originZ];
+    final int index = this.index(_x, _y);
+    if (this.occupancy != null) {
+      this.occupancy.flagsChanged(_x, _y, _z, levelFlags[index], _flags);
+    }
+    levelFlags[index] = _flags;
+  }
+
+  private void recordFlagChanges(int _x, int _y, int _z, int _changed)
+  {
+    if ((_changed & DUG_OUT) != 0) {
+      this.journal.record(_x, _y, _z, MFETileChange.DUG_OUT);
+    }
+    if ((_changed & UNDERGROUND) != 0) {
+      this.journal.record(_x, _y, _z, MFETileChange.UNDERGROUND);
+    }
+    if ((_changed & FLOOR) != 0) {
+      this.journal.record(_x, _y, _z, MFETileChange.FLOOR);
+    }
+    if ((_changed & WALLS) != 0) {
+      this.journal.record(_x, _y, _z, MFETileChange.WALLS);
+    }
+    if ((_changed & (PASSAGE_MASK << PASSAGE_SHIFT)) != 0) {
+      this.journal.record(_x, _y, _z, MFETileChange.VERTICAL_PASSAGE);
+    }
+  }
+
+  private void markDirty(int _x, int _y, int _z, boolean _dirty)
+  {
+    final int index = this.index(_x, _y);
+    final long[] levelDirtyTiles = this.dirtyTiles[_z - this.originZ];
+    final long bit = 1L << index;
+    final boolean wasDirty = (levelDirtyTiles[index >>> 6] & bit) != 0;
+    if (_dirty && !wasDirty) {
+      levelDirtyTiles[index >>> 6] |= bit;
+      ++this.dirtyTileCount;
+    } else if (!_dirty && wasDirty) {
+      levelDirtyTiles[index >>> 6] &= ~bit;
+      --this.dirtyTileCount;
+    }
+  }
+
+  private int index(int _x, int _y)
+  {
+    return (_x - this.originX) + (_y - this.originY) * this.width;
+  }
+
+  private static int cornerShift(MFEDirection _direction)
+  {
+    switch (_direction) {
+      case NE: return CORNER_SHIFT;
+      case SE: return CORNER_SHIFT + 3;
+      case SW: return CORNER_SHIFT + 6;
+      case NW: return CORNER_SHIFT + 9;
+      default:
+        String msg = _direction + " is not a valid corner direction.";
+        logger.severe(msg);
+        throw new IllegalArgumentException(msg);
+    }
+  }
+}
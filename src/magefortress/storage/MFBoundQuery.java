@@ -0,0 +1,321 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.storage;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A prepared query of one connection whose parameters are being set.
+ * Primitives are bound straight into the statement without boxing. Every
+ * parameter has to be set before each execution. Belongs to the thread
+ * that got it from {@link MFSqlConnector#bind(MFPreparedQuery)}.
+ * <pre>
+ * ResultSet rs = db.bind(readLevel).setInt(1, mapId).setInt(2, z).executeQuery();
+ * </pre>
+ */
+public final class MFBoundQuery
+{
+  public MFPreparedQuery getQuery()
+  {
+    return this.query;
+  }
+
+  public MFBoundQuery setInt(int _index, int _value) throws DataAccessException
+  {
+    this.checkIndex(_index);
+    try {
+      this.statement.setInt(_index, _value);
+    } catch (SQLException e) {
+      throw this.bindingFailed(_index, _value, e);
+    }
+    return this.markBound(_index);
+  }
+
+  public MFBoundQuery setLong(int _index, long _value) throws DataAccessException
+  {
+    this.checkIndex(_index);
+    try {
+      this.statement.setLong(_index, _value);
+    } catch (SQLException e) {
+      throw this.bindingFailed(_index, _value, e);
+    }
+    return this.markBound(_index);
+  }
+
+  public MFBoundQuery setBoolean(int _index, boolean _value) throws DataAccessException
+  {
+    this.checkIndex(_index);
+    try {
+      this.statement.setBoolean(_index, _value);
+    } catch (SQLException e) {
+      throw this.bindingFailed(_index, _value, e);
+    }
+    return this.markBound(_index);
+  }
+
+  public MFBoundQuery setString(int _index, String _value) throws DataAccessException
+  {
+    this.checkIndex(_index);
+    try {
+      this.statement.setString(_index, _value);
+    } catch (SQLException e) {
+      throw this.bindingFailed(_index, _value, e);
+    }
+    return this.markBound(_index);
+  }
+
+  public MFBoundQuery setBytes(int _index, byte[] _value) throws DataAccessException
+  {
+    this.checkIndex(_index);
+    try {
+      this.statement.setBytes(_index, _value);
+    } catch (SQLException e) {
+      throw this.bindingFailed(_index, _value, e);
+    }
+    return this.markBound(_index);
+  }
+
+  /**
+   * Sets a parameter to <code>NULL</code>, using the type the driver
+   * reported when the query was prepared.
+   */
+  public MFBoundQuery setNull(int _index) throws DataAccessException
+  {
+    this.checkIndex(_index);
+    try {
+      this.statement.setNull(_index, this.query.getParameterType(_index));
+    } catch (SQLException e) {
+      throw this.bindingFailed(_index, null, e);
+    }
+    return this.markBound(_index);
+  }
+
+  /**
+   * Sets all parameters from boxed values, using the setter of the value's
+   * type.
+   * @param _values one value per parameter
+   * @throws DataAccessException if the number of values doesn't match
+   */
+  public MFBoundQuery setValues(List<?> _values) throws DataAccessException
+  {
+    if (_values.size() != this.bound.length) {
+      String msg = "Parameter count mismatch during preparation of query \"" +
+              this.query.getId() + "\". Needed " + this.bound.length + " but got " +
+              _values.size() + ". Values: " + _values;
+      logger.severe(msg);
+      throw new DataAccessException(msg);
+    }
+    int index = 0;
+    try {
+      for (Object value : _values) {
+        ++index;
+        if (value == null) {
+          this.statement.setNull(index, this.query.getParameterType(index));
+        } else if (value instanceof Integer) {
+          this.statement.setInt(index, (Integer) value);
+        } else if (value instanceof Boolean) {
+          this.statement.setBoolean(index, (Boolean) value);
+        } else if (value instanceof String) {
+          this.statement.setString(index, (String) value);
+        } else if (value instanceof Long) {
+          this.statement.setLong(index, (Long) value);
+        } else if (value instanceof byte[]) {
+          this.statement.setBytes(index, (byte[]) value);
+        } else {
+          this.statement.setObject(index, value);
+        }
+      }
+    } catch (SQLException e) {
+      throw this.bindingFailed(index, _values.get(index - 1), e);
+    }
+    Arrays.fill(this.bound, true);
+    this.boundCount = this.bound.length;
+    return this;
+  }
+
+  /**
+   * Executes a read-only query.
+   * @return the found rows
+   */
+  public ResultSet executeQuery() throws DataAccessException
+  {
+    this.checkBound();
+    try {
+      return this.statement.executeQuery();
+    } catch (SQLException e) {
+      String msg = "Couldn't execute prepared query \"" + this.query.getId() + "\".";
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+  }
+
+  /**
+   * Executes an update.
+   * @return the number of updated rows
+   */
+  public int executeUpdate() throws DataAccessException
+  {
+    this.checkBound();
+    try {
+      return this.statement.executeUpdate();
+    } catch (SQLException e) {
+      String msg = "Couldn't execute prepared update \"" + this.query.getId() + "\".";
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+  }
+
+  /**
+   * Executes an insert.
+   * @return the generated key or {@link MFSqlConnector#INVALID_QUERY} if
+   *         there is none
+   */
+  public int executeInsert() throws DataAccessException
+  {
+    this.executeUpdate();
+    int generatedKey = MFSqlConnector.INVALID_QUERY;
+    try {
+      final ResultSet keys = this.statement.getGeneratedKeys();
+      if (keys.next()) {
+        generatedKey = keys.getInt(1);
+      }
+      keys.close();
+    } catch (SQLException e) {
+      String msg = "Unable to retrieve id of last insert of \"" +
+                   this.query.getId() + "\".";
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+    return generatedKey;
+  }
+
+  /**
+   * Adds the set parameters to the batch executed by {@link #executeBatch()}.
+   */
+  public void addBatch() throws DataAccessException
+  {
+    this.checkBound();
+    try {
+      this.statement.addBatch();
+    } catch (SQLException e) {
+      String msg = "Couldn't add to prepared batch \"" + this.query.getId() + "\".";
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+  }
+
+  /**
+   * Executes the batch.
+   * @return the number of updated rows per execution
+   */
+  public int[] executeBatch() throws DataAccessException
+  {
+    try {
+      return this.statement.executeBatch();
+    } catch (SQLException e) {
+      String msg = "Couldn't execute prepared batch \"" + this.query.getId() + "\".";
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+  }
+
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+
+  MFBoundQuery(MFPreparedQuery _query, PreparedStatement _statement)
+  {
+    this.query = _query;
+    this.statement = _statement;
+    this.bound = new boolean[_query.getParameterCount()];
+  }
+
+  /**
+   * Forgets the parameters set so far.
+   * @return this query
+   */
+  MFBoundQuery reset()
+  {
+    Arrays.fill(this.bound, false);
+    this.boundCount = 0;
+    return this;
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFBoundQuery.class.getName());
+  private final MFPreparedQuery query;
+  private final PreparedStatement statement;
+  /** The parameters set since the last execution */
+  private final boolean[] bound;
+  private int boundCount;
+
+  private void checkIndex(int _index)
+  {
+    if (_index < 1 || _index > this.bound.length) {
+      String msg = "Query \"" + this.query.getId() + "\" has no parameter " +
+                   _index + ". It has " + this.bound.length + ".";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+  }
+
+  private MFBoundQuery markBound(int _index)
+  {
+    if (!this.bound[_index - 1]) {
+      this.bound[_index - 1] = true;
+      ++this.boundCount;
+    }
+    return this;
+  }
+
+  /**
+   * Checks that every parameter was set and forgets them for the next
+   * execution.
+   */
+  private void checkBound() throws DataAccessException
+  {
+    if (this.boundCount != this.bound.length) {
+      String msg = "Parameter count mismatch during execution of query \"" +
+              this.query.getId() + "\". Needed " + this.bound.length +
+              " but got " + this.boundCount + ".";
+      this.reset();
+      logger.severe(msg);
+      throw new DataAccessException(msg);
+    }
+    this.reset();
+  }
+
+  private DataAccessException bindingFailed(int _index, Object _value, SQLException _e)
+  {
+    String msg = "Couldn't fill in value " + _value + " of parameter " + _index +
+                 " of query \"" + this.query.getId() + "\".";
+    logger.log(Level.SEVERE, msg, _e);
+    return new DataAccessException(msg, _e);
+  }
+}
@@ -24,14 +24,19 @@
  */
 package magefortress.storage;
 
+import magefortress.map.MFILevelDao;
 import magefortress.map.MFITileDao;
+import magefortress.map.MFLevelSqlDao;
 import magefortress.map.MFIMapDao;
 import magefortress.map.MFMapSqlDao;
 import magefortress.map.MFTileSqlDao;
 import magefortress.creatures.MFRaceSqlDao;
 import magefortress.creatures.MFIRaceDao;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import magefortress.creatures.MFRace;
 import magefortress.graphics.MFImageLibrary;
@@ -50,11 +55,69 @@ import magefortress.map.ground.MFIGroundDao;
  *
  * Before usage it has to be configured to the specific storage mechanism used.
  * Only then can it create DAOs which have access to this storage.
+ *
+ * If the optional property <code>DATABASE_THREAD_SAFE</code> is
+ * <code>true</code>, every thread gets its own database connection, so DAOs
+ * may be used on background threads.
+ * <p>
+ * After connecting, the schema of the database is brought up to date by the
+ * {@link MFSchemaMigrator migrations} in the directory given by the optional
+ * property <code>DATABASE_MIGRATIONS</code> (default:
+ * <code>migrations</code>).
+ * <p>
+ * The optional property <code>DATABASE_PROFILE</code> selects the
+ * {@link DatabaseProfile pragmas} of the connections. Single pragmas of the
+ * profile are overridden by the properties
+ * <code>DATABASE_JOURNAL_MODE</code>, <code>DATABASE_SYNCHRONOUS</code>,
+ * <code>DATABASE_CACHE_SIZE</code> and <code>DATABASE_MMAP_SIZE</code>.
  */
 public class MFDaoFactory
 {
   /** The possible storage mechanisms */
   public enum Storage {SQL}
+  /**
+   * The possible ways to save the tiles of maps, set by the optional
+   * property <code>TILE_FORMAT</code>. Maps saved as rows can always be
+   * loaded, so saving them again with <code>LEVELS</code> converts them.
+   */
+  public enum TileFormat {
+    /** One record per tile */
+    ROWS,
+    /** One compressed record per level */
+    LEVELS
+  }
+  /**
+   * The possible sets of pragmas for the database connections, set by the
+   * optional property <code>DATABASE_PROFILE</code>.
+   */
+  public enum DatabaseProfile {
+    /** The defaults of the database driver */
+    DEFAULT(null, null, null, null),
+    /**
+     * Write-ahead log, so background threads can read while another one
+     * saves, fewer syncs to disk, a 16 MiB page cache and up to 64 MiB of
+     * the file mapped into memory. A crash may lose the last commits, but
+     * doesn't corrupt the database. Loading and saving whole maps take
+     * about as long as with the defaults, while single commits get several
+     * times faster. Compare with <code>MFMapStorageBenchmark</code> of the
+     * tests.
+     */
+    TUNED("WAL", "NORMAL", "-16384", "67108864");
+
+    DatabaseProfile(String _journalMode, String _synchronous,
+                    String _cacheSize, String _mmapSize)
+    {
+      this.journalMode = _journalMode;
+      this.synchronous = _synchronous;
+      this.cacheSize = _cacheSize;
+      this.mmapSize = _mmapSize;
+    }
+
+    private final String journalMode;
+    private final String synchronous;
+    private final String cacheSize;
+    private final String mmapSize;
+  }
 
   /**
    * Constructor accepting the desired storage mechanism configured by
@@ -217,6 +280,76 @@ public class MFDaoFactory
     return this.getTileDao(false, _payload, _map, null);
   }
 
+  /**
+   * Factory method for constructing DAOs which save/delete all tiles of a
+   * map at once. Use {@link MFITileDao#saveAll} or
+   * {@link MFITileDao#deleteAllOfMap()}.
+   * @param _map The map whose tiles shall be saved/deleted
+   * @return a DAO containing a reference to the map
+   */
+  public MFITileDao getTileSavingDao(MFMap _map)
+  {
+    if (_map == null) {
+      String msg = this.getClass().getSimpleName() + ": Cannot create " +
+                                                              "without a map.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    MFITileDao resultDao;
+    switch (this.storage) {
+      case SQL: resultDao = new MFTileSqlDao(this.db, _map);
+                break;
+      default: throw new AssertionError("Unexpected statement: storage mechanism " +
+              storage + " unknown.");
+    }
+    return resultDao;
+  }
+
+  /**
+   * Factory method for constructing DAOs which save/load whole levels.
+   * @return a DAO for the levels of all maps
+   */
+  public MFILevelDao getLevelDao()
+  {
+    MFILevelDao resultDao;
+    switch (this.storage) {
+      case SQL: resultDao = new MFLevelSqlDao(this.db);
+                break;
+      default: throw new AssertionError("Unexpected statement: storage mechanism " +
+              storage + " unknown.");
+    }
+    return resultDao;
+  }
+
+  /**
+   * Gets the format new tiles are saved in.
+   * @return the tile format
+   */
+  public TileFormat getTileFormat()
+  {
+    return this.tileFormat;
+  }
+
+  /**
+   * Checks if the DAOs may be used on background threads.
+   * @return <code>true</code> if every thread gets its own connection
+   */
+  public boolean isThreadSafe()
+  {
+    return this.db.isThreadSafe();
+  }
+
+  /**
+   * Creates the threads of an executor using the DAOs in the background.
+   * Every thread closes its connection when it ends.
+   * @param _name the name of the threads
+   * @return the factory of the threads
+   */
+  public ThreadFactory getThreadFactory(String _name)
+  {
+    return this.db.getThreadFactory(_name);
+  }
+
   private MFITileDao getTileDao(boolean isForLoading, MFTile _payload,
                                 MFMap _map, Map<Integer, MFGround> _groundTypes)
   {
@@ -237,11 +370,14 @@ public class MFDaoFactory
   //---vvv---      PRIVATE METHODS      ---vvv---
   private static final Logger logger = Logger.getLogger(MFDaoFactory.class.getName());
   private Storage storage;
+  private TileFormat tileFormat;
   private MFSqlConnector db;
 
   private void switchStorage(Properties _props)
   {
     this.storage = Storage.valueOf(_props.getProperty("STORAGE"));
+    this.tileFormat = TileFormat.valueOf(
+                      _props.getProperty("TILE_FORMAT", TileFormat.ROWS.toString()));
 
     switch (this.storage) {
       case SQL: connectDb(_props); break;
@@ -255,10 +391,58 @@ public class MFDaoFactory
   {
     // connect
     this.db = MFSqlConnector.getInstance();
-    this.db.connect(_props.getProperty("DATABASE"));
+    this.db.setThreadSafe(Boolean.parseBoolean(
+                              _props.getProperty("DATABASE_THREAD_SAFE", "false")));
+    this.db.setPragmas(readPragmas(_props));
+    if (this.db.connect(_props.getProperty("DATABASE"))) {
+      this.migrateSchema(_props.getProperty("DATABASE_MIGRATIONS", "migrations"));
+    }
     this.prepareStatements();
   }
 
+  /**
+   * Reads the pragmas of the profile, overridden by single properties.
+   * @return the values by pragma name, without the ones left at the default
+   */
+  private static Map<String, String> readPragmas(Properties _props)
+  {
+    final DatabaseProfile profile = DatabaseProfile.valueOf(
+            _props.getProperty("DATABASE_PROFILE", DatabaseProfile.DEFAULT.toString()));
+
+    final Map<String, String> result = new LinkedHashMap<String, String>();
+    putPragma(result, "journal_mode",
+              _props.getProperty("DATABASE_JOURNAL_MODE", profile.journalMode));
+    putPragma(result, "synchronous",
+              _props.getProperty("DATABASE_SYNCHRONOUS", profile.synchronous));
+    putPragma(result, "cache_size",
+              _props.getProperty("DATABASE_CACHE_SIZE", profile.cacheSize));
+    putPragma(result, "mmap_size",
+              _props.getProperty("DATABASE_MMAP_SIZE", profile.mmapSize));
+    return result;
+  }
+
+  private static void putPragma(Map<String, String> _pragmas, String _name,
+                                String _value)
+  {
+    if (_value != null) {
+      _pragmas.put(_name, _value);
+    }
+  }
+
+  private void migrateSchema(String _directory)
+  {
+    try {
+      final int applied = new MFSchemaMigrator(this.db, _directory).migrate();
+      if (applied > 0) {
+        logger.info("Applied " + applied + " database migrations.");
+      }
+    } catch (DataAccessException e) {
+      String msg = "Couldn't migrate the database schema.";
+      logger.log(Level.SEVERE, msg, e);
+      throw new IllegalStateException(msg, e);
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private void prepareStatements()
   {
@@ -267,6 +451,7 @@ public class MFDaoFactory
     new MFGroundSqlDao(this.db).prepareStatements();
     new MFMapSqlDao(this.db).prepareStatements();
     new MFTileSqlDao(this.db).prepareStatements();
+    new MFLevelSqlDao(this.db).prepareStatements();
   }
 
 }
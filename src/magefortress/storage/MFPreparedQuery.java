@@ -0,0 +1,95 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.storage;
+
+import java.sql.Types;
+import magefortress.core.Immutable;
+
+/**
+ * Handle of a query saved by {@link MFSqlConnector#prepareQuery}. The
+ * parameters are looked up once when the query is prepared, so executing it
+ * through the handle skips the lookup by id and the parameter checks of the
+ * driver. Handles may be kept and shared between threads.
+ * @see MFSqlConnector#bind(MFPreparedQuery)
+ */
+public final class MFPreparedQuery implements Immutable
+{
+  public String getId()
+  {
+    return this.id;
+  }
+
+  public String getQuery()
+  {
+    return this.query;
+  }
+
+  public int getParameterCount()
+  {
+    return this.parameterTypes.length;
+  }
+
+  /**
+   * Gets the SQL type of a parameter as reported by the driver.
+   * @param _index the index of the parameter, starting at 1
+   * @return the type from {@link Types}, {@link Types#OTHER} if the driver
+   *         didn't know it
+   */
+  public int getParameterType(int _index)
+  {
+    return this.parameterTypes[_index - 1];
+  }
+
+  @Override
+  public String toString()
+  {
+    return this.id;
+  }
+
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+
+  /**
+   * Constructor
+   * @param _slot the index of the statements of this query per connection
+   */
+  MFPreparedQuery(String _id, String _query, int _slot, int[] _parameterTypes)
+  {
+    this.id = _id;
+    this.query = _query;
+    this.slot = _slot;
+    this.parameterTypes = _parameterTypes.clone();
+  }
+
+  int getSlot()
+  {
+    return this.slot;
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private final String id;
+  private final String query;
+  private final int slot;
+  private final int[] parameterTypes;
+}
@@ -0,0 +1,162 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.storage;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Brings the schema of a database up to date. The migrations are SQL scripts
+ * in one directory, named after their version, e.g.
+ * <code>002_tiles_location_index.sql</code>. They have the format read by
+ * {@link MFSqlScriptExecutor}.
+ * <p>
+ * The version of the last applied script is stored in the database as its
+ * {@link MFSqlConnector#getSchemaVersion() schema version}. Each newer script
+ * is applied in its own transaction together with the new version, so a
+ * failed migration leaves the database at the previous version.
+ * <p>
+ * Databases created by <code>magefortress.sql</code> already have the
+ * current schema, so scripts must not fail on them either, e.g. by using
+ * <code>IF NOT EXISTS</code>.
+ */
+public class MFSchemaMigrator
+{
+  /**
+   * Constructor
+   * @param _db the connector to the database to migrate
+   * @param _directory the directory containing the migration scripts
+   */
+  public MFSchemaMigrator(MFSqlConnector _db, String _directory)
+  {
+    if (_db == null) {
+      String msg = "Cannot create migrator without a database connector.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    if (_directory == null) {
+      String msg = "Cannot create migrator without a directory.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.db = _db;
+    this.directory = new File(_directory);
+  }
+
+  /**
+   * Gets the version the database has after {@link #migrate()}.
+   * @return the version of the newest script, 0 if there are none
+   * @throws DataAccessException if two scripts have the same version
+   */
+  public int getLatestVersion() throws DataAccessException
+  {
+    final TreeMap<Integer, File> scripts = this.findScripts();
+    return (scripts.isEmpty() ? 0 : scripts.lastKey());
+  }
+
+  /**
+   * Applies all scripts newer than the schema version of the database, in
+   * the order of their versions.
+   * @return the number of applied scripts
+   * @throws DataAccessException if a script couldn't be read or applied. The
+   * scripts applied before it stay applied.
+   */
+  public int migrate() throws DataAccessException
+  {
+    final int version = this.db.getSchemaVersion();
+    final TreeMap<Integer, File> scripts = this.findScripts();
+    if (!scripts.isEmpty() && version > scripts.lastKey()) {
+      logger.warning("Database schema version " + version + " is newer than " +
+                     "the latest migration " + scripts.lastKey() + ".");
+    }
+
+    int applied = 0;
+    for (Map.Entry<Integer, File> script : scripts.tailMap(version + 1).entrySet()) {
+      this.apply(script.getKey(), script.getValue());
+      ++applied;
+    }
+    return applied;
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFSchemaMigrator.class.getName());
+  /** Names of migration scripts, the version is the first group */
+  private static final Pattern SCRIPT_NAME = Pattern.compile("(\\d+)_.*\\.sql");
+  private final MFSqlConnector db;
+  private final File directory;
+
+  /**
+   * Lists the scripts in the directory. A missing directory has no scripts.
+   * @return the scripts by version
+   */
+  private TreeMap<Integer, File> findScripts() throws DataAccessException
+  {
+    final TreeMap<Integer, File> result = new TreeMap<Integer, File>();
+    final File[] files = this.directory.listFiles(new FilenameFilter() {
+      public boolean accept(File _dir, String _name)
+      {
+        return SCRIPT_NAME.matcher(_name).matches();
+      }
+    });
+    if (files == null) {
+      logger.fine("No migrations found in " + this.directory + ".");
+      return result;
+    }
+
+    for (File file : files) {
+      final Matcher matcher = SCRIPT_NAME.matcher(file.getName());
+      matcher.matches();
+      final int version = Integer.parseInt(matcher.group(1));
+      final File other = result.put(version, file);
+      if (other != null) {
+        String msg = "Migrations " + other.getName() + " and " + file.getName() +
+                     " have the same version.";
+        logger.severe(msg);
+        throw new DataAccessException(msg);
+      }
+    }
+    return result;
+  }
+
+  private void apply(int _version, File _script) throws DataAccessException
+  {
+    logger.info("Migrating database schema to version " + _version + " (" +
+                _script.getName() + ")...");
+    this.db.beginTransaction();
+    try {
+      new MFSqlScriptExecutor(this.db).execute(_script.getPath());
+      this.db.setSchemaVersion(_version);
+      this.db.commit();
+    } catch (DataAccessException e) {
+      this.db.rollback();
+      throw e;
+    }
+  }
+}
@@ -24,25 +24,39 @@
  */
 package magefortress.storage;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.HashMap;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import magefortress.core.Singleton;
 
 /**
  * Handles low-level database work. This class is a singleton.
+ * <p>
+ * By default all threads share one connection and its prepared statements,
+ * so only one thread may use the database. In
+ * {@link #setThreadSafe(boolean) thread-safe mode} every thread other than
+ * the one that connected opens its own connection to the database on first
+ * use, with its own cache of prepared statements and its own transactions.
+ * <p>
+ * {@link #setPragmas(Map) Pragmas} like the journal mode or the cache size
+ * are set on every connection right after it is opened.
  */
 public class MFSqlConnector implements Singleton
 {
@@ -79,6 +93,60 @@ public class MFSqlConnector implements Singleton
 
   }
 
+  /**
+   * Switches between one connection for all threads and one connection per
+   * thread. Disconnects from the database, like changing the driver.
+   * @param _threadSafe if every thread gets its own connection
+   */
+  public void setThreadSafe(boolean _threadSafe)
+  {
+    disconnect();
+    this.isThreadSafe = _threadSafe;
+  }
+
+  /**
+   * Checks if every thread gets its own connection.
+   * @return <code>true</code> if the connector may be used by several threads
+   */
+  public boolean isThreadSafe()
+  {
+    return this.isThreadSafe;
+  }
+
+  /**
+   * Sets the pragmas used for every connection opened afterwards, e.g.
+   * <code>journal_mode=WAL</code>. Call before {@link #connect(String)}.
+   * @param _pragmas the values by pragma name, in the order they are set
+   */
+  public void setPragmas(Map<String, String> _pragmas)
+  {
+    if (_pragmas == null) {
+      String msg = "Pragmas must not be null.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    for (Map.Entry<String, String> pragma : _pragmas.entrySet()) {
+      if (pragma.getKey() == null || pragma.getValue() == null ||
+          !PRAGMA_NAME.matcher(pragma.getKey()).matches() ||
+          !PRAGMA_VALUE.matcher(pragma.getValue()).matches()) {
+        String msg = "Invalid pragma: " + pragma.getKey() + "=" + pragma.getValue();
+        logger.severe(msg);
+        throw new IllegalArgumentException(msg);
+      }
+    }
+    this.pragmas = Collections.unmodifiableMap(
+                                    new LinkedHashMap<String, String>(_pragmas));
+  }
+
+  /**
+   * The pragmas set on every new connection.
+   * @return the values by pragma name
+   */
+  public Map<String, String> getPragmas()
+  {
+    return this.pragmas;
+  }
+
   /**
    * The currently used JDBC driver.
    * @return The currently used JDBC driver.
@@ -109,21 +177,78 @@ public class MFSqlConnector implements Singleton
     disconnect();
 
     try {
-      if (_info != null) {
-        this.connection = DriverManager.getConnection("jdbc:sqlite:" + _database, _info);
-      } else {
-        this.connection = DriverManager.getConnection("jdbc:sqlite:" + _database);
-      }
+      this.mainSession = new Session(this.openConnection(_database, _info));
     } catch (SQLException e) {
       logger.log(Level.SEVERE,
               "Connection to database \"" + _database + "\" couldn't be " +
               "established. Properties: " + _info, e);
       return false;
     }
+    this.database = _database;
+    this.info = _info;
+    this.connectingThread = Thread.currentThread();
+    this.threadSessions = new ThreadLocal<Session>();
     this.isConnected = true;
     return true;
   }
 
+  /**
+   * Closes the connection of the calling thread, e.g. before a worker thread
+   * ends. Does nothing if the thread shares the main connection.
+   */
+  public void closeThreadConnection()
+  {
+    if (!this.isConnected || !this.isThreadSafe ||
+        Thread.currentThread() == this.connectingThread) {
+      return;
+    }
+    final Session session = this.threadSessions.get();
+    if (session == null) {
+      return;
+    }
+    this.threadSessions.remove();
+    synchronized (this.openSessions) {
+      this.openSessions.remove(session);
+    }
+    try {
+      session.connection.close();
+    } catch (SQLException e) {
+      logger.log(Level.SEVERE, "Couldn't close connection of thread " +
+                               Thread.currentThread().getName() + ".", e);
+    }
+  }
+  /**
+   * Creates the threads of an executor using the database in the
+   * background. Every thread closes its connection when it ends, so an
+   * executor letting idle threads time out doesn't keep connections open.
+   * The threads don't keep the application alive.
+   * @param _name the name of the threads
+   * @return the factory of the threads
+   */
+  public ThreadFactory getThreadFactory(final String _name)
+  {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable _runnable)
+      {
+        final Thread result = new Thread(new Runnable() {
+          @Override
+          public void run()
+          {
+            try {
+              _runnable.run();
+            } finally {
+              closeThreadConnection();
+            }
+          }
+        }, _name);
+        result.setDaemon(true);
+        return result;
+      }
+    };
+  }
+
+
   public boolean isConnected()
   {
     return this.isConnected;
@@ -131,7 +256,8 @@ public class MFSqlConnector implements Singleton
 
   /**
    * Save a prepared query. The query can later be executed using
-   * <code>query</code> and its id string. If there's already a query stored
+   * <code>query</code> and its id string or through its
+   * {@link #getQuery(String) handle}. If there's already a query stored
    * under the same id, it will be overwritten.
    * @param _queryId The id which is used to retrieve the query later
    * @param _query The query to be saved
@@ -143,19 +269,78 @@ public class MFSqlConnector implements Singleton
       return false;
     }
 
-    PreparedStatement statement;
+    // the query is checked right away on the calling thread's connection
+    synchronized (this.queries) {
+      final MFPreparedQuery saved = this.queries.get(_queryId);
+      final int slot = (saved == null ? this.queries.size() : saved.getSlot());
+      try {
+        final Session session = this.getSession();
+        final PreparedStatement statement = session.connection.prepareStatement(_query);
+        final MFPreparedQuery handle = new MFPreparedQuery(_queryId, _query, slot,
+                                                   readParameterTypes(statement));
+        session.put(new MFBoundQuery(handle, statement));
+        this.queries.put(_queryId, handle);
+      } catch (SQLException e) {
+        String msg = "Unable to save query \"" + _queryId + "\": " + _query;
+        logger.log(Level.SEVERE, msg, e);
+        throw new IllegalArgumentException(msg, e);
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Gets the handle of a saved query. Executing a query through its handle
+   * avoids looking it up by id every time.
+   * @param _queryId The id of the saved query
+   * @return The handle of the query
+   * @throws DataAccessException if no query was saved under the id
+   */
+  public MFPreparedQuery getQuery(String _queryId) throws DataAccessException
+  {
+    final MFPreparedQuery result = this.queries.get(_queryId);
+    if (result == null) {
+      String msg = "Couldn't find prepared statement identified by \"" +
+              _queryId + "\".";
+      logger.severe(msg);
+      throw new DataAccessException(msg);
+    }
+    return result;
+  }
+
+  /**
+   * Gets the statement of a saved query on the calling thread's connection
+   * to set its parameters and execute it.
+   * @param _query The handle of the saved query
+   * @return The statement without any parameters set
+   * @throws DataAccessException if there's no connection
+   */
+  public MFBoundQuery bind(MFPreparedQuery _query) throws DataAccessException
+  {
+    if (!this.isConnected) {
+      String msg = "Couldn't connect to database during preparation of query \"" +
+              _query.getId() + "\".";
+      logger.severe(msg);
+      throw new DataAccessException(msg);
+    }
 
     try {
-      statement = this.connection.prepareStatement(_query);
+      final Session session = this.getSession();
+      MFBoundQuery result = session.get(_query.getSlot());
+      // prepared on first use or after the query was replaced
+      if (result == null || result.getQuery() != _query) {
+        result = new MFBoundQuery(_query,
+                                session.connection.prepareStatement(_query.getQuery()));
+        session.put(result);
+      }
+      return result.reset();
     } catch (SQLException e) {
-      String msg = "Unable to save query \"" + _queryId + "\": " + _query;
+      String msg = "Couldn't prepare query \"" + _query.getId() + "\" for thread " +
+              Thread.currentThread().getName() + ".";
       logger.log(Level.SEVERE, msg, e);
-      throw new IllegalArgumentException(msg, e);
+      throw new DataAccessException(msg, e);
     }
-
-    preparedStatements.put(_queryId, statement);
-
-    return true;
   }
 
   /**
@@ -167,21 +352,19 @@ public class MFSqlConnector implements Singleton
   public ResultSet query(String _queryId, List<Object> _values)
           throws DataAccessException
   {
-    final PreparedStatement statement = findAndPrepareStatement(_queryId, _values);
-
-    ResultSet rs;
-
-    try {
-      // retrieve data from database
-      rs = statement.executeQuery();
-    } catch (SQLException e) {
-      String msg = "Couldn't execute prepared query \"" + _queryId + 
-              "\". Values: " + _values;
-      logger.log(Level.SEVERE, msg, e);
-      throw new DataAccessException(msg, e);
-    }
+    return this.query(this.getQuery(_queryId), _values);
+  }
 
-    return rs;
+  /**
+   * Executes a read-only query through its handle.
+   * @param _query The saved query to execute.
+   * @param _values The parameters of the saved query. May be empty.
+   * @return The rowset which was found
+   */
+  public ResultSet query(MFPreparedQuery _query, List<Object> _values)
+          throws DataAccessException
+  {
+    return this.bind(_query).setValues(_values).executeQuery();
   }
 
   /**
@@ -193,21 +376,19 @@ public class MFSqlConnector implements Singleton
   public int update(String _queryId, List<Object> _values)
           throws DataAccessException
   {
-    final PreparedStatement statement = findAndPrepareStatement(_queryId, _values);
-
-    int rowCount = 0;
-
-    try {
-      // retrieve data from database
-      rowCount = statement.executeUpdate();
-    } catch (SQLException e) {
-      String msg = "Couldn't execute prepared update \"" + _queryId + 
-              "\". Values: " + _values;
-      logger.log(Level.SEVERE, msg, e);
-      throw new DataAccessException(msg, e);
-    }
+    return this.update(this.getQuery(_queryId), _values);
+  }
 
-    return rowCount;
+  /**
+   * Updates records in the database through the handle of the query.
+   * @param _query The saved query to execute.
+   * @param _values The parameters of the saved query. May be empty.
+   * @return The number of updated rows
+   */
+  public int update(MFPreparedQuery _query, List<Object> _values)
+          throws DataAccessException
+  {
+    return this.bind(_query).setValues(_values).executeUpdate();
   }
 
   /**
@@ -220,113 +401,234 @@ public class MFSqlConnector implements Singleton
   public int insert(String _queryId, List<Object> _values)
           throws DataAccessException
   {
-    PreparedStatement statement = findAndPrepareStatement(_queryId, _values);
+    return this.insert(this.getQuery(_queryId), _values);
+  }
 
-    int rowCount;
-    int generatedKey = INVALID_QUERY;
+  /**
+   * Stores a new record into the database through the handle of the query.
+   * @param _query The saved query to execute.
+   * @param _values The parameters of the saved query. May be empty.
+   * @return The generated key
+   * @throws DataAccessException
+   */
+  public int insert(MFPreparedQuery _query, List<Object> _values)
+          throws DataAccessException
+  {
+    return this.bind(_query).setValues(_values).executeInsert();
+  }
+
+  /**
+   * Executes a saved update once for each row of values as a single batch,
+   * reusing the prepared statement.
+   * @param _queryId The saved query to execute.
+   * @param _rows The parameters of the saved query, one list per execution.
+   * @return The number of updated rows per execution
+   * @throws DataAccessException
+   */
+  public int[] updateBatch(String _queryId, List<List<Object>> _rows)
+          throws DataAccessException
+  {
+    if (_rows.isEmpty()) {
+      return new int[0];
+    }
+    final MFBoundQuery statement = this.bind(this.getQuery(_queryId));
+    for (List<Object> row : _rows) {
+      statement.setValues(row).addBatch();
+    }
+    return statement.executeBatch();
+  }
+
+  /**
+   * Starts a transaction. Following queries are only stored permanently
+   * after {@link #commit()}.
+   * @throws DataAccessException
+   */
+  public void beginTransaction() throws DataAccessException
+  {
+    if (!this.isConnected) {
+      String msg = "Couldn't begin transaction without a database connection.";
+      logger.severe(msg);
+      throw new DataAccessException(msg);
+    }
 
     try {
-      // retrieve data from database
-      rowCount = statement.executeUpdate();
+      this.getSession().connection.setAutoCommit(false);
     } catch (SQLException e) {
-      String msg = "Couldn't execute prepared insert \"" + _queryId + 
-              "\". Values: " + _values;
+      String msg = "Couldn't begin transaction.";
       logger.log(Level.SEVERE, msg, e);
       throw new DataAccessException(msg, e);
     }
+  }
+
+  /**
+   * Stores the queries executed since {@link #beginTransaction()}
+   * permanently.
+   * @throws DataAccessException
+   */
+  public void commit() throws DataAccessException
+  {
+    if (!this.isConnected) {
+      String msg = "Couldn't commit transaction without a database connection.";
+      logger.severe(msg);
+      throw new DataAccessException(msg);
+    }
 
     try {
-      // get auto-generated id if any
-      ResultSet keys = statement.getGeneratedKeys();
-      if (keys.next() && keys != null) {
-        generatedKey = keys.getInt(1);
-      }
-      keys.close();
+      final Connection connection = this.getSession().connection;
+      connection.commit();
+      connection.setAutoCommit(true);
     } catch (SQLException e) {
-      String msg = "Unable to retrieve id of last insert of \"" + _queryId +
-              "\". Values: " + _values;
+      String msg = "Couldn't commit transaction.";
       logger.log(Level.SEVERE, msg, e);
       throw new DataAccessException(msg, e);
     }
-
-    return generatedKey;
   }
 
   /**
-   * Loads SQL statements from a file.
-   * @param _filename The file to read from.
+   * Reverts the queries executed since {@link #beginTransaction()}. Errors
+   * are only logged, as this is usually called while handling another one.
    */
-  public boolean loadFromFile(String _filename)
+  public void rollback()
   {
     if (!this.isConnected) {
-      return false;
+      return;
     }
 
-    boolean success = true;
-
     try {
-      Statement statement = this.connection.createStatement();
-
-      success = readFile(_filename, statement);
-      if (!success) {
-        return false;
-      }
+      final Connection connection = this.getSession().connection;
+      connection.rollback();
+      connection.setAutoCommit(true);
+    } catch (SQLException e) {
+      logger.log(Level.SEVERE, "Couldn't roll back transaction.", e);
+    }
+  }
 
-      // execute queries
-      logger.fine("Batch committing read SQL commands...");
-      this.connection.setAutoCommit(false);
-      int results[] = statement.executeBatch();
-      this.connection.setAutoCommit(true);
+  /**
+   * Executes a single statement which isn't prepared, e.g. a DDL statement
+   * of a schema migration.
+   * @param _sql the statement
+   * @throws DataAccessException if the statement failed
+   */
+  public void execute(String _sql) throws DataAccessException
+  {
+    if (!this.isConnected) {
+      String msg = "Couldn't execute statement without a database connection.";
+      logger.severe(msg);
+      throw new DataAccessException(msg);
+    }
 
-      // check results for errors
-      for (int result : results) {
-        if (result < 0) {
-          success = false;
-        }
+    try {
+      final Statement statement = this.getSession().connection.createStatement();
+      try {
+        statement.execute(_sql);
+      } finally {
+        statement.close();
       }
     } catch (SQLException e) {
-      logger.log(Level.SEVERE,
-              "Couldn't execute queries read from file \"" + _filename + "\".", e);
-      success = false;
+      String msg = "Couldn't execute statement \"" + _sql + "\".";
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
     }
-
-    return success;
   }
 
-  private boolean readFile(String _filename, Statement _statement)
-          throws SQLException
+  /**
+   * Gets the version of the database schema, stored in the database file
+   * (<code>PRAGMA user_version</code>). New databases have version 0.
+   * @return the schema version
+   * @throws DataAccessException
+   */
+  public int getSchemaVersion() throws DataAccessException
   {
-    boolean success = true;
-    try
-    {
-      // get a file reader
-      BufferedReader in = new BufferedReader(new FileReader(_filename));
+    if (!this.isConnected) {
+      String msg = "Couldn't read schema version without a database connection.";
+      logger.severe(msg);
+      throw new DataAccessException(msg);
+    }
+
+    try {
+      final Statement statement = this.getSession().connection.createStatement();
       try {
-        String line;
-        // read the file, one sql query per line
-        logger.fine("Reading SQL statements from file \"" + _filename + "\"...");
-        while ((line = in.readLine()) != null) {
-          logger.fine(line);
-          // check if it's not empty or a comment
-          if (line.startsWith("//") || line.equals("")) {
-            continue;
-          }
-          _statement.addBatch(line);
-        }
+        final ResultSet rs = statement.executeQuery("PRAGMA user_version;");
+        return (rs.next() ? rs.getInt(1) : 0);
       } finally {
-        in.close();
-        logger.fine("Done.");
+        statement.close();
       }
-    } catch (FileNotFoundException e) {
-      logger.log(Level.SEVERE,
-              "Couldn't find database file \"" + _filename + "\".", e);
-      success = false;
-    } catch (IOException e) {
-      logger.log(Level.SEVERE,
-              "Couldn't read from file \"" + _filename + "\".", e);
-      success = false;
+    } catch (SQLException e) {
+      String msg = "Couldn't read schema version.";
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+  }
+
+  /**
+   * Sets the version of the database schema. Inside a transaction the new
+   * version is only stored by {@link #commit()}.
+   * @param _version the schema version
+   * @throws DataAccessException
+   */
+  public void setSchemaVersion(int _version) throws DataAccessException
+  {
+    if (_version < 0) {
+      String msg = "Schema version must not be negative: " + _version;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.execute("PRAGMA user_version = " + _version + ";");
+  }
+
+  /**
+   * Executes the SQL statements of a script file in one transaction.
+   * @param _filename The file to read from.
+   * @return <code>false</code> if the file couldn't be read or a statement
+   * failed. Nothing of the file is stored then.
+   * @see MFSqlScriptExecutor
+   */
+  public boolean loadFromFile(String _filename)
+  {
+    if (!this.isConnected) {
+      return false;
+    }
+
+    try {
+      new MFSqlScriptExecutor(this).execute(_filename);
+      return true;
+    } catch (DataAccessException e) {
+      // already logged
+      return false;
+    }
+  }
+
+  //---vvv---  PACKAGE-PRIVATE METHODS  ---vvv---
+  /**
+   * Creates a statement on the connection of the calling thread. The caller
+   * has to close it.
+   * @return the statement
+   * @throws SQLException if the statement couldn't be created
+   */
+  Statement createStatement() throws SQLException
+  {
+    return this.getSession().connection.createStatement();
+  }
+
+  /**
+   * Checks if the calling thread has begun a transaction which wasn't
+   * committed or rolled back yet.
+   * @return <code>true</code> if a transaction is running
+   * @throws DataAccessException if the connection couldn't be checked
+   */
+  boolean isInTransaction() throws DataAccessException
+  {
+    if (!this.isConnected) {
+      return false;
+    }
+
+    try {
+      return !this.getSession().connection.getAutoCommit();
+    } catch (SQLException e) {
+      String msg = "Couldn't check for a running transaction.";
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
     }
-    return success;
   }
 
   // ---vvv--- PRIVATE METHODS ---vvv---
@@ -338,18 +640,94 @@ public class MFSqlConnector implements Singleton
   /** Logger */
   private static final Logger logger = Logger.getLogger(MFSqlConnector.class.getName());
   private String databaseDriver;
-  private Connection connection;
-  private boolean isConnected;
-  private HashMap<String, PreparedStatement> preparedStatements;
+  private volatile boolean isConnected;
+  private volatile boolean isThreadSafe;
+  private volatile String database;
+  private volatile Properties info;
+  /** Set on every new connection */
+  private volatile Map<String, String> pragmas;
+  private static final Pattern PRAGMA_NAME = Pattern.compile("[a-z_]+");
+  private static final Pattern PRAGMA_VALUE = Pattern.compile("-?[A-Za-z0-9_]+");
+  /** The queries by id, prepared by each connection on first use */
+  private final Map<String, MFPreparedQuery> queries;
+  /** The connection of the thread that connected */
+  private volatile Session mainSession;
+  private volatile Thread connectingThread;
+  /** The connections of other threads in thread-safe mode */
+  private volatile ThreadLocal<Session> threadSessions;
+  private final List<Session> openSessions;
+
+  /**
+   * A connection and the statements prepared on it.
+   */
+  private static final class Session
+  {
+    final Connection connection;
+    /** Prepared statements by slot of their query */
+    private MFBoundQuery[] statements;
+
+    Session(Connection _connection)
+    {
+      this.connection = _connection;
+      this.statements = new MFBoundQuery[16];
+    }
+
+    MFBoundQuery get(int _slot)
+    {
+      return (_slot < this.statements.length ? this.statements[_slot] : null);
+    }
+
+    void put(MFBoundQuery _statement)
+    {
+      final int slot = _statement.getQuery().getSlot();
+      if (slot >= this.statements.length) {
+        this.statements = Arrays.copyOf(this.statements,
+                                        Math.max(slot + 1, this.statements.length * 2));
+      }
+      this.statements[slot] = _statement;
+    }
+  }
 
   /**
    * Hidden standard constructor. (cf. Singleton pattern)
    */
   private MFSqlConnector()
   {
+    this.queries = new ConcurrentHashMap<String, MFPreparedQuery>();
+    this.openSessions = new ArrayList<Session>();
+    this.pragmas = Collections.emptyMap();
     this.setDatabaseDriver(DEFAULT_DB_DRIVER);
     this.isConnected = false;
-    this.preparedStatements = new HashMap<String, PreparedStatement>();
+  }
+
+  /**
+   * Opens a connection and sets the pragmas on it.
+   */
+  private Connection openConnection(String _database, Properties _info)
+                                                            throws SQLException
+  {
+    final Connection result;
+    if (_info != null) {
+      result = DriverManager.getConnection("jdbc:sqlite:" + _database, _info);
+    } else {
+      result = DriverManager.getConnection("jdbc:sqlite:" + _database);
+    }
+
+    try {
+      final Statement statement = result.createStatement();
+      try {
+        for (Map.Entry<String, String> pragma : this.pragmas.entrySet()) {
+          statement.execute("PRAGMA " + pragma.getKey() + " = " +
+                                                      pragma.getValue() + ";");
+        }
+      } finally {
+        statement.close();
+      }
+    } catch (SQLException e) {
+      result.close();
+      throw e;
+    }
+    return result;
   }
 
   private void disconnect()
@@ -358,9 +736,19 @@ public class MFSqlConnector implements Singleton
       return;
     }
 
+    this.isConnected = false;
+    synchronized (this.openSessions) {
+      for (Session session : this.openSessions) {
+        try {
+          session.connection.close();
+        } catch (SQLException e) {
+          logger.log(Level.SEVERE, "Couldn't close connection of a thread.", e);
+        }
+      }
+      this.openSessions.clear();
+    }
     try {
-      this.connection.close();
-      this.isConnected = false;
+      this.mainSession.connection.close();
     } catch (SQLException e) {
       String msg = "Couldn't disconnect from database.";
       logger.log(Level.SEVERE, msg, e);
@@ -368,80 +756,44 @@ public class MFSqlConnector implements Singleton
   }
 
   /**
-   * Loads a previously stored statement and fills in the values if needed.
-   * @param _queryId The id which is used to identify the query
-   * @param _values The values to insert into the query. May be an empty list.
-   * @return <code>null</code> if no query was saved or a connection error
-   *          is encountered
+   * Gets the connection of the calling thread. In thread-safe mode threads
+   * other than the connecting one open their own connection on first use.
+   * @return the connection and its prepared statements
+   * @throws SQLException if the connection couldn't be opened
    */
-  private PreparedStatement findAndPrepareStatement(String _queryId, List<Object> _values)
-          throws DataAccessException
+  private Session getSession() throws SQLException
   {
-    if (!this.isConnected) {
-      String msg = "Couldn't connect to database during preparation of query \"" +
-              _queryId + "\". Values: " + _values;
-      logger.severe(msg);
-      throw new DataAccessException(msg);
-    }
-
-    // find saved query
-    final PreparedStatement statement = this.preparedStatements.get(_queryId);
-
-    // was the query found?
-    if (statement == null) {
-      String msg = "Couldn't find prepared statement identified by \"" +
-              _queryId + "\". Values: " + _values;
-      logger.severe(msg);
-      throw new DataAccessException(msg);
+    if (!this.isThreadSafe || Thread.currentThread() == this.connectingThread) {
+      return this.mainSession;
     }
-
-    // check parameter count
-    try
-    {
-      final int parameterCount = statement.getParameterMetaData().getParameterCount();
-      if (_values.size() != parameterCount) {
-        String msg = "Parameter count mismatch during preparation of query \"" +
-                _queryId + "\". Needed " + parameterCount + " but got " + _values.size() +
-                ". Values: " + _values;
-        logger.severe(msg);
-        throw new DataAccessException(msg);
+    Session result = this.threadSessions.get();
+    if (result == null) {
+      result = new Session(this.openConnection(this.database, this.info));
+      this.threadSessions.set(result);
+      synchronized (this.openSessions) {
+        this.openSessions.add(result);
       }
-    } catch (SQLException e) {
-      String msg = "Couldn't compare parameter count during preparation of query \"" +
-              _queryId + "\". Values: " + _values;
-      logger.log(Level.SEVERE, msg, e);
-      throw new DataAccessException(msg, e);
-    }
-
-    if (!_values.isEmpty()) {
-      prepareStatement(_queryId, _values, statement);
+      logger.fine("Opened connection for thread " + Thread.currentThread().getName());
     }
-
-    return statement;
+    return result;
   }
 
   /**
-   * Inserts values into a prepared statement.
-   * @param _queryId The id of the query used for error messages
-   * @param _values The values to fill in
-   * @param _statement The prepared statement
-   * @throws DataAccessException
+   * Reads the types of the parameters of a statement.
+   * @return the types from {@link Types}, {@link Types#OTHER} for unknown ones
    */
-  private void prepareStatement(String _queryId, List<Object> _values, PreparedStatement _statement)
-          throws DataAccessException
+  private static int[] readParameterTypes(PreparedStatement _statement)
+                                                            throws SQLException
   {
-    try {
-
-      // insert values
-      for (int i = 0; i < _values.size(); ++i) {
-        _statement.setObject(i + 1, _values.get(i));
+    final ParameterMetaData metadata = _statement.getParameterMetaData();
+    final int[] result = new int[metadata.getParameterCount()];
+    for (int i = 0; i < result.length; ++i) {
+      try {
+        result[i] = metadata.getParameterType(i + 1);
+      } catch (SQLException e) {
+        result[i] = Types.OTHER;
       }
-
-    } catch (SQLException e) {
-      String msg = "Couldn't fill in values during preparation of query \"" +
-              _queryId + "\". Values: " + _values;
-      logger.log(Level.SEVERE, msg, e);
-      throw new DataAccessException(msg, e);
     }
+    return result;
   }
 }
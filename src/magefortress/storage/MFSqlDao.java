@@ -33,6 +33,7 @@ import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -93,7 +94,7 @@ public abstract class MFSqlDao<T extends MFISaveable> implements MFIDao<T>
     final ArrayList<Object> args = new ArrayList<Object>(1);
     args.add(_id);
 
-    ResultSet rs = this.getDb().query("READ_" + this.getClass().getSimpleName(), args);
+    ResultSet rs = this.getDb().query(this.getQuery(MFESqlOperations.READ), args);
 
     if (rs == null) {
       String msg = "Couldn't find database entry with id " + _id;
@@ -108,16 +109,22 @@ public abstract class MFSqlDao<T extends MFISaveable> implements MFIDao<T>
   @Override
   public List<? extends T> loadAll() throws DataAccessException
   {
-    return loadAll("READ_ALL_" + this.getClass().getSimpleName(),
+    return loadAll(this.getQuery(MFESqlOperations.READ_ALL),
                     Collections.emptyList());
   }
 
   public List<? extends T> loadAll(String _queryId, List<Object> _parameters)
           throws DataAccessException
+  {
+    return this.loadAll(this.getQuery(_queryId), _parameters);
+  }
+
+  public List<? extends T> loadAll(MFPreparedQuery _query, List<Object> _parameters)
+          throws DataAccessException
   {
     final List<T> gotPayloads = new ArrayList<T>();
 
-    ResultSet rs = this.getDb().query(_queryId, _parameters);
+    ResultSet rs = this.getDb().query(_query, _parameters);
 
     if (rs == null) {
       String msg = "Error during loading of "+ this.getPayload().getClass().getSimpleName() +
@@ -163,7 +170,7 @@ public abstract class MFSqlDao<T extends MFISaveable> implements MFIDao<T>
     }
 
     int rowCount = this.getDb().update(
-            "DESTROY_" + this.getClass().getSimpleName(), new ArrayList<Object>(1));
+            this.getQuery(MFESqlOperations.DESTROY), new ArrayList<Object>(1));
     
     if (rowCount == 1) {
       this.getPayload().setId(this.getUnsavedMarker());
@@ -238,8 +245,7 @@ public abstract class MFSqlDao<T extends MFISaveable> implements MFIDao<T>
     EnumMap<MFESqlOperations, String> queries = this.getStatements();
     
     for (MFESqlOperations queryId : queries.keySet()) {
-      db.prepareQuery(queryId.toString() + "_" + this.getClass().getSimpleName(),
-              queries.get(queryId));
+      this.prepareQuery(this.getQueryId(queryId), queries.get(queryId));
     }
 
   }
@@ -249,9 +255,76 @@ public abstract class MFSqlDao<T extends MFISaveable> implements MFIDao<T>
     return this.db;
   }
 
+  /**
+   * Saves a query besides the ones of the operations, e.g. while
+   * {@link #getStatements()} is called.
+   * @param _queryId the id of the query
+   * @param _query the query
+   */
+  protected void prepareQuery(String _queryId, String _query)
+  {
+    this.db.prepareQuery(_queryId, _query);
+  }
+
+  /**
+   * Gets the handle of the query of an operation of this DAO. The handle
+   * is looked up once per DAO.
+   * @param _operation the operation
+   * @return the handle of the query
+   * @throws DataAccessException if the query was never saved
+   */
+  protected MFPreparedQuery getQuery(MFESqlOperations _operation)
+          throws DataAccessException
+  {
+    // handles are immutable, so racing threads store equal ones
+    MFPreparedQuery result = this.operations[_operation.ordinal()];
+    if (result == null) {
+      result = this.getQuery(this.getQueryId(_operation));
+      this.operations[_operation.ordinal()] = result;
+    }
+    return result;
+  }
+
+  /**
+   * Gets the handle of a saved query.
+   * @param _queryId the id of the query
+   * @return the handle of the query
+   * @throws DataAccessException if the query was never saved
+   */
+  protected MFPreparedQuery getQuery(String _queryId) throws DataAccessException
+  {
+    return this.db.getQuery(_queryId);
+  }
+
+  /**
+   * Gets the id the query of an operation of this DAO is saved under. The
+   * ids are built once per DAO class.
+   * @param _operation the operation
+   * @return the id of the query
+   */
+  protected String getQueryId(MFESqlOperations _operation)
+  {
+    String[] ids = queryIds.get(this.getClass());
+    if (ids == null) {
+      ids = new String[OPERATIONS.length];
+      for (MFESqlOperations operation : OPERATIONS) {
+        ids[operation.ordinal()] = operation.toString() + "_" +
+                                   this.getClass().getSimpleName();
+      }
+      queryIds.put(this.getClass(), ids);
+    }
+    return ids[_operation.ordinal()];
+  }
+
   //---vvv---       PRIVATE METHODS       ---vvv---
+  private static final MFESqlOperations[] OPERATIONS = MFESqlOperations.values();
+  /** The query ids of the operations by DAO class */
+  private static final ConcurrentHashMap<Class<?>, String[]> queryIds =
+                                      new ConcurrentHashMap<Class<?>, String[]>();
   /** Database connection */
   private final MFSqlConnector db;
+  /** The handles of the queries of the operations, looked up on first use */
+  private final MFPreparedQuery[] operations = new MFPreparedQuery[OPERATIONS.length];
   /** Data which can be saved or deleted */
   private final T payload;
 
@@ -293,7 +366,7 @@ public abstract class MFSqlDao<T extends MFISaveable> implements MFIDao<T>
           throws DataAccessException
   {
     this.getDb().update(
-            "UPDATE_" + this.getClass().getSimpleName(), vectorizedData);
+            this.getQuery(MFESqlOperations.UPDATE), vectorizedData);
   }
 
   private void createRecord(final List<Object> vectorizedData)
@@ -304,8 +377,7 @@ public abstract class MFSqlDao<T extends MFISaveable> implements MFIDao<T>
     vectorizedData.remove(vectorizedData.size()-1);
     
     int generatedId = this.getDb().insert(
-            "CREATE_" + this.getClass().getSimpleName(), vectorizedData);
+            this.getQuery(MFESqlOperations.CREATE), vectorizedData);
     this.getPayload().setId(generatedId);
   }
-
 }
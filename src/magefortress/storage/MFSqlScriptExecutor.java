@@ -0,0 +1,224 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.storage;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes SQL scripts, e.g. the database schema or the fixtures seeding a
+ * database for tests. The script is read statement by statement in the
+ * format of {@link MFSqlScriptReader} and executed in batches, so even
+ * scripts with many thousands of rows are never held in memory as a whole.
+ * <p>
+ * A script runs in one transaction: if a statement fails, nothing of the
+ * script is stored. If a transaction was already begun on the connector,
+ * the script becomes part of it and is stored by the caller's
+ * {@link MFSqlConnector#commit()}.
+ */
+public class MFSqlScriptExecutor
+{
+  /** Number of statements executed in one batch by default */
+  public static final int DEFAULT_BATCH_SIZE = 500;
+
+  /**
+   * Constructor
+   * @param _db the connector to the database to execute scripts on
+   */
+  public MFSqlScriptExecutor(MFSqlConnector _db)
+  {
+    if (_db == null) {
+      String msg = "Cannot create script executor without a database connector.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.db = _db;
+    this.batchSize = DEFAULT_BATCH_SIZE;
+  }
+
+  /**
+   * Sets the number of statements sent to the database at once.
+   * @param _batchSize the number of statements, at least 1
+   */
+  public void setBatchSize(int _batchSize)
+  {
+    if (_batchSize < 1) {
+      String msg = "Batch size must be at least 1: " + _batchSize;
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.batchSize = _batchSize;
+  }
+
+  /**
+   * Gets the number of statements sent to the database at once.
+   * @return the number of statements
+   */
+  public int getBatchSize()
+  {
+    return this.batchSize;
+  }
+
+  /**
+   * Sets who is told about the progress of scripts.
+   * @param _progress the progress listener, may be <code>null</code>
+   */
+  public void setProgress(MFIScriptProgress _progress)
+  {
+    this.progress = _progress;
+  }
+
+  /**
+   * Executes a script file.
+   * @param _filename the file to execute
+   * @return the number of executed statements
+   * @throws DataAccessException if the file couldn't be read or a statement
+   * failed. Nothing of the script is stored then.
+   */
+  public int execute(String _filename) throws DataAccessException
+  {
+    if (_filename == null) {
+      String msg = "Cannot execute script without a file name.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+
+    final File file = new File(_filename);
+    final Reader in;
+    try {
+      in = new FileReader(file);
+    } catch (FileNotFoundException e) {
+      String msg = "Couldn't find script \"" + _filename + "\".";
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+    return this.execute(in, _filename, file.length());
+  }
+
+  /**
+   * Executes a script.
+   * @param _script the script to execute. It is closed afterwards.
+   * @param _name the name of the script used in messages
+   * @param _size the size of the script reported as progress, -1 if it's
+   * unknown
+   * @return the number of executed statements
+   * @throws DataAccessException if the script couldn't be read or a statement
+   * failed. Nothing of the script is stored then.
+   */
+  public int execute(Reader _script, String _name, long _size)
+                                                     throws DataAccessException
+  {
+    final MFSqlScriptReader reader = new MFSqlScriptReader(_script);
+    try {
+      final boolean ownTransaction = !this.db.isInTransaction();
+      if (ownTransaction) {
+        this.db.beginTransaction();
+      }
+      try {
+        final int result = this.executeStatements(reader, _name, _size);
+        if (ownTransaction) {
+          this.db.commit();
+        }
+        return result;
+      } catch (DataAccessException e) {
+        if (ownTransaction) {
+          this.db.rollback();
+        }
+        throw e;
+      }
+    } finally {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Couldn't close script \"" + _name + "\".", e);
+      }
+    }
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFSqlScriptExecutor.class.getName());
+  private final MFSqlConnector db;
+  private int batchSize;
+  private MFIScriptProgress progress;
+
+  private int executeStatements(MFSqlScriptReader _reader, String _name,
+                                long _size) throws DataAccessException
+  {
+    logger.fine("Executing SQL script \"" + _name + "\"...");
+    int executed = 0;
+    int firstLine = 0;
+    try {
+      final Statement statement = this.db.createStatement();
+      try {
+        int batched = 0;
+        String sql;
+        while ((sql = _reader.next()) != null) {
+          if (batched == 0) {
+            firstLine = _reader.getStatementLine();
+          }
+          statement.addBatch(sql);
+          if (++batched == this.batchSize) {
+            statement.executeBatch();
+            executed += batched;
+            batched = 0;
+            this.report(executed, _reader, _size);
+          }
+        }
+        if (batched > 0) {
+          statement.executeBatch();
+          executed += batched;
+          this.report(executed, _reader, _size);
+        }
+      } finally {
+        statement.close();
+      }
+    } catch (IOException e) {
+      String msg = "Couldn't read script \"" + _name + "\".";
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    } catch (SQLException e) {
+      String msg = "Couldn't execute the statements of script \"" + _name +
+                   "\" starting in line " + firstLine + ".";
+      logger.log(Level.SEVERE, msg, e);
+      throw new DataAccessException(msg, e);
+    }
+    logger.fine("Executed " + executed + " statements.");
+    return executed;
+  }
+
+  private void report(int _executed, MFSqlScriptReader _reader, long _size)
+  {
+    if (this.progress != null) {
+      this.progress.progressed(_executed, _reader.getCharactersRead(), _size);
+    }
+  }
+}
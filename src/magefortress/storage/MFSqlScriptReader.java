@@ -0,0 +1,318 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.storage;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Splits an SQL script into its statements while reading it, so a script is
+ * never held in memory as a whole.
+ * <p>
+ * Statements end with a semicolon and may span several lines. Semicolons
+ * inside quotes, comments and the body of a <code>CREATE TRIGGER</code>
+ * don't end a statement. The body ends with the <code>END</code> of its
+ * <code>BEGIN</code>, not with the <code>END</code> of a <code>CASE</code>
+ * inside it. Comments are <code>--</code> to the end of the
+ * line, <code>/* ... *&#47;</code> and lines starting with <code>//</code>,
+ * which is the comment style of the older scripts. The last statement of a
+ * script doesn't need a semicolon.
+ */
+final class MFSqlScriptReader
+{
+  /**
+   * Constructor
+   * @param _script the script to read. Closed by {@link #close()}.
+   */
+  MFSqlScriptReader(Reader _script)
+  {
+    if (_script == null) {
+      String msg = "Cannot read script without a reader.";
+      logger.severe(msg);
+      throw new IllegalArgumentException(msg);
+    }
+    this.in = _script;
+    this.buffer = new char[BUFFER_SIZE];
+    this.statement = new StringBuilder();
+    this.word = new StringBuilder();
+    this.line = 1;
+    this.lineStart = true;
+  }
+
+  /**
+   * Reads the next statement.
+   * @return the statement without its terminating semicolon, or
+   * <code>null</code> at the end of the script
+   * @throws IOException if the script couldn't be read
+   */
+  String next() throws IOException
+  {
+    this.clearStatement();
+    this.statementLine = this.line;
+
+    int c;
+    while ((c = this.read()) != -1) {
+      final char ch = (char) c;
+      if (!isWordPart(ch)) {
+        this.endWord();
+      }
+      if (this.lineStart && ch == '/' && this.peek() == '/') {
+        this.skipLine();
+        continue;
+      }
+      if (ch != ' ' && ch != '\t' && ch != '\r' && ch != '\n') {
+        this.lineStart = false;
+      }
+
+      if (ch == '-' && this.peek() == '-') {
+        this.skipLine();
+      } else if (ch == '/' && this.peek() == '*') {
+        this.skipBlockComment();
+      } else if (ch == '\'' || ch == '"' || ch == '`') {
+        this.readQuoted(ch, ch);
+      } else if (ch == '[') {
+        this.readQuoted(ch, ']');
+      } else if (ch == ';' && !this.isInsideTrigger()) {
+        final String result = this.statement.toString().trim();
+        if (result.length() > 0) {
+          return result;
+        }
+        this.clearStatement();
+      } else {
+        if (this.statement.length() == 0 && Character.isWhitespace(ch)) {
+          continue;
+        }
+        if (this.statement.length() == 0) {
+          this.statementLine = this.line;
+        }
+        this.statement.append(ch);
+        if (isWordPart(ch)) {
+          this.word.append(ch);
+        } else if (!Character.isWhitespace(ch)) {
+          this.afterEnd = false;
+        }
+      }
+    }
+
+    final String result = this.statement.toString().trim();
+    return (result.length() > 0 ? result : null);
+  }
+
+  /**
+   * Gets the line the statement last returned by {@link #next()} starts in.
+   * @return the line number, starting with 1
+   */
+  int getStatementLine()
+  {
+    return this.statementLine;
+  }
+
+  /**
+   * Gets the number of characters read so far.
+   * @return the number of characters
+   */
+  long getCharactersRead()
+  {
+    return this.charactersRead;
+  }
+
+  /**
+   * Closes the script.
+   * @throws IOException if the script couldn't be closed
+   */
+  void close() throws IOException
+  {
+    this.in.close();
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final Logger logger = Logger.getLogger(MFSqlScriptReader.class.getName());
+  /** Start of a statement whose semicolons only end it after its body */
+  private static final Pattern TRIGGER_START = Pattern.compile(
+          "(?is)CREATE\\s+(TEMP\\s+|TEMPORARY\\s+)?TRIGGER\\b.*");
+  private static final int BUFFER_SIZE = 8192;
+  private final Reader in;
+  private final char[] buffer;
+  private int position;
+  private int limit;
+  private final StringBuilder statement;
+  /** The keyword or name being read */
+  private final StringBuilder word;
+  /** The number of words of the statement read so far */
+  private int wordCount;
+  /** If the statement creates a trigger */
+  private boolean isTrigger;
+  /** The number of BEGIN and CASE blocks of the trigger left open */
+  private int depth;
+  /** If nothing but whitespace and comments followed the last END */
+  private boolean afterEnd;
+  private int line;
+  private int statementLine;
+  private boolean lineStart;
+  private long charactersRead;
+
+  private int read() throws IOException
+  {
+    if (this.position == this.limit && !this.fill()) {
+      return -1;
+    }
+    final char result = this.buffer[this.position++];
+    ++this.charactersRead;
+    if (result == '\n') {
+      ++this.line;
+      this.lineStart = true;
+    }
+    return result;
+  }
+
+  private int peek() throws IOException
+  {
+    if (this.position == this.limit && !this.fill()) {
+      return -1;
+    }
+    return this.buffer[this.position];
+  }
+
+  /**
+   * Reads the next part of the script into the buffer.
+   * @return <code>false</code> at the end of the script
+   */
+  private boolean fill() throws IOException
+  {
+    int read;
+    do {
+      read = this.in.read(this.buffer, 0, this.buffer.length);
+    } while (read == 0);
+    this.position = 0;
+    this.limit = Math.max(read, 0);
+    return read > 0;
+  }
+
+  private void skipLine() throws IOException
+  {
+    int c;
+    while ((c = this.read()) != -1 && c != '\n') {
+      // skip
+    }
+    // keep statements of the lines before and after apart
+    if (this.statement.length() > 0) {
+      this.statement.append('\n');
+    }
+  }
+
+  private void skipBlockComment() throws IOException
+  {
+    this.read();
+    int previous = -1;
+    int c;
+    while ((c = this.read()) != -1) {
+      if (previous == '*' && c == '/') {
+        break;
+      }
+      previous = c;
+    }
+    if (this.statement.length() > 0) {
+      this.statement.append(' ');
+    }
+  }
+
+  /**
+   * Copies a quoted string or identifier including its quotes. A doubled
+   * closing quote is part of the string, except for brackets.
+   */
+  private void readQuoted(char _open, char _close) throws IOException
+  {
+    if (this.statement.length() == 0) {
+      this.statementLine = this.line;
+    }
+    this.statement.append(_open);
+    int c;
+    while ((c = this.read()) != -1) {
+      this.statement.append((char) c);
+      if (c == _close) {
+        if (_open == _close && this.peek() == _close) {
+          this.statement.append((char) this.read());
+        } else {
+          break;
+        }
+      }
+    }
+    this.lineStart = false;
+    this.afterEnd = false;
+  }
+
+  private void clearStatement()
+  {
+    this.statement.setLength(0);
+    this.word.setLength(0);
+    this.wordCount = 0;
+    this.isTrigger = false;
+    this.depth = 0;
+    this.afterEnd = false;
+  }
+
+  private static boolean isWordPart(char _ch)
+  {
+    return Character.isLetterOrDigit(_ch) || _ch == '_' || _ch == '$';
+  }
+
+  /**
+   * Counts the blocks of a trigger opened and closed by the word read last.
+   */
+  private void endWord()
+  {
+    if (this.word.length() == 0) {
+      return;
+    }
+    final String keyword = this.word.toString();
+    this.word.setLength(0);
+    ++this.wordCount;
+
+    if (this.wordCount <= 3 && keyword.equalsIgnoreCase("TRIGGER")) {
+      this.isTrigger = TRIGGER_START.matcher(this.statement).matches();
+    }
+    this.afterEnd = false;
+    if (!this.isTrigger) {
+      return;
+    }
+    if (keyword.equalsIgnoreCase("BEGIN") || keyword.equalsIgnoreCase("CASE")) {
+      ++this.depth;
+    } else if (keyword.equalsIgnoreCase("END") && this.depth > 0) {
+      --this.depth;
+      this.afterEnd = true;
+    }
+  }
+
+  /**
+   * Checks if a semicolon read now is part of the body of a trigger. The
+   * body ends with the END closing its BEGIN.
+   */
+  private boolean isInsideTrigger()
+  {
+    return this.isTrigger && !(this.depth == 0 && this.afterEnd);
+  }
+}
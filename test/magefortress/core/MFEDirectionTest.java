@@ -46,4 +46,11 @@ public class MFEDirectionTest
     assertEquals(expDirections, MFEDirection.straight());
   }
 
-}
\ No newline at end of file
+  @Test
+  public void shouldReturnVertical()
+  {
+    EnumSet<MFEDirection> expDirections = EnumSet.of(UP, DOWN);
+    assertEquals(expDirections, MFEDirection.vertical());
+  }
+
+}
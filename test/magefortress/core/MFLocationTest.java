@@ -182,6 +182,18 @@ public class MFLocationTest
     assertEquals(expDir, gotDir);
   }
 
+  @Test
+  public void shouldFindVerticalDirections()
+  {
+    MFLocation up = new MFLocation(location.x, location.y, location.z-1);
+    assertEquals(MFEDirection.UP, location.directionOf(up));
+    assertEquals(up, location.locationOf(MFEDirection.UP));
+
+    MFLocation down = new MFLocation(location.x, location.y, location.z+1);
+    assertEquals(MFEDirection.DOWN, location.directionOf(down));
+    assertEquals(down, location.locationOf(MFEDirection.DOWN));
+  }
+
   @Test
   public void shouldPrintString()
   {
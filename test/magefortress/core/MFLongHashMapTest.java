@@ -0,0 +1,129 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MFLongHashMapTest
+{
+  private MFLongHashMap<String> map;
+
+  @Before
+  public void setUp()
+  {
+    this.map = new MFLongHashMap<String>();
+  }
+
+  @Test
+  public void shouldPutAndGet()
+  {
+    assertNull(this.map.put(42, "a"));
+    assertEquals("a", this.map.get(42));
+    assertTrue(this.map.containsKey(42));
+    assertFalse(this.map.containsKey(43));
+    assertEquals(1, this.map.size());
+
+    assertEquals("a", this.map.put(42, "b"));
+    assertEquals("b", this.map.get(42));
+    assertEquals(1, this.map.size());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotPutNull()
+  {
+    this.map.put(1, null);
+  }
+
+  @Test
+  public void shouldRemove()
+  {
+    this.map.put(1, "a");
+    this.map.put(2, "b");
+    assertEquals("a", this.map.remove(1));
+    assertNull(this.map.remove(1));
+    assertFalse(this.map.containsKey(1));
+    assertEquals("b", this.map.get(2));
+    assertEquals(1, this.map.size());
+  }
+
+  @Test
+  public void shouldGetKeysAndValues()
+  {
+    this.map.put(-7, "a");
+    this.map.put(MFPackedLocation.pack(1, 2, 3), "b");
+    long[] keys = this.map.keys();
+    assertEquals(2, keys.length);
+    assertEquals(2, this.map.values().size());
+    for (int i = 0; i < keys.length; ++i) {
+      assertEquals(this.map.get(keys[i]), this.map.values().get(i));
+    }
+  }
+
+  @Test
+  public void shouldClear()
+  {
+    this.map.put(1, "a");
+    this.map.clear();
+    assertTrue(this.map.isEmpty());
+    assertNull(this.map.get(1));
+  }
+
+  @Test
+  public void shouldPutAll()
+  {
+    MFLongHashMap<String> other = new MFLongHashMap<String>();
+    other.put(1, "a");
+    other.put(2, "b");
+    this.map.put(2, "c");
+    this.map.putAll(other);
+    assertEquals(2, this.map.size());
+    assertEquals("b", this.map.get(2));
+  }
+
+  @Test
+  public void shouldBehaveLikeHashMap()
+  {
+    Map<Long, String> reference = new HashMap<Long, String>();
+    Random random = new Random(3);
+    for (int i = 0; i < 10000; ++i) {
+      long key = MFPackedLocation.pack(random.nextInt(40), random.nextInt(40), random.nextInt(3));
+      if (random.nextInt(3) == 0) {
+        assertEquals(reference.remove(key), this.map.remove(key));
+      } else {
+        String value = "" + i;
+        assertEquals(reference.put(key, value), this.map.put(key, value));
+      }
+    }
+    assertEquals(reference.size(), this.map.size());
+    for (Map.Entry<Long, String> entry : reference.entrySet()) {
+      assertEquals(entry.getValue(), this.map.get(entry.getKey()));
+    }
+  }
+}
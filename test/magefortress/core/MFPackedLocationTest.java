@@ -0,0 +1,105 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.core;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MFPackedLocationTest
+{
+  @Test
+  public void shouldPackAndUnpackCoordinates()
+  {
+    long packed = MFPackedLocation.pack(12, 345, 6);
+    assertEquals(12, MFPackedLocation.getX(packed));
+    assertEquals(345, MFPackedLocation.getY(packed));
+    assertEquals(6, MFPackedLocation.getZ(packed));
+    assertEquals(new MFLocation(12, 345, 6), MFPackedLocation.unpack(packed));
+  }
+
+  @Test
+  public void shouldPackNegativeCoordinates()
+  {
+    assertEquals(MFLocation.NOWHERE, MFPackedLocation.unpack(MFPackedLocation.NOWHERE));
+    long packed = MFPackedLocation.pack(-5, 7, -1048576);
+    assertEquals(-5, MFPackedLocation.getX(packed));
+    assertEquals(7, MFPackedLocation.getY(packed));
+    assertEquals(-1048576, MFPackedLocation.getZ(packed));
+  }
+
+  @Test
+  public void shouldDifferForDifferentLocations()
+  {
+    assertFalse(MFPackedLocation.pack(1, 0, 0) == MFPackedLocation.pack(0, 1, 0));
+    assertFalse(MFPackedLocation.pack(0, 1, 0) == MFPackedLocation.pack(0, 0, 1));
+    assertEquals(MFPackedLocation.pack(3, 4, 5),
+                 MFPackedLocation.pack(new MFLocation(3, 4, 5)));
+  }
+
+  @Test
+  public void shouldGetNeighborsLikeLocation()
+  {
+    MFLocation location = new MFLocation(5, 5, 5);
+    long packed = MFPackedLocation.pack(location);
+    for (MFEDirection direction : MFEDirection.values()) {
+      assertEquals(location.locationOf(direction),
+                   MFPackedLocation.unpack(MFPackedLocation.neighbor(packed, direction)));
+    }
+  }
+
+  @Test
+  public void shouldGetDirectionsLikeLocation()
+  {
+    MFLocation location = new MFLocation(5, 5, 5);
+    long packed = MFPackedLocation.pack(location);
+    for (int x = 3; x <= 7; ++x) {
+      for (int y = 3; y <= 7; ++y) {
+        for (int z = 4; z <= 6; ++z) {
+          MFLocation other = new MFLocation(x, y, z);
+          long otherPacked = MFPackedLocation.pack(other);
+          assertEquals(location.directionOf(other),
+                       MFPackedLocation.directionOf(packed, otherPacked));
+          assertEquals(location.distanceTo(other),
+                       MFPackedLocation.distance(packed, otherPacked));
+          assertEquals(location.isNeighborOf(other),
+                       MFPackedLocation.isNeighbor(packed, otherPacked));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldNotGetDirectionOfNowhere()
+  {
+    assertNull(MFPackedLocation.directionOf(MFPackedLocation.pack(0, 0, 0),
+                                            MFPackedLocation.NOWHERE));
+  }
+
+  @Test
+  public void shouldPrintLikeLocation()
+  {
+    assertEquals("1/2/3", MFPackedLocation.toString(MFPackedLocation.pack(1, 2, 3)));
+  }
+}
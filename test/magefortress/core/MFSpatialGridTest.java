@@ -0,0 +1,130 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MFSpatialGridTest
+{
+  private MFSpatialGrid<String> grid;
+
+  @Before
+  public void setUp()
+  {
+    this.grid = new MFSpatialGrid<String>(8);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotCreateWithoutCellSize()
+  {
+    new MFSpatialGrid<String>(0);
+  }
+
+  @Test
+  public void shouldFindValuesInArea()
+  {
+    this.grid.add(MFPackedLocation.pack(1, 1, 0), "a");
+    this.grid.add(MFPackedLocation.pack(9, 20, 0), "b");
+    this.grid.add(MFPackedLocation.pack(9, 20, 1), "c");
+    this.grid.add(MFPackedLocation.pack(30, 2, 0), "d");
+
+    List<String> found = this.grid.findInArea(0, 0, 0, 10, 25);
+    Collections.sort(found);
+    assertEquals(2, found.size());
+    assertEquals("a", found.get(0));
+    assertEquals("b", found.get(1));
+  }
+
+  @Test
+  public void shouldMoveValues()
+  {
+    final long from = MFPackedLocation.pack(1, 1, 0);
+    final long near = MFPackedLocation.pack(2, 1, 0);
+    final long far = MFPackedLocation.pack(50, 1, 0);
+    this.grid.add(from, "a");
+
+    assertTrue(this.grid.move(from, near, "a"));
+    assertFalse(this.grid.move(from, far, "a"));
+    assertTrue(this.grid.move(near, far, "a"));
+
+    assertEquals(1, this.grid.size());
+    assertTrue(this.grid.findInRange(from, 10).isEmpty());
+    assertEquals("a", this.grid.findInRange(far, 0).get(0));
+  }
+
+  @Test
+  public void shouldRemoveByIdentity()
+  {
+    final long location = MFPackedLocation.pack(4, 4, 2);
+    final String value = new String("a");
+    this.grid.add(location, value);
+
+    assertFalse(this.grid.remove(location, new String("a")));
+    assertTrue(this.grid.remove(location, value));
+    assertTrue(this.grid.isEmpty());
+  }
+
+  @Test
+  public void shouldFindSameValuesAsFullScan()
+  {
+    final Random random = new Random(7);
+    final List<Long> locations = new ArrayList<Long>();
+    for (int i = 0; i < 500; ++i) {
+      final long location = MFPackedLocation.pack(random.nextInt(100),
+                                          random.nextInt(100), random.nextInt(5));
+      locations.add(location);
+      this.grid.add(location, String.valueOf(i));
+    }
+
+    for (int i = 0; i < 20; ++i) {
+      final long center = MFPackedLocation.pack(random.nextInt(100),
+                                          random.nextInt(100), random.nextInt(5));
+      final int range = random.nextInt(20);
+      final List<Integer> distances = new ArrayList<Integer>();
+      int inRange = 0;
+      for (long location : locations) {
+        final int distance = MFPackedLocation.distance(center, location);
+        distances.add(distance);
+        if (distance <= range) {
+          ++inRange;
+        }
+      }
+      assertEquals(inRange, this.grid.findInRange(center, range).size());
+
+      Collections.sort(distances);
+      final long[] nearest = this.grid.findNearestLocations(center, 5);
+      assertEquals(5, nearest.length);
+      for (int j = 0; j < nearest.length; ++j) {
+        assertEquals((int) distances.get(j), MFPackedLocation.distance(center, nearest[j]));
+      }
+    }
+  }
+}
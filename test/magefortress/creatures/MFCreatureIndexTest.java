@@ -0,0 +1,106 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.creatures;
+
+import java.util.List;
+import magefortress.core.MFEDirection;
+import magefortress.core.MFLocation;
+import magefortress.creatures.behavior.movable.MFWalksOnTwoLegs;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MFCreatureIndexTest
+{
+  private MFCreatureIndex index;
+  private MFRace race;
+
+  @Before
+  public void setUp()
+  {
+    this.index = new MFCreatureIndex();
+    this.race = mock(MFRace.class);
+  }
+
+  @Test
+  public void shouldNotIndexCreaturesWithoutLocation()
+  {
+    final MFCreature creature = this.createCreature(MFLocation.NOWHERE);
+    this.index.add(creature);
+    assertEquals(0, this.index.size());
+
+    creature.setLocation(new MFLocation(3, 3, 0));
+    assertEquals(1, this.index.size());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotAddCreatureTwice()
+  {
+    final MFCreature creature = this.createCreature(new MFLocation(3, 3, 0));
+    this.index.add(creature);
+    new MFCreatureIndex().add(creature);
+  }
+
+  @Test
+  public void shouldFollowMovingCreature()
+  {
+    final MFCreature creature = this.createCreature(new MFLocation(15, 3, 0));
+    this.index.add(creature);
+
+    creature.move(MFEDirection.E);
+    assertTrue(this.index.findInArea(0, new MFLocation(0, 0, 0), new MFLocation(15, 10, 0)).isEmpty());
+    assertSame(creature, this.index.findInArea(0, new MFLocation(16, 0, 0), new MFLocation(20, 10, 0)).get(0));
+
+    creature.setLocation(new MFLocation(40, 40, 2));
+    assertSame(creature, this.index.findInRange(new MFLocation(38, 38, 1), 2).get(0));
+    assertTrue(this.index.findInRange(new MFLocation(16, 3, 0), 5).isEmpty());
+  }
+
+  @Test
+  public void shouldFindNearestCreatures()
+  {
+    final MFCreature near = this.createCreature(new MFLocation(5, 5, 0));
+    final MFCreature far = this.createCreature(new MFLocation(60, 5, 0));
+    final MFCreature removed = this.createCreature(new MFLocation(4, 5, 0));
+    this.index.add(far);
+    this.index.add(near);
+    this.index.add(removed);
+    assertTrue(this.index.remove(removed));
+
+    final List<MFCreature> found = this.index.findNearest(new MFLocation(1, 1, 0), 5);
+    assertEquals(2, found.size());
+    assertSame(near, found.get(0));
+    assertSame(far, found.get(1));
+  }
+
+  private MFCreature createCreature(MFLocation _location)
+  {
+    final MFCreature creature = new MFCreature("Creature", this.race);
+    creature.setMovingBehavior(new MFWalksOnTwoLegs());
+    creature.setLocation(_location);
+    return creature;
+  }
+}
@@ -26,6 +26,8 @@ package magefortress.creatures;
 
 import java.util.List;
 import magefortress.storage.DataAccessException;
+import magefortress.storage.MFMockQueries;
+import magefortress.storage.MFPreparedQuery;
 import magefortress.storage.MFSqlConnector;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -41,6 +43,9 @@ public class MFRaceSqlDaoTest
   private MFRace spyRace;
   private MFRace savedMockRace;
   private MFSqlConnector mockDb;
+  private MFPreparedQuery createQuery;
+  private MFPreparedQuery updateQuery;
+  private MFPreparedQuery destroyQuery;
   private static MFSqlConnector realDb;
 
   @BeforeClass
@@ -54,7 +59,7 @@ public class MFRaceSqlDaoTest
   }
 
   @Before
-  public void setUp() throws ClassNotFoundException
+  public void setUp() throws ClassNotFoundException, DataAccessException
   {
     // reset real test db
     //realDb.loadFromFile("magefortress.sql");
@@ -62,6 +67,9 @@ public class MFRaceSqlDaoTest
     //resetDb();
 
     mockDb = mock(MFSqlConnector.class);
+    createQuery = MFMockQueries.stubQuery(mockDb, "CREATE_MFRaceSqlDao", 0);
+    updateQuery = MFMockQueries.stubQuery(mockDb, "UPDATE_MFRaceSqlDao", 0);
+    destroyQuery = MFMockQueries.stubQuery(mockDb, "DESTROY_MFRaceSqlDao", 0);
     
     MFRace race = new MFRace(new MFRaceSqlDao(mockDb).getUnsavedMarker(),
             "Unsaved Spy Race", "magefortress.creatures.behavior.movable.MFNullMovable", "magefortress.creatures.behavior.holdable.MFNullHoldable");
@@ -112,10 +120,10 @@ public class MFRaceSqlDaoTest
   {
     unsavedRaceSqlDao.save();
 
-    ArgumentCaptor<String> queryId = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MFPreparedQuery> queryId = ArgumentCaptor.forClass(MFPreparedQuery.class);
 
     verify(mockDb).insert(queryId.capture(), anyListOf(Object.class));
-    assertEquals("CREATE_MFRaceSqlDao", queryId.getValue());
+    assertEquals("CREATE_MFRaceSqlDao", queryId.getValue().getId());
   }
 
   @Test
@@ -123,10 +131,10 @@ public class MFRaceSqlDaoTest
   {
     savedRaceSqlDao.save();
 
-    ArgumentCaptor<String> queryId = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MFPreparedQuery> queryId = ArgumentCaptor.forClass(MFPreparedQuery.class);
 
     verify(mockDb).update(queryId.capture(), anyListOf(Object.class));
-    assertEquals("UPDATE_MFRaceSqlDao", queryId.getValue());
+    assertEquals("UPDATE_MFRaceSqlDao", queryId.getValue().getId());
   }
 
   @Test
@@ -141,7 +149,7 @@ public class MFRaceSqlDaoTest
   public void shouldUpdateRaceWithGeneratedId() throws DataAccessException
   {
     final int generatedId = 42;
-    when(mockDb.insert(eq("CREATE_MFRaceSqlDao"), anyListOf(Object.class)))
+    when(mockDb.insert(same(createQuery), anyListOf(Object.class)))
             .thenReturn(generatedId);
 
     unsavedRaceSqlDao.save();
@@ -189,11 +197,11 @@ public class MFRaceSqlDaoTest
   @Test
   public void shouldDelete() throws DataAccessException
   {
-    when(mockDb.update(eq("DESTROY_MFRaceSqlDao"), anyListOf(Object.class))).thenReturn(1);
+    when(mockDb.update(same(destroyQuery), anyListOf(Object.class))).thenReturn(1);
     
     savedRaceSqlDao.delete();
 
-    verify(mockDb).update(eq("DESTROY_MFRaceSqlDao"), anyListOf(Object.class));
+    verify(mockDb).update(same(destroyQuery), anyListOf(Object.class));
     verify(savedMockRace).setId(unsavedRaceSqlDao.getUnsavedMarker());
   }
 
@@ -212,7 +220,7 @@ public class MFRaceSqlDaoTest
   @Test(expected=DataAccessException.class)
   public void shouldThrowExceptionWhenNothingWasDeleted() throws DataAccessException
   {
-    when(mockDb.update(eq("DESTROY_MFRaceSqlDao"), anyListOf(Object.class))).thenReturn(0);
+    when(mockDb.update(same(destroyQuery), anyListOf(Object.class))).thenReturn(0);
 
     savedRaceSqlDao.delete();
   }
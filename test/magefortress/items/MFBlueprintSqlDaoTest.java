@@ -27,6 +27,8 @@ package magefortress.items;
 import java.util.List;
 import magefortress.items.placeable.MFUnplaceable;
 import magefortress.storage.DataAccessException;
+import magefortress.storage.MFMockQueries;
+import magefortress.storage.MFPreparedQuery;
 import magefortress.storage.MFSqlConnector;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -43,6 +45,9 @@ public class MFBlueprintSqlDaoTest
   private MFBlueprint spyBlueprint;
   private MFBlueprint savedMockBlueprint;
   private MFSqlConnector mockDb;
+  private MFPreparedQuery createQuery;
+  private MFPreparedQuery updateQuery;
+  private MFPreparedQuery destroyQuery;
   private static MFSqlConnector realDb;
 
   @BeforeClass
@@ -56,7 +61,7 @@ public class MFBlueprintSqlDaoTest
   }
 
   @Before
-  public void setUp() throws ClassNotFoundException
+  public void setUp() throws ClassNotFoundException, DataAccessException
   {
     // reset real test db
     //realDb.loadFromFile("magefortress.sql");
@@ -64,6 +69,9 @@ public class MFBlueprintSqlDaoTest
     //resetDb();
 
     mockDb = mock(MFSqlConnector.class);
+    createQuery = MFMockQueries.stubQuery(mockDb, "CREATE_MFBlueprintSqlDao", 0);
+    updateQuery = MFMockQueries.stubQuery(mockDb, "UPDATE_MFBlueprintSqlDao", 0);
+    destroyQuery = MFMockQueries.stubQuery(mockDb, "DESTROY_MFBlueprintSqlDao", 0);
 
     MFBlueprint blueprint = new MFBlueprint(new MFBlueprintSqlDao(mockDb).getUnsavedMarker(),
             "Unsaved Spy Blueprint");
@@ -113,10 +121,10 @@ public class MFBlueprintSqlDaoTest
   {
     unsavedBlueprintSqlDao.save();
 
-    ArgumentCaptor<String> queryId = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MFPreparedQuery> queryId = ArgumentCaptor.forClass(MFPreparedQuery.class);
 
     verify(mockDb).insert(queryId.capture(), anyListOf(Object.class));
-    assertEquals("CREATE_MFBlueprintSqlDao", queryId.getValue());
+    assertEquals("CREATE_MFBlueprintSqlDao", queryId.getValue().getId());
   }
 
   @Test
@@ -124,10 +132,10 @@ public class MFBlueprintSqlDaoTest
   {
     savedBlueprintSqlDao.save();
 
-    ArgumentCaptor<String> queryId = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MFPreparedQuery> queryId = ArgumentCaptor.forClass(MFPreparedQuery.class);
 
     verify(mockDb).update(queryId.capture(), anyListOf(Object.class));
-    assertEquals("UPDATE_MFBlueprintSqlDao", queryId.getValue());
+    assertEquals("UPDATE_MFBlueprintSqlDao", queryId.getValue().getId());
   }
 
   @Test
@@ -142,7 +150,7 @@ public class MFBlueprintSqlDaoTest
   public void shouldUpdateWithGeneratedId() throws DataAccessException
   {
     final int generatedId = 42;
-    when(mockDb.insert(eq("CREATE_MFBlueprintSqlDao"), anyListOf(Object.class)))
+    when(mockDb.insert(same(createQuery), anyListOf(Object.class)))
             .thenReturn(generatedId);
 
     unsavedBlueprintSqlDao.save();
@@ -187,11 +195,11 @@ public class MFBlueprintSqlDaoTest
   @Test
   public void shouldDelete() throws DataAccessException
   {
-    when(mockDb.update(eq("DESTROY_MFBlueprintSqlDao"), anyListOf(Object.class))).thenReturn(1);
+    when(mockDb.update(same(destroyQuery), anyListOf(Object.class))).thenReturn(1);
 
     savedBlueprintSqlDao.delete();
 
-    verify(mockDb).update(eq("DESTROY_MFBlueprintSqlDao"), anyListOf(Object.class));
+    verify(mockDb).update(same(destroyQuery), anyListOf(Object.class));
     verify(savedMockBlueprint).setId(unsavedBlueprintSqlDao.getUnsavedMarker());
   }
 
@@ -210,7 +218,7 @@ public class MFBlueprintSqlDaoTest
   @Test(expected=DataAccessException.class)
   public void shouldThrowExceptionWhenNothingWasDeleted() throws DataAccessException
   {
-    when(mockDb.update(eq("DESTROY_MFBlueprintSqlDao"), anyListOf(Object.class))).thenReturn(0);
+    when(mockDb.update(same(destroyQuery), anyListOf(Object.class))).thenReturn(0);
 
     savedBlueprintSqlDao.delete();
   }
@@ -221,6 +221,23 @@ public class MFDiggingSiteTest
     verify(mockApplier, never()).update(any(MFChannelMessage.class));
   }
 
+  @Test
+  public void shouldNotBeReachableFromLevelAbove()
+  {
+    // given a dug out tile directly above the site without a passage down
+    @SuppressWarnings("unchecked")
+    MFMap realMap = new MFMap(-1, 3, 3, 2, mock(MFGround.class));
+    realMap.digOut(new MFLocation(1, 1, 0));
+    MFCommunicationChannel channel = mock(MFCommunicationChannel.class);
+
+    // when a digging site is created below it
+    MFDiggingSite site = new MFDiggingSite(new MFLocation(1, 1, 1), realMap,
+                            mockJobFactory, channel, mockSiteListener);
+
+    // then the site should be unreachable
+    assertFalse(site.isJobAvailable());
+  }
+
   @Test(expected=MFPrerequisitesNotMetException.class)
   public void shouldNotGiveOutJobIfUnreachable()
   {
@@ -31,6 +31,7 @@ import magefortress.creatures.behavior.movable.MFCapability;
 import magefortress.creatures.behavior.movable.MFIMovable;
 import magefortress.map.MFPath;
 import magefortress.map.MFPathFinder;
+import magefortress.map.MFReservationTable;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -240,4 +241,108 @@ public class MFGotoLocationSubtaskTest
             any(MFLocation.class), anyInt(), any(MFCapability.class), eq(gotoTask));
   }
 
-}
\ No newline at end of file
+  @Test
+  public void shouldSearchWithExpansionBudget() throws MFSubtaskCanceledException
+  {
+    final int budget = 50;
+    gotoTask = new MFGotoLocationSubtask(mockOwner, null, mockPathFinder, budget);
+
+    gotoTask.update();
+    verify(mockPathFinder).enqueuePathSearch(any(MFLocation.class),
+            any(MFLocation.class), anyInt(), any(MFCapability.class), eq(budget),
+            eq(gotoTask));
+  }
+
+  @Test
+  public void shouldSearchRestOfTheWayAtEndOfPartialPath() throws MFSubtaskCanceledException
+  {
+    MFLocation goal = new MFLocation(1, 2, 3);
+    // 1-tile partial path northwards
+    MFPath path = mock(MFPath.class);
+    when(path.isPathValid()).thenReturn(true);
+    when(path.isPartial()).thenReturn(true);
+    when(path.hasNext()).thenReturn(true);
+    when(path.next()).thenReturn(MFEDirection.N);
+
+    when(mockOwner.getCurrentHeading()).thenReturn(goal);
+
+    gotoTask.update();
+    gotoTask.pathSearchFinished(path);
+
+    // move to the end of the partial path
+    when(mockOwner.getLocation()).thenReturn(new MFLocation(1,1,3));
+    when(path.hasNext()).thenReturn(true).thenReturn(false);
+    boolean done = gotoTask.update();
+    assertFalse(done);
+
+    // request the remainder from there
+    gotoTask.update();
+    verify(mockPathFinder, times(2)).enqueuePathSearch(any(MFLocation.class),
+            any(MFLocation.class), anyInt(), any(MFCapability.class), eq(gotoTask));
+  }
+
+  @Test
+  public void shouldSearchCooperativePath() throws MFSubtaskCanceledException
+  {
+    final int speed = 7;
+    when(mockOwner.getSpeed()).thenReturn(speed);
+    gotoTask.setCooperative(true);
+
+    gotoTask.update();
+    verify(mockPathFinder).enqueueCooperativePathSearch(any(MFLocation.class),
+            any(MFLocation.class), anyInt(), any(MFCapability.class), eq(speed),
+            eq(mockOwner), eq(gotoTask));
+  }
+
+  @Test
+  public void shouldSearchCooperativePathWithExpansionBudget() throws MFSubtaskCanceledException
+  {
+    final int budget = 50;
+    final int speed = 7;
+    when(mockOwner.getSpeed()).thenReturn(speed);
+    gotoTask = new MFGotoLocationSubtask(mockOwner, null, mockPathFinder, budget);
+    gotoTask.setCooperative(true);
+
+    gotoTask.update();
+    verify(mockPathFinder).enqueueCooperativePathSearch(any(MFLocation.class),
+            any(MFLocation.class), anyInt(), any(MFCapability.class), eq(speed),
+            eq(mockOwner), eq(budget), eq(gotoTask));
+  }
+
+  @Test
+  public void shouldReleaseReservationsIfNoPathWasFound() throws MFSubtaskCanceledException
+  {
+    MFReservationTable table = mock(MFReservationTable.class);
+    when(mockPathFinder.getReservationTable()).thenReturn(table);
+    gotoTask.setCooperative(true);
+
+    gotoTask.update();
+    gotoTask.pathSearchFinished(null);
+    try {
+      gotoTask.update();
+      fail("Subtask wasn't canceled.");
+    } catch (MFNoPathFoundException e) {
+      // expected
+    }
+
+    verify(table, atLeastOnce()).release(mockOwner);
+  }
+
+  @Test
+  public void shouldWaitInPlaceOnWaitStep() throws MFSubtaskCanceledException
+  {
+    MFPath path = mock(MFPath.class);
+    when(path.isPathValid()).thenReturn(true);
+    when(path.hasNext()).thenReturn(true);
+    when(path.next()).thenReturn(null);
+
+    gotoTask.setCooperative(true);
+    gotoTask.update();
+    gotoTask.pathSearchFinished(path);
+    gotoTask.update();
+
+    verify(path).next();
+    verify(mockOwner, never()).move(any(MFEDirection.class));
+  }
+
+}
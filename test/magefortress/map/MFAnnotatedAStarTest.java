@@ -24,6 +24,7 @@
  */
 package magefortress.map;
 
+import magefortress.core.MFEDirection;
 import magefortress.creatures.behavior.movable.MFCapability;
 import magefortress.map.ground.MFGround;
 import org.junit.Before;
@@ -209,6 +210,119 @@ public class MFAnnotatedAStarTest
     assertNull(path);
   }
 
+  //------------------------- EXPANSION BUDGET TESTS ---------------------------
+
+  @Test
+  public void shouldFindPartialPathWhenBudgetIsExhausted()
+  {
+    final MFTile startTile = this.map.getTile(0, 2, 0);
+    final MFTile goalTile  = this.map.getTile(4, 2, 0);
+    final int budget = 2;
+
+    MFAnnotatedAStar testPath = new MFAnnotatedAStar(this.map, startTile, goalTile, 1, MFCapability.WALK);
+    testPath.setExpansionBudget(budget);
+
+    MFPath path = testPath.findPath();
+    assertNotNull(path);
+    assertTrue(path.isPartial());
+    assertNotSame(goalTile, path.getGoal());
+
+    int gotPathLength = 0;
+    while(path.hasNext()) {
+      path.next();
+      ++gotPathLength;
+    }
+    assertEquals(budget, gotPathLength);
+  }
+
+  @Test
+  public void shouldFindCompletePathWhenBudgetSuffices()
+  {
+    final MFTile startTile = this.map.getTile(0, 2, 0);
+    final MFTile goalTile  = this.map.getTile(4, 2, 0);
+
+    MFAnnotatedAStar testPath = new MFAnnotatedAStar(this.map, startTile, goalTile, 1, MFCapability.WALK);
+    testPath.setExpansionBudget(100);
+
+    MFPath path = testPath.findPath();
+    assertNotNull(path);
+    assertFalse(path.isPartial());
+    assertEquals(goalTile, path.getGoal());
+  }
+
+  @Test
+  public void shouldNotFindPartialPathLeadingAwayFromGoal()
+  {
+    final MFTile startTile = this.map.getTile(2, 2, 0);
+    final MFTile goalTile  = this.map.getTile(4, 2, 0);
+    /*
+     *  _______
+     * |    /  |
+     * |   //  |
+     * |   A/ B|
+     * |   //  |
+     * |_______|
+     */
+    // every step from the start leads away from the goal
+    for (int y=0; y<this.map.getHeight()-1; ++y) {
+      this.map.getTile(3, y, 0).setDugOut(false);
+    }
+    this.map.getTile(2, 1, 0).setDugOut(false);
+    this.map.getTile(2, 3, 0).setDugOut(false);
+    this.naviMap.updateClearanceValues(MFCapability.WALK);
+
+    MFAnnotatedAStar testPath = new MFAnnotatedAStar(this.map, startTile, goalTile, 1, MFCapability.WALK);
+    testPath.setExpansionBudget(1);
+
+    assertNull(testPath.findPath());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotSetNegativeExpansionBudget()
+  {
+    final MFTile startTile = this.map.getTile(0, 2, 0);
+    final MFTile goalTile  = this.map.getTile(4, 2, 0);
+
+    MFAnnotatedAStar testPath = new MFAnnotatedAStar(this.map, startTile, goalTile, 1, MFCapability.WALK);
+    testPath.setExpansionBudget(-1);
+  }
+
+  @Test
+  public void shouldFindPathDownTheStairs()
+  {
+    this.naviMap = createMap(WIDTH, HEIGHT, 2);
+    this.map.getTile(2, 2, 0).setVerticalPassage(MFEVerticalPassage.STAIRS);
+    final MFTile startTile = this.map.getTile(0, 2, 0);
+    final MFTile goalTile  = this.map.getTile(4, 2, 1);
+
+    MFAnnotatedAStar testPath = new MFAnnotatedAStar(this.map, startTile, goalTile, 1, MFCapability.WALK);
+    MFPath path = testPath.findPath();
+    assertNotNull(path);
+    assertEquals(4 + MFEVerticalPassage.STAIRS.getCost(), path.getCost());
+
+    int gotSteps = 0;
+    int gotLevelChanges = 0;
+    while (path.hasNext()) {
+      if (path.next() == MFEDirection.DOWN) {
+        ++gotLevelChanges;
+      }
+      ++gotSteps;
+    }
+    assertEquals(5, gotSteps);
+    assertEquals(1, gotLevelChanges);
+  }
+
+  @Test
+  public void shouldNotChangeLevelsWithoutPassage()
+  {
+    this.naviMap = createMap(WIDTH, HEIGHT, 2);
+    final MFTile startTile = this.map.getTile(0, 2, 0);
+    final MFTile goalTile  = this.map.getTile(4, 2, 1);
+
+    MFAnnotatedAStar testPath = new MFAnnotatedAStar(this.map, startTile, goalTile, 1, MFCapability.WALK);
+    assertNull(testPath.findPath());
+  }
+
   //---vvv---      PRIVATE METHODS      ---vvv---
 
   private MFNavigationMap createMap(int _width, int _height, int _depth)
@@ -110,6 +110,27 @@ public class MFClearanceCalculatorTest
     assertEquals(expClearance, gotClearance);
   }
 
+  @Test
+  public void shouldCalculateClearanceOfAllCapabilitiesInOneSweep()
+  {
+    // a hole in the floor blocks walkers but not fliers
+    this.map.getTile(2, 2, 0).setFloor(false);
+
+    this.clearanceCalc.calculateAllLevels(this.capabilities);
+
+    assertEquals(0, this.map.getTile(2, 2, 0).getClearance(MFCapability.WALK));
+    assertEquals(0, this.map.getTile(2, 2, 0).getClearance(MFCapability.WALK_FLY));
+    assertEquals(3, this.map.getTile(2, 2, 0).getClearance(MFCapability.FLY));
+    assertEquals(2, this.map.getTile(0, 0, 0).getClearance(MFCapability.WALK));
+    assertEquals(5, this.map.getTile(0, 0, 0).getClearance(MFCapability.FLY));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotCalculateWithoutCapabilities()
+  {
+    this.clearanceCalc.calculateAllLevels(new HashSet<MFCapability>());
+  }
+
   //---vvv---      PRIVATE METHODS      ---vvv---
   private MFMap createMap(int _width, int _height, int _depth)
   {
@@ -0,0 +1,181 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import magefortress.core.MFEDirection;
+import magefortress.core.MFLocation;
+import magefortress.creatures.behavior.movable.MFCapability;
+import magefortress.map.ground.MFGround;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MFCooperativeAStarTest
+{
+  private MFMap map;
+  private MFReservationTable table;
+  private final Object owner = new Object();
+  private final Object otherOwner = new Object();
+  private static final int WIDTH  = 5;
+  private static final int HEIGHT = 1;
+  private static final int DEPTH  = 1;
+
+  @Before
+  public void setUp()
+  {
+    createMap(WIDTH, HEIGHT, DEPTH);
+    this.table = new MFReservationTable(MFReservationTable.DEFAULT_HORIZON);
+  }
+
+  @Test
+  public void shouldFindPathThroughCorridor()
+  {
+    /*
+     *  ___________
+     * |A         B|
+     */
+    final MFPath path = createSearch(0, 4).findPath();
+    assertNotNull(path);
+    assertFalse(path.isPartial());
+
+    int gotPathLength = 0;
+    while (path.hasNext()) {
+      assertEquals(MFEDirection.E, path.next());
+      ++gotPathLength;
+    }
+    assertEquals(4, gotPathLength);
+  }
+
+  @Test
+  public void shouldWaitForReservedTile()
+  {
+    /*
+     *  ___________
+     * |A X       B|
+     *
+     * X is occupied by another creature during ticks 1 to 3
+     */
+    for (int tick = 1; tick <= 3; ++tick) {
+      this.table.reserve(new MFLocation(1, 0, 0), tick, this.otherOwner);
+    }
+
+    final MFPath path = createSearch(0, 4).findPath();
+    assertNotNull(path);
+
+    int gotWaits = 0;
+    int gotMoves = 0;
+    while (path.hasNext()) {
+      if (path.next() == null) {
+        ++gotWaits;
+      } else {
+        ++gotMoves;
+      }
+    }
+    assertEquals(3, gotWaits);
+    assertEquals(4, gotMoves);
+  }
+
+  @Test
+  public void shouldReserveFoundPath()
+  {
+    createSearch(0, 4).findPath();
+
+    // start tile until the first move
+    assertTrue(this.table.isReserved(new MFLocation(0, 0, 0), 0, this.otherOwner));
+    // arriving at the second tile on tick 1 and leaving on tick 2
+    assertTrue(this.table.isReserved(new MFLocation(1, 0, 0), 1, this.otherOwner));
+    assertTrue(this.table.isReserved(new MFLocation(1, 0, 0), 2, this.otherOwner));
+    assertFalse(this.table.isReserved(new MFLocation(1, 0, 0), 3, this.otherOwner));
+    // goal
+    assertTrue(this.table.isReserved(new MFLocation(4, 0, 0), 4, this.otherOwner));
+  }
+
+  @Test
+  public void shouldReleasePreviousReservations()
+  {
+    createSearch(0, 4).findPath();
+    createSearch(0, 2).findPath();
+
+    assertFalse(this.table.isReserved(new MFLocation(4, 0, 0), 4, this.otherOwner));
+  }
+
+  @Test
+  public void shouldFindPartialPathWhenOutOfExpansions()
+  {
+    final MFCooperativeAStar search = createSearch(0, 4);
+    search.setExpansionBudget(2);
+
+    final MFPath path = search.findPath();
+    assertNotNull(path);
+    assertTrue(path.isPartial());
+    assertFalse(path.getGoal().getLocation().equals(new MFLocation(4, 0, 0)));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotCreateWithoutOwner()
+  {
+    new MFCooperativeAStar(this.map, this.map.getTile(0, 0, 0),
+            this.map.getTile(4, 0, 0), 1, MFCapability.WALK, this.table, null, 1);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotCreateWithoutStepDuration()
+  {
+    new MFCooperativeAStar(this.map, this.map.getTile(0, 0, 0),
+            this.map.getTile(4, 0, 0), 1, MFCapability.WALK, this.table, this.owner, 0);
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+
+  private MFCooperativeAStar createSearch(int _startX, int _goalX)
+  {
+    return new MFCooperativeAStar(this.map, this.map.getTile(_startX, 0, 0),
+                                  this.map.getTile(_goalX, 0, 0), 1,
+                                  MFCapability.WALK, this.table, this.owner, 1);
+  }
+
+  private void createMap(int _width, int _height, int _depth)
+  {
+    this.map = new MFMap(-1, _width, _height, _depth, mock(MFGround.class));
+    for (int x = 0; x < _width; ++x) {
+      for (int y = 0; y < _height; ++y) {
+        for (int z = 0; z < _depth; ++z) {
+          boolean hasWallN = y == 0;
+          boolean hasWallE = x == _width-1;
+          boolean hasWallS = y == _height-1;
+          boolean hasWallW = x == 0;
+          MFTile tile = this.map.getTile(x, y, z);
+          tile.setDugOut(true);
+          tile.setWalls(hasWallN, hasWallE, hasWallS, hasWallW);
+        }
+      }
+    }
+    MFClearanceCalculator clearanceCalc = new MFClearanceCalculator(this.map);
+    MFNavigationMap naviMap = new MFNavigationMap(this.map, clearanceCalc);
+    naviMap.updateClearanceValues(MFCapability.WALK);
+  }
+
+}
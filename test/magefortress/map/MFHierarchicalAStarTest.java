@@ -532,6 +532,65 @@ public class MFHierarchicalAStarTest
     assertEquals(expCost, gotCost);
   }
 
+  //------------------------- INTER-LEVEL TESTS -------------------------------
+
+  @Test
+  public void shouldSearchRouteAcrossLevelsOnRegions()
+  {
+    this.naviMap = createMap(5, 5, 2);
+    final MFTile stairsTop    = this.map.getTile(2, 2, 0);
+    final MFTile stairsBottom = this.map.getTile(2, 2, 1);
+    stairsTop.setVerticalPassage(MFEVerticalPassage.STAIRS);
+    this.naviMap.calculateAllLevels();
+
+    final MFTile startTile = this.map.getTile(0, 0, 0);
+    final MFTile goalTile  = this.map.getTile(4, 4, 1);
+    final int clearance = 1;
+    final MFCapability capability = MFCapability.WALK;
+    this.search = new MFHierarchicalAStar(this.map, startTile, goalTile,
+                                      clearance, capability, this.pathFinder);
+    final MFPath path = this.search.findPath();
+    assertNotNull(path);
+    assertTrue(path instanceof MFHierarchicalPath);
+
+    final MFHierarchicalPath hierarchicalPath = (MFHierarchicalPath) path;
+    verify(this.pathFinder).enqueuePathSearch(startTile.getLocation(),
+            stairsTop.getLocation(), clearance, capability, hierarchicalPath);
+    verify(this.pathFinder).enqueuePathSearch(stairsTop.getLocation(),
+            stairsBottom.getLocation(), clearance, capability, hierarchicalPath);
+    verifyNoMoreInteractions(this.pathFinder);
+  }
+
+  @Test
+  public void shouldTakeStairsBetweenVerticalNeighbors()
+  {
+    this.naviMap = createMap(5, 5, 2);
+    final MFTile stairsTop    = this.map.getTile(2, 2, 0);
+    final MFTile stairsBottom = this.map.getTile(2, 2, 1);
+    stairsTop.setVerticalPassage(MFEVerticalPassage.STAIRS);
+    this.naviMap.calculateAllLevels();
+
+    this.search = new MFHierarchicalAStar(this.map, stairsTop, stairsBottom,
+                                      1, MFCapability.WALK, this.pathFinder);
+    final MFPath path = this.search.findPath();
+    assertNotNull(path);
+    assertTrue(path instanceof MFAnnotatedPath);
+    assertTrue(path.hasNext());
+    assertEquals(MFEDirection.DOWN, path.next());
+    assertFalse(path.hasNext());
+  }
+
+  @Test
+  public void shouldNotFindRouteToLevelWithoutPassage()
+  {
+    this.naviMap = createMap(5, 5, 2);
+    this.naviMap.calculateAllLevels();
+
+    this.search = new MFHierarchicalAStar(this.map, this.map.getTile(0, 0, 0),
+                this.map.getTile(4, 4, 1), 1, MFCapability.WALK, this.pathFinder);
+    assertNull(this.search.findPath());
+  }
+
   //---vvv---      PRIVATE METHODS      ---vvv---
 
   private MFNavigationMap createMap(int _width, int _height, int _depth)
@@ -0,0 +1,111 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.HashMap;
+import java.util.Map;
+import magefortress.core.MFLocation;
+import magefortress.map.ground.MFGround;
+import magefortress.storage.DataAccessException;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MFLevelCodecTest
+{
+  private MFMap map;
+  private MFGround ground;
+  private MFGround otherGround;
+  private Map<Integer, MFGround> groundTypes;
+
+  @Before
+  public void setUp()
+  {
+    this.ground = mock(MFGround.class);
+    when(this.ground.getId()).thenReturn(1);
+    this.otherGround = mock(MFGround.class);
+    when(this.otherGround.getId()).thenReturn(2);
+    this.groundTypes = new HashMap<Integer, MFGround>();
+    this.groundTypes.put(1, this.ground);
+    this.groundTypes.put(2, this.otherGround);
+    this.map = new MFMap(-1, 70, 40, 2, this.ground);
+  }
+
+  @Test
+  public void shouldDecodeEncodedLevel() throws DataAccessException
+  {
+    this.map.digOut(new MFLocation(1, 1, 1));
+    this.map.digOut(new MFLocation(2, 1, 1));
+    this.map.getTile(2, 1, 1).setVerticalPassage(MFEVerticalPassage.STAIRS);
+    this.map.loadTile(-1, 50, 30, 1, MFTileStorage.UNDERGROUND, this.otherGround);
+    this.map.loadLevel(1);
+
+    byte[] data = MFLevelCodec.encode(this.map.createSnapshot(), 1);
+    MFTileStorage level = MFLevelCodec.decode(data, 1, 70, 40,
+                                              this.groundTypes, this.ground);
+
+    for (int x = 0; x < 70; ++x) {
+      for (int y = 0; y < 40; ++y) {
+        assertEquals("Flags of " + x + "/" + y,
+                this.map.getFlags(x, y, 1) & MFTileStorage.PERSISTENT_FLAGS,
+                level.getFlags(x, y, 1));
+        assertSame(this.map.getTile(x, y, 1).getGround(), level.getGround(x, y, 1));
+      }
+    }
+    assertEquals(MFEVerticalPassage.STAIRS, level.getVerticalPassage(2, 1, 1));
+  }
+
+  @Test
+  public void shouldEncodeUniformLevelCompactly()
+  {
+    MFMap bigMap = new MFMap(-1, 256, 256, 1, this.ground);
+    bigMap.loadLevel(0);
+
+    byte[] data = MFLevelCodec.encode(bigMap.createSnapshot(), 0);
+
+    assertTrue("Encoded size: " + data.length, data.length < 64);
+  }
+
+  @Test(expected=DataAccessException.class)
+  public void shouldNotDecodeLevelOfOtherSize() throws DataAccessException
+  {
+    this.map.loadLevel(0);
+    byte[] data = MFLevelCodec.encode(this.map.createSnapshot(), 0);
+
+    MFLevelCodec.decode(data, 0, 40, 70, this.groundTypes, this.ground);
+  }
+
+  @Test(expected=DataAccessException.class)
+  public void shouldNotDecodeCorruptData() throws DataAccessException
+  {
+    this.map.loadLevel(0);
+    byte[] data = MFLevelCodec.encode(this.map.createSnapshot(), 0);
+    byte[] truncated = new byte[data.length / 2];
+    System.arraycopy(data, 0, truncated, 0, truncated.length);
+
+    MFLevelCodec.decode(truncated, 0, 70, 40, this.groundTypes, this.ground);
+  }
+}
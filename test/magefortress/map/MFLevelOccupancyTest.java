@@ -0,0 +1,111 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.Random;
+import magefortress.items.MFBlueprint;
+import magefortress.items.MFItem;
+import magefortress.map.ground.MFGround;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MFLevelOccupancyTest
+{
+  private static final int WIDTH = 70;
+  private static final int HEIGHT = 90;
+  private static final int DEPTH = 2;
+  private MFLevelOccupancy occupancy;
+
+  @Before
+  public void setUp()
+  {
+    this.occupancy = new MFLevelOccupancy(WIDTH, HEIGHT, DEPTH);
+  }
+
+  @Test
+  public void shouldStartWithFloorEverywhere()
+  {
+    assertEquals(WIDTH * HEIGHT, this.occupancy.count(MFLevelOccupancy.Layer.FLOOR, 1));
+    assertEquals(0, this.occupancy.count(MFLevelOccupancy.Layer.DUG_OUT, 1));
+    assertEquals(-1, this.occupancy.nextSetBit(MFLevelOccupancy.Layer.DUG_OUT, 0, 0));
+    assertEquals(-1, this.occupancy.previousSetBit(MFLevelOccupancy.Layer.DUG_OUT, 0, WIDTH * HEIGHT));
+  }
+
+  @Test
+  public void shouldFindSameBitsAsFullScan()
+  {
+    final Random random = new Random(5);
+    final boolean[] expected = new boolean[WIDTH * HEIGHT];
+    for (int i = 0; i < 300; ++i) {
+      final int x = random.nextInt(WIDTH);
+      final int y = random.nextInt(HEIGHT);
+      final boolean value = random.nextInt(4) != 0;
+      this.occupancy.set(MFLevelOccupancy.Layer.OBJECT, x, y, 1, value);
+      expected[this.occupancy.index(x, y)] = value;
+    }
+
+    int index = -1;
+    for (int i = 0; i < expected.length; ++i) {
+      if (expected[i]) {
+        index = this.occupancy.nextSetBit(MFLevelOccupancy.Layer.OBJECT, 1, index + 1);
+        assertEquals(i, index);
+      }
+    }
+    assertEquals(-1, this.occupancy.nextSetBit(MFLevelOccupancy.Layer.OBJECT, 1, index + 1));
+
+    index = expected.length;
+    for (int i = expected.length - 1; i >= 0; --i) {
+      if (expected[i]) {
+        index = this.occupancy.previousSetBit(MFLevelOccupancy.Layer.OBJECT, 1, index - 1);
+        assertEquals(i, index);
+      }
+    }
+    assertEquals(-1, this.occupancy.previousSetBit(MFLevelOccupancy.Layer.OBJECT, 1, index - 1));
+    assertEquals(-1, this.occupancy.nextSetBit(MFLevelOccupancy.Layer.OBJECT, 0, 0));
+  }
+
+  @Test
+  public void shouldFollowChangesOfMap()
+  {
+    final MFMap map = new MFMap(-1, WIDTH, HEIGHT, DEPTH, mock(MFGround.class));
+    final MFTile tile = map.getTile(40, 50, 1);
+    tile.setDugOut(true);
+    tile.setObject(new MFItem(mock(MFBlueprint.class)));
+
+    final MFLevelOccupancy mapOccupancy = map.getOccupancy(1);
+    final int index = mapOccupancy.index(40, 50);
+    assertEquals(index, mapOccupancy.nextSetBit(MFLevelOccupancy.Layer.DUG_OUT, 1, 0));
+    assertEquals(index, mapOccupancy.nextSetBit(MFLevelOccupancy.Layer.WALKABLE, 1, 0));
+    assertEquals(index, mapOccupancy.nextSetBit(MFLevelOccupancy.Layer.OBJECT, 1, 0));
+
+    tile.setFloor(false);
+    tile.setObject(null);
+    assertEquals(-1, mapOccupancy.nextSetBit(MFLevelOccupancy.Layer.WALKABLE, 1, 0));
+    assertEquals(-1, mapOccupancy.nextSetBit(MFLevelOccupancy.Layer.OBJECT, 1, 0));
+    assertEquals(WIDTH * HEIGHT - 1, mapOccupancy.count(MFLevelOccupancy.Layer.FLOOR, 1));
+  }
+}
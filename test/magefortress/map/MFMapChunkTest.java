@@ -0,0 +1,126 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import magefortress.core.MFEDirection;
+import magefortress.creatures.behavior.movable.MFCapability;
+import magefortress.map.ground.MFGround;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MFMapChunkTest
+{
+  private MFMapChunk chunk;
+
+  @Before
+  public void setUp()
+  {
+    this.chunk = new MFMapChunk(new MFTileStorage(32, 64, 2, 32, 32, 1,
+                                                  mock(MFGround.class)));
+  }
+
+  @Test
+  public void shouldCreateTileOnFirstAccess()
+  {
+    MFTile tile = this.chunk.getTile(40, 70);
+    assertEquals(40, tile.getPosX());
+    assertEquals(70, tile.getPosY());
+    assertEquals(2, tile.getPosZ());
+    assertSame(tile, this.chunk.getTile(40, 70));
+  }
+
+  @Test
+  public void shouldBeEvictableWhenUntouched()
+  {
+    this.chunk.getTile(40, 70);
+    assertFalse(this.chunk.isDirty());
+    assertTrue(this.chunk.isEvictable());
+  }
+
+  @Test
+  public void shouldNotBeEvictableWhenChanged()
+  {
+    this.chunk.getTile(40, 70).setDugOut(true);
+    assertTrue(this.chunk.isDirty());
+    assertFalse(this.chunk.isEvictable());
+  }
+
+  @Test
+  public void shouldNotMarkDerivedDataAsChange()
+  {
+    MFTile tile = this.chunk.getTile(40, 70);
+    tile.setCorner(MFEDirection.NW, MFTile.Corner.INWARD);
+    tile.setClearance(MFCapability.WALK, 3);
+    assertFalse(this.chunk.isDirty());
+    assertTrue(this.chunk.isEvictable());
+  }
+
+  @Test
+  public void shouldKeepClearanceAndReferencedTilesWhenEvicted()
+  {
+    MFTile referencedTile = this.chunk.getTile(40, 70);
+    referencedTile.subscribeConstructionsListener(mock(MFITileConstructionsListener.class));
+    referencedTile.setClearance(MFCapability.WALK, 3);
+    MFTile plainTile = this.chunk.getTile(41, 70);
+    plainTile.setClearance(MFCapability.WALK, 2);
+
+    this.chunk.evict(mock(MFMap.class));
+    MFMapChunk reloaded = new MFMapChunk(new MFTileStorage(32, 64, 2, 32, 32, 1,
+                                                           mock(MFGround.class)));
+    reloaded.restore(this.chunk);
+
+    assertSame(referencedTile, reloaded.getTile(40, 70));
+    assertSame(reloaded.getStorage(), referencedTile.getStorage());
+    assertEquals(3, referencedTile.getClearance(MFCapability.WALK));
+    assertNotSame(plainTile, reloaded.getTile(41, 70));
+    assertEquals(2, reloaded.getTile(41, 70).getClearance(MFCapability.WALK));
+  }
+
+  @Test
+  public void shouldGrowEstimatedSizeWithTiles()
+  {
+    long emptySize = this.chunk.estimateSize();
+    assertEquals(this.chunk.getStorage().estimateSize(), emptySize);
+    this.chunk.getTile(40, 70);
+    assertTrue(this.chunk.estimateSize() > emptySize);
+  }
+
+  @Test
+  public void shouldCollectOnlyCreatedTiles()
+  {
+    List<MFTile> created = new ArrayList<MFTile>();
+    this.chunk.collectCreatedTiles(created);
+    assertTrue(created.isEmpty());
+
+    MFTile tile = this.chunk.getTile(40, 70);
+    this.chunk.collectCreatedTiles(created);
+    assertEquals(Collections.singletonList(tile), created);
+  }
+}
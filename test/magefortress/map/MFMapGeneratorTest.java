@@ -0,0 +1,162 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.Arrays;
+import java.util.Collections;
+import magefortress.core.MFEDirection;
+import magefortress.map.ground.MFGround;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MFMapGeneratorTest
+{
+  private static final int WIDTH = 70;
+  private static final int HEIGHT = 40;
+  private static final int DEPTH = 3;
+  private MFGround rock;
+  private MFGround ore;
+  private MFMapGenerator generator;
+
+  @Before
+  public void setUp()
+  {
+    this.rock = mock(MFGround.class);
+    this.ore = mock(MFGround.class);
+    this.generator = new MFMapGenerator(42, this.rock, Arrays.asList(this.ore));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotCreateWithoutRock()
+  {
+    new MFMapGenerator(42, null, Collections.<MFGround>emptyList());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotSetInvalidCavernDensity()
+  {
+    this.generator.setCavernDensity(1.5);
+  }
+
+  @Test
+  public void shouldGenerateSameMapForSameSeed()
+  {
+    this.generator.setThreadCount(1);
+    MFMap first = this.generator.generate(WIDTH, HEIGHT, DEPTH);
+    this.generator.setThreadCount(3);
+    MFMap second = this.generator.generate(WIDTH, HEIGHT, DEPTH);
+
+    for (int z = 0; z < DEPTH; ++z) {
+      for (int x = 0; x < WIDTH; ++x) {
+        for (int y = 0; y < HEIGHT; ++y) {
+          assertEquals(first.getFlags(x, y, z), second.getFlags(x, y, z));
+          assertSame(first.getStorage(x, y, z).getGround(x, y, z),
+                     second.getStorage(x, y, z).getGround(x, y, z));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldGenerateDifferentMapsForDifferentSeeds()
+  {
+    MFMap first = this.generator.generate(WIDTH, HEIGHT, 1);
+    MFMap second = new MFMapGenerator(43, this.rock,
+                        Arrays.asList(this.ore)).generate(WIDTH, HEIGHT, 1);
+
+    boolean differs = false;
+    for (int x = 0; x < WIDTH && !differs; ++x) {
+      for (int y = 0; y < HEIGHT && !differs; ++y) {
+        differs = first.getFlags(x, y, 0) != second.getFlags(x, y, 0);
+      }
+    }
+    assertTrue(differs);
+  }
+
+  @Test
+  public void shouldPlaceCavernsAndOres()
+  {
+    MFMap map = this.generator.generate(WIDTH, HEIGHT, 1);
+
+    int dugOut = 0;
+    int ores = 0;
+    for (int x = 0; x < WIDTH; ++x) {
+      for (int y = 0; y < HEIGHT; ++y) {
+        if (map.getTile(x, y, 0).isDugOut()) {
+          ++dugOut;
+        }
+        if (map.getTile(x, y, 0).getGround() == this.ore) {
+          ++ores;
+        }
+      }
+    }
+    assertTrue(dugOut > 0 && dugOut < WIDTH * HEIGHT);
+    assertTrue(ores > 0);
+  }
+
+  @Test
+  public void shouldCalculateWallsAndCornersLikeDiggingOut()
+  {
+    MFMap map = this.generator.generate(WIDTH, HEIGHT, DEPTH);
+
+    for (int z = 0; z < DEPTH; ++z) {
+      for (int x = 0; x < WIDTH; ++x) {
+        for (int y = 0; y < HEIGHT; ++y) {
+          MFTile tile = map.getTile(x, y, z);
+          if (!tile.isDugOut()) {
+            continue;
+          }
+          MFTile neighborN = map.getNeighbor(tile, MFEDirection.N);
+          MFTile neighborE = map.getNeighbor(tile, MFEDirection.E);
+          assertEquals(neighborN == null || !neighborN.isDugOut(), tile.hasWallNorth());
+          assertEquals(neighborE == null || !neighborE.isDugOut(), tile.hasWallEast());
+
+          int flags = map.getFlags(x, y, z);
+          map.calculateCorners(tile);
+          assertEquals(flags, map.getFlags(x, y, z));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldConnectLevelsByStairs()
+  {
+    MFMap map = this.generator.generate(WIDTH, HEIGHT, 2);
+
+    boolean stairs = false;
+    for (int x = 0; x < WIDTH; ++x) {
+      for (int y = 0; y < HEIGHT; ++y) {
+        if (map.getTile(x, y, 0).getVerticalPassage() == MFEVerticalPassage.STAIRS) {
+          stairs = true;
+          assertTrue(map.getTile(x, y, 1).isDugOut());
+        }
+      }
+    }
+    assertTrue(stairs);
+  }
+}
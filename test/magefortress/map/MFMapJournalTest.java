@@ -0,0 +1,146 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MFMapJournalTest
+{
+  private MFMapJournal journal;
+
+  @Before
+  public void setUp()
+  {
+    this.journal = new MFMapJournal();
+  }
+
+  @Test
+  public void shouldNotRecordWithoutCursor()
+  {
+    this.journal.record(1, 2, 3, MFETileChange.FLOOR);
+    assertEquals(0, this.journal.size());
+  }
+
+  @Test
+  public void shouldReadEntriesInOrder()
+  {
+    int cursor = this.journal.openCursor();
+    this.journal.record(1, 2, 3, MFETileChange.FLOOR);
+    this.journal.advance();
+    this.journal.record(-4, 5, 0, MFETileChange.GROUND);
+
+    RecordingVisitor visitor = new RecordingVisitor();
+    assertEquals(2, this.journal.read(cursor, visitor));
+    assertEquals("1/2/3 FLOOR@0", visitor.changes.get(0));
+    assertEquals("-4/5/0 GROUND@1", visitor.changes.get(1));
+    assertFalse(this.journal.hasChanges(cursor));
+  }
+
+  @Test
+  public void shouldOnlyReadEntriesAfterOpening()
+  {
+    int first = this.journal.openCursor();
+    this.journal.record(1, 1, 0, MFETileChange.WALLS);
+    int second = this.journal.openCursor();
+    this.journal.record(2, 2, 0, MFETileChange.WALLS);
+
+    RecordingVisitor visitor = new RecordingVisitor();
+    assertEquals(1, this.journal.read(second, visitor));
+    assertEquals("2/2/0 WALLS@0", visitor.changes.get(0));
+    assertEquals(2, this.journal.read(first, new RecordingVisitor()));
+  }
+
+  @Test
+  public void shouldDropEntriesReadByAllCursors()
+  {
+    int first = this.journal.openCursor();
+    int second = this.journal.openCursor();
+    this.journal.record(1, 1, 0, MFETileChange.DUG_OUT);
+
+    this.journal.read(first, new RecordingVisitor());
+    assertEquals(1, this.journal.size());
+    this.journal.read(second, new RecordingVisitor());
+    assertEquals(0, this.journal.size());
+  }
+
+  @Test
+  public void shouldKeepUnreadEntriesWhenGrowing()
+  {
+    int slow = this.journal.openCursor();
+    int fast = this.journal.openCursor();
+    for (int i = 0; i < 100; ++i) {
+      this.journal.record(i, 0, 0, MFETileChange.OBJECT);
+    }
+    this.journal.read(slow, new RecordingVisitor());
+    for (int i = 100; i < 200; ++i) {
+      this.journal.record(i, 0, 0, MFETileChange.OBJECT);
+    }
+
+    RecordingVisitor visitor = new RecordingVisitor();
+    assertEquals(200, this.journal.read(fast, visitor));
+    assertEquals("0/0/0 OBJECT@0", visitor.changes.get(0));
+    assertEquals("199/0/0 OBJECT@0", visitor.changes.get(199));
+    assertEquals(100, this.journal.read(slow, new RecordingVisitor()));
+  }
+
+  @Test
+  public void shouldDropEntriesOfClosedCursor()
+  {
+    int first = this.journal.openCursor();
+    int second = this.journal.openCursor();
+    this.journal.record(1, 1, 0, MFETileChange.DUG_OUT);
+    this.journal.read(first, new RecordingVisitor());
+
+    this.journal.closeCursor(second);
+    assertEquals(0, this.journal.size());
+    // the slot gets reused
+    assertEquals(second, this.journal.openCursor());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotReadWithClosedCursor()
+  {
+    int cursor = this.journal.openCursor();
+    this.journal.closeCursor(cursor);
+    this.journal.hasChanges(cursor);
+  }
+
+  //---vvv---     PRIVATE METHODS    ---vvv---
+
+  private static class RecordingVisitor implements MFIMapChangeVisitor
+  {
+    final List<String> changes = new ArrayList<String>();
+
+    @Override
+    public void tileChanged(int _x, int _y, int _z, MFETileChange _change, int _tick)
+    {
+      this.changes.add(_x + "/" + _y + "/" + _z + " " + _change + "@" + _tick);
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import magefortress.core.MFLocation;
+import magefortress.core.MFLongHashMap;
+import magefortress.core.MFPackedLocation;
+import magefortress.map.ground.MFGround;
+import magefortress.storage.DataAccessException;
+import magefortress.storage.MFDaoFactory;
+import magefortress.storage.MFISaveProgress;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MFMapSaveServiceTest
+{
+  private MFMapSaveService service;
+  private MFMap map;
+  private BlockingMapDao mapDao;
+  private RecordingListener listener;
+
+  @Before
+  public void setUp()
+  {
+    this.service = new MFMapSaveService(mock(MFDaoFactory.class),
+                                        Executors.defaultThreadFactory());
+    this.map = new MFMap(1, 40, 40, 2, mock(MFGround.class));
+    this.mapDao = new BlockingMapDao();
+    this.listener = new RecordingListener();
+    this.map.digOut(new MFLocation(1, 1, 0));
+  }
+
+  @After
+  public void tearDown()
+  {
+    this.mapDao.release.countDown();
+    this.service.shutdown();
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotCreateWithoutDaoFactory()
+  {
+    new MFMapSaveService(null);
+  }
+
+  @Test
+  public void shouldRefuseOverlappingSaves() throws InterruptedException
+  {
+    assertTrue(this.service.save(this.map, this.mapDao, true, this.listener));
+    assertTrue(this.service.isSaving());
+    assertTrue(this.map.isSaving());
+    assertEquals(0, this.map.getDirtyTileCount());
+
+    assertFalse(this.service.save(this.map, this.mapDao, true, this.listener));
+
+    this.mapDao.release.countDown();
+    this.waitForSave();
+    assertFalse(this.map.isSaving());
+    assertEquals(1, this.listener.finished);
+    assertEquals(2, this.listener.saved);
+    assertEquals(2, this.listener.total);
+    assertEquals(77, this.map.getTile(1, 1, 0).getId());
+    assertEquals(0, this.map.getDirtyTileCount());
+
+    assertTrue(this.service.save(this.map, this.mapDao, true, this.listener));
+  }
+
+  @Test
+  public void shouldSaveStateAtTimeOfSave() throws InterruptedException
+  {
+    this.service.save(this.map, this.mapDao, true, this.listener);
+    this.map.digOut(new MFLocation(5, 5, 0));
+    this.mapDao.release.countDown();
+    this.waitForSave();
+
+    assertTrue(this.mapDao.snapshot.isDugOut(1, 1, 0));
+    assertFalse(this.mapDao.snapshot.isDugOut(5, 5, 0));
+    // saved again next time
+    assertTrue(this.map.getDirtyTileCount() > 0);
+  }
+
+  @Test
+  public void shouldKeepChangesIfSaveFailed() throws InterruptedException
+  {
+    final int dirtyTileCount = this.map.getDirtyTileCount();
+    this.mapDao.failure = new DataAccessException("test");
+
+    this.service.save(this.map, this.mapDao, true, this.listener);
+    this.mapDao.release.countDown();
+    this.waitForSave();
+
+    assertFalse(this.map.isSaving());
+    assertSame(this.mapDao.failure, this.listener.failure);
+    assertEquals(0, this.listener.finished);
+    assertEquals(dirtyTileCount, this.map.getDirtyTileCount());
+    assertEquals(MFTileStorage.UNSAVED_ID, this.map.getTile(1, 1, 0).getId());
+  }
+
+  @Test
+  public void shouldEndRunningSaveOnShutdown()
+  {
+    this.service.save(this.map, this.mapDao, true, this.listener);
+    this.mapDao.release.countDown();
+
+    this.service.shutdown();
+
+    assertFalse(this.service.isSaving());
+    assertFalse(this.map.isSaving());
+    assertEquals(1, this.listener.finished);
+    assertEquals(77, this.map.getTile(1, 1, 0).getId());
+  }
+
+  private void waitForSave() throws InterruptedException
+  {
+    final long end = System.currentTimeMillis() + 5000;
+    while (this.service.isSaving() && System.currentTimeMillis() < end) {
+      this.service.update();
+      Thread.sleep(1);
+    }
+    assertFalse(this.service.isSaving());
+  }
+
+  /**
+   * Saves in two steps once it is released.
+   */
+  private static class BlockingMapDao implements MFIMapDao
+  {
+    final CountDownLatch release = new CountDownLatch(1);
+    volatile MFMapSnapshot snapshot;
+    volatile DataAccessException failure;
+
+    @Override
+    public MFLongHashMap<Integer> saveSnapshot(MFMapSnapshot _snapshot,
+          boolean _onlyChanges, MFISaveProgress _progress) throws DataAccessException
+    {
+      try {
+        this.release.await();
+      } catch (InterruptedException e) {
+        throw new DataAccessException("interrupted", e);
+      }
+      this.snapshot = _snapshot;
+      if (this.failure != null) {
+        throw this.failure;
+      }
+      _progress.progressed(1, 2);
+      _progress.progressed(2, 2);
+      final MFLongHashMap<Integer> result = new MFLongHashMap<Integer>();
+      result.put(MFPackedLocation.pack(1, 1, 0), 77);
+      return result;
+    }
+
+    @Override
+    public MFMap loadLazily(int _id)
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MFMap loadByLevel(int _id)
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void saveChanges()
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void save()
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MFMap load(int _id)
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<? extends MFMap> loadAll()
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete()
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getUnsavedMarker()
+    {
+      return MFTileStorage.UNSAVED_ID;
+    }
+
+    @Override
+    public MFMap getPayload()
+    {
+      return null;
+    }
+  }
+
+  private static class RecordingListener implements MFIMapSaveListener
+  {
+    int saved, total, finished;
+    DataAccessException failure;
+
+    @Override
+    public void mapSaveProgressed(MFMap _map, int _saved, int _total)
+    {
+      this.saved = _saved;
+      this.total = _total;
+    }
+
+    @Override
+    public void mapSaveFinished(MFMap _map)
+    {
+      ++this.finished;
+    }
+
+    @Override
+    public void mapSaveFailed(MFMap _map, DataAccessException _e)
+    {
+      this.failure = _e;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.Collections;
+import java.util.List;
+import magefortress.core.MFEDirection;
+import magefortress.core.MFLocation;
+import magefortress.map.ground.MFGround;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MFMapSnapshotTest
+{
+  private MFMap map;
+  private MFGround ground;
+
+  @Before
+  public void setUp()
+  {
+    this.ground = mock(MFGround.class);
+    this.map = new MFMap(-1, 70, 40, 2, this.ground);
+  }
+
+  @Test
+  public void shouldShowStateAtTimeOfSnapshot()
+  {
+    this.map.digOut(new MFLocation(1, 1, 0));
+    this.map.update();
+    MFMapSnapshot snapshot = this.map.createSnapshot();
+
+    this.map.digOut(new MFLocation(2, 1, 0));
+    this.map.digOut(new MFLocation(40, 1, 0));
+
+    assertEquals(1, snapshot.getTick());
+    assertTrue(snapshot.isDugOut(1, 1, 0));
+    assertTrue(snapshot.hasWall(1, 1, 0, MFEDirection.E));
+    assertFalse(snapshot.isDugOut(2, 1, 0));
+    assertFalse(snapshot.isDugOut(40, 1, 0));
+
+    assertFalse(this.map.getTile(1, 1, 0).hasWallEast());
+    assertTrue(this.map.getTile(40, 1, 0).isDugOut());
+  }
+
+  @Test
+  public void shouldKeepSnapshotsIndependent()
+  {
+    MFMapSnapshot before = this.map.createSnapshot();
+    this.map.digOut(new MFLocation(1, 1, 0));
+    MFMapSnapshot after = this.map.createSnapshot();
+    this.map.digOut(new MFLocation(2, 1, 0));
+
+    assertFalse(before.isDugOut(1, 1, 0));
+    assertTrue(after.isDugOut(1, 1, 0));
+    assertFalse(after.isDugOut(2, 1, 0));
+  }
+
+  @Test
+  public void shouldReadChunksNotLoadedAsSolidRock()
+  {
+    MFMap lazyMap = new MFMap(-1, 70, 40, 1, this.ground);
+    lazyMap.setChunkLoader(new MFIChunkLoader() {
+      @Override
+      public List<MFTile> loadChunk(int _x, int _y, int _z, int _width, int _height)
+      {
+        return Collections.emptyList();
+      }
+    });
+    lazyMap.getTile(1, 1, 0);
+    MFMapSnapshot snapshot = lazyMap.createSnapshot();
+
+    assertTrue(snapshot.isLoaded(1, 1, 0));
+    assertFalse(snapshot.isLoaded(40, 1, 0));
+    assertFalse(snapshot.isDugOut(40, 1, 0));
+    assertTrue(snapshot.isUnderground(40, 1, 0));
+    assertSame(this.ground, snapshot.getGround(40, 1, 0));
+    assertEquals(1, lazyMap.getLoadedChunkCount());
+  }
+
+  @Test(expected=IndexOutOfBoundsException.class)
+  public void shouldNotReadOutsideOfMap()
+  {
+    this.map.createSnapshot().isDugOut(70, 0, 0);
+  }
+}
@@ -30,9 +30,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import magefortress.core.MFEDirection;
+import magefortress.core.MFLongHashMap;
+import magefortress.core.MFPackedLocation;
 import magefortress.map.ground.MFGround;
 import magefortress.storage.DataAccessException;
 import magefortress.storage.MFDaoFactory;
+import magefortress.storage.MFISaveProgress;
+import magefortress.storage.MFMockQueries;
+import magefortress.storage.MFPreparedQuery;
 import magefortress.storage.MFSqlConnector;
 import magefortress.storage.MFSqlDao;
 import org.junit.Before;
@@ -49,7 +54,11 @@ public class MFMapSqlDaoTest
   private MFMap unsavedMap;
   private MFMap savedMockMap;
   private MFSqlConnector mockDb;
+  private MFPreparedQuery createQuery;
+  private MFPreparedQuery updateQuery;
+  private MFPreparedQuery destroyQuery;
   private MFDaoFactory mockDaoFactory;
+  private MFILevelDao mockLevelDao;
   private static MFSqlConnector realDb;
   private static MFDaoFactory realDaoFactory;
   private static final int GENERATED_ID = 42;
@@ -72,7 +81,10 @@ public class MFMapSqlDaoTest
   public void setUp() throws ClassNotFoundException, DataAccessException
   {
     mockDb = mock(MFSqlConnector.class);
-    when(mockDb.insert(eq(CREATE_ID), anyListOf(Object.class)))
+    createQuery = MFMockQueries.stubQuery(mockDb, CREATE_ID, 0);
+    updateQuery = MFMockQueries.stubQuery(mockDb, "UPDATE_MFMapSqlDao", 0);
+    destroyQuery = MFMockQueries.stubQuery(mockDb, "DESTROY_MFMapSqlDao", 0);
+    when(mockDb.insert(same(createQuery), anyListOf(Object.class)))
             .thenReturn(GENERATED_ID);
     
     mockDaoFactory = mock(MFDaoFactory.class);
@@ -84,6 +96,10 @@ public class MFMapSqlDaoTest
     savedMockMap = mock(MFMap.class);
     when(savedMockMap.getId()).thenReturn(42);
 
+    when(mockDaoFactory.getTileSavingDao(savedMockMap)).thenReturn(mock(MFITileDao.class));
+    mockLevelDao = mock(MFILevelDao.class);
+    when(mockDaoFactory.getLevelDao()).thenReturn(mockLevelDao);
+
     savedMapSqlDao = new MFMapSqlDao(mockDb, savedMockMap, mockDaoFactory);
   }
 
@@ -124,10 +140,10 @@ public class MFMapSqlDaoTest
   {
     unsavedMapSqlDao.save();
 
-    ArgumentCaptor<String> queryId = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MFPreparedQuery> queryId = ArgumentCaptor.forClass(MFPreparedQuery.class);
 
     verify(mockDb).insert(queryId.capture(), anyListOf(Object.class));
-    assertEquals(CREATE_ID, queryId.getValue());
+    assertEquals(CREATE_ID, queryId.getValue().getId());
   }
 
   @Test
@@ -135,10 +151,131 @@ public class MFMapSqlDaoTest
   {
     savedMapSqlDao.save();
 
-    ArgumentCaptor<String> queryId = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MFPreparedQuery> queryId = ArgumentCaptor.forClass(MFPreparedQuery.class);
 
     verify(mockDb).update(queryId.capture(), anyListOf(Object.class));
-    assertEquals("UPDATE_MFMapSqlDao", queryId.getValue());
+    assertEquals("UPDATE_MFMapSqlDao", queryId.getValue().getId());
+  }
+
+  @Test
+  public void shouldSaveInOneTransaction() throws DataAccessException
+  {
+    savedMapSqlDao.save();
+
+    verify(mockDb).beginTransaction();
+    verify(mockDb).commit();
+    verify(mockDb, never()).rollback();
+  }
+
+  @Test
+  public void shouldRollBackFailedSave() throws DataAccessException
+  {
+    when(mockDb.update(same(updateQuery), anyListOf(Object.class)))
+            .thenThrow(new DataAccessException("failed"));
+
+    try {
+      savedMapSqlDao.save();
+      fail("Expected DataAccessException");
+    } catch (DataAccessException e) {
+      verify(mockDb).rollback();
+      verify(mockDb, never()).commit();
+    }
+  }
+
+  @Test
+  public void shouldConvertRowsToLevels() throws DataAccessException
+  {
+    MFMap savedMap = new MFMap(42, 4, 5, 2, mock(MFGround.class));
+    MFITileDao mockTileDao = mock(MFITileDao.class);
+    when(mockDaoFactory.getTileSavingDao(savedMap)).thenReturn(mockTileDao);
+    when(mockDaoFactory.getTileFormat()).thenReturn(MFDaoFactory.TileFormat.LEVELS);
+    when(mockLevelDao.hasLevels(42)).thenReturn(false);
+
+    new MFMapSqlDao(mockDb, savedMap, mockDaoFactory).save();
+
+    verify(mockLevelDao).saveLevel(eq(42), eq(0), any(byte[].class));
+    verify(mockLevelDao).saveLevel(eq(42), eq(1), any(byte[].class));
+    verify(mockTileDao).deleteAllOfMap();
+    verify(mockTileDao, never()).saveAll(anyListOf(MFTile.class));
+  }
+
+  @Test
+  public void shouldKeepSavingAsLevels() throws DataAccessException
+  {
+    MFMap savedMap = new MFMap(42, 4, 5, 2, mock(MFGround.class));
+    MFITileDao mockTileDao = mock(MFITileDao.class);
+    when(mockDaoFactory.getTileSavingDao(savedMap)).thenReturn(mockTileDao);
+    when(mockDaoFactory.getTileFormat()).thenReturn(MFDaoFactory.TileFormat.ROWS);
+    when(mockLevelDao.hasLevels(42)).thenReturn(true);
+
+    new MFMapSqlDao(mockDb, savedMap, mockDaoFactory).save();
+
+    verify(mockLevelDao).saveLevel(eq(42), eq(0), any(byte[].class));
+    verify(mockLevelDao).saveLevel(eq(42), eq(1), any(byte[].class));
+    verify(mockTileDao, never()).saveAll(anyListOf(MFTile.class));
+    verify(mockTileDao, never()).deleteAllOfMap();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldSaveOnlyChangedTiles() throws DataAccessException
+  {
+    MFMap savedMap = new MFMap(42, 40, 5, 2, mock(MFGround.class));
+    savedMap.loadLevel(0);
+    savedMap.loadLevel(1);
+    savedMap.getTile(1, 1, 0).setDugOut(true);
+    savedMap.getTile(35, 2, 1).setDugOut(true);
+    MFITileDao mockTileDao = mock(MFITileDao.class);
+    when(mockDaoFactory.getTileSavingDao(savedMap)).thenReturn(mockTileDao);
+
+    new MFMapSqlDao(mockDb, savedMap, mockDaoFactory).saveChanges();
+
+    ArgumentCaptor<List> tiles = ArgumentCaptor.forClass(List.class);
+    verify(mockTileDao, times(2)).saveAll(tiles.capture());
+    assertEquals(1, tiles.getAllValues().get(0).size());
+    assertEquals(1, tiles.getAllValues().get(1).size());
+    verify(mockDb).commit();
+    assertEquals(0, savedMap.getDirtyTileCount());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldCollectIdsOfNewTilesOfSnapshot() throws DataAccessException
+  {
+    MFMap savedMap = new MFMap(42, 4, 5, 1, mock(MFGround.class));
+    savedMap.loadLevel(0);
+    savedMap.getTile(1, 1, 0).setDugOut(true);
+    MFITileDao mockTileDao = mock(MFITileDao.class);
+    when(mockDaoFactory.getTileSavingDao(savedMap)).thenReturn(mockTileDao);
+    final MFLongHashMap<Integer> ids = new MFLongHashMap<Integer>();
+    ids.put(MFPackedLocation.pack(1, 1, 0), 77);
+    when(mockTileDao.saveAllReturningIds(anyListOf(MFTile.class))).thenReturn(ids);
+
+    final MFMapSnapshot snapshot = savedMap.beginSave();
+    final MFLongHashMap<Integer> gotIds = new MFMapSqlDao(mockDb, savedMap,
+            mockDaoFactory).saveSnapshot(snapshot, true, mock(MFISaveProgress.class));
+
+    assertEquals(Integer.valueOf(77), gotIds.get(MFPackedLocation.pack(1, 1, 0)));
+    verify(mockTileDao, never()).saveAll(anyListOf(MFTile.class));
+    // the frozen copy isn't changed by the save
+    assertEquals(MFTileStorage.UNSAVED_ID, snapshot.getId(1, 1, 0));
+    verify(mockDb).commit();
+  }
+
+  @Test
+  public void shouldSaveOnlyChangedLevels() throws DataAccessException
+  {
+    MFMap savedMap = new MFMap(42, 4, 5, 2, mock(MFGround.class));
+    savedMap.loadLevel(0);
+    savedMap.loadLevel(1);
+    savedMap.getTile(1, 1, 1).setDugOut(true);
+    when(mockLevelDao.hasLevels(42)).thenReturn(true);
+
+    new MFMapSqlDao(mockDb, savedMap, mockDaoFactory).saveChanges();
+
+    verify(mockLevelDao, never()).saveLevel(eq(42), eq(0), any(byte[].class));
+    verify(mockLevelDao).saveLevel(eq(42), eq(1), any(byte[].class));
+    assertEquals(0, savedMap.getDirtyTileCount());
   }
 
   @Test
@@ -230,6 +367,26 @@ public class MFMapSqlDaoTest
 
   }
 
+  @Test
+  public void shouldLoadLevelOnFirstAccess() throws DataAccessException
+  {
+    unsavedMapSqlDao = getRealDao();
+
+    MFMap gotMap = unsavedMapSqlDao.loadByLevel(2);
+    assertEquals(2, gotMap.getId());
+    assertFalse(gotMap.isLevelLoaded(0));
+
+    for (int x = 0; x < gotMap.getWidth(); ++x) {
+      for (int y = 0; y < gotMap.getHeight(); ++y) {
+        MFTile tile = gotMap.getTile(x, y, 0);
+        assertTrue(tile.isDugOut());
+        assertTrue(tile.hasFloor());
+        assertEquals(MFTile.Corner.INWARD, tile.getCorner(MFEDirection.NW));
+      }
+    }
+    assertTrue(gotMap.isLevelLoaded(0));
+  }
+
   @Test(expected=DataAccessException.class)
   public void shouldNotLoadNonExistingId() throws DataAccessException
   {
@@ -248,12 +405,14 @@ public class MFMapSqlDaoTest
   @Test
   public void shouldDelete() throws DataAccessException
   {
-    when(mockDb.update(eq("DESTROY_MFMapSqlDao"), anyListOf(Object.class))).thenReturn(1);
+    when(mockDb.update(same(destroyQuery), anyListOf(Object.class))).thenReturn(1);
 
     savedMapSqlDao.delete();
 
-    verify(mockDb).update(eq("DESTROY_MFMapSqlDao"), anyListOf(Object.class));
+    verify(mockDb).update(same(destroyQuery), anyListOf(Object.class));
     verify(savedMockMap).setId(unsavedMapSqlDao.getUnsavedMarker());
+    verify(mockDaoFactory.getTileSavingDao(savedMockMap)).deleteAllOfMap();
+    verify(mockLevelDao).deleteAllOfMap(42);
   }
 
   @Test(expected=NullPointerException.class)
@@ -271,7 +430,7 @@ public class MFMapSqlDaoTest
   @Test(expected=DataAccessException.class)
   public void shouldThrowExceptionWhenNothingWasDeleted() throws DataAccessException
   {
-    when(mockDb.update(eq("DESTROY_MFMapSqlDao"), anyListOf(Object.class))).thenReturn(0);
+    when(mockDb.update(same(destroyQuery), anyListOf(Object.class))).thenReturn(0);
 
     savedMapSqlDao.delete();
   }
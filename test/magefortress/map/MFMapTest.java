@@ -25,8 +25,19 @@
 package magefortress.map;
 
 import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import magefortress.core.MFEDirection;
 import magefortress.core.MFLocation;
+import magefortress.creatures.behavior.movable.MFCapability;
+import magefortress.items.MFBlueprint;
+import magefortress.items.MFItem;
+import magefortress.items.placeable.MFIPlaceable;
 import magefortress.map.ground.MFGround;
 import org.junit.Before;
 import org.junit.Test;
@@ -510,6 +521,410 @@ public class MFMapTest
     assertFalse(accessible);
   }
 
+  @Test
+  public void shouldGetNeighborsOnOtherLevels()
+  {
+    this.map = createMap(WIDTH, HEIGHT, 2);
+    MFTile upper = this.map.getTile(2, 2, 0);
+    MFTile lower = this.map.getTile(2, 2, 1);
+    assertEquals(lower, this.map.getNeighbor(upper, MFEDirection.DOWN));
+    assertEquals(upper, this.map.getNeighbor(lower, MFEDirection.UP));
+    assertNull(this.map.getNeighbor(upper, MFEDirection.UP));
+    assertNull(this.map.getNeighbor(lower, MFEDirection.DOWN));
+  }
+
+  @Test
+  public void shouldChangeLevelsOnlyThroughPassages()
+  {
+    this.map = createMap(WIDTH, HEIGHT, 2);
+    new MFClearanceCalculator(this.map).calculateAllLevels(MFCapability.WALK);
+    MFTile upper = this.map.getTile(2, 2, 0);
+    MFTile lower = this.map.getTile(2, 2, 1);
+    assertFalse(this.map.canMoveTo(upper, lower, 1, MFCapability.WALK));
+
+    upper.setVerticalPassage(MFEVerticalPassage.STAIRS);
+    assertEquals(MFEVerticalPassage.STAIRS, this.map.getVerticalPassage(lower, upper));
+    assertTrue(this.map.canMoveTo(upper, lower, 1, MFCapability.WALK));
+    assertTrue(this.map.canMoveTo(lower, upper, 1, MFCapability.WALK));
+
+    upper.setVerticalPassage(MFEVerticalPassage.SHAFT);
+    assertFalse(this.map.canMoveTo(upper, lower, 1, MFCapability.WALK));
+  }
+
+  @Test
+  public void shouldReturnSameTileOnEveryAccess()
+  {
+    MFTile tile = this.map.getTile(2, 3, 0);
+    assertSame(tile, this.map.getTile(new MFLocation(2, 3, 0)));
+    assertSame(tile, this.map.getNeighbor(this.map.getTile(2, 2, 0), MFEDirection.S));
+    assertSame(tile, this.map.getLevelMap(0)[2][3]);
+  }
+
+  @Test
+  public void shouldStoreTileDataInMapStorage()
+  {
+    MFTile tile = this.map.getTile(2, 3, 0);
+    tile.setWallEast(false);
+
+    assertFalse(this.map.getStorage(2, 3, 0).hasFlag(2, 3, 0, MFTileStorage.WALL_E));
+    tile.setWallEast(true);
+    assertTrue(this.map.getStorage(2, 3, 0).hasFlag(2, 3, 0, MFTileStorage.WALL_E));
+  }
+
+  @Test
+  public void shouldMoveSetTileIntoMapStorage()
+  {
+    MFTile loadedTile = new MFTile(17, 1, 1, 0, true, true, false, false, false,
+                                   true, true, mock(MFGround.class));
+    this.map.setTile(loadedTile);
+
+    assertSame(loadedTile, this.map.getTile(1, 1, 0));
+    assertEquals(17, this.map.getStorage(1, 1, 0).getId(1, 1, 0));
+    assertTrue(this.map.getStorage(1, 1, 0).hasFlag(1, 1, 0, MFTileStorage.WALL_N));
+
+    // changes of the tile end up in the map's storage
+    loadedTile.setWallNorth(false);
+    assertFalse(this.map.getStorage(1, 1, 0).hasFlag(1, 1, 0, MFTileStorage.WALL_N));
+  }
+
+  @Test
+  public void shouldCreateChunksOnFirstAccess()
+  {
+    MFMap chunkedMap = new MFMap(-1, 70, 40, 2, mock(MFGround.class));
+    assertEquals(0, chunkedMap.getLoadedChunkCount());
+
+    chunkedMap.getTile(33, 5, 1);
+    assertEquals(1, chunkedMap.getLoadedChunkCount());
+    chunkedMap.getTile(63, 31, 1);
+    assertEquals(1, chunkedMap.getLoadedChunkCount());
+    chunkedMap.getTile(64, 39, 1);
+    assertEquals(2, chunkedMap.getLoadedChunkCount());
+  }
+
+  @Test
+  public void shouldLoadChunkOnFirstAccess()
+  {
+    StubChunkLoader loader = new StubChunkLoader();
+    loader.tile = new MFTile(5, 66, 33, 1, true, true, false, false, true,
+                             true, true, mock(MFGround.class));
+    MFMap chunkedMap = new MFMap(-1, 70, 40, 2, mock(MFGround.class));
+    chunkedMap.setChunkLoader(loader);
+
+    MFTile tile = chunkedMap.getTile(66, 33, 1);
+    assertSame(loader.tile, tile);
+    assertEquals(5, tile.getId());
+    assertEquals(1, loader.loadCount);
+    // the edge chunk is smaller
+    assertEquals(64, loader.lastX);
+    assertEquals(32, loader.lastY);
+    assertEquals(6, loader.lastWidth);
+    assertEquals(8, loader.lastHeight);
+
+    // corners are calculated without loading the neighboring chunks
+    assertEquals(MFTile.Corner.INWARD, tile.getCorner(MFEDirection.NW));
+    assertEquals(1, chunkedMap.getLoadedChunkCount());
+    // loading doesn't count as a change
+    assertEquals(0, chunkedMap.getDirtyChunkCount());
+  }
+
+  @Test(expected=IllegalStateException.class)
+  public void shouldNotSetChunkLoaderAfterAccess()
+  {
+    this.map.setChunkLoader(new StubChunkLoader());
+  }
+
+  @Test
+  public void shouldTrackDirtyChunks()
+  {
+    MFMap chunkedMap = new MFMap(-1, 70, 40, 1, mock(MFGround.class));
+    chunkedMap.setChunkLoader(new StubChunkLoader());
+    chunkedMap.getTile(1, 1, 0);
+    chunkedMap.getTile(40, 1, 0);
+    assertEquals(0, chunkedMap.getDirtyChunkCount());
+
+    chunkedMap.digOut(new MFLocation(40, 1, 0));
+    assertEquals(1, chunkedMap.getDirtyChunkCount());
+  }
+
+  @Test
+  public void shouldEvictColdChunks()
+  {
+    StubChunkLoader loader = new StubChunkLoader();
+    MFMap chunkedMap = new MFMap(-1, 70, 40, 1, mock(MFGround.class));
+    chunkedMap.setChunkLoader(loader);
+    chunkedMap.setMemoryBudget(0);
+
+    chunkedMap.getTile(1, 1, 0);
+    chunkedMap.update();
+    // still in use during the last update
+    assertEquals(1, chunkedMap.getLoadedChunkCount());
+    chunkedMap.update();
+    assertEquals(0, chunkedMap.getLoadedChunkCount());
+
+    chunkedMap.getTile(1, 1, 0);
+    assertEquals(2, loader.loadCount);
+  }
+
+  @Test
+  public void shouldNotEvictChangedChunks()
+  {
+    MFMap chunkedMap = new MFMap(-1, 70, 40, 1, mock(MFGround.class));
+    chunkedMap.setChunkLoader(new StubChunkLoader());
+    chunkedMap.setMemoryBudget(0);
+
+    chunkedMap.getTile(1, 1, 0).setWallNorth(true);
+    chunkedMap.getTile(1, 35, 0);
+    chunkedMap.update();
+    chunkedMap.update();
+
+    assertEquals(1, chunkedMap.getLoadedChunkCount());
+  }
+
+  @Test
+  public void shouldKeepReferencedTilesOfEvictedChunks()
+  {
+    StubChunkLoader loader = new StubChunkLoader();
+    MFMap chunkedMap = new MFMap(-1, 70, 40, 1, mock(MFGround.class));
+    chunkedMap.setChunkLoader(loader);
+    chunkedMap.setMemoryBudget(0);
+    MFTile tile = chunkedMap.getTile(40, 1, 0);
+    tile.subscribeConstructionsListener(mock(MFITileConstructionsListener.class));
+
+    chunkedMap.update();
+    chunkedMap.update();
+    assertEquals(0, chunkedMap.getLoadedChunkCount());
+
+    // the kept tile loads its chunk again
+    tile.setWallNorth(true);
+    assertEquals(2, loader.loadCount);
+    assertSame(tile, chunkedMap.getTile(40, 1, 0));
+    assertTrue(chunkedMap.getTile(40, 1, 0).hasWallNorth());
+  }
+
+  @Test
+  public void shouldEvictLevelChunksAfterNavigation()
+  {
+    MFMap levelMap = new MFMap(-1, 70, 40, 1, mock(MFGround.class));
+    StubLevelLoader loader = new StubLevelLoader(levelMap);
+    levelMap.setLevelLoader(loader);
+    levelMap.setMemoryBudget(0);
+    levelMap.loadLevel(0);
+    MFNavigationMap naviMap = new MFNavigationMap(levelMap,
+                                          new MFClearanceCalculator(levelMap));
+    naviMap.updateClearanceValues();
+    naviMap.calculateAllLevels();
+    MFTile tile = levelMap.getTile(1, 1, 0);
+    MFSection section = tile.getParentSection();
+    assertNotNull(section);
+    assertEquals(1, tile.getClearance(MFCapability.WALK));
+
+    levelMap.update();
+    levelMap.update();
+    assertEquals(0, levelMap.getLoadedChunkCount());
+
+    // the level is read again, the tile keeps its section and clearance
+    assertSame(tile, levelMap.getTile(1, 1, 0));
+    assertEquals(2, loader.loadedLevels.size());
+    assertSame(section, tile.getParentSection());
+    assertEquals(1, tile.getClearance(MFCapability.WALK));
+    assertTrue(tile.isDugOut());
+    assertEquals(7, tile.getId());
+  }
+
+  @Test
+  public void shouldNotEvictWithoutChunkLoader()
+  {
+    MFMap chunkedMap = new MFMap(-1, 70, 40, 1, mock(MFGround.class));
+    chunkedMap.setMemoryBudget(0);
+    chunkedMap.getTile(1, 1, 0);
+    chunkedMap.update();
+    chunkedMap.update();
+    assertEquals(1, chunkedMap.getLoadedChunkCount());
+  }
+
+  @Test
+  public void shouldGetNeighborAcrossChunkBorder()
+  {
+    MFMap chunkedMap = new MFMap(-1, 70, 40, 1, mock(MFGround.class));
+    MFTile tile = chunkedMap.getTile(31, 31, 0);
+    assertSame(chunkedMap.getTile(32, 32, 0), chunkedMap.getNeighbor(tile, MFEDirection.SE));
+  }
+
+  @Test
+  public void shouldRecordChangesInJournal()
+  {
+    MFMap solidMap = new MFMap(-1, 5, 5, 1, mock(MFGround.class));
+    int cursor = solidMap.openChangeCursor();
+    assertFalse(solidMap.hasChanges(cursor));
+
+    solidMap.update();
+    solidMap.digOut(new MFLocation(2, 2, 0));
+    assertTrue(solidMap.hasChanges(cursor));
+
+    RecordingVisitor visitor = new RecordingVisitor();
+    int read = solidMap.readChanges(cursor, visitor);
+    assertEquals(read, visitor.changes.size());
+    assertTrue(visitor.changes.contains("2/2/0 DUG_OUT@1"));
+    assertTrue(visitor.changes.contains("2/2/0 WALLS@1"));
+    assertFalse(solidMap.hasChanges(cursor));
+  }
+
+  @Test
+  public void shouldRecordPlacedObjects()
+  {
+    int cursor = this.map.openChangeCursor();
+    this.map.getTile(1, 1, 0).setObject(mock(MFIPlaceable.class));
+
+    RecordingVisitor visitor = new RecordingVisitor();
+    this.map.readChanges(cursor, visitor);
+    assertEquals(Collections.singletonList("1/1/0 OBJECT@0"), visitor.changes);
+  }
+
+  @Test
+  public void shouldNotRecordLoadedTiles()
+  {
+    StubChunkLoader loader = new StubChunkLoader();
+    loader.tile = new MFTile(5, 6, 3, 0, true, true, false, false, true,
+                             true, true, mock(MFGround.class));
+    MFMap chunkedMap = new MFMap(-1, 70, 40, 1, mock(MFGround.class));
+    chunkedMap.setChunkLoader(loader);
+    int cursor = chunkedMap.openChangeCursor();
+
+    chunkedMap.getTile(6, 3, 0);
+    assertFalse(chunkedMap.hasChanges(cursor));
+  }
+
+  @Test
+  public void shouldCalculateSameCornersInBulkAsPerTile()
+  {
+    MFMap bulkMap = new MFMap(-1, 40, 35, 2, mock(MFGround.class));
+    MFMap tileMap = new MFMap(-1, 40, 35, 2, mock(MFGround.class));
+    Random random = new Random(7);
+    for (int i = 0; i < 600; ++i) {
+      MFLocation location = new MFLocation(random.nextInt(40), random.nextInt(35),
+                                           random.nextInt(2));
+      if (!bulkMap.getTile(location).isDugOut()) {
+        bulkMap.digOut(location);
+        tileMap.digOut(location);
+      }
+    }
+    for (int z = 0; z < 2; ++z) {
+      for (int x = 0; x < 40; ++x) {
+        for (int y = 0; y < 35; ++y) {
+          bulkMap.getStorage(x, y, z).setCorners(x, y, z, 0);
+        }
+      }
+    }
+
+    bulkMap.calculateAllCorners();
+
+    for (int z = 0; z < 2; ++z) {
+      for (int x = 0; x < 40; ++x) {
+        for (int y = 0; y < 35; ++y) {
+          if (tileMap.getTile(x, y, z).isDugOut()) {
+            assertEquals(tileMap.getFlags(x, y, z), bulkMap.getFlags(x, y, z));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldTreatMapEdgeAsWallForCorners()
+  {
+    MFMap solidMap = new MFMap(-1, 3, 3, 1, mock(MFGround.class));
+    solidMap.digOut(new MFLocation(0, 1, 0));
+    solidMap.digOut(new MFLocation(1, 1, 0));
+
+    MFTile tile = solidMap.getTile(1, 1, 0);
+    assertEquals(MFTile.Corner.HORIZONTAL, tile.getCorner(MFEDirection.NW));
+    assertEquals(MFTile.Corner.INWARD, tile.getCorner(MFEDirection.NE));
+    assertEquals(MFTile.Corner.INWARD, solidMap.getTile(0, 1, 0).getCorner(MFEDirection.NW));
+  }
+
+  @Test
+  public void shouldIndexPlacedObjects()
+  {
+    MFBlueprint blueprint = mock(MFBlueprint.class);
+    MFItem item = new MFItem(blueprint);
+    this.map.getTile(3, 1, 0).setObject(new MFItem(blueprint));
+    this.map.getTile(1, 2, 0).setObject(item);
+
+    assertEquals(2, this.map.countObjects(blueprint));
+    assertEquals(Collections.singletonList(new MFLocation(1, 2, 0)),
+                 this.map.findNearestObjects(blueprint, new MFLocation(0, 0, 0), 1));
+
+    this.map.getTile(1, 2, 0).setObject(null);
+    assertEquals(Collections.singletonList(new MFLocation(3, 1, 0)),
+                 this.map.findNearestObjects(blueprint, new MFLocation(0, 0, 0), 5));
+  }
+
+  @Test
+  public void shouldLoadLevelOnFirstAccess()
+  {
+    MFMap levelMap = new MFMap(-1, 70, 40, 3, mock(MFGround.class));
+    StubLevelLoader loader = new StubLevelLoader(levelMap);
+    levelMap.setLevelLoader(loader);
+    assertFalse(levelMap.isLevelLoaded(1));
+
+    MFTile tile = levelMap.getTile(66, 33, 1);
+    assertFalse(tile.isDugOut());
+    assertTrue(levelMap.isLevelLoaded(1));
+    assertFalse(levelMap.isLevelLoaded(0));
+    assertFalse(levelMap.isLevelLoaded(2));
+    // the whole level is loaded at once
+    assertTrue(levelMap.getTile(1, 1, 1).isDugOut());
+    assertEquals(7, levelMap.getTile(1, 1, 1).getId());
+    assertEquals(Collections.singletonList(1), loader.loadedLevels);
+    // loading doesn't count as a change
+    assertEquals(0, levelMap.getDirtyChunkCount());
+  }
+
+  @Test
+  public void shouldKeepLevelWithoutSavedTilesSolid()
+  {
+    MFMap levelMap = new MFMap(-1, 70, 40, 2, mock(MFGround.class));
+    StubLevelLoader loader = new StubLevelLoader(levelMap);
+    loader.missingLevel = 0;
+    levelMap.setLevelLoader(loader);
+
+    assertFalse(levelMap.getTile(1, 1, 0).isDugOut());
+    assertTrue(levelMap.isLevelLoaded(0));
+    levelMap.getTile(40, 1, 0);
+    assertEquals(1, loader.loadedLevels.size());
+  }
+
+  @Test
+  public void shouldPrefetchAdjacentLevels() throws InterruptedException
+  {
+    MFMap levelMap = new MFMap(-1, 70, 40, 4, mock(MFGround.class));
+    StubLevelLoader loader = new StubLevelLoader(levelMap);
+    levelMap.setLevelLoader(loader);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    levelMap.setPrefetchExecutor(executor);
+
+    levelMap.getTile(1, 1, 1);
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(3, loader.loadedLevels.size());
+    assertTrue(loader.loadedLevels.contains(0));
+    assertTrue(loader.loadedLevels.contains(2));
+    assertFalse(levelMap.isLevelLoaded(2));
+
+    // the prefetched level is used instead of loading it again
+    assertTrue(levelMap.getTile(1, 1, 2).isDugOut());
+    assertTrue(levelMap.isLevelLoaded(2));
+    assertEquals(3, loader.loadedLevels.size());
+  }
+
+  @Test(expected=IllegalStateException.class)
+  public void shouldNotSetLevelLoaderWithChunkLoader()
+  {
+    MFMap chunkedMap = new MFMap(-1, 70, 40, 1, mock(MFGround.class));
+    chunkedMap.setChunkLoader(new StubChunkLoader());
+    chunkedMap.setLevelLoader(new StubLevelLoader(chunkedMap));
+  }
+
   //---vvv---     PRIVATE METHODS    ---vvv---
   
   private static MFMap createMap(int _width, int _height, int _depth)
@@ -530,4 +945,69 @@ public class MFMapTest
     }
     return result;
   }
-}
\ No newline at end of file
+
+  private static class StubChunkLoader implements MFIChunkLoader
+  {
+    MFTile tile;
+    int loadCount;
+    int lastX, lastY, lastWidth, lastHeight;
+
+    @Override
+    public List<MFTile> loadChunk(int _x, int _y, int _z, int _width, int _height)
+    {
+      ++this.loadCount;
+      this.lastX = _x;
+      this.lastY = _y;
+      this.lastWidth = _width;
+      this.lastHeight = _height;
+      if (this.tile == null) {
+        return Collections.emptyList();
+      }
+      return Collections.singletonList(this.tile);
+    }
+  }
+
+  /**
+   * Loads levels with a single dug out, underground tile at 1/1.
+   */
+  private static class StubLevelLoader implements MFILevelLoader
+  {
+    final List<Integer> loadedLevels =
+                              Collections.synchronizedList(new ArrayList<Integer>());
+    int missingLevel = -1;
+    private final int width, height;
+    private final MFGround ground;
+
+    StubLevelLoader(MFMap _map)
+    {
+      this.width = _map.getWidth();
+      this.height = _map.getHeight();
+      this.ground = _map.getDefaultGround();
+    }
+
+    @Override
+    public MFTileStorage loadLevel(int _z)
+    {
+      this.loadedLevels.add(_z);
+      if (_z == this.missingLevel) {
+        return null;
+      }
+      final MFTileStorage result = new MFTileStorage(0, 0, _z, this.width,
+                                                     this.height, 1, this.ground);
+      result.loadTile(1, 1, _z, 7, MFTileStorage.DUG_OUT | MFTileStorage.UNDERGROUND |
+                                   MFTileStorage.FLOOR, this.ground);
+      return result;
+    }
+  }
+
+  private static class RecordingVisitor implements MFIMapChangeVisitor
+  {
+    final List<String> changes = new ArrayList<String>();
+
+    @Override
+    public void tileChanged(int _x, int _y, int _z, MFETileChange _change, int _tick)
+    {
+      this.changes.add(_x + "/" + _y + "/" + _z + " " + _change + "@" + _tick);
+    }
+  }
+}
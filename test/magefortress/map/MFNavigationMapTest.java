@@ -24,6 +24,7 @@
  */
 package magefortress.map;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import magefortress.core.MFLocation;
@@ -520,6 +521,275 @@ public class MFNavigationMapTest
     this.naviMap.addMovementCombination(2, MFCapability.WALK_FLY);
   }
 
+  @Test
+  public void shouldConnectLevelsThroughStairs()
+  {
+    this.naviMap = createMap(5, 5, 2);
+    final MFTile top    = this.map.getTile(2, 2, 0);
+    final MFTile bottom = this.map.getTile(2, 2, 1);
+    top.setVerticalPassage(MFEVerticalPassage.STAIRS);
+
+    this.naviMap.calculateAllLevels();
+
+    assertNotNull(top.getEntrance());
+    assertNotNull(bottom.getEntrance());
+    final MFEdge down = top.getEntrance().getEdge(bottom.getEntrance());
+    assertNotNull(down);
+    assertEquals(MFEVerticalPassage.STAIRS.getCost(), down.getCost());
+    assertNotNull(bottom.getEntrance().getEdge(top.getEntrance()));
+  }
+
+  @Test
+  public void shouldGroupSectionsIntoRegionsPerLevel()
+  {
+    this.naviMap = createMap(5, 5, 2);
+    this.map.getTile(2, 2, 0).setVerticalPassage(MFEVerticalPassage.STAIRS);
+
+    this.naviMap.calculateAllLevels();
+
+    assertEquals(2, this.naviMap.getRegions().size());
+    for (MFLevelRegion region : this.naviMap.getRegions()) {
+      assertEquals(1, region.getSections().size());
+      assertEquals(1, region.getExits().size());
+    }
+  }
+
+  @Test
+  public void shouldRenewVerticalEdgesWhenLevelIsRecalculated()
+  {
+    this.naviMap = createMap(5, 5, 2);
+    final MFTile top = this.map.getTile(2, 2, 0);
+    top.setVerticalPassage(MFEVerticalPassage.STAIRS);
+    this.naviMap.calculateAllLevels();
+
+    this.naviMap.calculateLevel(1);
+
+    final MFSectionEntrance bottom = this.map.getTile(2, 2, 1).getEntrance();
+    int verticalEdges = 0;
+    for (MFEdge edge : top.getEntrance().getEdges()) {
+      if (edge.getTo().getLocation().z == 1) {
+        assertSame(bottom, edge.getTo());
+        ++verticalEdges;
+      }
+    }
+    assertEquals(1, verticalEdges);
+    final MFLevelRegion upperRegion = top.getParentSection().getRegion();
+    assertEquals(1, upperRegion.getExits().size());
+    assertSame(bottom, upperRegion.getExits().get(0).getTo());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotUseTinyClusters()
+  {
+    this.naviMap.setClusterSize(1);
+  }
+
+  @Test
+  public void shouldDivideLevelIntoClusters()
+  {
+    this.naviMap = createMap(8, 8, 1);
+    this.naviMap.setClusterSize(4);
+    this.naviMap.calculateAllLevels();
+
+    MFNavigationStatistics statistics = this.naviMap.getStatistics(0);
+    assertEquals(4, statistics.getClusterCount());
+    assertEquals(4, statistics.getSectionCount());
+    assertEquals(4, statistics.getEntranceCount());
+    assertEquals(16, statistics.getLargestSectionSize());
+    // each entrance leads to two clusters and is connected to two entrances
+    assertEquals(8, statistics.getEdgeCount());
+    for (MFSection section : this.naviMap.getSections()) {
+      assertEquals(2, section.getEntrances().size());
+    }
+  }
+
+  @Test
+  public void shouldPlaceEntrancesAtEndsOfWideOpenings()
+  {
+    this.naviMap = createMap(16, 16, 1);
+    this.naviMap.setClusterSize(8);
+    this.naviMap.calculateAllLevels();
+
+    // the corner between all four clusters is shared by two borders
+    assertEquals(7, this.naviMap.getStatistics(0).getEntranceCount());
+    assertNotNull(this.map.getTile(7, 0, 0).getEntrance());
+    assertNotNull(this.map.getTile(7, 7, 0).getEntrance());
+    assertNotNull(this.map.getTile(0, 7, 0).getEntrance());
+    assertEquals(3, this.map.getTile(0, 0, 0).getParentSection().getEntrances().size());
+  }
+
+  @Test
+  public void shouldRecalculateOnlyNeighboringClusters()
+  {
+    this.naviMap = createMap(12, 4, 1);
+    this.naviMap.setClusterSize(4);
+    this.naviMap.calculateAllLevels();
+    final MFSection oldSection = this.map.getTile(1, 1, 0).getParentSection();
+    final MFSection farSection = this.map.getTile(10, 1, 0).getParentSection();
+    final MFSectionEntrance farEntrance = this.map.getTile(7, 2, 0).getEntrance();
+    assertNotNull(farEntrance);
+
+    this.naviMap.calculateCluster(new MFLocation(1, 1, 0));
+
+    assertNotSame(oldSection, this.map.getTile(1, 1, 0).getParentSection());
+    assertSame(farSection, this.map.getTile(10, 1, 0).getParentSection());
+    assertSame(farEntrance, this.map.getTile(7, 2, 0).getEntrance());
+    assertEquals(3, this.naviMap.getSections().size());
+    assertEquals(2, this.naviMap.getEntrances().size());
+
+    final MFSectionEntrance nearEntrance = this.map.getTile(3, 2, 0).getEntrance();
+    assertNotNull(nearEntrance.getEdge(farEntrance));
+    assertNotNull(farEntrance.getEdge(nearEntrance));
+    assertEquals(1, farEntrance.getEdges().size());
+  }
+
+  @Test
+  public void shouldConnectPassagesOfRecalculatedCluster()
+  {
+    this.naviMap = createMap(8, 4, 2);
+    this.naviMap.setClusterSize(4);
+    this.naviMap.calculateAllLevels();
+
+    final MFTile top = this.map.getTile(5, 1, 0);
+    top.setVerticalPassage(MFEVerticalPassage.STAIRS);
+    this.naviMap.calculateCluster(top.getLocation());
+    this.naviMap.calculateCluster(new MFLocation(5, 1, 1));
+
+    final MFSectionEntrance bottom = this.map.getTile(5, 1, 1).getEntrance();
+    assertNotNull(top.getEntrance());
+    assertNotNull(bottom);
+    assertNotNull(top.getEntrance().getEdge(bottom));
+    assertNotNull(bottom.getEdge(top.getEntrance()));
+
+    final MFLevelRegion upperRegion = top.getParentSection().getRegion();
+    assertSame(upperRegion, this.map.getTile(0, 0, 0).getParentSection().getRegion());
+    assertEquals(1, upperRegion.getExits().size());
+    final MFLevelRegion lowerRegion = this.map.getTile(5, 1, 1).getParentSection().getRegion();
+    assertEquals(1, lowerRegion.getExits().size());
+    assertSame(top.getEntrance(), lowerRegion.getExits().get(0).getTo());
+  }
+
+  @Test
+  public void shouldRegroupRegionsOfRecalculatedCluster()
+  {
+    this.naviMap = createMap(12, 4, 1);
+    this.naviMap.setClusterSize(4);
+    this.naviMap.calculateAllLevels();
+    final MFTile west = this.map.getTile(1, 1, 0);
+    final MFTile east = this.map.getTile(10, 1, 0);
+    assertSame(west.getParentSection().getRegion(), east.getParentSection().getRegion());
+
+    // wall off the middle cluster from the eastern one
+    for (int y = 0; y < 4; ++y) {
+      this.map.getTile(7, y, 0).setWallEast(true);
+      this.map.getTile(8, y, 0).setWallWest(true);
+    }
+    this.naviMap.calculateCluster(new MFLocation(7, 1, 0));
+    assertSame(west.getParentSection().getRegion(),
+               this.map.getTile(5, 1, 0).getParentSection().getRegion());
+    assertNotSame(west.getParentSection().getRegion(), east.getParentSection().getRegion());
+
+    // and open it again
+    for (int y = 0; y < 4; ++y) {
+      this.map.getTile(7, y, 0).setWallEast(false);
+      this.map.getTile(8, y, 0).setWallWest(false);
+    }
+    this.naviMap.calculateCluster(new MFLocation(7, 1, 0));
+    assertSame(west.getParentSection().getRegion(), east.getParentSection().getRegion());
+  }
+
+  @Test
+  public void shouldRecalculateClustersOfChangedLocations()
+  {
+    this.naviMap = createMap(12, 4, 1);
+    this.naviMap.setClusterSize(4);
+    this.naviMap.calculateAllLevels();
+    final MFSection nearSection = this.map.getTile(1, 1, 0).getParentSection();
+    final MFSection farSection = this.map.getTile(10, 1, 0).getParentSection();
+
+    this.naviMap.calculateClusters(Arrays.asList(new MFLocation(1, 1, 0),
+                                                 new MFLocation(2, 3, 0)));
+
+    assertNotSame(nearSection, this.map.getTile(1, 1, 0).getParentSection());
+    assertSame(farSection, this.map.getTile(10, 1, 0).getParentSection());
+    assertEquals(3, this.naviMap.getStatistics(0).getClusterCount());
+    assertEquals(3, this.naviMap.getSections().size());
+  }
+
+  @Test
+  public void shouldRecalculateLevelOfChangedLocationsWithoutClusters()
+  {
+    this.naviMap = createMap(5, 5, 2);
+    this.naviMap.calculateAllLevels();
+    final MFTile top = this.map.getTile(2, 2, 0);
+    top.setVerticalPassage(MFEVerticalPassage.STAIRS);
+
+    this.naviMap.calculateClusters(Arrays.asList(top.getLocation(),
+                                                 new MFLocation(2, 2, 1)));
+
+    assertNotNull(top.getEntrance());
+    assertNotNull(this.map.getTile(2, 2, 1).getEntrance());
+  }
+
+  @Test
+  public void shouldReportStatisticsPerLevel()
+  {
+    this.naviMap = createMap(5, 5, 2);
+    this.map.getTile(2, 2, 0).setVerticalPassage(MFEVerticalPassage.STAIRS);
+    this.naviMap.calculateAllLevels();
+
+    for (int level = 0; level < 2; ++level) {
+      MFNavigationStatistics statistics = this.naviMap.getStatistics(level);
+      assertEquals(level, statistics.getLevel());
+      assertEquals(0, statistics.getClusterCount());
+      assertEquals(1, statistics.getSectionCount());
+      assertEquals(1, statistics.getEntranceCount());
+      assertEquals(1, statistics.getEdgeCount());
+      assertEquals(25, statistics.getLargestSectionSize());
+    }
+  }
+
+  @Test
+  public void shouldUpdateClearanceOfAllMovementCombinations()
+  {
+    this.naviMap.addMovementCombination(1, MFCapability.FLY);
+    this.map.getTile(2, 2, 0).setFloor(false);
+
+    this.naviMap.updateClearanceValues();
+
+    assertEquals(0, this.map.getTile(2, 2, 0).getClearance(MFCapability.WALK));
+    assertEquals(3, this.map.getTile(2, 2, 0).getClearance(MFCapability.FLY));
+  }
+
+  @Test
+  public void shouldNotLoadOtherLevelsWhileCalculatingOne()
+  {
+    createMap(5, 5, 2);
+    this.map.getTile(2, 2, 0).setVerticalPassage(MFEVerticalPassage.STAIRS);
+    final MFMap levelMap = copyLevelByLevel(this.map);
+    final MFNavigationMap levelNaviMap = new MFNavigationMap(levelMap,
+                                            new MFClearanceCalculator(levelMap));
+
+    levelMap.getTile(0, 0, 1);
+    levelNaviMap.updateLevelClearanceValues(1);
+    levelNaviMap.calculateLevel(1);
+    levelNaviMap.calculateAllLevels();
+    assertFalse(levelMap.isLevelLoaded(0));
+    assertNull(levelMap.getTile(2, 2, 1).getEntrance());
+
+    // the passage is found once both levels are calculated
+    levelMap.getTile(0, 0, 0);
+    levelNaviMap.updateLevelClearanceValues(0);
+    levelNaviMap.calculateLevel(0);
+    levelNaviMap.calculateLevel(1);
+    final MFSectionEntrance top = levelMap.getTile(2, 2, 0).getEntrance();
+    final MFSectionEntrance bottom = levelMap.getTile(2, 2, 1).getEntrance();
+    assertNotNull(top);
+    assertNotNull(bottom);
+    assertNotNull(top.getEdge(bottom));
+    assertNotNull(bottom.getEdge(top));
+  }
+
   //---vvv---     PRIVATE METHODS    ---vvv---
 
   private MFNavigationMap createMap(int _width, int _height, int _depth)
@@ -543,4 +813,29 @@ public class MFNavigationMapTest
     result.updateClearanceValues(MFCapability.WALK);
     return result;
   }
-}
\ No newline at end of file
+
+  /**
+   * Creates a map which loads copies of the levels of another map on first
+   * access.
+   */
+  private static MFMap copyLevelByLevel(final MFMap _map)
+  {
+    final MFMap result = new MFMap(-1, _map.getWidth(), _map.getHeight(),
+                                   _map.getDepth(), _map.getDefaultGround());
+    result.setLevelLoader(new MFILevelLoader() {
+      @Override
+      public MFTileStorage loadLevel(int _z)
+      {
+        final MFTileStorage level = new MFTileStorage(0, 0, _z, _map.getWidth(),
+                                     _map.getHeight(), 1, _map.getDefaultGround());
+        for (int x = 0; x < _map.getWidth(); ++x) {
+          for (int y = 0; y < _map.getHeight(); ++y) {
+            level.copyTile(_map.getStorage(x, y, _z), x, y, _z);
+          }
+        }
+        return level;
+      }
+    });
+    return result;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import magefortress.core.MFPackedLocation;
+import magefortress.items.MFBlueprint;
+import magefortress.items.MFItem;
+import magefortress.items.placeable.MFIPlaceable;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MFObjectIndexTest
+{
+  private MFObjectIndex index;
+  private MFBlueprint stone;
+  private MFBlueprint wood;
+
+  @Before
+  public void setUp()
+  {
+    this.index = new MFObjectIndex();
+    this.stone = mock(MFBlueprint.class);
+    this.wood = mock(MFBlueprint.class);
+  }
+
+  @Test
+  public void shouldIgnoreObjectsWithoutBlueprint()
+  {
+    this.index.add(MFPackedLocation.pack(1, 1, 0), mock(MFIPlaceable.class));
+    assertEquals(0, this.index.count(this.stone));
+  }
+
+  @Test
+  public void shouldFindNearestObjectsOfBlueprint()
+  {
+    this.index.add(MFPackedLocation.pack(40, 3, 0), new MFItem(this.stone));
+    this.index.add(MFPackedLocation.pack(5, 5, 0), new MFItem(this.stone));
+    this.index.add(MFPackedLocation.pack(2, 2, 0), new MFItem(this.wood));
+    this.index.add(MFPackedLocation.pack(3, 3, 2), new MFItem(this.stone));
+
+    long[] found = this.index.findNearest(this.stone, MFPackedLocation.pack(1, 1, 0), 2);
+    assertEquals(2, found.length);
+    assertEquals(MFPackedLocation.pack(3, 3, 2), found[0]);
+    assertEquals(MFPackedLocation.pack(5, 5, 0), found[1]);
+
+    assertEquals(3, this.index.findNearest(this.stone, MFPackedLocation.pack(1, 1, 0), 5).length);
+    assertEquals(0, this.index.findNearest(mock(MFBlueprint.class), MFPackedLocation.pack(1, 1, 0), 5).length);
+  }
+
+  @Test
+  public void shouldRemoveObjects()
+  {
+    final MFItem item = new MFItem(this.stone);
+    final long location = MFPackedLocation.pack(5, 5, 0);
+    this.index.add(location, item);
+    this.index.add(MFPackedLocation.pack(6, 5, 0), new MFItem(this.stone));
+
+    this.index.remove(location, item);
+    assertEquals(1, this.index.count(this.stone));
+    assertEquals(MFPackedLocation.pack(6, 5, 0),
+                 this.index.findNearest(this.stone, location, 1)[0]);
+  }
+
+  @Test
+  public void shouldFindSameDistancesAsFullScan()
+  {
+    final Random random = new Random(3);
+    final List<Long> locations = new ArrayList<Long>();
+    for (int i = 0; i < 300; ++i) {
+      final long location = MFPackedLocation.pack(random.nextInt(200),
+                                          random.nextInt(200), random.nextInt(10));
+      locations.add(location);
+      this.index.add(location, new MFItem(this.stone));
+    }
+
+    for (int i = 0; i < 20; ++i) {
+      final long from = MFPackedLocation.pack(random.nextInt(200),
+                                          random.nextInt(200), random.nextInt(10));
+      final long[] found = this.index.findNearest(this.stone, from, 5);
+      final List<Integer> distances = new ArrayList<Integer>();
+      for (long location : locations) {
+        distances.add(MFPackedLocation.distance(from, location));
+      }
+      Collections.sort(distances);
+      for (int j = 0; j < found.length; ++j) {
+        assertEquals((int) distances.get(j), MFPackedLocation.distance(from, found[j]));
+      }
+    }
+  }
+}
@@ -110,4 +110,12 @@ public class MFPathFinderTest
     verify(mockListener, times(3)).pathSearchFinished(any(MFPath.class));
   }
 
+  @Test
+  public void shouldAdvanceReservationClockOnUpdate()
+  {
+    final long tick = this.pathFinder.getReservationTable().getCurrentTick();
+    this.pathFinder.update();
+    assertEquals(tick + 1, this.pathFinder.getReservationTable().getCurrentTick());
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import magefortress.core.MFLocation;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MFReservationTableTest
+{
+  private MFReservationTable table;
+  private static final int HORIZON = 8;
+  private final Object owner = new Object();
+  private final Object otherOwner = new Object();
+
+  @Before
+  public void setUp()
+  {
+    this.table = new MFReservationTable(HORIZON);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotCreateWithoutHorizon()
+  {
+    new MFReservationTable(0);
+  }
+
+  @Test
+  public void shouldReserveTile()
+  {
+    final MFLocation location = new MFLocation(1, 2, 0);
+    assertTrue(this.table.reserve(location, 3, this.owner));
+
+    assertTrue(this.table.isReserved(location, 3, this.otherOwner));
+    assertFalse(this.table.isReserved(location, 2, this.otherOwner));
+    assertFalse(this.table.isReserved(new MFLocation(1, 3, 0), 3, this.otherOwner));
+  }
+
+  @Test
+  public void shouldIgnoreOwnReservations()
+  {
+    final MFLocation location = new MFLocation(1, 2, 0);
+    this.table.reserve(location, 3, this.owner);
+
+    assertFalse(this.table.isReserved(location, 3, this.owner));
+    assertTrue(this.table.isFree(location, 0, 5, this.owner));
+  }
+
+  @Test
+  public void shouldNotReserveTileOfOtherOwner()
+  {
+    final MFLocation location = new MFLocation(1, 2, 0);
+    this.table.reserve(location, 3, this.owner);
+
+    assertFalse(this.table.reserve(location, 3, this.otherOwner));
+    assertFalse(this.table.isFree(location, 0, 5, this.otherOwner));
+    assertTrue(this.table.isFree(location, 4, 5, this.otherOwner));
+  }
+
+  @Test
+  public void shouldNotReserveOutsideOfHorizon()
+  {
+    final MFLocation location = new MFLocation(1, 2, 0);
+    assertFalse(this.table.reserve(location, HORIZON, this.owner));
+    assertFalse(this.table.isReserved(location, HORIZON, this.otherOwner));
+  }
+
+  @Test
+  public void shouldExpireReservationsWhenClockAdvances()
+  {
+    final MFLocation location = new MFLocation(1, 2, 0);
+    this.table.reserve(location, 1, this.owner);
+
+    this.table.advance();
+    assertTrue(this.table.isReserved(location, 1, this.otherOwner));
+    this.table.advance();
+    assertFalse(this.table.isReserved(location, 1, this.otherOwner));
+
+    // the slot of the expired tick gets reused
+    assertFalse(this.table.isReserved(location, 1 + HORIZON, this.otherOwner));
+    assertTrue(this.table.reserve(location, 1 + HORIZON, this.otherOwner));
+  }
+
+  @Test
+  public void shouldDropAllReservationsOfReusedSlot()
+  {
+    for (int x = 0; x < 100; ++x) {
+      this.table.reserve(new MFLocation(x, 2, 0), 1, this.owner);
+    }
+    this.table.advance();
+    this.table.advance();
+
+    final MFLocation location = new MFLocation(3, 2, 0);
+    assertTrue(this.table.reserve(location, 1 + HORIZON, this.otherOwner));
+    assertTrue(this.table.isReserved(location, 1 + HORIZON, this.owner));
+    for (int x = 4; x < 100; ++x) {
+      assertFalse(this.table.isReserved(new MFLocation(x, 2, 0), 1 + HORIZON,
+                                        this.otherOwner));
+    }
+  }
+
+  @Test
+  public void shouldReleaseReservationsOfOwner()
+  {
+    final MFLocation location = new MFLocation(1, 2, 0);
+    final MFLocation otherLocation = new MFLocation(2, 2, 0);
+    this.table.reserve(location, 1, this.owner);
+    this.table.reserve(location, 2, this.owner);
+    this.table.reserve(otherLocation, 2, this.otherOwner);
+
+    this.table.release(this.owner);
+
+    assertFalse(this.table.isReserved(location, 1, this.otherOwner));
+    assertFalse(this.table.isReserved(location, 2, this.otherOwner));
+    assertTrue(this.table.isReserved(otherLocation, 2, this.owner));
+  }
+
+}
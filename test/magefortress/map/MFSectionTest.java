@@ -119,6 +119,24 @@ public class MFSectionTest
     assertTrue(this.section.getEntrances().contains(mockEntrance));
   }
 
+  @Test
+  public void shouldRemoveEntrance()
+  {
+    MFSectionEntrance mockEntrance = mock(MFSectionEntrance.class);
+    when(mockEntrance.getLocation()).thenReturn(new MFLocation(3, 3, 3));
+    this.section.addEntrance(mockEntrance);
+
+    this.section.removeEntrance(mockEntrance);
+
+    assertFalse(this.section.getEntrances().contains(mockEntrance));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotRemoveNullEntrance()
+  {
+    this.section.removeEntrance(null);
+  }
+
   //-------------------------------- uniteWith() TESTS -------------------------
   @Test(expected=IllegalArgumentException.class)
   public void shouldNotUniteNullSection()
@@ -24,11 +24,18 @@
  */
 package magefortress.map;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import magefortress.core.MFLongHashMap;
+import magefortress.core.MFPackedLocation;
 import magefortress.map.ground.MFGround;
 import magefortress.storage.DataAccessException;
+import magefortress.storage.MFMockQueries;
+import magefortress.storage.MFPreparedQuery;
 import magefortress.storage.MFSqlConnector;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -44,6 +51,11 @@ public class MFTileSqlDaoTest
   private MFTile unsavedMockTile;
   private MFTile savedMockTile;
   private MFSqlConnector mockDb;
+  private MFPreparedQuery createQuery;
+  private MFPreparedQuery updateQuery;
+  private MFPreparedQuery destroyQuery;
+  private MFPreparedQuery readMaxTileIdQuery;
+  private MFPreparedQuery destroyMapTilesQuery;
   private static MFSqlConnector realDb;
 
   @BeforeClass
@@ -59,7 +71,7 @@ public class MFTileSqlDaoTest
 
   @Before
   @SuppressWarnings("unchecked")
-  public void setUp() throws ClassNotFoundException
+  public void setUp() throws ClassNotFoundException, DataAccessException
   {
     // reset real test db
     //realDb.loadFromFile("magefortress.sql");
@@ -67,6 +79,11 @@ public class MFTileSqlDaoTest
     //resetDb();
 
     mockDb = mock(MFSqlConnector.class);
+    createQuery = MFMockQueries.stubQuery(mockDb, "CREATE_MFTileSqlDao", 14);
+    updateQuery = MFMockQueries.stubQuery(mockDb, "UPDATE_MFTileSqlDao", 15);
+    destroyQuery = MFMockQueries.stubQuery(mockDb, "DESTROY_MFTileSqlDao", 1);
+    readMaxTileIdQuery = MFMockQueries.stubQuery(mockDb, "READ_MAX_TILE_ID", 0);
+    destroyMapTilesQuery = MFMockQueries.stubQuery(mockDb, "DESTROY_MAP_TILES", 1);
     MFMap mockMap = mock(MFMap.class);
     when(mockMap.getId()).thenReturn(1);
 
@@ -88,23 +105,31 @@ public class MFTileSqlDaoTest
     ArgumentCaptor<String> queryId = ArgumentCaptor.forClass(String.class);
     ArgumentCaptor<String> query = ArgumentCaptor.forClass(String.class);
 
-    verify(mockDb, times(6)).prepareQuery(queryId.capture(), query.capture());
+    verify(mockDb, times(10)).prepareQuery(queryId.capture(), query.capture());
 
     List<String> queryIds = queryId.getAllValues();
     List<String> queries = query.getAllValues();
 
     assertEquals("READ_MAP_TILES", queryIds.get(0));
     assert(queries.get(0).startsWith("SELECT"));
-    assertEquals("CREATE_MFTileSqlDao", queryIds.get(1));
-    assert(queries.get(1).startsWith("INSERT"));
-    assertEquals("READ_MFTileSqlDao", queryIds.get(2));
+    assertEquals("READ_CHUNK_TILES", queryIds.get(1));
+    assert(queries.get(1).startsWith("SELECT"));
+    assertEquals("READ_LEVEL_TILES", queryIds.get(2));
     assert(queries.get(2).startsWith("SELECT"));
-    assertEquals("READ_ALL_MFTileSqlDao", queryIds.get(3));
+    assertEquals("READ_MAX_TILE_ID", queryIds.get(3));
     assert(queries.get(3).startsWith("SELECT"));
-    assertEquals("UPDATE_MFTileSqlDao", queryIds.get(4));
-    assert(queries.get(4).startsWith("UPDATE"));
-    assertEquals("DESTROY_MFTileSqlDao", queryIds.get(5));
-    assert(queries.get(5).startsWith("DELETE"));
+    assertEquals("DESTROY_MAP_TILES", queryIds.get(4));
+    assert(queries.get(4).startsWith("DELETE"));
+    assertEquals("CREATE_MFTileSqlDao", queryIds.get(5));
+    assert(queries.get(5).startsWith("INSERT"));
+    assertEquals("READ_MFTileSqlDao", queryIds.get(6));
+    assert(queries.get(6).startsWith("SELECT"));
+    assertEquals("READ_ALL_MFTileSqlDao", queryIds.get(7));
+    assert(queries.get(7).startsWith("SELECT"));
+    assertEquals("UPDATE_MFTileSqlDao", queryIds.get(8));
+    assert(queries.get(8).startsWith("UPDATE"));
+    assertEquals("DESTROY_MFTileSqlDao", queryIds.get(9));
+    assert(queries.get(9).startsWith("DELETE"));
   }
 
   @Test(expected=NullPointerException.class)
@@ -118,10 +143,10 @@ public class MFTileSqlDaoTest
   {
     unsavedTileSqlDao.save();
 
-    ArgumentCaptor<String> queryId = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MFPreparedQuery> queryId = ArgumentCaptor.forClass(MFPreparedQuery.class);
 
     verify(mockDb).insert(queryId.capture(), anyListOf(Object.class));
-    assertEquals("CREATE_MFTileSqlDao", queryId.getValue());
+    assertEquals("CREATE_MFTileSqlDao", queryId.getValue().getId());
   }
 
   @Test
@@ -129,10 +154,10 @@ public class MFTileSqlDaoTest
   {
     savedTileSqlDao.save();
 
-    ArgumentCaptor<String> queryId = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MFPreparedQuery> queryId = ArgumentCaptor.forClass(MFPreparedQuery.class);
 
     verify(mockDb).update(queryId.capture(), anyListOf(Object.class));
-    assertEquals("UPDATE_MFTileSqlDao", queryId.getValue());
+    assertEquals("UPDATE_MFTileSqlDao", queryId.getValue().getId());
   }
 
   @Test
@@ -147,7 +172,7 @@ public class MFTileSqlDaoTest
   public void shouldUpdateTileWithGeneratedId() throws DataAccessException
   {
     final int generatedId = 42;
-    when(mockDb.insert(eq("CREATE_MFTileSqlDao"), anyListOf(Object.class)))
+    when(mockDb.insert(same(createQuery), anyListOf(Object.class)))
             .thenReturn(generatedId);
 
     unsavedTileSqlDao.save();
@@ -211,14 +236,34 @@ public class MFTileSqlDaoTest
     assertEquals("Wrong tile count;", 16, gotTiles.size());
   }
 
+  @Test
+  public void shouldLoadAllIntoMap() throws DataAccessException
+  {
+    MFGround mockGround = mock(MFGround.class);
+    Map<Integer, MFGround> groundTypes = new HashMap<Integer, MFGround>();
+    groundTypes.put(1, mockGround);
+    MFMap map = new MFMap(2, 4, 4, 1, mock(MFGround.class));
+
+    unsavedTileSqlDao = new MFTileSqlDao(realDb, groundTypes);
+    int count = unsavedTileSqlDao.loadAllIntoMap(map);
+
+    assertEquals("Wrong tile count;", 16, count);
+    MFTile gotTile = map.getTile(1, 2, 0);
+    assertTrue(gotTile.getId() > 0);
+    assertSame(mockGround, gotTile.getGround());
+    assertTrue(gotTile.isDugOut());
+    assertTrue(gotTile.hasWallWest());
+    assertTrue(gotTile.hasFloor());
+  }
+
   @Test
   public void shouldDelete() throws DataAccessException
   {
-    when(mockDb.update(eq("DESTROY_MFTileSqlDao"), anyListOf(Object.class))).thenReturn(1);
+    when(mockDb.update(same(destroyQuery), anyListOf(Object.class))).thenReturn(1);
 
     savedTileSqlDao.delete();
 
-    verify(mockDb).update(eq("DESTROY_MFTileSqlDao"), anyListOf(Object.class));
+    verify(mockDb).update(same(destroyQuery), anyListOf(Object.class));
     verify(savedMockTile).setId(unsavedTileSqlDao.getUnsavedMarker());
   }
 
@@ -237,7 +282,7 @@ public class MFTileSqlDaoTest
   @Test(expected=DataAccessException.class)
   public void shouldThrowExceptionWhenNothingWasDeleted() throws DataAccessException
   {
-    when(mockDb.update(eq("DESTROY_MFTileSqlDao"), anyListOf(Object.class))).thenReturn(0);
+    when(mockDb.update(same(destroyQuery), anyListOf(Object.class))).thenReturn(0);
 
     savedTileSqlDao.delete();
   }
@@ -268,6 +313,142 @@ public class MFTileSqlDaoTest
     assertNull(unsavedTileSqlDao.getPayload());
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldSaveTilesInBatches() throws Exception
+  {
+    final MFMap mockMap = mock(MFMap.class);
+    when(mockMap.getId()).thenReturn(1);
+    final List<MFTile> tiles = new ArrayList<MFTile>();
+    for (int i = 0; i < MFTileSqlDao.BATCH_SIZE * 2 + 1; ++i) {
+      tiles.add(new MFTile(i + 1, i, 0, 0, false, false, false, false, false,
+                           true, true, mock(MFGround.class)));
+    }
+
+    final PreparedStatement updateStatement = mock(PreparedStatement.class);
+    MFMockQueries.stubBind(mockDb, updateQuery, updateStatement);
+
+    new MFTileSqlDao(mockDb, mockMap).saveAll(tiles);
+
+    verify(updateStatement, times(tiles.size())).addBatch();
+    verify(updateStatement, times(3)).executeBatch();
+    verify(updateStatement).setInt(15, 1);
+    verify(mockDb, never()).bind(createQuery);
+    verify(mockDb, never()).update(any(MFPreparedQuery.class), anyListOf(Object.class));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldReadIdsOfBatchedNewTiles() throws Exception
+  {
+    final MFMap mockMap = mock(MFMap.class);
+    when(mockMap.getId()).thenReturn(1);
+    final MFTile tile = new MFTile(MFTileStorage.UNSAVED_ID, 3, 4, 0, false,
+                           false, false, false, false, true, true, mock(MFGround.class));
+    final ResultSet rs = mock(ResultSet.class);
+    when(rs.next()).thenReturn(true);
+    when(rs.getInt("max_id")).thenReturn(76, 77);
+    final PreparedStatement createStatement = mock(PreparedStatement.class);
+    MFMockQueries.stubBind(mockDb, createQuery, createStatement);
+    final PreparedStatement idsStatement = mock(PreparedStatement.class);
+    when(idsStatement.executeQuery()).thenReturn(rs);
+    MFMockQueries.stubBind(mockDb, readMaxTileIdQuery, idsStatement);
+
+    final List<MFTile> tiles = new ArrayList<MFTile>();
+    tiles.add(tile);
+    new MFTileSqlDao(mockDb, mockMap).saveAll(tiles);
+
+    verify(createStatement).addBatch();
+    verify(createStatement).executeBatch();
+    assertEquals(77, tile.getId());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldReturnIdsOfNewTilesWithoutChangingThem() throws Exception
+  {
+    final MFMap mockMap = mock(MFMap.class);
+    when(mockMap.getId()).thenReturn(1);
+    final MFTile tile = new MFTile(MFTileStorage.UNSAVED_ID, 3, 4, 0, false,
+                           false, false, false, false, true, true, mock(MFGround.class));
+    final ResultSet rs = mock(ResultSet.class);
+    when(rs.next()).thenReturn(true);
+    when(rs.getInt("max_id")).thenReturn(76, 77);
+    final PreparedStatement createStatement = mock(PreparedStatement.class);
+    MFMockQueries.stubBind(mockDb, createQuery, createStatement);
+    final PreparedStatement idsStatement = mock(PreparedStatement.class);
+    when(idsStatement.executeQuery()).thenReturn(rs);
+    MFMockQueries.stubBind(mockDb, readMaxTileIdQuery, idsStatement);
+
+    final List<MFTile> tiles = new ArrayList<MFTile>();
+    tiles.add(tile);
+    final MFLongHashMap<Integer> gotIds = new MFTileSqlDao(mockDb, mockMap).saveAllReturningIds(tiles);
+
+    assertEquals(Integer.valueOf(77), gotIds.get(MFPackedLocation.pack(3, 4, 0)));
+    assertEquals(MFTileStorage.UNSAVED_ID, tile.getId());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldAssignConsecutiveIdsInInsertionOrder() throws Exception
+  {
+    final MFMap mockMap = mock(MFMap.class);
+    when(mockMap.getId()).thenReturn(1);
+    final List<MFTile> tiles = new ArrayList<MFTile>();
+    tiles.add(new MFTile(MFTileStorage.UNSAVED_ID, 5, 4, 0, false,
+                         false, false, false, false, true, true, mock(MFGround.class)));
+    tiles.add(new MFTile(41, 3, 4, 0, false,
+                         false, false, false, false, true, true, mock(MFGround.class)));
+    tiles.add(new MFTile(MFTileStorage.UNSAVED_ID, 3, 4, 0, false,
+                         false, false, false, false, true, true, mock(MFGround.class)));
+    final ResultSet rs = mock(ResultSet.class);
+    when(rs.next()).thenReturn(true);
+    when(rs.getInt("max_id")).thenReturn(100, 102);
+    MFMockQueries.stubBind(mockDb, createQuery, mock(PreparedStatement.class));
+    MFMockQueries.stubBind(mockDb, updateQuery, mock(PreparedStatement.class));
+    final PreparedStatement idsStatement = mock(PreparedStatement.class);
+    when(idsStatement.executeQuery()).thenReturn(rs);
+    MFMockQueries.stubBind(mockDb, readMaxTileIdQuery, idsStatement);
+
+    new MFTileSqlDao(mockDb, mockMap).saveAll(tiles);
+
+    assertEquals(101, tiles.get(0).getId());
+    assertEquals(41, tiles.get(1).getId());
+    assertEquals(102, tiles.get(2).getId());
+  }
+
+  @Test(expected=DataAccessException.class)
+  @SuppressWarnings("unchecked")
+  public void shouldNotGuessIdsOutsideOfTransaction() throws Exception
+  {
+    final MFMap mockMap = mock(MFMap.class);
+    when(mockMap.getId()).thenReturn(1);
+    final List<MFTile> tiles = new ArrayList<MFTile>();
+    tiles.add(new MFTile(MFTileStorage.UNSAVED_ID, 3, 4, 0, false,
+                         false, false, false, false, true, true, mock(MFGround.class)));
+    final ResultSet rs = mock(ResultSet.class);
+    when(rs.next()).thenReturn(true);
+    // someone else inserted a row meanwhile
+    when(rs.getInt("max_id")).thenReturn(76, 78);
+    MFMockQueries.stubBind(mockDb, createQuery, mock(PreparedStatement.class));
+    final PreparedStatement idsStatement = mock(PreparedStatement.class);
+    when(idsStatement.executeQuery()).thenReturn(rs);
+    MFMockQueries.stubBind(mockDb, readMaxTileIdQuery, idsStatement);
+
+    new MFTileSqlDao(mockDb, mockMap).saveAllReturningIds(tiles);
+  }
+
+  @Test
+  public void shouldDeleteAllTilesOfMapAtOnce() throws DataAccessException
+  {
+    final MFMap mockMap = mock(MFMap.class);
+    when(mockMap.getId()).thenReturn(1);
+
+    new MFTileSqlDao(mockDb, mockMap).deleteAllOfMap();
+
+    verify(mockDb).update(same(destroyMapTilesQuery), anyListOf(Object.class));
+  }
+
   //---vvv---      PRIVATE METHODS      ---vvv---
   private synchronized void resetDb()
   {
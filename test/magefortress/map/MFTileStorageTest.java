@@ -0,0 +1,201 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.map;
+
+import magefortress.core.MFEDirection;
+import magefortress.creatures.behavior.movable.MFCapability;
+import magefortress.map.MFTile.Corner;
+import magefortress.map.ground.MFGround;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MFTileStorageTest
+{
+  private MFTileStorage storage;
+  private MFGround ground;
+
+  @Before
+  public void setUp()
+  {
+    this.ground = mock(MFGround.class);
+    this.storage = new MFTileStorage(0, 0, 0, 4, 3, 2, this.ground);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotCreateEmptyStorage()
+  {
+    new MFTileStorage(0, 0, 0, 0, 3, 2, this.ground);
+  }
+
+  @Test
+  public void shouldStartWithSolidUndergroundTiles()
+  {
+    assertFalse(this.storage.hasFlag(3, 2, 1, MFTileStorage.DUG_OUT));
+    assertTrue(this.storage.hasFlag(3, 2, 1, MFTileStorage.UNDERGROUND));
+    assertTrue(this.storage.hasFlag(3, 2, 1, MFTileStorage.FLOOR));
+    assertFalse(this.storage.hasFlag(3, 2, 1, MFTileStorage.WALLS));
+    assertEquals(MFTileStorage.UNSAVED_ID, this.storage.getId(3, 2, 1));
+    assertSame(this.ground, this.storage.getGround(3, 2, 1));
+  }
+
+  @Test
+  public void shouldSetFlagsOfSingleTile()
+  {
+    assertTrue(this.storage.setFlag(1, 2, 1, MFTileStorage.WALL_E, true));
+    assertFalse(this.storage.setFlag(1, 2, 1, MFTileStorage.WALL_E, true));
+
+    assertTrue(this.storage.hasFlag(1, 2, 1, MFTileStorage.WALL_E));
+    assertFalse(this.storage.hasFlag(1, 2, 0, MFTileStorage.WALL_E));
+    assertFalse(this.storage.hasFlag(2, 1, 1, MFTileStorage.WALL_E));
+  }
+
+  @Test
+  public void shouldStoreCornersAndPassageSeparately()
+  {
+    this.storage.setCorner(1, 1, 0, MFEDirection.NE, Corner.INWARD);
+    this.storage.setCorner(1, 1, 0, MFEDirection.SW, Corner.HORIZONTAL);
+    this.storage.setVerticalPassage(1, 1, 0, MFEVerticalPassage.SHAFT);
+    this.storage.setFlag(1, 1, 0, MFTileStorage.DUG_OUT, true);
+
+    assertEquals(Corner.INWARD, this.storage.getCorner(1, 1, 0, MFEDirection.NE));
+    assertEquals(Corner.NONE, this.storage.getCorner(1, 1, 0, MFEDirection.SE));
+    assertEquals(Corner.HORIZONTAL, this.storage.getCorner(1, 1, 0, MFEDirection.SW));
+    assertEquals(Corner.NONE, this.storage.getCorner(1, 1, 0, MFEDirection.NW));
+    assertEquals(MFEVerticalPassage.SHAFT, this.storage.getVerticalPassage(1, 1, 0));
+    assertTrue(this.storage.hasFlag(1, 1, 0, MFTileStorage.DUG_OUT));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotStoreCornerOfStraightDirection()
+  {
+    this.storage.setCorner(1, 1, 0, MFEDirection.N, Corner.INWARD);
+  }
+
+  @Test
+  public void shouldStoreGroundTypesInPalette()
+  {
+    final MFGround otherGround = mock(MFGround.class);
+    this.storage.setGround(2, 2, 1, otherGround);
+
+    assertSame(otherGround, this.storage.getGround(2, 2, 1));
+    assertSame(this.ground, this.storage.getGround(2, 1, 1));
+  }
+
+  @Test
+  public void shouldStoreClearancePerCapability()
+  {
+    assertEquals(0, this.storage.getClearance(1, 1, 1, MFCapability.FLY));
+
+    this.storage.setClearance(1, 1, 1, MFCapability.WALK, 3);
+    this.storage.setClearance(1, 1, 1, MFCapability.FLY, 300);
+
+    assertEquals(3, this.storage.getClearance(1, 1, 1, MFCapability.WALK));
+    assertEquals(MFTileStorage.MAX_CLEARANCE, this.storage.getClearance(1, 1, 1, MFCapability.FLY));
+    assertEquals(0, this.storage.getClearance(1, 1, 0, MFCapability.WALK));
+  }
+
+  @Test
+  public void shouldCopyTileFromOtherStorage()
+  {
+    final MFGround otherGround = mock(MFGround.class);
+    final MFTileStorage single = new MFTileStorage(2, 1, 1, 1, 1, 1, otherGround);
+    single.setFlag(2, 1, 1, MFTileStorage.DUG_OUT | MFTileStorage.WALL_N, true);
+    single.setId(2, 1, 1, 42);
+    single.setClearance(2, 1, 1, MFCapability.WALK, 2);
+
+    this.storage.copyTile(single, 2, 1, 1);
+
+    assertTrue(this.storage.hasFlag(2, 1, 1, MFTileStorage.DUG_OUT));
+    assertTrue(this.storage.hasFlag(2, 1, 1, MFTileStorage.WALL_N));
+    assertEquals(42, this.storage.getId(2, 1, 1));
+    assertSame(otherGround, this.storage.getGround(2, 1, 1));
+    assertEquals(2, this.storage.getClearance(2, 1, 1, MFCapability.WALK));
+  }
+
+  @Test
+  public void shouldTrackDirtyTiles()
+  {
+    final MFTileStorage single = new MFTileStorage(2, 1, 1, 1, 1, 1, this.ground);
+    single.setFlag(2, 1, 1, MFTileStorage.DUG_OUT, true);
+    this.storage.copyTile(single, 2, 1, 1);
+    this.storage.setCorner(3, 2, 1, MFEDirection.NE, Corner.INWARD);
+    assertFalse(this.storage.isDirty());
+
+    this.storage.setFlag(1, 2, 1, MFTileStorage.WALL_E, true);
+    this.storage.setId(1, 2, 1, 42);
+    this.storage.setId(3, 0, 0, 43);
+
+    assertTrue(this.storage.isDirty());
+    assertEquals(2, this.storage.getDirtyTileCount());
+    assertTrue(this.storage.isDirty(1, 2, 1));
+    assertTrue(this.storage.isDirty(3, 0, 0));
+    assertFalse(this.storage.isDirty(2, 1, 1));
+    assertFalse(this.storage.isDirty(1, 2, 0));
+
+    this.storage.markClean();
+    assertFalse(this.storage.isDirty());
+    assertFalse(this.storage.isDirty(1, 2, 1));
+    assertEquals(0, this.storage.getDirtyTileCount());
+  }
+
+  @Test
+  public void shouldKeepFrozenCopyUnchanged()
+  {
+    MFGround otherGround = mock(MFGround.class);
+    this.storage.setClearance(1, 1, 0, MFCapability.WALK, 2);
+    MFTileStorage frozen = this.storage.freeze();
+
+    this.storage.setFlag(1, 1, 0, MFTileStorage.DUG_OUT, true);
+    this.storage.setId(1, 1, 0, 7);
+    this.storage.setGround(1, 1, 0, otherGround);
+    this.storage.setClearance(1, 1, 0, MFCapability.WALK, 3);
+    this.storage.setCorner(1, 1, 0, MFEDirection.NE, Corner.INWARD);
+
+    assertFalse(frozen.hasFlag(1, 1, 0, MFTileStorage.DUG_OUT));
+    assertEquals(MFTileStorage.UNSAVED_ID, frozen.getId(1, 1, 0));
+    assertSame(this.ground, frozen.getGround(1, 1, 0));
+    assertEquals(2, frozen.getClearance(1, 1, 0, MFCapability.WALK));
+    assertEquals(Corner.NONE, frozen.getCorner(1, 1, 0, MFEDirection.NE));
+
+    assertTrue(this.storage.hasFlag(1, 1, 0, MFTileStorage.DUG_OUT));
+    assertEquals(7, this.storage.getId(1, 1, 0));
+    assertSame(otherGround, this.storage.getGround(1, 1, 0));
+    assertEquals(3, this.storage.getClearance(1, 1, 0, MFCapability.WALK));
+  }
+
+  @Test
+  public void shouldCheckWalkabilityOfFlags()
+  {
+    final int dugOut = MFTileStorage.DUG_OUT;
+    final int dugOutWithFloor = MFTileStorage.DUG_OUT | MFTileStorage.FLOOR;
+
+    assertFalse(MFTileStorage.isWalkable(MFTileStorage.FLOOR, MFCapability.WALK));
+    assertFalse(MFTileStorage.isWalkable(dugOut, MFCapability.WALK));
+    assertTrue(MFTileStorage.isWalkable(dugOut, MFCapability.FLY));
+    assertTrue(MFTileStorage.isWalkable(dugOutWithFloor, MFCapability.WALK_FLY));
+  }
+}
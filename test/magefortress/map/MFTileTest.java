@@ -30,6 +30,7 @@ import magefortress.items.placeable.MFIPlaceable;
 import magefortress.core.MFRoom;
 import magefortress.core.MFRoomMock;
 import magefortress.creatures.behavior.movable.MFCapability;
+import magefortress.creatures.behavior.movable.MFEMovementType;
 import magefortress.items.MFBlueprint;
 import magefortress.map.ground.MFBasicUnderground;
 import magefortress.map.ground.MFGround;
@@ -74,6 +75,26 @@ public class MFTileTest
     assertEquals(0, tile.getClearance(MFCapability.WALK));
   }
 
+  @Test
+  public void shouldShareClearanceValueOfEqualCapabilities()
+  {
+    tile.setClearance(MFCapability.WALK, 3);
+    assertEquals(3, tile.getClearance(new MFCapability(MFEMovementType.WALK)));
+  }
+
+  @Test
+  public void shouldLimitClearanceValue()
+  {
+    tile.setClearance(MFCapability.WALK, MFTileStorage.MAX_CLEARANCE + 10);
+    assertEquals(MFTileStorage.MAX_CLEARANCE, tile.getClearance(MFCapability.WALK));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotSetNegativeClearanceValue()
+  {
+    tile.setClearance(MFCapability.WALK, -1);
+  }
+
   @Test
   public void shouldAddObject()
   {
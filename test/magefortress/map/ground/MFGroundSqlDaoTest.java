@@ -34,6 +34,8 @@ import magefortress.graphics.MFImageLibrary;
 import magefortress.items.MFBlueprint;
 import magefortress.map.MFTile.Corner;
 import magefortress.storage.DataAccessException;
+import magefortress.storage.MFMockQueries;
+import magefortress.storage.MFPreparedQuery;
 import magefortress.storage.MFSqlConnector;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -49,6 +51,9 @@ public class MFGroundSqlDaoTest
   private MFGround spyGround;
   private MFGround savedMockGround;
   private MFSqlConnector mockDb;
+  private MFPreparedQuery createQuery;
+  private MFPreparedQuery updateQuery;
+  private MFPreparedQuery destroyQuery;
   private MFBlueprint blueprint;
 
   private MFImageLibrary imgLib = MFImageLibrary.getInstance();
@@ -71,9 +76,12 @@ public class MFGroundSqlDaoTest
   }
 
   @Before
-  public void setUp() throws ClassNotFoundException
+  public void setUp() throws ClassNotFoundException, DataAccessException
   {
     mockDb = mock(MFSqlConnector.class);
+    createQuery = MFMockQueries.stubQuery(mockDb, "CREATE_MFGroundSqlDao", 0);
+    updateQuery = MFMockQueries.stubQuery(mockDb, "UPDATE_MFGroundSqlDao", 0);
+    destroyQuery = MFMockQueries.stubQuery(mockDb, "DESTROY_MFGroundSqlDao", 0);
     blueprint = mock(MFBlueprint.class);
 
     solid = mock(MFIPaintable.class);
@@ -143,10 +151,10 @@ public class MFGroundSqlDaoTest
   {
     unsavedGroundSqlDao.save();
 
-    ArgumentCaptor<String> queryId = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MFPreparedQuery> queryId = ArgumentCaptor.forClass(MFPreparedQuery.class);
 
     verify(mockDb).insert(queryId.capture(), anyListOf(Object.class));
-    assertEquals("CREATE_MFGroundSqlDao", queryId.getValue());
+    assertEquals("CREATE_MFGroundSqlDao", queryId.getValue().getId());
   }
 
   @Test
@@ -154,10 +162,10 @@ public class MFGroundSqlDaoTest
   {
     savedGroundSqlDao.save();
 
-    ArgumentCaptor<String> queryId = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MFPreparedQuery> queryId = ArgumentCaptor.forClass(MFPreparedQuery.class);
 
     verify(mockDb).update(queryId.capture(), anyListOf(Object.class));
-    assertEquals("UPDATE_MFGroundSqlDao", queryId.getValue());
+    assertEquals("UPDATE_MFGroundSqlDao", queryId.getValue().getId());
   }
 
   @Test
@@ -172,7 +180,7 @@ public class MFGroundSqlDaoTest
   public void shouldUpdateWithGeneratedId() throws DataAccessException
   {
     final int generatedId = 42;
-    when(mockDb.insert(eq("CREATE_MFGroundSqlDao"), anyListOf(Object.class)))
+    when(mockDb.insert(same(createQuery), anyListOf(Object.class)))
             .thenReturn(generatedId);
 
     unsavedGroundSqlDao.save();
@@ -217,11 +225,11 @@ public class MFGroundSqlDaoTest
   @Test
   public void shouldDelete() throws DataAccessException
   {
-    when(mockDb.update(eq("DESTROY_MFGroundSqlDao"), anyListOf(Object.class))).thenReturn(1);
+    when(mockDb.update(same(destroyQuery), anyListOf(Object.class))).thenReturn(1);
 
     savedGroundSqlDao.delete();
 
-    verify(mockDb).update(eq("DESTROY_MFGroundSqlDao"), anyListOf(Object.class));
+    verify(mockDb).update(same(destroyQuery), anyListOf(Object.class));
     verify(savedMockGround).setId(unsavedGroundSqlDao.getUnsavedMarker());
   }
 
@@ -240,7 +248,7 @@ public class MFGroundSqlDaoTest
   @Test(expected=DataAccessException.class)
   public void shouldThrowExceptionWhenNothingWasDeleted() throws DataAccessException
   {
-    when(mockDb.update(eq("DESTROY_MFGroundSqlDao"), anyListOf(Object.class))).thenReturn(0);
+    when(mockDb.update(same(destroyQuery), anyListOf(Object.class))).thenReturn(0);
 
     savedGroundSqlDao.delete();
   }
@@ -0,0 +1,102 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.storage;
+
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MFBoundQueryTest
+{
+  private PreparedStatement mockStatement;
+  private MFBoundQuery query;
+
+  @Before
+  public void setUp()
+  {
+    this.mockStatement = mock(PreparedStatement.class);
+    final MFPreparedQuery handle = new MFPreparedQuery("TEST", "SELECT ?, ?, ?;", 0,
+                                 new int[] {Types.INTEGER, Types.VARCHAR, Types.BLOB});
+    this.query = new MFBoundQuery(handle, this.mockStatement);
+  }
+
+  @Test
+  public void shouldBindPrimitives() throws Exception
+  {
+    final byte[] data = new byte[] {1, 2};
+    this.query.setInt(1, 42).setNull(2).setBytes(3, data).executeUpdate();
+
+    verify(this.mockStatement).setInt(1, 42);
+    verify(this.mockStatement).setNull(2, Types.VARCHAR);
+    verify(this.mockStatement).setBytes(3, data);
+    verify(this.mockStatement).executeUpdate();
+  }
+
+  @Test
+  public void shouldBindValuesByType() throws Exception
+  {
+    final List<Object> values = new ArrayList<Object>(3);
+    values.add(42);
+    values.add(true);
+    values.add("name");
+    this.query.setValues(values).executeQuery();
+
+    verify(this.mockStatement).setInt(1, 42);
+    verify(this.mockStatement).setBoolean(2, true);
+    verify(this.mockStatement).setString(3, "name");
+  }
+
+  @Test(expected=DataAccessException.class)
+  public void shouldNotExecuteWithoutAllParameters() throws DataAccessException
+  {
+    this.query.setInt(1, 42).setInt(3, 1).executeQuery();
+  }
+
+  @Test(expected=DataAccessException.class)
+  public void shouldNotReuseParametersOfLastExecution() throws DataAccessException
+  {
+    this.query.setInt(1, 42).setInt(2, 1).setInt(3, 1).addBatch();
+    this.query.setInt(1, 43).addBatch();
+  }
+
+  @Test(expected=DataAccessException.class)
+  public void shouldNotSetWrongNumberOfValues() throws DataAccessException
+  {
+    final List<Object> values = new ArrayList<Object>(1);
+    values.add(42);
+    this.query.setValues(values);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotSetUnknownParameter() throws DataAccessException
+  {
+    this.query.setInt(4, 42);
+  }
+}
@@ -75,6 +75,15 @@ public class MFDaoFactoryTest
     new MFDaoFactory(null);
   }
 
+  @Test
+  public void shouldMigrateSchemaOnConnect() throws DataAccessException
+  {
+    final MFSqlConnector db = MFSqlConnector.getInstance();
+    final int latest = new MFSchemaMigrator(db, "migrations").getLatestVersion();
+    assertTrue(latest > 0);
+    assertEquals(latest, db.getSchemaVersion());
+  }
+
   //---vvv---         RACE DAO TESTS               ---vvv---
   @Test
   public void shouldGetRaceLoadingDao()
@@ -0,0 +1,184 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.storage;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import magefortress.map.MFMap;
+import magefortress.map.MFTile;
+import magefortress.map.ground.MFGround;
+import static org.mockito.Mockito.*;
+
+/**
+ * Measures loading and saving maps through the DAOs on a fresh SQLite
+ * database, for one {@link MFDaoFactory.DatabaseProfile database profile},
+ * with or without the <code>tiles_location</code> index. Run it once per
+ * configuration to compare them:
+ * <ul>
+ *   <li>load map: loads a whole map with all tiles</li>
+ *   <li>load chunks: loads a map lazily and touches every chunk</li>
+ *   <li>save map: saves a whole loaded map</li>
+ *   <li>200 tile saves: saves 200 single tiles, each in its own commit</li>
+ * </ul>
+ * Tiles are saved as rows. Run after building the tests from the project
+ * directory, with the SQLite driver and Mockito on the class path:
+ * <code>java magefortress.storage.MFMapStorageBenchmark
+ * &lt;DEFAULT|TUNED&gt; [index|noindex] [database]</code>. The database file
+ * is deleted and created again. Prints the best of several rounds in
+ * milliseconds.
+ */
+public class MFMapStorageBenchmark
+{
+  public static void main(String[] _args) throws Exception
+  {
+    if (_args.length < 1) {
+      System.err.println("Usage: MFMapStorageBenchmark <DEFAULT|TUNED> " +
+                         "[index|noindex] [database]");
+      System.exit(1);
+    }
+    final MFDaoFactory.DatabaseProfile profile = MFDaoFactory.DatabaseProfile.valueOf(_args[0]);
+    final boolean withIndex = (_args.length < 2 || !_args[1].equals("noindex"));
+    final String database = (_args.length < 3 ?
+            new File(System.getProperty("java.io.tmpdir"), "magefortress.benchmark.db").getPath() :
+            _args[2]);
+
+    final MFMapStorageBenchmark benchmark = new MFMapStorageBenchmark(
+                                                    database, profile, withIndex);
+    System.out.println("Profile " + profile + ", " + (withIndex ? "with" : "without") +
+                       " index, " + MAPS + " maps of " + WIDTH + "x" +
+                       HEIGHT + "x" + DEPTH + " tiles");
+    benchmark.createMaps();
+    benchmark.measure();
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final int MAPS = 4;
+  private static final int WIDTH = 100;
+  private static final int HEIGHT = 100;
+  private static final int DEPTH = 4;
+  private static final int SINGLE_SAVES = 200;
+  private static final int ROUNDS = 3;
+  private final MFDaoFactory daoFactory;
+  private final Map<Integer, MFGround> groundTypes;
+  /** The ids of the created maps */
+  private final int[] mapIds = new int[MAPS];
+
+  private MFMapStorageBenchmark(String _database, MFDaoFactory.DatabaseProfile _profile,
+                                boolean _withIndex)
+                                                        throws DataAccessException
+  {
+    for (String suffix : new String[] {"", "-wal", "-shm", "-journal"}) {
+      new File(_database + suffix).delete();
+    }
+
+    // the factory migrates the schema, which has to exist first
+    final MFSqlConnector db = MFSqlConnector.getInstance();
+    db.connect(_database);
+    if (!db.loadFromFile("magefortress.sql")) {
+      throw new IllegalStateException("Couldn't create the schema from magefortress.sql.");
+    }
+
+    final Properties props = new Properties();
+    props.setProperty("STORAGE", MFDaoFactory.Storage.SQL.toString());
+    props.setProperty("DATABASE", _database);
+    props.setProperty("DATABASE_PROFILE", _profile.toString());
+    props.setProperty("TILE_FORMAT", MFDaoFactory.TileFormat.ROWS.toString());
+    this.daoFactory = new MFDaoFactory(props);
+    if (!_withIndex) {
+      db.execute("DROP INDEX tiles_location;");
+    }
+
+    // tiles are saved without their ground yet, so every id gets the same one
+    final MFGround ground = mock(MFGround.class);
+    this.groundTypes = new HashMap<Integer, MFGround>();
+    this.groundTypes.put(1, ground);
+    this.groundTypes.put(MFSqlDao.UNSAVED_MARKER, ground);
+  }
+
+  private void createMaps() throws DataAccessException
+  {
+    for (int i = 0; i < MAPS; ++i) {
+      final MFMap map = new MFMap(MFSqlDao.UNSAVED_MARKER, WIDTH, HEIGHT, DEPTH,
+                                  this.groundTypes.get(1));
+      this.daoFactory.getMapSavingDao(map).save();
+      this.mapIds[i] = map.getId();
+    }
+  }
+
+  private void measure() throws DataAccessException
+  {
+    final int mapId = this.mapIds[MAPS / 2];
+
+    long best = Long.MAX_VALUE;
+    MFMap map = null;
+    for (int round = 0; round < ROUNDS; ++round) {
+      final long start = System.nanoTime();
+      map = MFMap.loadMap(mapId, this.daoFactory, this.groundTypes);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    print("load map", best);
+
+    best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; ++round) {
+      final long start = System.nanoTime();
+      final MFMap lazyMap = MFMap.loadMapLazily(mapId, this.daoFactory, this.groundTypes);
+      for (int z = 0; z < DEPTH; ++z) {
+        for (int x = 0; x < WIDTH; x += MFMap.CHUNK_SIZE) {
+          for (int y = 0; y < HEIGHT; y += MFMap.CHUNK_SIZE) {
+            lazyMap.getTile(x, y, z);
+          }
+        }
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    print("load chunks", best);
+
+    best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; ++round) {
+      final long start = System.nanoTime();
+      this.daoFactory.getMapSavingDao(map).save();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    print("save map", best);
+
+    best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; ++round) {
+      final long start = System.nanoTime();
+      for (int i = 0; i < SINGLE_SAVES; ++i) {
+        final MFTile tile = map.getTile(i % WIDTH, i / WIDTH, 0);
+        this.daoFactory.getTileSavingDao(tile, map).save();
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    print(SINGLE_SAVES + " tile saves", best);
+  }
+
+  private static void print(String _measurement, long _nanos)
+  {
+    System.out.printf("%-16s %8.1f ms%n", _measurement, _nanos / 1000000.0);
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.storage;
+
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.Arrays;
+import static org.mockito.Mockito.*;
+
+/**
+ * Stubs the handles of saved queries on a mocked {@link MFSqlConnector}, so
+ * DAOs executing queries through handles can be tested without a database.
+ */
+public class MFMockQueries
+{
+  /**
+   * Stubs the handle of a saved query.
+   * @param _mockDb the mocked connector
+   * @param _queryId the id of the query
+   * @param _parameterCount the number of parameters of the query
+   * @return the handle returned by {@link MFSqlConnector#getQuery(String)}
+   */
+  public static MFPreparedQuery stubQuery(MFSqlConnector _mockDb, String _queryId,
+                                          int _parameterCount) throws DataAccessException
+  {
+    final int[] parameterTypes = new int[_parameterCount];
+    Arrays.fill(parameterTypes, Types.OTHER);
+    final MFPreparedQuery result = new MFPreparedQuery(_queryId, "", 0, parameterTypes);
+    when(_mockDb.getQuery(_queryId)).thenReturn(result);
+    return result;
+  }
+
+  /**
+   * Stubs binding a saved query to a statement.
+   * @param _mockDb the mocked connector
+   * @param _query the handle of the query
+   * @param _statement the statement the parameters are bound to, usually a mock
+   * @return the bound query returned by {@link MFSqlConnector#bind(MFPreparedQuery)}
+   */
+  public static MFBoundQuery stubBind(MFSqlConnector _mockDb, MFPreparedQuery _query,
+                                      PreparedStatement _statement) throws DataAccessException
+  {
+    final MFBoundQuery result = new MFBoundQuery(_query, _statement);
+    when(_mockDb.bind(_query)).thenReturn(result);
+    return result;
+  }
+}
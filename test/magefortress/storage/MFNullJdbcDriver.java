@@ -0,0 +1,602 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.storage;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Calendar;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * A JDBC driver for <code>jdbc:sqlite:</code> URLs whose connections and
+ * statements do nothing, so the connector can be measured without a
+ * database. Results are the defaults of their types. Prepared statements
+ * report one parameter of unknown type per <code>?</code> of their query.
+ */
+public class MFNullJdbcDriver implements Driver
+{
+  public Connection connect(String _url, Properties _info)
+  {
+    if (!this.acceptsURL(_url)) {
+      return null;
+    }
+    return (Connection) nullObject(Connection.class);
+  }
+
+  public boolean acceptsURL(String _url)
+  {
+    return _url.startsWith("jdbc:sqlite:");
+  }
+
+  public DriverPropertyInfo[] getPropertyInfo(String _url, Properties _info)
+  {
+    return new DriverPropertyInfo[0];
+  }
+
+  public int getMajorVersion()
+  {
+    return 1;
+  }
+
+  public int getMinorVersion()
+  {
+    return 0;
+  }
+
+  public boolean jdbcCompliant()
+  {
+    return false;
+  }
+
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException
+  {
+    throw new SQLFeatureNotSupportedException();
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final int[] NO_UPDATES = new int[0];
+
+  /**
+   * Creates an object of a JDBC interface whose methods do nothing. Only
+   * used where the calls are too rare to be measured.
+   */
+  private static Object nullObject(Class<?> _type)
+  {
+    return Proxy.newProxyInstance(MFNullJdbcDriver.class.getClassLoader(),
+            new Class<?>[] {_type}, new InvocationHandler() {
+      public Object invoke(Object _proxy, Method _method, Object[] _args)
+      {
+        final String name = _method.getName();
+        final Class<?> returned = _method.getReturnType();
+        if (name.equals("prepareStatement")) {
+          return new NullStatement((String) _args[0]);
+        } else if (name.equals("createStatement")) {
+          return nullObject(Statement.class);
+        } else if (name.equals("hashCode")) {
+          return System.identityHashCode(_proxy);
+        } else if (name.equals("equals")) {
+          return _proxy == _args[0];
+        } else if (returned == boolean.class) {
+          return false;
+        } else if (returned == int.class) {
+          return 0;
+        } else if (returned == long.class) {
+          return 0L;
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * A prepared statement doing nothing. Implemented as a class, because the
+   * setters are called for every executed row and a proxy would cost more
+   * than the connector being measured.
+   */
+  private static class NullStatement implements PreparedStatement
+  {
+    NullStatement(String _sql)
+    {
+      int parameters = 0;
+      for (int i = 0; i < _sql.length(); ++i) {
+        if (_sql.charAt(i) == '?') {
+          ++parameters;
+        }
+      }
+      this.parameterCount = parameters;
+    }
+
+    public void setInt(int _index, int _value)
+    {
+    }
+
+    public void setBoolean(int _index, boolean _value)
+    {
+    }
+
+    public void addBatch()
+    {
+    }
+
+    public int executeUpdate()
+    {
+      return 0;
+    }
+
+    public int[] executeBatch()
+    {
+      return NO_UPDATES;
+    }
+
+    public ParameterMetaData getParameterMetaData()
+    {
+      final int count = this.parameterCount;
+      return (ParameterMetaData) Proxy.newProxyInstance(
+              MFNullJdbcDriver.class.getClassLoader(),
+              new Class<?>[] {ParameterMetaData.class}, new InvocationHandler() {
+        public Object invoke(Object _proxy, Method _method, Object[] _args)
+        {
+          if (_method.getName().equals("getParameterCount")) {
+            return count;
+          }
+          return (_method.getReturnType() == int.class ? Types.OTHER : null);
+        }
+      });
+    }
+
+    public void addBatch(String _sql)
+    {
+    }
+
+    public void cancel()
+    {
+    }
+
+    public void clearBatch()
+    {
+    }
+
+    public void clearParameters()
+    {
+    }
+
+    public void clearWarnings()
+    {
+    }
+
+    public void close()
+    {
+    }
+
+    public void closeOnCompletion()
+    {
+    }
+
+    public boolean execute()
+    {
+      return false;
+    }
+
+    public boolean execute(String _sql)
+    {
+      return false;
+    }
+
+    public boolean execute(String _sql, int[] _columnIndexes)
+    {
+      return false;
+    }
+
+    public boolean execute(String _sql, String[] _columnNames)
+    {
+      return false;
+    }
+
+    public boolean execute(String _sql, int _autoGeneratedKeys)
+    {
+      return false;
+    }
+
+    public ResultSet executeQuery()
+    {
+      return null;
+    }
+
+    public ResultSet executeQuery(String _sql)
+    {
+      return null;
+    }
+
+    public int executeUpdate(String _sql)
+    {
+      return 0;
+    }
+
+    public int executeUpdate(String _sql, int _autoGeneratedKeys)
+    {
+      return 0;
+    }
+
+    public int executeUpdate(String _sql, int[] _columnIndexes)
+    {
+      return 0;
+    }
+
+    public int executeUpdate(String _sql, String[] _columnNames)
+    {
+      return 0;
+    }
+
+    public Connection getConnection()
+    {
+      return null;
+    }
+
+    public int getFetchDirection()
+    {
+      return 0;
+    }
+
+    public int getFetchSize()
+    {
+      return 0;
+    }
+
+    public ResultSet getGeneratedKeys()
+    {
+      return null;
+    }
+
+    public int getMaxFieldSize()
+    {
+      return 0;
+    }
+
+    public int getMaxRows()
+    {
+      return 0;
+    }
+
+    public ResultSetMetaData getMetaData()
+    {
+      return null;
+    }
+
+    public boolean getMoreResults()
+    {
+      return false;
+    }
+
+    public boolean getMoreResults(int _current)
+    {
+      return false;
+    }
+
+    public int getQueryTimeout()
+    {
+      return 0;
+    }
+
+    public ResultSet getResultSet()
+    {
+      return null;
+    }
+
+    public int getResultSetConcurrency()
+    {
+      return 0;
+    }
+
+    public int getResultSetHoldability()
+    {
+      return 0;
+    }
+
+    public int getResultSetType()
+    {
+      return 0;
+    }
+
+    public int getUpdateCount()
+    {
+      return 0;
+    }
+
+    public SQLWarning getWarnings()
+    {
+      return null;
+    }
+
+    public boolean isCloseOnCompletion()
+    {
+      return false;
+    }
+
+    public boolean isClosed()
+    {
+      return false;
+    }
+
+    public boolean isPoolable()
+    {
+      return false;
+    }
+
+    public boolean isWrapperFor(Class<?> _type)
+    {
+      return false;
+    }
+
+    public void setArray(int _index, Array _value)
+    {
+    }
+
+    public void setAsciiStream(int _index, InputStream _value)
+    {
+    }
+
+    public void setAsciiStream(int _index, InputStream _value, long _length)
+    {
+    }
+
+    public void setAsciiStream(int _index, InputStream _value, int _length)
+    {
+    }
+
+    public void setBigDecimal(int _index, BigDecimal _value)
+    {
+    }
+
+    public void setBinaryStream(int _index, InputStream _value)
+    {
+    }
+
+    public void setBinaryStream(int _index, InputStream _value, int _length)
+    {
+    }
+
+    public void setBinaryStream(int _index, InputStream _value, long _length)
+    {
+    }
+
+    public void setBlob(int _index, Blob _value)
+    {
+    }
+
+    public void setBlob(int _index, InputStream _value)
+    {
+    }
+
+    public void setBlob(int _index, InputStream _value, long _length)
+    {
+    }
+
+    public void setByte(int _index, byte _value)
+    {
+    }
+
+    public void setBytes(int _index, byte[] _value)
+    {
+    }
+
+    public void setCharacterStream(int _index, Reader _value)
+    {
+    }
+
+    public void setCharacterStream(int _index, Reader _value, long _length)
+    {
+    }
+
+    public void setCharacterStream(int _index, Reader _value, int _length)
+    {
+    }
+
+    public void setClob(int _index, Clob _value)
+    {
+    }
+
+    public void setClob(int _index, Reader _value)
+    {
+    }
+
+    public void setClob(int _index, Reader _value, long _length)
+    {
+    }
+
+    public void setCursorName(String _name)
+    {
+    }
+
+    public void setDate(int _index, Date _value)
+    {
+    }
+
+    public void setDate(int _index, Date _value, Calendar _calendar)
+    {
+    }
+
+    public void setDouble(int _index, double _value)
+    {
+    }
+
+    public void setEscapeProcessing(boolean _value)
+    {
+    }
+
+    public void setFetchDirection(int _value)
+    {
+    }
+
+    public void setFetchSize(int _value)
+    {
+    }
+
+    public void setFloat(int _index, float _value)
+    {
+    }
+
+    public void setLong(int _index, long _value)
+    {
+    }
+
+    public void setMaxFieldSize(int _value)
+    {
+    }
+
+    public void setMaxRows(int _value)
+    {
+    }
+
+    public void setNCharacterStream(int _index, Reader _value)
+    {
+    }
+
+    public void setNCharacterStream(int _index, Reader _value, long _length)
+    {
+    }
+
+    public void setNClob(int _index, Reader _value)
+    {
+    }
+
+    public void setNClob(int _index, NClob _value)
+    {
+    }
+
+    public void setNClob(int _index, Reader _value, long _length)
+    {
+    }
+
+    public void setNString(int _index, String _value)
+    {
+    }
+
+    public void setNull(int _index, int _sqlType)
+    {
+    }
+
+    public void setNull(int _index, int _sqlType, String _typeName)
+    {
+    }
+
+    public void setObject(int _index, Object _value)
+    {
+    }
+
+    public void setObject(int _index, Object _value, int _targetSqlType)
+    {
+    }
+
+    public void setObject(int _index, Object _value, int _targetSqlType, int _scale)
+    {
+    }
+
+    public void setPoolable(boolean _value)
+    {
+    }
+
+    public void setQueryTimeout(int _value)
+    {
+    }
+
+    public void setRef(int _index, Ref _value)
+    {
+    }
+
+    public void setRowId(int _index, RowId _value)
+    {
+    }
+
+    public void setSQLXML(int _index, SQLXML _value)
+    {
+    }
+
+    public void setShort(int _index, short _value)
+    {
+    }
+
+    public void setString(int _index, String _value)
+    {
+    }
+
+    public void setTime(int _index, Time _value)
+    {
+    }
+
+    public void setTime(int _index, Time _value, Calendar _calendar)
+    {
+    }
+
+    public void setTimestamp(int _index, Timestamp _value)
+    {
+    }
+
+    public void setTimestamp(int _index, Timestamp _value, Calendar _calendar)
+    {
+    }
+
+    public void setURL(int _index, URL _value)
+    {
+    }
+
+    public void setUnicodeStream(int _index, InputStream _value, int _length)
+    {
+    }
+
+    public <T> T unwrap(Class<T> _type)
+    {
+      return null;
+    }
+
+    private final int parameterCount;
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.storage;
+
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Measures the overhead of the connector when executing a tile update with
+ * 15 parameters: by query id with a list of boxed values, through a kept
+ * handle with the same list, and through a kept handle with typed setters.
+ * The same is measured for batches of 1000 rows.
+ * <p>
+ * The connector runs on {@link MFNullJdbcDriver}, whose statements do no
+ * work, so only the connector's own cost is counted and no database is
+ * needed. Every variant makes the same calls to the driver.
+ * <p>
+ * Run after building the tests with <code>java -cp
+ * build/classes:build/test/classes:&lt;SQLite driver jar&gt;
+ * magefortress.storage.MFQueryBindingBenchmark [executions]</code>. The
+ * driver jar is only loaded, never used. Prints the best of several rounds
+ * in nanoseconds per row.
+ */
+public class MFQueryBindingBenchmark
+{
+  public static void main(String[] _args) throws Exception
+  {
+    final int executions = (_args.length > 0 ? Integer.parseInt(_args[0]) : 1000000);
+
+    final MFSqlConnector db = MFSqlConnector.getInstance();
+    installNullDriver();
+    db.setDatabaseDriver(MFNullJdbcDriver.class.getName());
+    if (!db.connect("benchmark")) {
+      throw new IllegalStateException("Couldn't connect to the null driver.");
+    }
+    db.prepareQuery(QUERY_ID, UPDATE_TILE);
+    final MFPreparedQuery handle = db.getQuery(QUERY_ID);
+
+    final MFQueryBindingBenchmark benchmark = new MFQueryBindingBenchmark(db, handle);
+    System.out.println("Executions per round: " + executions);
+    for (Variant variant : Variant.values()) {
+      // the first rounds warm up the JIT
+      long best = Long.MAX_VALUE;
+      for (int round = 0; round < ROUNDS; ++round) {
+        final long start = System.nanoTime();
+        benchmark.run(variant, executions);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      System.out.printf("%-24s %6.1f ns/row%n", variant.description,
+                        (double) best / executions);
+    }
+    System.out.println("(checksum " + benchmark.sink + ")");
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static final String QUERY_ID = "BENCHMARK_UPDATE_TILE";
+  private static final String UPDATE_TILE = "UPDATE tiles SET map_id=?, " +
+          "ground_id=?, room_id=?, object_id=?, x=?, y=?, z=?, underground=?, " +
+          "dug_out=?, wall_n=?, wall_e=?, wall_s=?, wall_w=?, floor=? WHERE id=?;";
+  private static final int ROUNDS = 7;
+  private static final int BATCH_SIZE = 1000;
+  private final MFSqlConnector db;
+  private final MFPreparedQuery handle;
+  /** Keeps the JIT from dropping the measured work */
+  private long sink;
+
+  private enum Variant
+  {
+    LIST_BY_ID("list by id"),
+    LIST_BY_HANDLE("list by handle"),
+    TYPED_BY_HANDLE("typed by handle"),
+    BATCH_LIST_BY_ID("batch list by id"),
+    BATCH_TYPED_BY_HANDLE("batch typed by handle");
+
+    final String description;
+
+    Variant(String _description)
+    {
+      this.description = _description;
+    }
+  }
+
+  private MFQueryBindingBenchmark(MFSqlConnector _db, MFPreparedQuery _handle)
+  {
+    this.db = _db;
+    this.handle = _handle;
+  }
+
+  private void run(Variant _variant, int _executions) throws DataAccessException
+  {
+    switch (_variant) {
+      case LIST_BY_ID:
+        for (int i = 0; i < _executions; ++i) {
+          this.sink += this.db.update(QUERY_ID, vectorize(i));
+        }
+        break;
+      case LIST_BY_HANDLE:
+        for (int i = 0; i < _executions; ++i) {
+          this.sink += this.db.update(this.handle, vectorize(i));
+        }
+        break;
+      case TYPED_BY_HANDLE:
+        for (int i = 0; i < _executions; ++i) {
+          this.sink += bindTyped(this.db.bind(this.handle), i).executeUpdate();
+        }
+        break;
+      case BATCH_LIST_BY_ID:
+        final List<List<Object>> rows = new ArrayList<List<Object>>(BATCH_SIZE);
+        for (int i = 0; i < _executions; ++i) {
+          rows.add(vectorize(i));
+          if (rows.size() == BATCH_SIZE || i == _executions - 1) {
+            this.sink += this.db.updateBatch(QUERY_ID, rows).length;
+            rows.clear();
+          }
+        }
+        break;
+      case BATCH_TYPED_BY_HANDLE:
+        final MFBoundQuery query = this.db.bind(this.handle);
+        int batched = 0;
+        for (int i = 0; i < _executions; ++i) {
+          bindTyped(query, i).addBatch();
+          if (++batched == BATCH_SIZE || i == _executions - 1) {
+            this.sink += query.executeBatch().length;
+            batched = 0;
+          }
+        }
+        break;
+      default:
+        throw new AssertionError("Unexpected variant " + _variant);
+    }
+  }
+
+  /** Builds the parameters the way the tile DAO vectorizes a tile */
+  private static List<Object> vectorize(int _i)
+  {
+    final List<Object> result = new ArrayList<Object>(15);
+    result.add(1);
+    result.add(-1);
+    result.add(-1);
+    result.add(-1);
+    result.add(_i & 255);
+    result.add((_i >> 8) & 255);
+    result.add(_i >> 16);
+    result.add((_i & 1) == 0);
+    result.add((_i & 2) == 0);
+    result.add((_i & 4) == 0);
+    result.add((_i & 8) == 0);
+    result.add((_i & 16) == 0);
+    result.add((_i & 32) == 0);
+    result.add((_i & 64) == 0);
+    result.add(_i);
+    return result;
+  }
+
+  private static MFBoundQuery bindTyped(MFBoundQuery _query, int _i)
+          throws DataAccessException
+  {
+    return _query.setInt(1, 1).setInt(2, -1).setInt(3, -1).setInt(4, -1)
+                 .setInt(5, _i & 255).setInt(6, (_i >> 8) & 255).setInt(7, _i >> 16)
+                 .setBoolean(8, (_i & 1) == 0).setBoolean(9, (_i & 2) == 0)
+                 .setBoolean(10, (_i & 4) == 0).setBoolean(11, (_i & 8) == 0)
+                 .setBoolean(12, (_i & 16) == 0).setBoolean(13, (_i & 32) == 0)
+                 .setBoolean(14, (_i & 64) == 0).setInt(15, _i);
+  }
+
+  /**
+   * Registers the null driver as the only driver of SQLite URLs, so the
+   * real driver isn't used even if it is on the class path.
+   */
+  private static void installNullDriver() throws SQLException
+  {
+    final Enumeration<Driver> drivers = DriverManager.getDrivers();
+    while (drivers.hasMoreElements()) {
+      final Driver driver = drivers.nextElement();
+      if (driver.acceptsURL("jdbc:sqlite:benchmark")) {
+        DriverManager.deregisterDriver(driver);
+      }
+    }
+    DriverManager.registerDriver(new MFNullJdbcDriver());
+  }
+}
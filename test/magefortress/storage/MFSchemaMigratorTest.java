@@ -0,0 +1,164 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.storage;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MFSchemaMigratorTest
+{
+  private MFSqlConnector db;
+  private File directory;
+  private MFSchemaMigrator migrator;
+
+  @Before
+  public void setUp() throws DataAccessException
+  {
+    this.db = MFSqlConnector.getInstance();
+    assertTrue(this.db.connect("magefortress.test.db"));
+    assertTrue(this.db.loadFromFile("magefortress.sql"));
+    this.db.execute("DROP TABLE IF EXISTS migration_test;");
+    this.db.setSchemaVersion(0);
+
+    this.directory = new File(System.getProperty("java.io.tmpdir"),
+                              "magefortress_migrations_" + System.nanoTime());
+    assertTrue(this.directory.mkdir());
+    this.migrator = new MFSchemaMigrator(this.db, this.directory.getPath());
+  }
+
+  @After
+  public void tearDown() throws DataAccessException
+  {
+    for (File file : this.directory.listFiles()) {
+      file.delete();
+    }
+    this.directory.delete();
+    this.db.execute("DROP TABLE IF EXISTS migration_test;");
+    this.db.setSchemaVersion(0);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotCreateWithoutConnector()
+  {
+    new MFSchemaMigrator(null, "migrations");
+  }
+
+  @Test
+  public void shouldApplyScriptsInOrder() throws Exception
+  {
+    writeScript("002_insert.sql", "INSERT INTO migration_test (name) VALUES ('second');");
+    writeScript("001_create.sql", "CREATE TABLE migration_test (name TEXT NOT NULL);");
+    writeScript("readme.txt", "not a migration");
+
+    assertEquals(2, this.migrator.getLatestVersion());
+    assertEquals(2, this.migrator.migrate());
+    assertEquals(2, this.db.getSchemaVersion());
+    assertEquals(1, countRows());
+  }
+
+  @Test
+  public void shouldSkipAppliedScripts() throws Exception
+  {
+    writeScript("001_create.sql", "CREATE TABLE migration_test (name TEXT NOT NULL);");
+    assertEquals(1, this.migrator.migrate());
+
+    writeScript("002_insert.sql", "INSERT INTO migration_test (name) VALUES ('second');");
+    assertEquals(1, this.migrator.migrate());
+    assertEquals(0, this.migrator.migrate());
+    assertEquals(1, countRows());
+  }
+
+  @Test
+  public void shouldRollBackFailedScript() throws Exception
+  {
+    writeScript("001_create.sql", "CREATE TABLE migration_test (name TEXT NOT NULL);");
+    writeScript("002_broken.sql", "INSERT INTO migration_test (name) VALUES ('second');",
+                                  "INSERT INTO missing_table (name) VALUES ('third');");
+    try {
+      this.migrator.migrate();
+      fail("Broken migration was applied.");
+    } catch (DataAccessException e) {
+      // expected
+    }
+    assertEquals(1, this.db.getSchemaVersion());
+    assertEquals(0, countRows());
+  }
+
+  @Test(expected=DataAccessException.class)
+  public void shouldNotMigrateWithDuplicateVersions() throws Exception
+  {
+    writeScript("001_create.sql", "CREATE TABLE migration_test (name TEXT NOT NULL);");
+    writeScript("1_create_again.sql", "CREATE TABLE migration_test (name TEXT NOT NULL);");
+    this.migrator.migrate();
+  }
+
+  @Test
+  public void shouldNotMigrateWithoutDirectory() throws DataAccessException
+  {
+    MFSchemaMigrator missing = new MFSchemaMigrator(this.db,
+                                      new File(this.directory, "missing").getPath());
+    assertEquals(0, missing.getLatestVersion());
+    assertEquals(0, missing.migrate());
+  }
+
+  @Test
+  public void shouldApplyGameMigrationsToCurrentSchema() throws DataAccessException
+  {
+    MFSchemaMigrator game = new MFSchemaMigrator(this.db, "migrations");
+    assertEquals(game.getLatestVersion(), game.migrate());
+    assertEquals(game.getLatestVersion(), this.db.getSchemaVersion());
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private void writeScript(String _name, String... _statements) throws IOException
+  {
+    FileWriter out = new FileWriter(new File(this.directory, _name));
+    try {
+      for (String statement : _statements) {
+        out.write(statement + "\n");
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private int countRows() throws Exception
+  {
+    assertTrue(this.db.prepareQuery("COUNT_MIGRATION_TEST",
+                                    "SELECT COUNT(*) FROM migration_test;"));
+    ResultSet rs = this.db.query("COUNT_MIGRATION_TEST", new ArrayList<Object>());
+    assertTrue(rs.next());
+    final int result = rs.getInt(1);
+    rs.close();
+    return result;
+  }
+}
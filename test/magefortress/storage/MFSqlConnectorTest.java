@@ -27,6 +27,8 @@ package magefortress.storage;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -261,6 +263,154 @@ public class MFSqlConnectorTest
     assertTrue(result);
   }
 
+  @Test
+  public void shouldExecuteQueryThroughHandle() throws DataAccessException, SQLException
+  {
+    setupFixtures();
+    assertTrue(dbinstance.prepareQuery("READ_RACE_NAME",
+                                       "SELECT name FROM races WHERE id = ?;"));
+
+    final MFPreparedQuery handle = dbinstance.getQuery("READ_RACE_NAME");
+    assertEquals(1, handle.getParameterCount());
+    ResultSet rs = dbinstance.bind(handle).setInt(1, 1).executeQuery();
+    assertTrue(rs.next());
+    assertNotNull(rs.getString("name"));
+    rs.close();
+  }
+
+  @Test(expected=DataAccessException.class)
+  public void shouldNotGetHandleOfNonExistingQuery() throws DataAccessException
+  {
+    setupSchema();
+    dbinstance.getQuery("READ_NON_EXISTING_QUERY");
+  }
+
+  @Test
+  public void shouldUseOwnConnectionPerThread() throws Exception
+  {
+    dbinstance.setThreadSafe(true);
+    try {
+      setupFixtures();
+      final String readId = "READ_RACE_NAME";
+      assertTrue(dbinstance.prepareQuery(readId, "SELECT name FROM races WHERE id = ?;"));
+      final String updateId = "UPDATE_RACE_NAME";
+      assertTrue(dbinstance.prepareQuery(updateId, "UPDATE races SET name = ? WHERE id = ?;"));
+      final ArrayList<Object> id = new ArrayList<Object>(1);
+      id.add(1);
+      ResultSet rs = dbinstance.query(readId, id);
+      assertTrue(rs.next());
+      final String savedName = rs.getString("name");
+      rs.close();
+
+      // the change isn't visible to other connections before the commit
+      dbinstance.beginTransaction();
+      final ArrayList<Object> values = new ArrayList<Object>(2);
+      values.add("Test Race");
+      values.add(1);
+      assertEquals(1, dbinstance.update(updateId, values));
+
+      final String[] readName = new String[1];
+      final Thread worker = new Thread() {
+        @Override
+        public void run()
+        {
+          try {
+            ResultSet rs = dbinstance.query(readId, id);
+            rs.next();
+            readName[0] = rs.getString("name");
+            rs.close();
+          } catch (Exception e) {
+            readName[0] = e.toString();
+          } finally {
+            dbinstance.closeThreadConnection();
+          }
+        }
+      };
+      worker.start();
+      worker.join();
+      dbinstance.rollback();
+
+      assertEquals(savedName, readName[0]);
+    } finally {
+      dbinstance.setThreadSafe(false);
+    }
+  }
+
+  @Test
+  public void shouldCloseConnectionWhenWorkerThreadEnds() throws Exception
+  {
+    dbinstance.setThreadSafe(true);
+    try {
+      setupFixtures();
+      final String updateId = "UPDATE_RACE_NAME";
+      assertTrue(dbinstance.prepareQuery(updateId, "UPDATE races SET name = ? WHERE id = ?;"));
+      final ArrayList<Object> values = new ArrayList<Object>(2);
+      values.add("Test Race");
+      values.add(1);
+
+      final Thread worker = dbinstance.getThreadFactory("Worker").newThread(new Runnable() {
+        @Override
+        public void run()
+        {
+          try {
+            // left open like by a failed task
+            dbinstance.beginTransaction();
+            dbinstance.update(updateId, values);
+          } catch (DataAccessException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      });
+      assertTrue(worker.isDaemon());
+      worker.start();
+      worker.join();
+
+      // the closed connection doesn't lock the database anymore
+      assertEquals(1, dbinstance.update(updateId, values));
+    } finally {
+      dbinstance.setThreadSafe(false);
+    }
+  }
+
+  @Test
+  public void shouldSetPragmasOnNewConnections() throws DataAccessException, SQLException
+  {
+    final Map<String, String> pragmas = new LinkedHashMap<String, String>();
+    pragmas.put("cache_size", "-1234");
+    dbinstance.setPragmas(pragmas);
+    try {
+      setupConnection();
+      assertTrue(dbinstance.prepareQuery("READ_CACHE_SIZE", "PRAGMA cache_size;"));
+      ResultSet rs = dbinstance.query("READ_CACHE_SIZE", new ArrayList<Object>());
+      assertTrue(rs.next());
+      assertEquals(-1234, rs.getInt(1));
+      rs.close();
+    } finally {
+      dbinstance.setPragmas(new LinkedHashMap<String, String>());
+    }
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotSetInvalidPragma()
+  {
+    final Map<String, String> pragmas = new LinkedHashMap<String, String>();
+    pragmas.put("cache_size", "1; DROP TABLE races");
+    dbinstance.setPragmas(pragmas);
+  }
+
+  @Test
+  public void shouldSetSchemaVersion() throws DataAccessException
+  {
+    setupConnection();
+    final int version = dbinstance.getSchemaVersion();
+    try {
+      dbinstance.setSchemaVersion(version + 1);
+      assertEquals(version + 1, dbinstance.getSchemaVersion());
+    } finally {
+      dbinstance.setSchemaVersion(version);
+    }
+  }
+
   //---vvv---      PRIVATE METHODS      ---vvv---
 
   private void setupConnection()
@@ -74,6 +74,19 @@ public class MFSqlDaoTest
     verify(mockDb).prepareQuery("DESTROY_MFMockSqlDao", "d");
   }
 
+  @Test
+  public void shouldKeepHandlesOfOwnConnector() throws DataAccessException
+  {
+    final MFPreparedQuery read = MFMockQueries.stubQuery(mockDb, "READ_MFMockSqlDao", 1);
+    final MFSqlConnector otherDb = mock(MFSqlConnector.class);
+    final MFPreparedQuery otherRead = MFMockQueries.stubQuery(otherDb, "READ_MFMockSqlDao", 1);
+    final MFSqlDao<MFMockSaveable> otherDao = new MFMockSqlDao(otherDb, mockPayload);
+
+    assertSame(read, sqlDao.getQuery(MFESqlOperations.READ));
+    assertSame(otherRead, otherDao.getQuery(MFESqlOperations.READ));
+    assertSame(read, sqlDao.getQuery(MFESqlOperations.READ));
+  }
+
   @Ignore("I forgot what the problem is...")
   @Test
   public void shouldCallReadVectorizedData() throws DataAccessException
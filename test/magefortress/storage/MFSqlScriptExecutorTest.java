@@ -0,0 +1,142 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.storage;
+
+import java.io.StringReader;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MFSqlScriptExecutorTest
+{
+  private MFSqlConnector db;
+  private MFSqlScriptExecutor executor;
+
+  @Before
+  public void setUp() throws DataAccessException
+  {
+    this.db = MFSqlConnector.getInstance();
+    assertTrue(this.db.connect("magefortress.test.db"));
+    this.db.execute("DROP TABLE IF EXISTS script_test;");
+    this.db.execute("CREATE TABLE script_test (name TEXT NOT NULL);");
+    this.executor = new MFSqlScriptExecutor(this.db);
+  }
+
+  @After
+  public void tearDown() throws DataAccessException
+  {
+    this.db.execute("DROP TABLE IF EXISTS script_test;");
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotCreateWithoutConnector()
+  {
+    new MFSqlScriptExecutor(null);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotSetEmptyBatchSize()
+  {
+    this.executor.setBatchSize(0);
+  }
+
+  @Test
+  public void shouldExecuteFile() throws Exception
+  {
+    assertTrue(this.executor.execute("magefortress.sql") > 0);
+  }
+
+  @Test
+  public void shouldExecuteInBatchesAndReportProgress() throws Exception
+  {
+    final List<Integer> reported = new ArrayList<Integer>();
+    this.executor.setBatchSize(2);
+    this.executor.setProgress(new MFIScriptProgress() {
+      public void progressed(int _statements, long _charactersRead, long _size)
+      {
+        reported.add(_statements);
+        assertEquals(-1, _size);
+      }
+    });
+
+    String script = "INSERT INTO script_test (name) VALUES ('1');\n" +
+                    "INSERT INTO script_test (name)\n  VALUES ('2;');\n" +
+                    "-- the third one\n" +
+                    "INSERT INTO script_test (name) VALUES ('3');\n" +
+                    "INSERT INTO script_test (name) VALUES ('4');\n" +
+                    "INSERT INTO script_test (name) VALUES ('5')";
+    assertEquals(5, this.executor.execute(new StringReader(script), "test", -1));
+
+    assertEquals(3, reported.size());
+    assertEquals(2, (int) reported.get(0));
+    assertEquals(4, (int) reported.get(1));
+    assertEquals(5, (int) reported.get(2));
+    assertEquals(5, countRows());
+  }
+
+  @Test
+  public void shouldRollBackFailedScript() throws Exception
+  {
+    this.executor.setBatchSize(1);
+    String script = "INSERT INTO script_test (name) VALUES ('1');\n" +
+                    "INSERT INTO missing_table (name) VALUES ('2');\n";
+    try {
+      this.executor.execute(new StringReader(script), "test", -1);
+      fail("Broken script was executed.");
+    } catch (DataAccessException e) {
+      // expected
+    }
+    assertFalse(this.db.isInTransaction());
+    assertEquals(0, countRows());
+  }
+
+  @Test
+  public void shouldJoinRunningTransaction() throws Exception
+  {
+    this.db.beginTransaction();
+    this.executor.execute(new StringReader("INSERT INTO script_test (name) VALUES ('1');"),
+                          "test", -1);
+    assertTrue(this.db.isInTransaction());
+    this.db.rollback();
+
+    assertEquals(0, countRows());
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private int countRows() throws Exception
+  {
+    assertTrue(this.db.prepareQuery("COUNT_SCRIPT_TEST",
+                                    "SELECT COUNT(*) FROM script_test;"));
+    ResultSet rs = this.db.query("COUNT_SCRIPT_TEST", new ArrayList<Object>());
+    assertTrue(rs.next());
+    final int result = rs.getInt(1);
+    rs.close();
+    return result;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ *  Copyright (c) 2010 Simon Hardijanto
+ * 
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ * 
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ * 
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+package magefortress.storage;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MFSqlScriptReaderTest
+{
+  @Test(expected=IllegalArgumentException.class)
+  public void shouldNotCreateWithoutReader()
+  {
+    new MFSqlScriptReader(null);
+  }
+
+  @Test
+  public void shouldReadOneStatementPerLine() throws IOException
+  {
+    List<String> got = readAll("DELETE FROM maps;\nDELETE FROM tiles;\n");
+    assertEquals(2, got.size());
+    assertEquals("DELETE FROM maps", got.get(0));
+    assertEquals("DELETE FROM tiles", got.get(1));
+  }
+
+  @Test
+  public void shouldReadStatementsSpanningLines() throws IOException
+  {
+    List<String> got = readAll("CREATE TABLE maps (\n  id INTEGER,\n  width INTEGER\n);\n" +
+                               "DELETE FROM maps; DELETE FROM tiles;");
+    assertEquals(3, got.size());
+    assertEquals("CREATE TABLE maps (\n  id INTEGER,\n  width INTEGER\n)", got.get(0));
+    assertEquals("DELETE FROM tiles", got.get(2));
+  }
+
+  @Test
+  public void shouldSkipComments() throws IOException
+  {
+    List<String> got = readAll("// races\n  // more races\n" +
+                               "-- maps\nDELETE FROM maps; -- all of them\n" +
+                               "/* tiles; */ DELETE /* really; */ FROM tiles;\n");
+    assertEquals(2, got.size());
+    assertEquals("DELETE FROM maps", got.get(0));
+    assertEquals("DELETE   FROM tiles", got.get(1));
+  }
+
+  @Test
+  public void shouldKeepSemicolonsInQuotes() throws IOException
+  {
+    List<String> got = readAll("INSERT INTO races (name) VALUES ('a;b''c -- d');\n" +
+                               "SELECT \"x;y\", [z;] FROM t;");
+    assertEquals(2, got.size());
+    assertEquals("INSERT INTO races (name) VALUES ('a;b''c -- d')", got.get(0));
+    assertEquals("SELECT \"x;y\", [z;] FROM t", got.get(1));
+  }
+
+  @Test
+  public void shouldKeepTriggerBodies() throws IOException
+  {
+    String trigger = "CREATE TRIGGER clean AFTER DELETE ON maps BEGIN\n" +
+                     "  DELETE FROM tiles WHERE map_id=old.id;\n" +
+                     "  DELETE FROM levels WHERE map_id=old.id;\n" +
+                     "END";
+    List<String> got = readAll(trigger + ";\nDELETE FROM maps;");
+    assertEquals(2, got.size());
+    assertEquals(trigger, got.get(0));
+    assertEquals("DELETE FROM maps", got.get(1));
+  }
+
+  @Test
+  public void shouldKeepCaseExpressionsInsideTriggerBodies() throws IOException
+  {
+    String trigger = "CREATE TEMP TRIGGER dig AFTER UPDATE ON tiles BEGIN\n" +
+                     "  UPDATE tiles SET floor = CASE WHEN new.dug_out THEN 0 " +
+                     "ELSE floor END WHERE id=new.id;\n" +
+                     "  UPDATE maps SET depth = CASE depth WHEN 0 THEN 1 END;\n" +
+                     "END";
+    List<String> got = readAll(trigger + " ;\nDELETE FROM maps;");
+    assertEquals(2, got.size());
+    assertEquals(trigger, got.get(0));
+    assertEquals("DELETE FROM maps", got.get(1));
+  }
+
+  @Test
+  public void shouldReadLastStatementWithoutSemicolon() throws IOException
+  {
+    List<String> got = readAll("DELETE FROM maps;\nDELETE FROM tiles\n\n");
+    assertEquals(2, got.size());
+    assertEquals("DELETE FROM tiles", got.get(1));
+  }
+
+  @Test
+  public void shouldReadNothingFromEmptyScript() throws IOException
+  {
+    assertEquals(0, readAll("//This is a comment\n\n;\n  \n").size());
+  }
+
+  @Test
+  public void shouldCountLinesAndCharacters() throws IOException
+  {
+    String script = "// header\n\nDELETE FROM maps;\n\n  DELETE\nFROM tiles;";
+    MFSqlScriptReader reader = new MFSqlScriptReader(new StringReader(script));
+
+    reader.next();
+    assertEquals(3, reader.getStatementLine());
+    reader.next();
+    assertEquals(5, reader.getStatementLine());
+    assertNull(reader.next());
+    assertEquals(script.length(), reader.getCharactersRead());
+  }
+
+  //---vvv---      PRIVATE METHODS      ---vvv---
+  private static List<String> readAll(String _script) throws IOException
+  {
+    final List<String> result = new ArrayList<String>();
+    final MFSqlScriptReader reader = new MFSqlScriptReader(new StringReader(_script));
+    String statement;
+    while ((statement = reader.next()) != null) {
+      result.add(statement);
+    }
+    reader.close();
+    return result;
+  }
+}